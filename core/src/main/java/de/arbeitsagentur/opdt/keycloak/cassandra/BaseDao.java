@@ -16,8 +16,15 @@
 
 package de.arbeitsagentur.opdt.keycloak.cassandra;
 
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.Statement;
 import com.datastax.oss.driver.api.mapper.annotations.DefaultNullSavingStrategy;
+import com.datastax.oss.driver.api.mapper.annotations.QueryProvider;
 import com.datastax.oss.driver.api.mapper.entity.saving.NullSavingStrategy;
+import java.util.concurrent.CompletionStage;
 
 @DefaultNullSavingStrategy(NullSavingStrategy.SET_TO_NULL)
-public interface BaseDao {}
+public interface BaseDao {
+  @QueryProvider(providerClass = StatementQueryProvider.class)
+  CompletionStage<AsyncResultSet> executeStatementAsync(Statement<?> statement);
+}
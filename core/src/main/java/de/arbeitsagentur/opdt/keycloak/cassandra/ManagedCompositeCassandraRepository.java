@@ -22,21 +22,23 @@ import de.arbeitsagentur.opdt.keycloak.cassandra.authSession.persistence.entitie
 import de.arbeitsagentur.opdt.keycloak.cassandra.authSession.persistence.entities.RootAuthenticationSession;
 import de.arbeitsagentur.opdt.keycloak.cassandra.cache.InvalidateCache;
 import de.arbeitsagentur.opdt.keycloak.cassandra.cache.L1Cached;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.L2Cache;
 import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.ClientRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.entities.Client;
 import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.ClientScopeRepository;
-import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScopes;
+import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScope;
 import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.GroupRepository;
-import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.Groups;
+import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.Group;
 import de.arbeitsagentur.opdt.keycloak.cassandra.loginFailure.persistence.LoginFailureRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.loginFailure.persistence.entities.LoginFailure;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.RealmRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.ClientInitialAccess;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.Realm;
 import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.RoleRepository;
-import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.Roles;
+import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.Role;
 import de.arbeitsagentur.opdt.keycloak.cassandra.singleUseObject.persistence.SingleUseObjectRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.singleUseObject.persistence.entities.SingleUseObject;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalEntity;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.UserRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.FederatedIdentity;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.User;
@@ -45,8 +47,10 @@ import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.UserSes
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.entities.AuthenticatedClientSessionValue;
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.entities.UserSession;
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.entities.UserSessionToAttributeMapping;
+import de.arbeitsagentur.opdt.keycloak.common.ModelIllegalStateException;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import lombok.Setter;
 import org.keycloak.common.util.MultivaluedHashMap;
@@ -73,8 +77,18 @@ public class ManagedCompositeCassandraRepository implements CompositeRepository
 
   private ClientScopeRepository clientScopeRepository;
 
-  public Stream<User> findAllUsers() {
-    return this.userRepository.findAllUsers();
+  private L2Cache l2Cache = L2Cache.disabled();
+
+  public Stream<User> findUsersByRealmId(String realmId, boolean includeServiceAccounts) {
+    return this.userRepository.findUsersByRealmId(realmId, includeServiceAccounts);
+  }
+
+  public boolean isSearchIndexReady(String realmId) {
+    return this.userRepository.isSearchIndexReady(realmId);
+  }
+
+  public Stream<User> findUsersBySearchNgrams(String realmId, Set<String> ngrams) {
+    return this.userRepository.findUsersBySearchNgrams(realmId, ngrams);
   }
 
   @L1Cached(cacheName = USER_CACHE)
@@ -187,6 +201,56 @@ public class ManagedCompositeCassandraRepository implements CompositeRepository
     return this.userRepository.deleteFederatedIdentity(userId, identityProvider);
   }
 
+  @L1Cached(cacheName = USER_CACHE)
+  public List<User> findUsersByGroupId(String realmId, String groupId, Integer first, Integer max) {
+    return this.userRepository.findUsersByGroupId(realmId, groupId, first, max);
+  }
+
+  @L1Cached(cacheName = USER_CACHE)
+  @InvalidateCache
+  public void addGroupMember(String realmId, String groupId, String userId) {
+    this.userRepository.addGroupMember(realmId, groupId, userId);
+  }
+
+  @L1Cached(cacheName = USER_CACHE)
+  @InvalidateCache
+  public void removeGroupMember(String realmId, String groupId, String userId) {
+    this.userRepository.removeGroupMember(realmId, groupId, userId);
+  }
+
+  @L1Cached(cacheName = USER_CACHE)
+  @InvalidateCache
+  public void deleteGroupMembers(String realmId, String groupId) {
+    this.userRepository.deleteGroupMembers(realmId, groupId);
+  }
+
+  @L1Cached(cacheName = USER_CACHE)
+  public List<User> findUsersByRoleId(String realmId, String roleId, Integer first, Integer max) {
+    return this.userRepository.findUsersByRoleId(realmId, roleId, first, max);
+  }
+
+  @L1Cached(cacheName = USER_CACHE)
+  @InvalidateCache
+  public void addRoleMember(String realmId, String roleId, String userId) {
+    this.userRepository.addRoleMember(realmId, roleId, userId);
+  }
+
+  @L1Cached(cacheName = USER_CACHE)
+  @InvalidateCache
+  public void removeRoleMember(String realmId, String roleId, String userId) {
+    this.userRepository.removeRoleMember(realmId, roleId, userId);
+  }
+
+  @L1Cached(cacheName = USER_CACHE)
+  @InvalidateCache
+  public void purgeRoleMembers(String realmId, String roleId) {
+    this.userRepository.purgeRoleMembers(realmId, roleId);
+  }
+
+  public void deleteIndexBackfills(String realmId) {
+    this.userRepository.deleteIndexBackfills(realmId);
+  }
+
   @L1Cached(cacheName = USER_CACHE)
   public Set<String> findUserIdsByRealmId(String realmId, int first, int max) {
     return this.userRepository.findUserIdsByRealmId(realmId, first, max);
@@ -197,6 +261,10 @@ public class ManagedCompositeCassandraRepository implements CompositeRepository
     return this.userRepository.countUsersByRealmId(realmId, includeServiceAccounts);
   }
 
+  public boolean reconcileUserCounts(String realmId) {
+    return this.userRepository.reconcileUserCounts(realmId);
+  }
+
   @L1Cached(cacheName = USER_CONSENT_CACHE)
   @InvalidateCache
   public void createOrUpdateUserConsent(UserConsent consent) {
@@ -230,18 +298,66 @@ public class ManagedCompositeCassandraRepository implements CompositeRepository
     return this.userRepository.findUserConsentsByRealmId(realmId);
   }
 
-  @L1Cached(cacheName = USER_CACHE)
+  @L1Cached(cacheName = ROLE_CACHE)
+  @InvalidateCache
+  public void insertOrUpdate(Role role) {
+    writeThrough(
+        ROLE_CACHE,
+        clientKey(role.getRealmId(), role.getId()),
+        role,
+        this.roleRepository::insertOrUpdate);
+  }
+
+  @L1Cached(cacheName = ROLE_CACHE)
   @InvalidateCache
-  public void insertOrUpdate(Roles role) {
-    this.roleRepository.insertOrUpdate(role);
+  public void insertOrUpdate(Role role, Role base) {
+    writeThrough(
+        ROLE_CACHE,
+        clientKey(role.getRealmId(), role.getId()),
+        role,
+        entity -> this.roleRepository.insertOrUpdate(entity, base));
   }
 
   @L1Cached(cacheName = ROLE_CACHE)
-  public Roles getRolesByRealmId(String realmId) {
-    return this.roleRepository.getRolesByRealmId(realmId);
+  @InvalidateCache
+  public void delete(Role role) {
+    this.roleRepository.delete(role);
+    this.l2Cache.invalidate(ROLE_CACHE, clientKey(role.getRealmId(), role.getId()));
   }
 
   @L1Cached(cacheName = ROLE_CACHE)
+  @InvalidateCache
+  public void deleteNameToRole(String realmId, String containerId, String name, String id) {
+    this.roleRepository.deleteNameToRole(realmId, containerId, name, id);
+  }
+
+  @L1Cached(cacheName = ROLE_CACHE)
+  public Role getRoleById(String realmId, String id) {
+    return this.l2Cache.get(
+        ROLE_CACHE,
+        clientKey(realmId, id),
+        Role.class,
+        () -> this.roleRepository.getRoleVersionById(realmId, id),
+        () -> this.roleRepository.getRoleById(realmId, id));
+  }
+
+  public Long getRoleVersionById(String realmId, String id) {
+    return this.roleRepository.getRoleVersionById(realmId, id);
+  }
+
+  @L1Cached(cacheName = ROLE_CACHE)
+  public Role getRoleByName(String realmId, String containerId, String name) {
+    return this.roleRepository.getRoleByName(realmId, containerId, name);
+  }
+
+  @L1Cached(cacheName = ROLE_CACHE)
+  public List<Role> getRolesByContainerId(
+      String realmId, String containerId, Integer first, Integer max) {
+    return this.roleRepository.getRolesByContainerId(realmId, containerId, first, max);
+  }
+
+  @L1Cached(cacheName = ROLE_CACHE)
+  @InvalidateCache
   public void deleteRealmRoles(String realmId) {
     this.roleRepository.deleteRealmRoles(realmId);
   }
@@ -249,12 +365,21 @@ public class ManagedCompositeCassandraRepository implements CompositeRepository
   @L1Cached(cacheName = REALM_CACHE)
   @InvalidateCache
   public void insertOrUpdate(Realm realm) {
-    this.realmRepository.insertOrUpdate(realm);
+    writeThrough(REALM_CACHE, realm.getId(), realm, this.realmRepository::insertOrUpdate);
   }
 
   @L1Cached(cacheName = REALM_CACHE)
   public Realm getRealmById(String id) {
-    return this.realmRepository.getRealmById(id);
+    return this.l2Cache.get(
+        REALM_CACHE,
+        id,
+        Realm.class,
+        () -> this.realmRepository.getRealmVersionById(id),
+        () -> this.realmRepository.getRealmById(id));
+  }
+
+  public Long getRealmVersionById(String id) {
+    return this.realmRepository.getRealmVersionById(id);
   }
 
   @L1Cached(cacheName = REALM_CACHE)
@@ -266,12 +391,14 @@ public class ManagedCompositeCassandraRepository implements CompositeRepository
   @InvalidateCache
   public void createRealm(Realm realm) {
     this.realmRepository.createRealm(realm);
+    this.l2Cache.put(REALM_CACHE, realm.getId(), realm);
   }
 
   @L1Cached(cacheName = REALM_CACHE)
   @InvalidateCache
   public void deleteRealm(Realm realm) {
     this.realmRepository.deleteRealm(realm);
+    this.l2Cache.invalidate(REALM_CACHE, realm.getId());
   }
 
   @L1Cached(cacheName = REALM_CACHE)
@@ -336,6 +463,12 @@ public class ManagedCompositeCassandraRepository implements CompositeRepository
     this.userSessionRepository.addClientSession(session, clientSession);
   }
 
+  @L1Cached(cacheName = USER_SESSION_CACHE)
+  @InvalidateCache
+  public void setCorrespondingSessionId(UserSession session, String correspondingSessionId) {
+    this.userSessionRepository.setCorrespondingSessionId(session, correspondingSessionId);
+  }
+
   @L1Cached(cacheName = USER_SESSION_CACHE)
   public UserSession findUserSessionById(String id) {
     return this.userSessionRepository.findUserSessionById(id);
@@ -486,7 +619,7 @@ public class ManagedCompositeCassandraRepository implements CompositeRepository
     return this.loginFailureRepository.findAllLoginFailures();
   }
 
-  @L1Cached(cacheName = SUO_CACHE)
+  // not cached: single-use objects expire via TTL and must be re-read to detect that
   public SingleUseObject findSingleUseObjectByKey(String key) {
     return this.singleUseObjectRepository.findSingleUseObjectByKey(key);
   }
@@ -512,18 +645,32 @@ public class ManagedCompositeCassandraRepository implements CompositeRepository
   @L1Cached(cacheName = CLIENT_CACHE)
   @InvalidateCache
   public void insertOrUpdate(Client client) {
-    this.clientRepository.insertOrUpdate(client);
+    writeThrough(
+        CLIENT_CACHE,
+        clientKey(client.getRealmId(), client.getId()),
+        client,
+        this.clientRepository::insertOrUpdate);
   }
 
   @L1Cached(cacheName = CLIENT_CACHE)
   @InvalidateCache
   public void delete(Client client) {
     this.clientRepository.delete(client);
+    this.l2Cache.invalidate(CLIENT_CACHE, clientKey(client.getRealmId(), client.getId()));
   }
 
   @L1Cached(cacheName = CLIENT_CACHE)
   public Client getClientById(String realmId, String id) {
-    return this.clientRepository.getClientById(realmId, id);
+    return this.l2Cache.get(
+        CLIENT_CACHE,
+        clientKey(realmId, id),
+        Client.class,
+        () -> this.clientRepository.getClientVersionById(realmId, id),
+        () -> this.clientRepository.getClientById(realmId, id));
+  }
+
+  public Long getClientVersionById(String realmId, String id) {
+    return this.clientRepository.getClientVersionById(realmId, id);
   }
 
   @L1Cached(cacheName = CLIENT_CACHE)
@@ -543,35 +690,165 @@ public class ManagedCompositeCassandraRepository implements CompositeRepository
 
   @L1Cached(cacheName = CLIENT_SCOPE_CACHE)
   @InvalidateCache
-  public void insertOrUpdate(ClientScopes clientScopes) {
-    this.clientScopeRepository.insertOrUpdate(clientScopes);
+  public void insertOrUpdate(ClientScope clientScope) {
+    writeThrough(
+        CLIENT_SCOPE_CACHE,
+        clientKey(clientScope.getRealmId(), clientScope.getId()),
+        clientScope,
+        this.clientScopeRepository::insertOrUpdate);
+  }
+
+  @L1Cached(cacheName = CLIENT_SCOPE_CACHE)
+  @InvalidateCache
+  public void insertOrUpdate(ClientScope clientScope, ClientScope base) {
+    writeThrough(
+        CLIENT_SCOPE_CACHE,
+        clientKey(clientScope.getRealmId(), clientScope.getId()),
+        clientScope,
+        entity -> this.clientScopeRepository.insertOrUpdate(entity, base));
+  }
+
+  @L1Cached(cacheName = CLIENT_SCOPE_CACHE)
+  @InvalidateCache
+  public void delete(ClientScope clientScope) {
+    this.clientScopeRepository.delete(clientScope);
+    this.l2Cache.invalidate(
+        CLIENT_SCOPE_CACHE, clientKey(clientScope.getRealmId(), clientScope.getId()));
   }
 
   @L1Cached(cacheName = CLIENT_SCOPE_CACHE)
-  public ClientScopes getClientScopesByRealmId(String realmId) {
+  @InvalidateCache
+  public void deleteNameToClientScope(String realmId, String name, String id) {
+    this.clientScopeRepository.deleteNameToClientScope(realmId, name, id);
+  }
+
+  @L1Cached(cacheName = CLIENT_SCOPE_CACHE)
+  public ClientScope getClientScopeById(String realmId, String id) {
+    return this.l2Cache.get(
+        CLIENT_SCOPE_CACHE,
+        clientKey(realmId, id),
+        ClientScope.class,
+        () -> this.clientScopeRepository.getClientScopeVersionById(realmId, id),
+        () -> this.clientScopeRepository.getClientScopeById(realmId, id));
+  }
+
+  public Long getClientScopeVersionById(String realmId, String id) {
+    return this.clientScopeRepository.getClientScopeVersionById(realmId, id);
+  }
+
+  @L1Cached(cacheName = CLIENT_SCOPE_CACHE)
+  public ClientScope getClientScopeByName(String realmId, String name) {
+    return this.clientScopeRepository.getClientScopeByName(realmId, name);
+  }
+
+  @L1Cached(cacheName = CLIENT_SCOPE_CACHE)
+  public List<ClientScope> getClientScopesByRealmId(String realmId) {
     return this.clientScopeRepository.getClientScopesByRealmId(realmId);
   }
 
   @L1Cached(cacheName = CLIENT_SCOPE_CACHE)
   @InvalidateCache
   public void removeClientScopes(String realmId) {
+    List<ClientScope> clientScopes = this.clientScopeRepository.getClientScopesByRealmId(realmId);
     this.clientScopeRepository.removeClientScopes(realmId);
+    clientScopes.forEach(
+        clientScope ->
+            this.l2Cache.invalidate(CLIENT_SCOPE_CACHE, clientKey(realmId, clientScope.getId())));
+  }
+
+  @L1Cached(cacheName = GROUP_CACHE)
+  @InvalidateCache
+  public void insertOrUpdate(Group group) {
+    writeThrough(
+        GROUP_CACHE,
+        clientKey(group.getRealmId(), group.getId()),
+        group,
+        this.groupRepository::insertOrUpdate);
+  }
+
+  @L1Cached(cacheName = GROUP_CACHE)
+  @InvalidateCache
+  public void insertOrUpdate(Group group, Group base) {
+    writeThrough(
+        GROUP_CACHE,
+        clientKey(group.getRealmId(), group.getId()),
+        group,
+        entity -> this.groupRepository.insertOrUpdate(entity, base));
+  }
+
+  @L1Cached(cacheName = GROUP_CACHE)
+  @InvalidateCache
+  public void delete(Group group) {
+    this.groupRepository.delete(group);
+    this.l2Cache.invalidate(GROUP_CACHE, clientKey(group.getRealmId(), group.getId()));
   }
 
   @L1Cached(cacheName = GROUP_CACHE)
   @InvalidateCache
-  public void insertOrUpdate(Groups groups) {
-    this.groupRepository.insertOrUpdate(groups);
+  public void deleteGroupByParent(String realmId, String parentId, String name, String id) {
+    this.groupRepository.deleteGroupByParent(realmId, parentId, name, id);
+  }
+
+  @L1Cached(cacheName = GROUP_CACHE)
+  public Group getGroupById(String realmId, String id) {
+    return this.l2Cache.get(
+        GROUP_CACHE,
+        clientKey(realmId, id),
+        Group.class,
+        () -> this.groupRepository.getGroupVersionById(realmId, id),
+        () -> this.groupRepository.getGroupById(realmId, id));
+  }
+
+  public Long getGroupVersionById(String realmId, String id) {
+    return this.groupRepository.getGroupVersionById(realmId, id);
   }
 
   @L1Cached(cacheName = GROUP_CACHE)
-  public Groups getGroupsByRealmId(String realmId) {
+  public Group getGroupByName(String realmId, String parentId, String name) {
+    return this.groupRepository.getGroupByName(realmId, parentId, name);
+  }
+
+  @L1Cached(cacheName = GROUP_CACHE)
+  public List<Group> getGroupsByParentId(
+      String realmId, String parentId, String search, Boolean exact, Integer first, Integer max) {
+    return this.groupRepository.getGroupsByParentId(realmId, parentId, search, exact, first, max);
+  }
+
+  @L1Cached(cacheName = GROUP_CACHE)
+  public long countGroupsByParentId(String realmId, String parentId) {
+    return this.groupRepository.countGroupsByParentId(realmId, parentId);
+  }
+
+  @L1Cached(cacheName = GROUP_CACHE)
+  public List<Group> getGroupsByRealmId(String realmId) {
     return this.groupRepository.getGroupsByRealmId(realmId);
   }
 
+  @L1Cached(cacheName = GROUP_CACHE)
+  public long countGroups(String realmId) {
+    return this.groupRepository.countGroups(realmId);
+  }
+
   @L1Cached(cacheName = GROUP_CACHE)
   @InvalidateCache
   public void deleteRealmGroups(String realmId) {
     this.groupRepository.deleteRealmGroups(realmId);
   }
+
+  private <T extends TransactionalEntity> void writeThrough(
+      String cacheName, String id, T entity, Consumer<T> writer) {
+    try {
+      writer.accept(entity);
+    } catch (ModelIllegalStateException e) {
+      // cached state is outdated, another node has written a newer version
+      this.l2Cache.invalidate(cacheName, id);
+      throw e;
+    }
+
+    this.l2Cache.put(cacheName, id, entity);
+  }
+
+  private static String clientKey(String realmId, String id) {
+    return realmId + ":" + id;
+  }
 }
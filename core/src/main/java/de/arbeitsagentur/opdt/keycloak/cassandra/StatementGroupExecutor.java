@@ -0,0 +1,97 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra;
+
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchType;
+import com.datastax.oss.driver.api.core.cql.BatchableStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.Getter;
+
+/**
+ * Executes a group of mutations which belong together, e.g. all search index rows of one user.
+ *
+ * <p>{@link Mode#LOGGED_BATCH} sends the whole group in one round trip and guarantees that either
+ * all or none of the mutations are applied eventually. {@link Mode#ASYNC} sends the mutations
+ * individually, at most {@code maxConcurrency} at a time, which avoids the batch log but may leave
+ * a part of the group unapplied after a failure.
+ */
+@Getter
+public class StatementGroupExecutor {
+  public enum Mode {
+    LOGGED_BATCH,
+    ASYNC
+  }
+
+  private final Mode mode;
+  private final int maxConcurrency;
+
+  public StatementGroupExecutor(Mode mode, int maxConcurrency) {
+    if (mode == Mode.ASYNC && maxConcurrency < 1) {
+      throw new IllegalArgumentException(
+          "Concurrency of asynchronous statement groups must be at least 1, but is "
+              + maxConcurrency);
+    }
+
+    this.mode = mode;
+    this.maxConcurrency = maxConcurrency;
+  }
+
+  public static StatementGroupExecutor loggedBatch() {
+    return new StatementGroupExecutor(Mode.LOGGED_BATCH, 1);
+  }
+
+  public void execute(BaseDao dao, List<? extends BatchableStatement<?>> statements) {
+    if (statements.isEmpty()) {
+      return;
+    }
+
+    if (statements.size() == 1) {
+      CompletionStages.await(dao.executeStatementAsync(statements.get(0)));
+    } else if (mode == Mode.LOGGED_BATCH) {
+      BatchStatement batch =
+          BatchStatement.newInstance(BatchType.LOGGED)
+              .addAll(statements)
+              .setExecutionProfileName(statements.get(0).getExecutionProfileName())
+              .setIdempotent(
+                  statements.stream().allMatch(s -> Boolean.TRUE.equals(s.isIdempotent())));
+      CompletionStages.await(dao.executeStatementAsync(batch));
+    } else {
+      AtomicInteger next = new AtomicInteger();
+      List<CompletionStage<Void>> lanes = new ArrayList<>();
+      for (int i = 0; i < Math.min(maxConcurrency, statements.size()); i++) {
+        lanes.add(executeNext(dao, statements, next));
+      }
+
+      CompletionStages.awaitAll(lanes);
+    }
+  }
+
+  private CompletionStage<Void> executeNext(
+      BaseDao dao, List<? extends BatchableStatement<?>> statements, AtomicInteger next) {
+    int index = next.getAndIncrement();
+    if (index >= statements.size()) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    return dao.executeStatementAsync(statements.get(index))
+        .thenCompose(resultSet -> executeNext(dao, statements, next));
+  }
+}
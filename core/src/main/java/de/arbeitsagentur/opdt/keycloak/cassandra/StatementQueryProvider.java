@@ -0,0 +1,35 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.mapper.MapperContext;
+import java.util.concurrent.CompletionStage;
+
+/** Executes statements which have been built by a DAO with the DAO's session. */
+public class StatementQueryProvider {
+  private final CqlSession session;
+
+  public StatementQueryProvider(MapperContext context) {
+    this.session = context.getSession();
+  }
+
+  public CompletionStage<AsyncResultSet> executeStatementAsync(Statement<?> statement) {
+    return session.executeAsync(statement);
+  }
+}
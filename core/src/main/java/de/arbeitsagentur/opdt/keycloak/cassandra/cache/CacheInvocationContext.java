@@ -15,26 +15,40 @@
  */
 package de.arbeitsagentur.opdt.keycloak.cassandra.cache;
 
-import java.lang.reflect.Method;
 import java.util.Arrays;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 
 @EqualsAndHashCode
 @Getter
-@RequiredArgsConstructor
 public class CacheInvocationContext {
-  private final Class targetClass;
-  private final String targetMethod;
+  private final CacheableMethod method;
+  private final Object arg0;
+  private final Object arg1;
   private final Object[] args;
 
-  public static CacheInvocationContext create(Object target, Method method, Object[] args) {
-    return new CacheInvocationContext(target.getClass(), method.getName(), args);
+  CacheInvocationContext(CacheableMethod method, Object arg0, Object arg1, Object[] args) {
+    this.method = method;
+    this.arg0 = arg0;
+    this.arg1 = arg1;
+    this.args = args;
+  }
+
+  public String getTargetMethod() {
+    return method.getName();
   }
 
   @Override
   public String toString() {
-    return String.format("%s.%s(%s)", targetClass.getName(), targetMethod, Arrays.toString(args));
+    switch (method.getParameterCount()) {
+      case 0:
+        return String.format("%s()", method.getName());
+      case 1:
+        return String.format("%s(%s)", method.getName(), arg0);
+      case 2:
+        return String.format("%s(%s, %s)", method.getName(), arg0, arg1);
+      default:
+        return String.format("%s(%s)", method.getName(), Arrays.toString(args));
+    }
   }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.cache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Precomputed {@link L1Cached} / {@link InvalidateCache} metadata for all methods of a repository
+ * interface, so that {@link L1CacheInterceptor} doesn't need reflection per invocation.
+ *
+ * <p>A proxy class hands the same {@link Method} instances to its invocation handler on every call.
+ * These instances are captured once and assigned a slot in an array, which is addressed by their
+ * identity hash code, so a lookup neither hashes nor compares the method signature.
+ */
+@JBossLog
+public class CacheInvocationTable {
+  private static final List<String> CACHE_INVALIDATION_NAMES =
+      Arrays.asList("create", "update", "add", "delete", "remove", "insert", "make");
+
+  private final Class<?> repositoryInterface;
+  private final Method[] slots;
+  private final CacheableMethod[] cacheableMethods;
+  private final int mask;
+
+  // for Method instances which don't come from the proxy class, e.g. of a different class loader
+  private final Map<Method, CacheableMethod> methods;
+
+  private CacheInvocationTable(Class<?> repositoryInterface, Map<Method, CacheableMethod> methods) {
+    this.repositoryInterface = repositoryInterface;
+    this.methods = methods;
+
+    int capacity = Integer.highestOneBit(Math.max(1, methods.size()) * 4 - 1) << 1;
+    this.slots = new Method[capacity];
+    this.cacheableMethods = new CacheableMethod[capacity];
+    this.mask = capacity - 1;
+
+    for (Map.Entry<Method, Method> entry : captureProxyMethods(repositoryInterface).entrySet()) {
+      int slot = System.identityHashCode(entry.getValue()) & mask;
+      while (slots[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+
+      slots[slot] = entry.getValue();
+      cacheableMethods[slot] = methods.get(entry.getKey());
+    }
+  }
+
+  public static CacheInvocationTable create(
+      Class<?> repositoryInterface,
+      Class<?> targetClass,
+      Map<String, CacheKeyResolver> keyResolvers) {
+    Map<Method, CacheableMethod> methods = new HashMap<>();
+
+    for (Method method : repositoryInterface.getMethods()) {
+      Method targetMethod;
+      try {
+        targetMethod = targetClass.getMethod(method.getName(), method.getParameterTypes());
+      } catch (NoSuchMethodException e) {
+        throw new IllegalStateException(
+            targetClass.getName() + " doesn't implement " + method.getName(), e);
+      }
+
+      L1Cached cacheAnnotation = targetMethod.getAnnotation(L1Cached.class);
+      String cacheName = cacheAnnotation == null ? null : cacheAnnotation.cacheName();
+      boolean invalidateCache = targetMethod.getAnnotation(InvalidateCache.class) != null;
+
+      if (cacheName != null && !invalidateCache && mightNeedInvalidation(method)) {
+        log.warnf(
+            "Method %s(%s) might need to invalidate cache but isnt annotated with @InvalidateCache",
+            method.getName(), Arrays.toString(method.getParameterTypes()));
+      }
+
+      methods.put(
+          method,
+          new CacheableMethod(
+              method,
+              cacheName,
+              invalidateCache,
+              cacheName == null ? null : keyResolvers.get(cacheName)));
+    }
+
+    log.debugf(
+        "Created cache invocation table for %s with %s methods",
+        repositoryInterface.getName(), methods.size());
+
+    return new CacheInvocationTable(repositoryInterface, methods);
+  }
+
+  /** Creates a proxy of the repository interface whose methods are found in this table. */
+  @SuppressWarnings("unchecked")
+  public <T> T newProxy(InvocationHandler handler) {
+    return (T)
+        Proxy.newProxyInstance(
+            repositoryInterface.getClassLoader(), new Class<?>[] {repositoryInterface}, handler);
+  }
+
+  public CacheableMethod get(Method method) {
+    int slot = System.identityHashCode(method) & mask;
+    Method candidate;
+    while ((candidate = slots[slot]) != null) {
+      if (candidate == method) {
+        return cacheableMethods[slot];
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    return methods.get(method);
+  }
+
+  // calls every interface method once on a proxy of the class newProxy() creates instances of
+  private static Map<Method, Method> captureProxyMethods(Class<?> repositoryInterface) {
+    Method[] captured = new Method[1];
+    RuntimeException stop = new RuntimeException();
+    Object recorder =
+        Proxy.newProxyInstance(
+            repositoryInterface.getClassLoader(),
+            new Class<?>[] {repositoryInterface},
+            (proxy, method, args) -> {
+              captured[0] = method;
+              throw stop;
+            });
+
+    Map<Method, Method> proxyMethods = new HashMap<>();
+    for (Method method : repositoryInterface.getMethods()) {
+      if (Modifier.isStatic(method.getModifiers())) {
+        continue;
+      }
+
+      Object[] args =
+          Arrays.stream(method.getParameterTypes())
+              .map(type -> type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null)
+              .toArray();
+      try {
+        method.invoke(recorder, args);
+      } catch (InvocationTargetException e) {
+        if (e.getCause() != stop) {
+          throw new IllegalStateException("Cannot capture proxy method " + method, e);
+        }
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException("Cannot capture proxy method " + method, e);
+      }
+
+      proxyMethods.put(method, captured[0]);
+    }
+
+    return proxyMethods;
+  }
+
+  private static boolean mightNeedInvalidation(Method method) {
+    String name = method.getName().toLowerCase();
+    return CACHE_INVALIDATION_NAMES.stream().anyMatch(name::contains);
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.cache;
+
+import java.util.Set;
+
+/**
+ * Maps repository invocations of one cache to the identities of the entities they read or write, so
+ * that writes only evict the affected entries instead of resetting the whole cache.
+ */
+public interface CacheKeyResolver {
+  /**
+   * @return keys the cached result is indexed by. An empty set marks the result as depending on
+   *     more than single entities (e.g. counts or lists), it is evicted on every invalidation.
+   */
+  Set<Object> getReadKeys(String methodName, Object[] args, Object result);
+
+  /**
+   * @return keys of the entities affected by a write, or {@code null} if the whole cache has to be
+   *     reset
+   */
+  Set<Object> getInvalidationKeys(String methodName, Object[] args);
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.cache;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Node-wide hit, miss, invalidation, reset and eviction counters of a single cache. Statistics are
+ * created on first use; listeners registered with {@link #addListener(Consumer)} are notified about
+ * all existing and future statistics, so they can export them, e.g. to Micrometer.
+ */
+@Getter
+@RequiredArgsConstructor
+public class CacheStatistics {
+  public static final String L1 = "l1";
+  public static final String L2 = "l2";
+  public static final String NEGATIVE_LOOKUP = "negativeLookup";
+  public static final String PARSED_ATTRIBUTES = "parsedAttributes";
+
+  private static final Map<String, CacheStatistics> STATISTICS = new ConcurrentHashMap<>();
+  private static final List<Consumer<CacheStatistics>> LISTENERS = new CopyOnWriteArrayList<>();
+
+  private final String level;
+  private final String cacheName;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+  private final LongAdder resets = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder entries = new LongAdder();
+
+  public static CacheStatistics get(String level, String cacheName) {
+    CacheStatistics statistics = STATISTICS.get(level + ":" + cacheName);
+    if (statistics != null) {
+      return statistics;
+    }
+
+    synchronized (LISTENERS) {
+      return STATISTICS.computeIfAbsent(
+          level + ":" + cacheName,
+          k -> {
+            CacheStatistics created = new CacheStatistics(level, cacheName);
+            LISTENERS.forEach(listener -> listener.accept(created));
+            return created;
+          });
+    }
+  }
+
+  public static void addListener(Consumer<CacheStatistics> listener) {
+    synchronized (LISTENERS) {
+      LISTENERS.add(listener);
+      STATISTICS.values().forEach(listener);
+    }
+  }
+
+  public void hit() {
+    hits.increment();
+  }
+
+  public void miss() {
+    misses.increment();
+  }
+
+  public void invalidation() {
+    invalidations.increment();
+  }
+
+  public void reset() {
+    resets.increment();
+  }
+
+  public void evicted(long count) {
+    evictions.add(count);
+    entries.add(-count);
+  }
+
+  public void added(long count) {
+    entries.add(count);
+  }
+
+  public void removed(long count) {
+    entries.add(-count);
+  }
+
+  public long getEntryCount() {
+    return entries.sum();
+  }
+}
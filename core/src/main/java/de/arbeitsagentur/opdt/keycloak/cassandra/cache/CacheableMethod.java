@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.cache;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import lombok.Getter;
+
+/**
+ * Cache metadata of a single repository method, resolved once when the {@link CacheInvocationTable}
+ * is built.
+ */
+@Getter
+public class CacheableMethod {
+  private final String name;
+  private final String cacheName;
+  private final boolean invalidateCache;
+  private final int parameterCount;
+  private final CacheInvocationContext noArgsContext;
+  private final CacheKeyResolver keyResolver;
+
+  CacheableMethod(
+      Method method, String cacheName, boolean invalidateCache, CacheKeyResolver keyResolver) {
+    this.name = method.getName();
+    this.cacheName = cacheName;
+    this.invalidateCache = invalidateCache;
+    this.keyResolver = keyResolver;
+    this.parameterCount = method.getParameterCount();
+    this.noArgsContext = new CacheInvocationContext(this, null, null, null);
+  }
+
+  public boolean isCached() {
+    return cacheName != null;
+  }
+
+  public CacheInvocationContext createContext(Object[] args) {
+    switch (parameterCount) {
+      case 0:
+        return noArgsContext;
+      case 1:
+        return new CacheInvocationContext(this, args[0], null, null);
+      case 2:
+        return new CacheInvocationContext(this, args[0], args[1], null);
+      default:
+        return new CacheInvocationContext(this, null, null, Arrays.copyOf(args, args.length));
+    }
+  }
+
+  public Set<Object> getReadKeys(Object[] args, Object result) {
+    return keyResolver == null
+        ? Collections.emptySet()
+        : keyResolver.getReadKeys(name, args, result);
+  }
+
+  public Set<Object> getInvalidationKeys(Object[] args) {
+    return keyResolver == null ? null : keyResolver.getInvalidationKeys(name, args);
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
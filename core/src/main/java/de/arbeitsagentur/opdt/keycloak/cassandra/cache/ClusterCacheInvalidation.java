@@ -0,0 +1,160 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.cache;
+
+import com.datastax.oss.driver.api.core.uuid.Uuids;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.persistence.CacheInvalidationRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.persistence.entities.CacheInvalidation;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Propagates writes of L2 cached entities to the other nodes via the cache_invalidation_shards
+ * table.
+ *
+ * <p>Writers append the cache name, key and new version of an entity. Every node polls the table
+ * incrementally, starting at its high-water mark, and evicts local entries older than the logged
+ * version. Each poll re-reads the last {@code overlapMillis} to pick up entries which arrived late
+ * because of clock skew or slow writes. Since eviction depends on the version, processing an entry
+ * twice is harmless.
+ *
+ * <p>Every minute bucket is spread over {@link #SHARDS} partitions by the hash of the cache name
+ * and key, so that a burst of writes does not land on a single set of replicas. A poll reads all
+ * shards of a bucket.
+ */
+@JBossLog
+public class ClusterCacheInvalidation {
+  static final long BUCKET_MILLIS = 60_000L;
+  static final int SHARDS = 16;
+
+  private final CacheInvalidationRepository repository;
+  private final L2Cache l2Cache;
+  private final long overlapMillis;
+  private final Map<UUID, Long> recentlyApplied = new LinkedHashMap<>();
+  private long polledUntil;
+  private ScheduledExecutorService executor;
+
+  public ClusterCacheInvalidation(
+      CacheInvalidationRepository repository, L2Cache l2Cache, long overlapMillis) {
+    this.repository = repository;
+    this.l2Cache = l2Cache;
+    this.overlapMillis = overlapMillis;
+    this.polledUntil = System.currentTimeMillis();
+  }
+
+  /**
+   * Appends an invalidation. A {@code null} version evicts the entry on every node regardless of
+   * its version, e.g. after a delete.
+   */
+  public void publish(String cacheName, String id, Long version) {
+    UUID writtenAt = Uuids.timeBased();
+    try {
+      repository.insert(
+          new CacheInvalidation(
+              bucket(Uuids.unixTimestamp(writtenAt)),
+              shard(cacheName, id),
+              writtenAt,
+              cacheName,
+              id,
+              version));
+    } catch (RuntimeException e) {
+      // the entity itself has already been written, other nodes will revalidate it eventually
+      log.warnf(e, "Cannot publish invalidation of %s %s", cacheName, id);
+    }
+  }
+
+  /** Reads all invalidations since the last poll and returns the number of applied ones. */
+  public synchronized int poll() {
+    long now = System.currentTimeMillis();
+    long from = polledUntil - overlapMillis;
+    UUID after = Uuids.startOf(from - 1);
+
+    int applied = 0;
+    for (long bucket = bucket(from); bucket <= bucket(now); bucket++) {
+      for (int shard = 0; shard < SHARDS; shard++) {
+        for (CacheInvalidation invalidation : repository.findInvalidations(bucket, shard, after)) {
+          if (recentlyApplied.putIfAbsent(
+                  invalidation.getWrittenAt(), Uuids.unixTimestamp(invalidation.getWrittenAt()))
+              != null) {
+            continue;
+          }
+
+          log.tracef(
+              "Invalidate %s %s (version %s)",
+              invalidation.getEntityType(), invalidation.getEntityId(), invalidation.getVersion());
+          l2Cache.invalidate(
+              invalidation.getEntityType(), invalidation.getEntityId(), invalidation.getVersion());
+          applied++;
+        }
+      }
+    }
+
+    polledUntil = now;
+    forgetAppliedBefore(now - 2 * overlapMillis);
+
+    return applied;
+  }
+
+  public void start(long pollIntervalMillis) {
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "cassandra-cache-invalidation");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.scheduleWithFixedDelay(
+        () -> {
+          try {
+            poll();
+          } catch (RuntimeException e) {
+            log.warn("Cannot poll cache invalidations", e);
+          }
+        },
+        pollIntervalMillis,
+        pollIntervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private void forgetAppliedBefore(long timestamp) {
+    Iterator<Long> iterator = recentlyApplied.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next() < timestamp) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private static long bucket(long timestamp) {
+    return timestamp / BUCKET_MILLIS;
+  }
+
+  static int shard(String cacheName, String id) {
+    return Math.floorMod((cacheName + ":" + id).hashCode(), SHARDS);
+  }
+}
@@ -16,9 +16,11 @@
 package de.arbeitsagentur.opdt.keycloak.cassandra.cache;
 
 import de.arbeitsagentur.opdt.keycloak.cassandra.AttributeTypes;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.Set;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.models.KeycloakSession;
 
@@ -42,40 +44,105 @@ public class KeycloakSessionCache {
 
   public static Object get(
       KeycloakSession session, String cacheName, CacheInvocationContext invocationContext) {
-    Map<CacheInvocationContext, Object> cache = getCache(session, cacheName);
+    Cache cache = getCache(session, cacheName);
+    Object result = cache.entries.getOrDefault(invocationContext, NONE);
+    if (result == NONE) {
+      cache.statistics.miss();
+    } else {
+      cache.statistics.hit();
+    }
 
-    return cache.getOrDefault(invocationContext, NONE);
+    return result;
   }
 
   static void put(
       KeycloakSession session,
       String cacheName,
       CacheInvocationContext methodInvocation,
-      Object result) {
-    Map<CacheInvocationContext, Object> cache = getCache(session, cacheName);
-    cache.put(methodInvocation, result);
+      Object result,
+      Collection<Object> entityKeys) {
+    Cache cache = getCache(session, cacheName);
+    if (!cache.entries.containsKey(methodInvocation)) {
+      cache.statistics.added(1);
+    }
+    cache.entries.put(methodInvocation, result);
+
+    if (entityKeys.isEmpty()) {
+      cache.unscoped.add(methodInvocation);
+    } else {
+      for (Object entityKey : entityKeys) {
+        cache.index.computeIfAbsent(entityKey, k -> new HashSet<>()).add(methodInvocation);
+      }
+    }
+  }
+
+  /**
+   * Evicts all entries indexed by one of the given entity keys as well as all entries which aren't
+   * bound to single entities.
+   */
+  public static void invalidate(
+      KeycloakSession session, String cacheName, Collection<Object> entityKeys) {
+    Map<String, Cache> caches = session.getAttribute(SESSION_CACHE_ATTRIBUTE, Map.class);
+    if (caches == null || !caches.containsKey(cacheName)) {
+      return;
+    }
+
+    log.tracef("Invalidate %s in cache %s", entityKeys, cacheName);
+    Cache cache = caches.get(cacheName);
+    int sizeBefore = cache.entries.size();
+    for (Object entityKey : entityKeys) {
+      Set<CacheInvocationContext> invocations = cache.index.remove(entityKey);
+      if (invocations != null) {
+        invocations.forEach(cache.entries::remove);
+      }
+    }
+
+    cache.unscoped.forEach(cache.entries::remove);
+    cache.unscoped.clear();
+
+    cache.statistics.invalidation();
+    cache.statistics.removed(sizeBefore - cache.entries.size());
   }
 
   public static void reset(KeycloakSession session, String cacheName) {
     log.tracef("Reset cache %s", cacheName);
-    Map<String, Map<CacheInvocationContext, Object>> cache =
-        session.getAttributeOrDefault(SESSION_CACHE_ATTRIBUTE, new HashMap<>());
-    cache.remove(cacheName);
+    Map<String, Cache> caches = session.getAttribute(SESSION_CACHE_ATTRIBUTE, Map.class);
+    if (caches != null) {
+      Cache removed = caches.remove(cacheName);
+      if (removed != null) {
+        removed.statistics.reset();
+        removed.statistics.removed(removed.entries.size());
+      }
+    }
   }
 
-  private static Map<CacheInvocationContext, Object> getCache(
-      KeycloakSession session, String cacheName) {
-    Map<String, Map<CacheInvocationContext, Object>> cache =
-        session.getAttributeOrDefault(SESSION_CACHE_ATTRIBUTE, new HashMap<>());
-    if (cache == null) {
-      cache = new WeakHashMap<>();
-      session.setAttribute(SESSION_CACHE_ATTRIBUTE, cache);
-    }
+  private static Cache getCache(KeycloakSession session, String cacheName) {
+    Map<String, Cache> caches = session.getAttribute(SESSION_CACHE_ATTRIBUTE, Map.class);
+    if (caches == null) {
+      caches = new HashMap<>();
+      session.setAttribute(SESSION_CACHE_ATTRIBUTE, caches);
 
-    if (!cache.containsKey(cacheName)) {
-      cache.put(cacheName, new WeakHashMap<>());
+      // entries die with the session, keep the node-wide entry count in sync
+      Map<String, Cache> sessionCaches = caches;
+      session.enlistForClose(
+          () ->
+              sessionCaches
+                  .values()
+                  .forEach(cache -> cache.statistics.removed(cache.entries.size())));
     }
 
-    return cache.get(cacheName);
+    return caches.computeIfAbsent(cacheName, Cache::new);
+  }
+
+  private static class Cache {
+    private final CacheStatistics statistics;
+
+    private final Map<CacheInvocationContext, Object> entries = new HashMap<>();
+    private final Map<Object, Set<CacheInvocationContext>> index = new HashMap<>();
+    private final Set<CacheInvocationContext> unscoped = new HashSet<>();
+
+    private Cache(String cacheName) {
+      this.statistics = CacheStatistics.get(CacheStatistics.L1, cacheName);
+    }
   }
 }
@@ -16,11 +16,9 @@
 package de.arbeitsagentur.opdt.keycloak.cassandra.cache;
 
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.models.KeycloakSession;
@@ -28,66 +26,40 @@ import org.keycloak.models.KeycloakSession;
 @JBossLog
 @RequiredArgsConstructor
 public class L1CacheInterceptor implements InvocationHandler {
-  private static final Set<String> CACHE_INVALIDATION_NAMES = new HashSet<>();
-
-  static {
-    CACHE_INVALIDATION_NAMES.add("create");
-    CACHE_INVALIDATION_NAMES.add("update");
-    CACHE_INVALIDATION_NAMES.add("add");
-    CACHE_INVALIDATION_NAMES.add("delete");
-    CACHE_INVALIDATION_NAMES.add("remove");
-    CACHE_INVALIDATION_NAMES.add("insert");
-    CACHE_INVALIDATION_NAMES.add("make");
-  }
-
   private final KeycloakSession session;
   private final Object target;
+  private final CacheInvocationTable invocationTable;
 
   @Override
   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    Method classMethod = target.getClass().getMethod(method.getName(), method.getParameterTypes());
-    L1Cached cacheAnnotation = classMethod.getAnnotation(L1Cached.class);
+    CacheableMethod cacheableMethod = invocationTable.get(method);
 
-    if (cacheAnnotation == null) {
-      return method.invoke(target, args);
+    if (cacheableMethod == null || !cacheableMethod.isCached()) {
+      return invokeTarget(method, args);
     }
 
-    String cacheName = cacheAnnotation.cacheName();
-    boolean invalidateCache = classMethod.getAnnotation(InvalidateCache.class) != null;
+    String cacheName = cacheableMethod.getCacheName();
 
-    if (invalidateCache) {
-      if (log.isTraceEnabled()) {
-        log.tracef(
-            "Cache wird invalidiert durch Methode %s (%s)",
-            method.getName(),
-            Arrays.stream(args)
-                .map(Object::getClass)
-                .map(Object::toString)
-                .collect(Collectors.joining(", ")));
-      }
+    if (cacheableMethod.isInvalidateCache()) {
+      Set<Object> entityKeys = cacheableMethod.getInvalidationKeys(args);
 
-      KeycloakSessionCache.reset(session, cacheName);
+      if (entityKeys == null) {
+        log.tracef("Cache %s wird invalidiert durch Methode %s", cacheName, cacheableMethod);
+        KeycloakSessionCache.reset(session, cacheName);
+      } else {
+        KeycloakSessionCache.invalidate(session, cacheName, entityKeys);
+      }
 
-      return method.invoke(target, args);
-    } else if (CACHE_INVALIDATION_NAMES.stream()
-        .anyMatch(name -> method.getName().toLowerCase().contains(name))) {
-      log.warnf(
-          "Method %s(%s) might need to invalidate cache but isnt annotated with @InvalidateCache",
-          method.getName(),
-          Arrays.stream(args)
-              .map(Object::getClass)
-              .map(Object::toString)
-              .collect(Collectors.joining(", ")));
+      return invokeTarget(method, args);
     }
 
-    CacheInvocationContext cacheInvocationContext =
-        CacheInvocationContext.create(target, method, args);
+    CacheInvocationContext cacheInvocationContext = cacheableMethod.createContext(args);
 
     Object result = KeycloakSessionCache.get(session, cacheName, cacheInvocationContext);
-    long timestamp = System.currentTimeMillis();
 
     if (KeycloakSessionCache.NONE == result) {
-      result = method.invoke(target, args);
+      long timestamp = log.isTraceEnabled() ? System.currentTimeMillis() : 0L;
+      result = invokeTarget(method, args);
 
       if (log.isTraceEnabled()) {
         log.tracef(
@@ -96,14 +68,24 @@ public class L1CacheInterceptor implements InvocationHandler {
             (System.currentTimeMillis() - timestamp) + "ms");
       }
 
-      KeycloakSessionCache.put(session, cacheName, cacheInvocationContext, result);
+      KeycloakSessionCache.put(
+          session,
+          cacheName,
+          cacheInvocationContext,
+          result,
+          cacheableMethod.getReadKeys(args, result));
     } else if (log.isTraceEnabled()) {
-      log.tracef(
-          "Cached Result for Call %s - %s",
-          cacheInvocationContext.getTargetMethod(),
-          (System.currentTimeMillis() - timestamp) + "ms");
+      log.tracef("Cached Result for Call %s", cacheInvocationContext.getTargetMethod());
     }
 
     return result;
   }
+
+  private Object invokeTarget(Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
 }
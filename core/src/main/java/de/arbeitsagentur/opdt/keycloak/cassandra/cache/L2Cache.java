@@ -0,0 +1,263 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.cache;
+
+import de.arbeitsagentur.opdt.keycloak.cassandra.CassandraJsonSerialization;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalEntity;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Node-wide cache for versioned aggregates (realms, clients, roles, groups, client scopes).
+ *
+ * <p>Entries are stored serialized, so every hit hands out a private copy that the caller may
+ * mutate. An entry younger than {@code maxStalenessMillis} is served as is, an older one is
+ * revalidated by comparing its version with the version column in the database. The cache is
+ * bounded by the total size of the serialized entries and evicts the least recently used entries
+ * first.
+ *
+ * <p>Caches can be bypassed individually, e.g. for entities written in {@link
+ * de.arbeitsagentur.opdt.keycloak.cassandra.transaction.WriteMode#LAST_WRITE_WINS} mode, where two
+ * nodes may write the same version with different content and version checks cannot detect a stale
+ * entry.
+ */
+@JBossLog
+public class L2Cache {
+  private static final L2Cache DISABLED = new L2Cache(0, 0);
+
+  private final long maxBytes;
+  private final long maxStalenessMillis;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final Set<String> bypassedCaches = ConcurrentHashMap.newKeySet();
+  private long currentBytes;
+
+  public L2Cache(long maxBytes, long maxStalenessMillis) {
+    this.maxBytes = maxBytes;
+    this.maxStalenessMillis = maxStalenessMillis;
+  }
+
+  public static L2Cache disabled() {
+    return DISABLED;
+  }
+
+  public boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  public boolean isEnabled(String cacheName) {
+    return isEnabled() && !bypassedCaches.contains(cacheName);
+  }
+
+  /** Loads all entities of the given cache from the database from now on. */
+  public void bypass(String cacheName) {
+    if (!isEnabled()) {
+      return;
+    }
+
+    bypassedCaches.add(cacheName);
+    synchronized (entries) {
+      new ArrayList<>(entries.keySet())
+          .stream().filter(key -> key.startsWith(key(cacheName, ""))).forEach(this::remove);
+    }
+  }
+
+  public <T extends TransactionalEntity> T get(
+      String cacheName,
+      String id,
+      Class<T> type,
+      Supplier<Long> versionLoader,
+      Supplier<T> loader) {
+    if (!isEnabled(cacheName)) {
+      return loader.get();
+    }
+
+    String key = key(cacheName, id);
+    Entry entry = getEntry(key);
+    CacheStatistics statistics = CacheStatistics.get(CacheStatistics.L2, cacheName);
+
+    if (entry != null) {
+      long now = System.currentTimeMillis();
+      if (now - entry.validatedAt < maxStalenessMillis) {
+        log.tracef("L2 hit %s", key);
+        statistics.hit();
+        return deserialize(entry, type);
+      }
+
+      Long currentVersion = versionLoader.get();
+      if (Objects.equals(currentVersion, entry.version)) {
+        log.tracef("L2 hit %s (revalidated version %s)", key, currentVersion);
+        statistics.hit();
+        entry.validatedAt = now;
+        return deserialize(entry, type);
+      }
+
+      log.tracef(
+          "L2 entry %s outdated (cached version %s, current version %s)",
+          key, entry.version, currentVersion);
+      invalidate(cacheName, id);
+    }
+
+    statistics.miss();
+    T result = loader.get();
+    put(cacheName, id, result);
+
+    return result;
+  }
+
+  public void put(String cacheName, String id, TransactionalEntity entity) {
+    if (!isEnabled(cacheName) || entity == null || entity.getVersion() == null) {
+      return;
+    }
+
+    byte[] payload;
+    try {
+      payload = CassandraJsonSerialization.getMapper().writeValueAsBytes(entity);
+    } catch (IOException e) {
+      log.warnf(e, "Cannot serialize %s for L2 cache", entity.getId());
+      return;
+    }
+
+    String key = key(cacheName, id);
+    Entry entry = new Entry(cacheName, payload, entity.getVersion());
+    entry.validatedAt = System.currentTimeMillis();
+
+    synchronized (entries) {
+      Entry existing = entries.get(key);
+      if (existing != null && existing.version > entry.version) {
+        // a concurrent writer already cached a newer state
+        return;
+      }
+
+      remove(key);
+      if (entry.weight() > maxBytes) {
+        return;
+      }
+
+      entries.put(key, entry);
+      currentBytes += entry.weight();
+      CacheStatistics.get(CacheStatistics.L2, cacheName).added(1);
+      evict();
+    }
+  }
+
+  public void invalidate(String cacheName, String id) {
+    if (!isEnabled()) {
+      return;
+    }
+
+    synchronized (entries) {
+      if (remove(key(cacheName, id))) {
+        CacheStatistics.get(CacheStatistics.L2, cacheName).invalidation();
+      }
+    }
+  }
+
+  /**
+   * Evicts the entry if its version is older than the given one. A {@code null} version evicts the
+   * entry unconditionally.
+   */
+  public void invalidate(String cacheName, String id, Long version) {
+    if (!isEnabled()) {
+      return;
+    }
+
+    String key = key(cacheName, id);
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry != null && (version == null || entry.version < version)) {
+        remove(key);
+        CacheStatistics.get(CacheStatistics.L2, cacheName).invalidation();
+      }
+    }
+  }
+
+  public void clear() {
+    synchronized (entries) {
+      entries.values().stream()
+          .map(entry -> entry.cacheName)
+          .distinct()
+          .forEach(cacheName -> CacheStatistics.get(CacheStatistics.L2, cacheName).reset());
+      entries.values().forEach(entry -> statistics(entry).removed(1));
+      entries.clear();
+      currentBytes = 0;
+    }
+  }
+
+  private Entry getEntry(String key) {
+    synchronized (entries) {
+      return entries.get(key);
+    }
+  }
+
+  private boolean remove(String key) {
+    Entry removed = entries.remove(key);
+    if (removed == null) {
+      return false;
+    }
+
+    currentBytes -= removed.weight();
+    statistics(removed).removed(1);
+    return true;
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (currentBytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<String, Entry> eldest = iterator.next();
+      log.tracef("Evict %s from L2 cache", eldest.getKey());
+      currentBytes -= eldest.getValue().weight();
+      statistics(eldest.getValue()).evicted(1);
+      iterator.remove();
+    }
+  }
+
+  private <T> T deserialize(Entry entry, Class<T> type) {
+    try {
+      return CassandraJsonSerialization.getMapper().readValue(entry.payload, type);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot deserialize cached " + type.getSimpleName(), e);
+    }
+  }
+
+  private static CacheStatistics statistics(Entry entry) {
+    return CacheStatistics.get(CacheStatistics.L2, entry.cacheName);
+  }
+
+  private static String key(String cacheName, String id) {
+    return cacheName + ":" + id;
+  }
+
+  @RequiredArgsConstructor
+  private static class Entry {
+    private final String cacheName;
+    private final byte[] payload;
+    private final long version;
+    private volatile long validatedAt;
+
+    private long weight() {
+      return payload.length;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.cache;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Node-wide, bounded cache of lookups which didn't find anything, e.g. a username which doesn't
+ * exist in a realm. Entries expire after a short TTL and are removed locally as soon as the
+ * corresponding value is written. Writes on other nodes only become visible after the TTL.
+ */
+@JBossLog
+public class NegativeLookupCache {
+  private static final NegativeLookupCache DISABLED = new NegativeLookupCache(0, 0);
+
+  private final int maxEntries;
+  private final long ttlMillis;
+  private final Map<List<String>, Long> entries;
+  private long generation;
+
+  public NegativeLookupCache(int maxEntries, long ttlMillis) {
+    this.maxEntries = maxEntries;
+    this.ttlMillis = ttlMillis;
+    this.entries =
+        new LinkedHashMap<>(16, 0.75f, false) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<List<String>, Long> eldest) {
+            if (size() > NegativeLookupCache.this.maxEntries) {
+              statistics(eldest.getKey()).evicted(1);
+              return true;
+            }
+
+            return false;
+          }
+        };
+  }
+
+  public static NegativeLookupCache disabled() {
+    return DISABLED;
+  }
+
+  public boolean isEnabled() {
+    return maxEntries > 0 && ttlMillis > 0;
+  }
+
+  /**
+   * Returns {@code null} without calling the loader if the lookup recently found nothing, otherwise
+   * calls the loader and remembers an empty result.
+   */
+  public <T> T get(String lookupType, String realmId, String value, Supplier<T> loader) {
+    if (!isEnabled()) {
+      return loader.get();
+    }
+
+    List<String> key = key(lookupType, realmId, value);
+    CacheStatistics statistics = statistics(key);
+    long generationBeforeLookup;
+    synchronized (entries) {
+      Long expiration = entries.get(key);
+      if (expiration != null && expiration >= System.currentTimeMillis()) {
+        log.tracef("Negative cache hit %s", key);
+        statistics.hit();
+        return null;
+      }
+
+      if (entries.remove(key) != null) {
+        statistics.evicted(1);
+      }
+      generationBeforeLookup = generation;
+    }
+
+    statistics.miss();
+    T result = loader.get();
+    if (result == null) {
+      synchronized (entries) {
+        // don't remember the miss if a concurrent write may have created the value meanwhile
+        if (generation == generationBeforeLookup
+            && entries.put(key, System.currentTimeMillis() + ttlMillis) == null) {
+          statistics.added(1);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  public void invalidate(String lookupType, String realmId, String value) {
+    if (!isEnabled()) {
+      return;
+    }
+
+    List<String> key = key(lookupType, realmId, value);
+    synchronized (entries) {
+      generation++;
+      if (entries.remove(key) != null) {
+        CacheStatistics statistics = statistics(key);
+        statistics.invalidation();
+        statistics.removed(1);
+      }
+    }
+  }
+
+  private static CacheStatistics statistics(List<String> key) {
+    return CacheStatistics.get(CacheStatistics.NEGATIVE_LOOKUP, key.get(0));
+  }
+
+  private static List<String> key(String lookupType, String realmId, String value) {
+    return Arrays.asList(lookupType, realmId, value);
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.cache;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Node-wide cache of deserialized JSON attribute values of realms and clients.
+ *
+ * <p>An entry remembers the serialized values it was parsed from and is only used while the entity
+ * still holds exactly these values, so writes and newer entity versions are picked up without
+ * explicit invalidation. The parsed objects are shared between all readers and must be treated as
+ * read-only, like the models handed out by Keycloak's own realm cache.
+ */
+public class ParsedAttributeCache {
+  private static volatile ParsedAttributeCache instance = new ParsedAttributeCache(0);
+
+  private final int maxEntries;
+  private final Map<List<Object>, Entry> entries;
+
+  public ParsedAttributeCache(int maxEntries) {
+    this.maxEntries = maxEntries;
+    this.entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+            if (size() > ParsedAttributeCache.this.maxEntries) {
+              statistics(eldest.getKey()).evicted(1);
+              return true;
+            }
+
+            return false;
+          }
+        };
+  }
+
+  public static ParsedAttributeCache getInstance() {
+    return instance;
+  }
+
+  public static void setInstance(ParsedAttributeCache parsedAttributeCache) {
+    instance = parsedAttributeCache;
+  }
+
+  public boolean isEnabled() {
+    return maxEntries > 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> List<T> get(
+      String region,
+      String entityId,
+      String name,
+      Type type,
+      List<String> serializedValues,
+      Supplier<List<T>> parser) {
+    if (!isEnabled()) {
+      return Collections.unmodifiableList(parser.get());
+    }
+
+    List<Object> key = Arrays.asList(region, entityId, name, type);
+    CacheStatistics statistics = statistics(key);
+
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+    }
+
+    if (entry != null && entry.serializedValues.equals(serializedValues)) {
+      statistics.hit();
+      return (List<T>) entry.parsedValues;
+    }
+
+    statistics.miss();
+    List<T> parsedValues = Collections.unmodifiableList(parser.get());
+    synchronized (entries) {
+      if (entries.put(key, new Entry(new ArrayList<>(serializedValues), parsedValues)) == null) {
+        statistics.added(1);
+      }
+    }
+
+    return parsedValues;
+  }
+
+  private static CacheStatistics statistics(List<Object> key) {
+    return CacheStatistics.get(CacheStatistics.PARSED_ATTRIBUTES, (String) key.get(0));
+  }
+
+  @RequiredArgsConstructor
+  private static class Entry {
+    private final List<String> serializedValues;
+    private final List<?> parsedValues;
+  }
+}
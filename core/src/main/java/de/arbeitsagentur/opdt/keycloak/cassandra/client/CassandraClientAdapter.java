@@ -19,6 +19,7 @@ import static de.arbeitsagentur.opdt.keycloak.cassandra.AttributeTypes.INTERNAL_
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import de.arbeitsagentur.opdt.keycloak.cassandra.CassandraJsonSerialization;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.ParsedAttributeCache;
 import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.ClientRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.entities.Client;
 import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalModelAdapter;
@@ -375,7 +376,7 @@ public class CassandraClientAdapter extends TransactionalModelAdapter<Client>
   @Override
   public String getAuthenticationFlowBindingOverride(String binding) {
     Map<String, String> authenticationFlowBindingOverride =
-        getDeserializedAttribute(AUTHENTICATION_FLOW_BINDING_OVERRIDE, new TypeReference<>() {});
+        getCachedAttribute(AUTHENTICATION_FLOW_BINDING_OVERRIDE, new TypeReference<>() {});
 
     if (authenticationFlowBindingOverride == null
         || !authenticationFlowBindingOverride.containsKey(binding)) {
@@ -387,11 +388,11 @@ public class CassandraClientAdapter extends TransactionalModelAdapter<Client>
   @Override
   public Map<String, String> getAuthenticationFlowBindingOverrides() {
     Map<String, String> authenticationFlowBindingOverride =
-        getDeserializedAttribute(AUTHENTICATION_FLOW_BINDING_OVERRIDE, new TypeReference<>() {});
+        getCachedAttribute(AUTHENTICATION_FLOW_BINDING_OVERRIDE, new TypeReference<>() {});
 
     return authenticationFlowBindingOverride == null
         ? Collections.emptyMap()
-        : authenticationFlowBindingOverride;
+        : Collections.unmodifiableMap(authenticationFlowBindingOverride);
   }
 
   @Override
@@ -542,7 +543,7 @@ public class CassandraClientAdapter extends TransactionalModelAdapter<Client>
   @Override
   public Map<String, ClientScopeModel> getClientScopes(boolean defaultScope) {
     Map<String, Boolean> clientScopeIds =
-        getDeserializedAttribute(CLIENT_SCOPES, new TypeReference<>() {});
+        getCachedAttribute(CLIENT_SCOPES, new TypeReference<>() {});
 
     Set<ClientScopeModel> result = new HashSet<>();
     if (clientScopeIds != null) {
@@ -577,9 +578,11 @@ public class CassandraClientAdapter extends TransactionalModelAdapter<Client>
   @Override
   public Map<String, Integer> getRegisteredNodes() {
     Map<String, Integer> registeredNodes =
-        getDeserializedAttribute(REGISTERED_NODES, new TypeReference<>() {});
+        getCachedAttribute(REGISTERED_NODES, new TypeReference<>() {});
 
-    return registeredNodes == null ? Collections.emptyMap() : registeredNodes;
+    return registeredNodes == null
+        ? Collections.emptyMap()
+        : Collections.unmodifiableMap(registeredNodes);
   }
 
   @Override
@@ -610,8 +613,7 @@ public class CassandraClientAdapter extends TransactionalModelAdapter<Client>
 
   @Override
   public Stream<ProtocolMapperModel> getProtocolMappersStream() {
-    return getDeserializedAttributes(PROTOCOL_MAPPERS, ProtocolMapperModel.class).stream()
-        .distinct();
+    return getCachedAttributes(PROTOCOL_MAPPERS, ProtocolMapperModel.class).stream().distinct();
   }
 
   @Override
@@ -670,7 +672,7 @@ public class CassandraClientAdapter extends TransactionalModelAdapter<Client>
 
   @Override
   public ProtocolMapperModel getProtocolMapperById(String id) {
-    return getDeserializedAttributes(PROTOCOL_MAPPERS, ProtocolMapperModel.class).stream()
+    return getCachedAttributes(PROTOCOL_MAPPERS, ProtocolMapperModel.class).stream()
         .filter(e -> e.getId().equals(id))
         .findFirst()
         .orElse(null);
@@ -682,7 +684,7 @@ public class CassandraClientAdapter extends TransactionalModelAdapter<Client>
       return null;
     }
 
-    return getDeserializedAttributes(PROTOCOL_MAPPERS, ProtocolMapperModel.class).stream()
+    return getCachedAttributes(PROTOCOL_MAPPERS, ProtocolMapperModel.class).stream()
         .filter(e -> Objects.equals(e.getProtocol(), protocol))
         .filter(e -> Objects.equals(e.getName(), name))
         .findFirst()
@@ -793,6 +795,33 @@ public class CassandraClientAdapter extends TransactionalModelAdapter<Client>
     return getDeserializedAttributes(name, type).stream().findFirst().orElse(null);
   }
 
+  /** Read-only view of the parsed value, shared with other readers of the same client state. */
+  private <T> T getCachedAttribute(String name, TypeReference<T> type) {
+    return ParsedAttributeCache.getInstance()
+        .get(
+            "client",
+            entity.getId(),
+            name,
+            type.getType(),
+            entity.getAttribute(name),
+            () -> getDeserializedAttributes(name, type))
+        .stream()
+        .findFirst()
+        .orElse(null);
+  }
+
+  /** Read-only view of the parsed values, shared with other readers of the same client state. */
+  private <T> List<T> getCachedAttributes(String name, Class<T> type) {
+    return ParsedAttributeCache.getInstance()
+        .get(
+            "client",
+            entity.getId(),
+            name,
+            type,
+            entity.getAttribute(name),
+            () -> getDeserializedAttributes(name, type));
+  }
+
   private <T> List<T> getDeserializedAttributes(String name, TypeReference<T> type) {
     List<String> values = entity.getAttribute(name);
     if (values == null) {
@@ -843,7 +872,7 @@ public class CassandraClientAdapter extends TransactionalModelAdapter<Client>
 
   private boolean getAttribute(String name, boolean defaultValue) {
     String v = getAttribute(name);
-    return v != null && !v.isEmpty() ? Boolean.valueOf(v) : defaultValue;
+    return v != null && !v.isEmpty() ? Boolean.parseBoolean(v) : defaultValue;
   }
 
   private void setAttribute(String name, int value) {
@@ -852,7 +881,7 @@ public class CassandraClientAdapter extends TransactionalModelAdapter<Client>
 
   private int getAttribute(String name, int defaultValue) {
     String v = getAttribute(name);
-    return v != null && !v.isEmpty() ? Integer.valueOf(v) : defaultValue;
+    return v != null && !v.isEmpty() ? Integer.parseInt(v) : defaultValue;
   }
 
   @Override
@@ -15,6 +15,7 @@
  */
 package de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence;
 
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.NegativeLookupCache;
 import de.arbeitsagentur.opdt.keycloak.cassandra.client.CassandraClientAdapter;
 import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.entities.Client;
 import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.entities.ClientSearchIndex;
@@ -26,19 +27,20 @@ public class CassandraClientRepository extends TransactionalRepository<Client, C
 
   private static final String CLIENT_ID = "clientId";
 
-  public CassandraClientRepository(ClientDao dao) {
+  private final NegativeLookupCache negativeLookupCache;
+
+  public CassandraClientRepository(ClientDao dao, NegativeLookupCache negativeLookupCache) {
     super(dao);
+    this.negativeLookupCache = negativeLookupCache;
   }
 
   @Override
   public void insertOrUpdate(Client entity) {
     if (entity.getAttributes().containsKey(CassandraClientAdapter.CLIENT_ID)) {
+      String clientId = entity.getAttribute(CassandraClientAdapter.CLIENT_ID).get(0);
       dao.insertOrUpdate(
-          new ClientSearchIndex(
-              entity.getRealmId(),
-              CLIENT_ID,
-              entity.getAttribute(CassandraClientAdapter.CLIENT_ID).get(0),
-              entity.getId()));
+          new ClientSearchIndex(entity.getRealmId(), CLIENT_ID, clientId, entity.getId()));
+      negativeLookupCache.invalidate(CLIENT_ID, entity.getRealmId(), clientId);
     }
 
     super.insertOrUpdate(entity);
@@ -53,7 +55,14 @@ public class CassandraClientRepository extends TransactionalRepository<Client, C
           client.getAttribute(CassandraClientAdapter.CLIENT_ID).get(0),
           client.getId());
     }
-    dao.delete(client);
+    deleteEntity(client);
+    publishInvalidation(getCacheKey(client), null);
+  }
+
+  @Override
+  protected String getCacheKey(Client client) {
+    // same key as used for the L2 cache in ManagedCompositeCassandraRepository
+    return client.getRealmId() + ":" + client.getId();
   }
 
   @Override
@@ -61,7 +70,17 @@ public class CassandraClientRepository extends TransactionalRepository<Client, C
     return dao.getClientById(realmId, id);
   }
 
+  @Override
+  public Long getClientVersionById(String realmId, String id) {
+    return getVersion(dao.getVersionById(realmId, id));
+  }
+
   public Client findByClientId(String realmId, String clientId) {
+    return negativeLookupCache.get(
+        CLIENT_ID, realmId, clientId, () -> findByClientIdIndex(realmId, clientId));
+  }
+
+  private Client findByClientIdIndex(String realmId, String clientId) {
     ClientSearchIndex index = dao.findClient(realmId, CLIENT_ID, clientId);
     if (index == null) {
       return null;
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence;
+
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.CacheKeyResolver;
+import de.arbeitsagentur.opdt.keycloak.cassandra.client.CassandraClientAdapter;
+import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.entities.Client;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ClientCacheKeyResolver implements CacheKeyResolver {
+  private static final String CLIENT_ID = "clientId";
+
+  @Override
+  public Set<Object> getReadKeys(String methodName, Object[] args, Object result) {
+    Set<Object> keys = new HashSet<>();
+
+    switch (methodName) {
+      case "getClientById":
+        keys.add(key(args[0], args[1]));
+        break;
+      case "findByClientId":
+        keys.add(key(args[0], CLIENT_ID, args[1]));
+        break;
+      default:
+        return Collections.emptySet();
+    }
+
+    if (result instanceof Client) {
+      keys.addAll(getClientKeys((Client) result));
+    }
+
+    return keys;
+  }
+
+  @Override
+  public Set<Object> getInvalidationKeys(String methodName, Object[] args) {
+    switch (methodName) {
+      case "insertOrUpdate":
+      case "delete":
+        return getClientKeys((Client) args[0]);
+      default:
+        return null;
+    }
+  }
+
+  private static Set<Object> getClientKeys(Client client) {
+    Set<Object> keys = new HashSet<>();
+    keys.add(key(client.getRealmId(), client.getId()));
+
+    List<String> clientId = client.getAttribute(CassandraClientAdapter.CLIENT_ID);
+    if (!clientId.isEmpty() && clientId.get(0) != null) {
+      keys.add(key(client.getRealmId(), CLIENT_ID, clientId.get(0)));
+    }
+
+    return keys;
+  }
+
+  private static List<Object> key(Object... parts) {
+    return Arrays.asList(parts);
+  }
+}
@@ -16,6 +16,7 @@
 package de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence;
 
 import com.datastax.oss.driver.api.core.PagingIterable;
+import com.datastax.oss.driver.api.core.cql.Row;
 import com.datastax.oss.driver.api.mapper.annotations.*;
 import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.entities.Client;
 import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.entities.ClientSearchIndex;
@@ -41,4 +42,7 @@ public interface ClientDao extends TransactionalDao<Client> {
 
   @Delete(entityClass = ClientSearchIndex.class)
   void deleteIndex(String realmId, String name, String value, String clientId);
+
+  @Query("SELECT version FROM clients WHERE realm_id = :realmId AND id = :id")
+  Row getVersionById(String realmId, String id);
 }
@@ -19,14 +19,13 @@ import static de.arbeitsagentur.opdt.keycloak.cassandra.AttributeTypes.INTERNAL_
 
 import de.arbeitsagentur.opdt.keycloak.cassandra.CassandraJsonSerialization;
 import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.ClientScopeRepository;
-import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScopeValue;
-import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScopes;
+import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScope;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalModelAdapter;
 import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.EqualsAndHashCode;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.models.ClientScopeModel;
 import org.keycloak.models.ProtocolMapperModel;
@@ -36,24 +35,29 @@ import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.models.utils.RoleUtils;
 
 @JBossLog
-@RequiredArgsConstructor
-@EqualsAndHashCode(of = "clientScopeEntity")
-public class CassandraClientScopeAdapter implements ClientScopeModel {
+@EqualsAndHashCode(callSuper = true)
+public class CassandraClientScopeAdapter extends TransactionalModelAdapter<ClientScope>
+    implements ClientScopeModel {
   public static final String DESCRIPTION = INTERNAL_ATTRIBUTE_PREFIX + "description";
   public static final String PROTOCOL = INTERNAL_ATTRIBUTE_PREFIX + "protocol";
   public static final String PROTOCOL_MAPPERS = INTERNAL_ATTRIBUTE_PREFIX + "protocolMappers";
   public static final String SCOPE_MAPPINGS = INTERNAL_ATTRIBUTE_PREFIX + "scopeMappings";
   private final RealmModel realm;
-  private final ClientScopeValue clientScopeEntity;
-
-  private final ClientScopes scopes;
   private final ClientScopeRepository clientScopeRepository;
+  private String persistedName;
+  private ClientScope base;
+
+  public CassandraClientScopeAdapter(
+      ClientScope entity, RealmModel realm, ClientScopeRepository clientScopeRepository) {
+    super(entity);
+    this.realm = realm;
+    this.clientScopeRepository = clientScopeRepository;
+    this.persistedName = entity.getName();
+    this.base = entity.getVersion() == null ? null : entity.copy();
+  }
 
-  private final CassandraClientScopeProvider provider;
-
-  @Override
-  public String getId() {
-    return clientScopeEntity.getId();
+  public ClientScope getEntity() {
+    return entity;
   }
 
   @Override
@@ -63,13 +67,13 @@ public class CassandraClientScopeAdapter implements ClientScopeModel {
 
   @Override
   public String getName() {
-    return clientScopeEntity.getName();
+    return entity.getName();
   }
 
   @Override
   public void setName(String name) {
-    clientScopeEntity.setName(name);
-    provider.markChanged(clientScopeEntity.getRealmId());
+    entity.setName(name);
+    markUpdated();
   }
 
   @Override
@@ -188,7 +192,7 @@ public class CassandraClientScopeAdapter implements ClientScopeModel {
 
     Set<String> scopeMappings = new HashSet<>(getAttributeValues(SCOPE_MAPPINGS));
     scopeMappings.add(role.getId());
-    setAttributeValues(SCOPE_MAPPINGS, new ArrayList<>(scopeMappings));
+    setAttribute(SCOPE_MAPPINGS, new ArrayList<>(scopeMappings));
   }
 
   @Override
@@ -197,9 +201,10 @@ public class CassandraClientScopeAdapter implements ClientScopeModel {
       return;
     }
 
-    List<String> scopeMappings = getAttributeValues(SCOPE_MAPPINGS);
-    scopeMappings.remove(role.getId());
-    setAttributeValues(SCOPE_MAPPINGS, scopeMappings);
+    List<String> scopeMappings = new ArrayList<>(getAttributeValues(SCOPE_MAPPINGS));
+    if (scopeMappings.remove(role.getId())) {
+      setAttribute(SCOPE_MAPPINGS, scopeMappings);
+    }
   }
 
   @Override
@@ -207,34 +212,9 @@ public class CassandraClientScopeAdapter implements ClientScopeModel {
     return RoleUtils.hasRole(getScopeMappingsStream(), role);
   }
 
-  @Override
-  public void setAttribute(String name, String value) {
-    if (name == null || value == null) {
-      return;
-    }
-
-    clientScopeEntity.getAttributes().put(name, Arrays.asList(value));
-    provider.markChanged(clientScopeEntity.getRealmId());
-  }
-
-  @Override
-  public void removeAttribute(String name) {
-    if (name == null) {
-      return;
-    }
-    clientScopeEntity.getAttributes().remove(name);
-    provider.markChanged(clientScopeEntity.getRealmId());
-  }
-
-  @Override
-  public String getAttribute(String name) {
-    List<String> values = clientScopeEntity.getAttributes().getOrDefault(name, new ArrayList<>());
-    return values.isEmpty() || values.iterator().next().isEmpty() ? null : values.iterator().next();
-  }
-
   @Override
   public Map<String, String> getAttributes() {
-    return clientScopeEntity.getAttributes().entrySet().stream()
+    return entity.getAttributes().entrySet().stream()
         .filter(e -> !e.getKey().startsWith(INTERNAL_ATTRIBUTE_PREFIX))
         .filter(
             e ->
@@ -244,20 +224,6 @@ public class CassandraClientScopeAdapter implements ClientScopeModel {
         .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().iterator().next()));
   }
 
-  public void setAttributeValues(String name, List<String> values) {
-    if (name == null || values == null) {
-      return;
-    }
-
-    clientScopeEntity.getAttributes().put(name, values);
-    provider.markChanged(clientScopeEntity.getRealmId());
-  }
-
-  private List<String> getAttributeValues(String name) {
-    List<String> values = clientScopeEntity.getAttributes().getOrDefault(name, new ArrayList<>());
-    return values.stream().filter(v -> v != null && !v.isEmpty()).collect(Collectors.toList());
-  }
-
   private void setSerializedAttributeValues(String name, List<?> values) {
     List<String> attributeValues =
         values.stream()
@@ -267,19 +233,18 @@ public class CassandraClientScopeAdapter implements ClientScopeModel {
                     return CassandraJsonSerialization.writeValueAsString(value);
                   } catch (IOException e) {
                     log.errorf(
-                        "Cannot serialize %s (realm: %s, name: %s)",
-                        value, clientScopeEntity.getId(), name);
+                        "Cannot serialize %s (realm: %s, name: %s)", value, entity.getId(), name);
                     throw new RuntimeException(e);
                   }
                 })
             .collect(Collectors.toList());
 
-    clientScopeEntity.getAttributes().put(name, attributeValues);
-    provider.markChanged(clientScopeEntity.getRealmId());
+    entity.getAttributes().put(name, attributeValues);
+    markUpdated();
   }
 
   private <T> List<T> getDeserializedAttributes(String name, Class<T> type) {
-    List<String> values = clientScopeEntity.getAttributes().getOrDefault(name, new ArrayList<>());
+    List<String> values = entity.getAttributes().getOrDefault(name, new ArrayList<>());
 
     return values.stream()
         .map(
@@ -289,10 +254,22 @@ public class CassandraClientScopeAdapter implements ClientScopeModel {
               } catch (IOException e) {
                 log.errorf(
                     "Cannot deserialize %s (realm: %s, name: %s, type: %s)",
-                    value, clientScopeEntity.getId(), name, type.getName());
+                    value, entity.getId(), name, type.getName());
                 throw new RuntimeException(e);
               }
             })
         .collect(Collectors.toCollection(ArrayList::new));
   }
+
+  @Override
+  protected void flushChanges() {
+    clientScopeRepository.insertOrUpdate(entity, base);
+
+    if (persistedName != null && !persistedName.equals(entity.getName())) {
+      clientScopeRepository.deleteNameToClientScope(
+          entity.getRealmId(), persistedName, entity.getId());
+    }
+    persistedName = entity.getName();
+    base = entity.copy();
+  }
 }
@@ -20,129 +20,130 @@ import static de.arbeitsagentur.opdt.keycloak.common.MapProviderObjectType.CLIEN
 import static org.keycloak.common.util.StackUtil.getShortStackTrace;
 
 import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.ClientScopeRepository;
-import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScopeValue;
-import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScopes;
-import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.CassandraModelTransaction;
+import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScope;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalProvider;
 import java.util.*;
-import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.models.*;
 import org.keycloak.models.utils.KeycloakModelUtils;
 
 @JBossLog
-@RequiredArgsConstructor
-public class CassandraClientScopeProvider implements ClientScopeProvider {
-  private final KeycloakSession session;
-
+public class CassandraClientScopeProvider
+    extends TransactionalProvider<ClientScope, CassandraClientScopeAdapter>
+    implements ClientScopeProvider {
   private final ClientScopeRepository repository;
 
-  private final Map<String, ClientScopes> scopesByRealmId = new HashMap<>();
-  private final Set<String> scopesChanged = new HashSet<>();
-  private final Set<String> scopesDeleted = new HashSet<>();
-
-  public void markChanged(String realmId) {
-    scopesChanged.add(realmId);
-  }
-
-  public void markDeleted(String realmId) {
-    scopesDeleted.add(realmId);
+  public CassandraClientScopeProvider(KeycloakSession session, ClientScopeRepository repository) {
+    super(session);
+    this.repository = repository;
   }
 
-  private ClientScopes getScopes(String realmId) {
-    if (scopesByRealmId.containsKey(realmId)) {
-      return scopesByRealmId.get(realmId);
-    }
-
-    ClientScopes scopes = repository.getClientScopesByRealmId(realmId);
-    scopesByRealmId.put(realmId, scopes);
-
-    session
-        .getTransactionManager()
-        .enlistAfterCompletion(
-            (CassandraModelTransaction)
-                () -> {
-                  if (scopesChanged.contains(realmId) && !scopesDeleted.contains(realmId)) {
-                    repository.insertOrUpdate(scopes);
-                  }
-
-                  scopesByRealmId.remove(realmId);
-                  scopesChanged.remove(realmId);
-                });
-
-    return scopes;
+  @Override
+  protected CassandraClientScopeAdapter createNewModel(RealmModel realm, ClientScope entity) {
+    return new CassandraClientScopeAdapter(entity, realm, repository);
   }
 
-  private Function<ClientScopeValue, ClientScopeModel> entityToAdapterFunc(RealmModel realm) {
-    return origEntity ->
-        origEntity == null
-            ? null
-            : new CassandraClientScopeAdapter(
-                realm, origEntity, getScopes(realm.getId()), repository, this);
+  private Stream<CassandraClientScopeAdapter> getModelsByRealmId(String realmId) {
+    return models.values().stream().filter(m -> m.getEntity().getRealmId().equals(realmId));
   }
 
+  // Client scopes are written on commit, so scopes added in this session are merged into the
+  // stored ones
   @Override
   public Stream<ClientScopeModel> getClientScopesStream(RealmModel realm) {
-    return getScopes(realm.getId()).getClientScopes().stream().map(entityToAdapterFunc(realm));
+    List<CassandraClientScopeAdapter> added =
+        getModelsByRealmId(realm.getId())
+            .filter(m -> m.getEntity().getVersion() == null)
+            .collect(Collectors.toList());
+
+    return Stream.concat(
+            added.stream(),
+            repository.getClientScopesByRealmId(realm.getId()).stream()
+                .map(entityToAdapterFunc(realm)))
+        .distinct()
+        .map(ClientScopeModel.class::cast);
   }
 
   @Override
   public ClientScopeModel addClientScope(RealmModel realm, String id, String name) {
-    if (getClientScopeById(realm, id) != null) {
+    if (id != null && getClientScopeById(realm, id) != null) {
       throw new ModelDuplicateException("Client scope exists: " + id);
     }
 
-    ClientScopes clientScopes = getScopes(realm.getId());
-    ClientScopeValue existingClientScopeWithNameAndRealm =
-        clientScopes.getClientScopes().stream()
-            .filter(s -> Objects.equals(s.getName(), name))
-            .findFirst()
-            .orElse(null);
-    if (existingClientScopeWithNameAndRealm != null) {
+    if (getClientScopeByName(realm, name) != null) {
       throw new ModelDuplicateException(
           "Client scope with name '" + name + "' in realm " + realm.getName());
     }
 
     log.tracef("addClientScope(%s, %s, %s)%s", realm, id, name, getShortStackTrace());
 
-    ClientScopeValue clientScopeValue =
-        ClientScopeValue.builder()
+    ClientScope clientScope =
+        ClientScope.builder()
             .id(id == null ? KeycloakModelUtils.generateId() : id)
             .realmId(realm.getId())
             .name(name)
             .build();
 
-    clientScopes.addClientScope(clientScopeValue);
-    markChanged(realm.getId());
+    CassandraClientScopeAdapter adapter = entityToAdapterFunc(realm).apply(clientScope);
+    adapter.markUpdated();
+
+    return adapter;
+  }
+
+  private ClientScopeModel getClientScopeByName(RealmModel realm, String name) {
+    CassandraClientScopeAdapter model =
+        getModelsByRealmId(realm.getId())
+            .filter(m -> Objects.equals(m.getName(), name))
+            .findFirst()
+            .orElse(null);
+    if (model != null) {
+      return model;
+    }
 
-    return entityToAdapterFunc(realm).apply(clientScopeValue);
+    ClientScopeModel clientScope =
+        entityToAdapterFunc(realm).apply(repository.getClientScopeByName(realm.getId(), name));
+
+    // the client scope may have been renamed in this session
+    return clientScope != null && Objects.equals(clientScope.getName(), name) ? clientScope : null;
   }
 
   @Override
   public boolean removeClientScope(RealmModel realm, String id) {
     if (id == null) return false;
-    ClientScopes clientScopes = getScopes(realm.getId());
-    if (clientScopes == null) return false;
 
-    ClientScopeModel clientScopeModel = getClientScopeById(realm, id);
+    CassandraClientScopeAdapter clientScopeModel =
+        (CassandraClientScopeAdapter) getClientScopeById(realm, id);
+    if (clientScopeModel == null) return false;
+
     session.invalidate(CLIENT_SCOPE_BEFORE_REMOVE, realm, clientScopeModel);
 
-    boolean result = clientScopes.removeClientScope(id);
-    markChanged(realm.getId());
+    if (clientScopeModel.getEntity().getVersion() != null) {
+      repository.delete(clientScopeModel.getEntity());
+    }
+    clientScopeModel.markDeleted();
+    models.remove(id);
 
     session.invalidate(CLIENT_SCOPE_AFTER_REMOVE, clientScopeModel);
 
-    return result;
+    return true;
   }
 
   @Override
   public void removeClientScopes(RealmModel realm) {
     log.tracef("removeClients(%s)%s", realm, getShortStackTrace());
-    ClientScopes clientScopesOfRealm = getScopes(realm.getId());
 
     repository.removeClientScopes(realm.getId());
-    markDeleted(realm.getId());
+
+    // client scopes which are still loaded must not be written back after removal
+    getModelsByRealmId(realm.getId())
+        .collect(Collectors.toList())
+        .forEach(
+            m -> {
+              m.markDeleted();
+              models.remove(m.getId());
+            });
   }
 
   @Override
@@ -152,17 +153,16 @@ public class CassandraClientScopeProvider implements ClientScopeProvider {
     }
 
     log.tracef("getClientScopeById(%s, %s)%s", realm, id, getShortStackTrace());
-    return entityToAdapterFunc(realm).apply(getScopes(realm.getId()).getClientScopeById(id));
+
+    CassandraClientScopeAdapter model = models.get(id);
+    if (model != null) {
+      return model.getEntity().getRealmId().equals(realm.getId()) ? model : null;
+    }
+
+    return entityToAdapterFunc(realm).apply(repository.getClientScopeById(realm.getId(), id));
   }
 
   public void preRemove(RealmModel realm) {
     removeClientScopes(realm);
   }
-
-  @Override
-  public void close() {
-    scopesByRealmId.clear();
-    scopesChanged.clear();
-    scopesDeleted.clear();
-  }
 }
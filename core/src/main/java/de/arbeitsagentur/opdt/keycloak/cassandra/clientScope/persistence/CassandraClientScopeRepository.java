@@ -15,28 +15,211 @@
  */
 package de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence;
 
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScope;
 import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScopes;
-import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.NameToClientScope;
+import de.arbeitsagentur.opdt.keycloak.cassandra.migration.OnlineRealmMigration;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.MergingTransactionalRepository;
+import java.util.*;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.models.ModelDuplicateException;
 
+@JBossLog
 public class CassandraClientScopeRepository
-    extends TransactionalRepository<ClientScopes, ClientScopeDao> implements ClientScopeRepository {
+    extends MergingTransactionalRepository<ClientScope, ClientScopeDao>
+    implements ClientScopeRepository {
+  private static final int NAME_CLAIM_SECONDS = 60;
+
+  private final OnlineRealmMigration migration;
 
   public CassandraClientScopeRepository(ClientScopeDao dao) {
     super(dao);
+    this.migration =
+        new OnlineRealmMigration(
+            "client_scopes_per_row",
+            dao,
+            realmId -> dao.getLegacyClientScopesByRealmId(realmId) != null,
+            this::migrateLegacyClientScopes);
+  }
+
+  @Override
+  public void insertOrUpdate(ClientScope clientScope) {
+    insertOrUpdate(clientScope, null);
+  }
+
+  @Override
+  public void insertOrUpdate(ClientScope clientScope, ClientScope base) {
+    migration.ensureMigrated(clientScope.getRealmId());
+
+    boolean claimed = claimName(clientScope);
+    try {
+      super.insertOrUpdate(clientScope, base);
+    } catch (RuntimeException e) {
+      if (claimed) {
+        dao.releaseName(clientScope.getRealmId(), clientScope.getName(), clientScope.getId());
+      }
+      throw e;
+    }
+
+    if (claimed
+        && !dao.confirmName(
+            clientScope.getRealmId(),
+            clientScope.getName(),
+            clientScope.getId(),
+            clientScope.getId())) {
+      log.warnf(
+          "Claim of name %s expired before client scope %s was written",
+          clientScope.getName(), clientScope.getId());
+    }
+  }
+
+  @Override
+  protected ClientScope readLatest(ClientScope clientScope) {
+    return dao.getClientScopeById(clientScope.getRealmId(), clientScope.getId());
+  }
+
+  @Override
+  public void delete(ClientScope clientScope) {
+    deleteEntity(clientScope);
+    dao.releaseName(clientScope.getRealmId(), clientScope.getName(), clientScope.getId());
+    publishInvalidation(getCacheKey(clientScope), null);
+  }
+
+  @Override
+  protected String getCacheKey(ClientScope clientScope) {
+    // same key as used for the L2 cache in ManagedCompositeCassandraRepository
+    return clientScope.getRealmId() + ":" + clientScope.getId();
+  }
+
+  @Override
+  public void deleteNameToClientScope(String realmId, String name, String id) {
+    dao.releaseName(realmId, name, id);
+  }
+
+  @Override
+  public ClientScope getClientScopeById(String realmId, String id) {
+    migration.ensureMigrated(realmId);
+    return dao.getClientScopeById(realmId, id);
+  }
+
+  @Override
+  public Long getClientScopeVersionById(String realmId, String id) {
+    migration.ensureMigrated(realmId);
+    return getVersion(dao.getVersionById(realmId, id));
   }
 
   @Override
-  public ClientScopes getClientScopesByRealmId(String realmId) {
-    ClientScopes clientScopes = dao.getClientScopesByRealmId(realmId);
-    if (clientScopes == null) {
-      clientScopes = ClientScopes.builder().realmId(realmId).build();
+  public ClientScope getClientScopeByName(String realmId, String name) {
+    migration.ensureMigrated(realmId);
+
+    NameToClientScope byName = dao.findByName(realmId, name);
+    if (byName == null) {
+      return null;
     }
 
-    return clientScopes;
+    ClientScope clientScope = dao.getClientScopeById(realmId, byName.getId());
+    return clientScope != null && Objects.equals(clientScope.getName(), name) ? clientScope : null;
+  }
+
+  @Override
+  public List<ClientScope> getClientScopesByRealmId(String realmId) {
+    migration.ensureMigrated(realmId);
+    return dao.getClientScopesByRealmId(realmId).all();
   }
 
   @Override
   public void removeClientScopes(String realmId) {
+    List<ClientScope> clientScopes = dao.getClientScopesByRealmId(realmId).all();
+
     dao.deleteAllClientScopes(realmId);
+    dao.deleteAllNameToClientScopes(realmId);
+    dao.deleteLegacyClientScopes(realmId);
+    migration.reset(realmId);
+    clientScopes.forEach(clientScope -> publishInvalidation(getCacheKey(clientScope), null));
+  }
+
+  /**
+   * Claims the name of the client scope in {@code name_to_client_scope} with a lightweight
+   * transaction, so that only one of several concurrent writers of the same name succeeds. The
+   * claim expires after {@link #NAME_CLAIM_SECONDS} unless it is confirmed after the client scope
+   * was written. Returns false if the name already belongs to the client scope.
+   */
+  private boolean claimName(ClientScope clientScope) {
+    String realmId = clientScope.getRealmId();
+
+    NameToClientScope existing = dao.findByName(realmId, clientScope.getName());
+    if (existing != null && existing.getId().equals(clientScope.getId())) {
+      return false;
+    }
+
+    boolean claimed =
+        existing == null
+            ? dao.claimName(toNameToClientScope(clientScope), NAME_CLAIM_SECONDS)
+            : isStale(existing)
+                && dao.takeOverName(
+                    realmId,
+                    clientScope.getName(),
+                    clientScope.getId(),
+                    existing.getId(),
+                    NAME_CLAIM_SECONDS);
+
+    if (!claimed) {
+      throw new ModelDuplicateException(
+          "Client scope with name '" + clientScope.getName() + "' in realm " + realmId);
+    }
+
+    return true;
+  }
+
+  // Entries of client scopes which were renamed or removed without removing the entry.
+  // Unconfirmed claims are never stale, their client scope may not be written yet.
+  private boolean isStale(NameToClientScope nameToClientScope) {
+    Row claimTtl = dao.getNameClaimTtl(nameToClientScope.getRealmId(), nameToClientScope.getName());
+    if (claimTtl == null || !claimTtl.isNull(0)) {
+      return false;
+    }
+
+    ClientScope clientScope =
+        dao.getClientScopeById(nameToClientScope.getRealmId(), nameToClientScope.getId());
+    return clientScope == null
+        || !Objects.equals(clientScope.getName(), nameToClientScope.getName());
+  }
+
+  /**
+   * Moves the client scopes of a realm from the legacy row holding all client scopes of the realm
+   * to one row per client scope. Client scopes which already exist in the new format are not
+   * overwritten.
+   */
+  private void migrateLegacyClientScopes(String realmId, OnlineRealmMigration.Rows rows) {
+    ClientScopes legacyClientScopes = dao.getLegacyClientScopesByRealmId(realmId);
+    if (legacyClientScopes != null) {
+      Set<String> existingIds = new HashSet<>();
+      dao.getClientScopeIdsByRealmId(realmId).forEach(row -> existingIds.add(row.getString("id")));
+
+      List<BoundStatement> statements = new ArrayList<>();
+      legacyClientScopes.getClientScopes().stream()
+          .map(value -> ClientScope.fromValue(realmId, value))
+          .filter(clientScope -> !existingIds.contains(clientScope.getId()))
+          .forEach(
+              clientScope -> {
+                clientScope.setVersion(1L);
+                statements.add(dao.insertStatement(clientScope));
+                statements.add(dao.insertStatement(toNameToClientScope(clientScope)));
+              });
+
+      log.infof(
+          "Migrate %d client scopes of realm %s to one row per client scope",
+          statements.size() / 2, realmId);
+      rows.write(statements);
+
+      dao.deleteLegacyClientScopes(realmId);
+    }
+  }
+
+  private static NameToClientScope toNameToClientScope(ClientScope clientScope) {
+    return new NameToClientScope(
+        clientScope.getRealmId(), clientScope.getName(), clientScope.getId());
   }
 }
@@ -15,15 +15,67 @@
  */
 package de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence;
 
+import com.datastax.oss.driver.api.core.PagingIterable;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
 import com.datastax.oss.driver.api.mapper.annotations.*;
+import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScope;
 import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScopes;
+import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.NameToClientScope;
+import de.arbeitsagentur.opdt.keycloak.cassandra.migration.persistence.RealmMigrationDao;
 import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalDao;
 
 @Dao
-public interface ClientScopeDao extends TransactionalDao<ClientScopes> {
+public interface ClientScopeDao extends TransactionalDao<ClientScope>, RealmMigrationDao {
+  @Select(customWhereClause = "realm_id = :realmId AND id = :id")
+  ClientScope getClientScopeById(String realmId, String id);
+
   @Select(customWhereClause = "realm_id = :realmId")
-  ClientScopes getClientScopesByRealmId(String realmId);
+  PagingIterable<ClientScope> getClientScopesByRealmId(String realmId);
+
+  @Query("SELECT version FROM client_scopes_by_id WHERE realm_id = :realmId AND id = :id")
+  Row getVersionById(String realmId, String id);
 
-  @Delete(entityClass = ClientScopes.class, ifExists = true)
+  @Query("SELECT id FROM client_scopes_by_id WHERE realm_id = :realmId")
+  ResultSet getClientScopeIdsByRealmId(String realmId);
+
+  @Query("DELETE FROM client_scopes_by_id WHERE realm_id = :realmId")
   void deleteAllClientScopes(String realmId);
+
+  @Insert
+  BoundStatement insertStatement(NameToClientScope nameToClientScope);
+
+  @Select(customWhereClause = "realm_id = :realmId AND name = :name")
+  NameToClientScope findByName(String realmId, String name);
+
+  // Name claims, written with lightweight transactions and a TTL until they are confirmed
+  @Insert(ifNotExists = true, ttl = ":ttl")
+  boolean claimName(NameToClientScope nameToClientScope, int ttl);
+
+  @Query(
+      "UPDATE name_to_client_scope USING TTL :ttl SET id = :id"
+          + " WHERE realm_id = :realmId AND name = :name IF id = :staleId")
+  boolean takeOverName(String realmId, String name, String id, String staleId, int ttl);
+
+  @Query(
+      "UPDATE name_to_client_scope USING TTL 0 SET id = :id"
+          + " WHERE realm_id = :realmId AND name = :name IF id = :expectedId")
+  boolean confirmName(String realmId, String name, String id, String expectedId);
+
+  @Query("SELECT TTL(id) FROM name_to_client_scope WHERE realm_id = :realmId AND name = :name")
+  Row getNameClaimTtl(String realmId, String name);
+
+  @Query("DELETE FROM name_to_client_scope WHERE realm_id = :realmId AND name = :name IF id = :id")
+  boolean releaseName(String realmId, String name, String id);
+
+  @Query("DELETE FROM name_to_client_scope WHERE realm_id = :realmId")
+  void deleteAllNameToClientScopes(String realmId);
+
+  // Legacy format with all client scopes of a realm in one row
+  @Select(customWhereClause = "realm_id = :realmId")
+  ClientScopes getLegacyClientScopesByRealmId(String realmId);
+
+  @Delete(entityClass = ClientScopes.class)
+  void deleteLegacyClientScopes(String realmId);
 }
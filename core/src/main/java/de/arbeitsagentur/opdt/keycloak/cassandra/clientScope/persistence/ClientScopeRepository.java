@@ -15,12 +15,29 @@
  */
 package de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence;
 
-import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScopes;
+import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScope;
+import java.util.List;
 
 public interface ClientScopeRepository {
-  void insertOrUpdate(ClientScopes clientScopes);
+  void insertOrUpdate(ClientScope clientScope);
 
-  ClientScopes getClientScopesByRealmId(String realmId);
+  /**
+   * Writes a client scope which was read in the state {@code base}. Concurrent changes of the
+   * client scope are merged with the changes made since then.
+   */
+  void insertOrUpdate(ClientScope clientScope, ClientScope base);
+
+  void delete(ClientScope clientScope);
+
+  void deleteNameToClientScope(String realmId, String name, String id);
+
+  ClientScope getClientScopeById(String realmId, String id);
+
+  Long getClientScopeVersionById(String realmId, String id);
+
+  ClientScope getClientScopeByName(String realmId, String name);
+
+  List<ClientScope> getClientScopesByRealmId(String realmId);
 
   void removeClientScopes(String realmId);
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities;
+
+import com.datastax.oss.driver.api.mapper.annotations.ClusteringColumn;
+import com.datastax.oss.driver.api.mapper.annotations.CqlName;
+import com.datastax.oss.driver.api.mapper.annotations.Entity;
+import com.datastax.oss.driver.api.mapper.annotations.PartitionKey;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.MergeableEntity;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.*;
+
+@EqualsAndHashCode(of = {"realmId", "id"})
+@Builder(toBuilder = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@CqlName("client_scopes_by_id")
+public class ClientScope implements MergeableEntity<ClientScope> {
+  @PartitionKey private String realmId;
+
+  @ClusteringColumn private String id;
+
+  private String name;
+  private Long version;
+
+  @Builder.Default private Map<String, List<String>> attributes = new HashMap<>();
+
+  public static ClientScope fromValue(String realmId, ClientScopeValue value) {
+    return ClientScope.builder()
+        .realmId(realmId)
+        .id(value.getId())
+        .name(value.getName())
+        .attributes(new HashMap<>(value.getAttributes()))
+        .build();
+  }
+
+  public Map<String, List<String>> getAttributes() {
+    if (attributes == null) {
+      attributes = new HashMap<>();
+    }
+
+    return attributes;
+  }
+
+  @Override
+  public ClientScope copy() {
+    return toBuilder().attributes(new HashMap<>(getAttributes())).build();
+  }
+
+  @Override
+  public void rebase(ClientScope base, ClientScope latest) {
+    name = MergeableEntity.merge(base.getName(), name, latest.getName());
+    attributes =
+        MergeableEntity.merge(base.getAttributes(), getAttributes(), latest.getAttributes());
+    version = latest.getVersion();
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.connection;
+
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.metadata.NodeState;
+import com.datastax.oss.driver.api.core.metadata.schema.KeyspaceMetadata;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Sends a cheap read of every table of the keyspace to every node which is up, so connections,
+ * server-side table state and the driver's code paths are warm before the first request arrives.
+ * Failures are only logged, a cold node is no reason to prevent the startup.
+ */
+@JBossLog
+@RequiredArgsConstructor
+public class CassandraWarmUp {
+  private final CqlSession cqlSession;
+  private final String keyspace;
+  private final long timeoutMillis;
+
+  public void run() {
+    long start = System.currentTimeMillis();
+    KeyspaceMetadata keyspaceMetadata = cqlSession.getMetadata().getKeyspace(keyspace).orElse(null);
+    if (keyspaceMetadata == null) {
+      log.warnv("Skip warm-up, keyspace {0} not found", keyspace);
+      return;
+    }
+
+    Collection<Node> nodes =
+        cqlSession.getMetadata().getNodes().values().stream()
+            .filter(node -> node.getState() == NodeState.UP)
+            .collect(Collectors.toList());
+
+    AtomicInteger failures = new AtomicInteger();
+    List<CompletableFuture<?>> reads = new ArrayList<>();
+    for (CqlIdentifier table : keyspaceMetadata.getTables().keySet()) {
+      SimpleStatement select =
+          SimpleStatement.newInstance(
+              "SELECT * FROM "
+                  + keyspaceMetadata.getName().asCql(true)
+                  + "."
+                  + table.asCql(true)
+                  + " LIMIT 1");
+      CompletionStage<PreparedStatement> prepared = cqlSession.prepareAsync(select);
+
+      for (Node node : nodes) {
+        reads.add(
+            prepared
+                .thenCompose(
+                    statement ->
+                        cqlSession.executeAsync(statement.bind().setNode(node).setIdempotent(true)))
+                .exceptionally(
+                    e -> {
+                      failures.incrementAndGet();
+                      log.debugv(e, "Warm-up of table {0} on node {1} failed", table, node);
+                      return null;
+                    })
+                .toCompletableFuture());
+      }
+    }
+
+    try {
+      CompletableFuture.allOf(reads.toArray(CompletableFuture[]::new))
+          .get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      log.warnv("Warm-up did not finish within {0} ms", timeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("Warm-up interrupted");
+    } catch (Exception e) {
+      log.warn("Warm-up failed", e);
+    }
+
+    log.infov(
+        "Warmed up {0} tables on {1} nodes in {2} ms ({3} failed reads)",
+        keyspaceMetadata.getTables().size(),
+        nodes.size(),
+        System.currentTimeMillis() - start,
+        failures.get());
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.connection;
+
+import java.util.Arrays;
+import java.util.Locale;
+import org.keycloak.Config;
+
+/** Parsing of SPI options which are not plain strings or numbers. */
+public final class ConfigValues {
+  private ConfigValues() {}
+
+  /** Reads an enum option, falling back to {@code defaultValue} if the option is not set. */
+  public static <E extends Enum<E>> E getEnum(Config.Scope scope, String key, E defaultValue) {
+    String value = scope.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+
+    return parseEnum(defaultValue.getDeclaringClass(), key, value);
+  }
+
+  /**
+   * Parses an enum option case-insensitively, accepting {@code -} instead of {@code _}, e.g. {@code
+   * last-write-wins} for {@code LAST_WRITE_WINS}.
+   *
+   * @throws IllegalArgumentException naming the option and the allowed values if {@code value} is
+   *     not a constant of {@code type}
+   */
+  public static <E extends Enum<E>> E parseEnum(Class<E> type, String key, String value) {
+    String name = value.trim().replace('-', '_').toUpperCase(Locale.ROOT);
+    for (E constant : type.getEnumConstants()) {
+      if (constant.name().equals(name)) {
+        return constant;
+      }
+    }
+
+    throw new IllegalArgumentException(
+        String.format(
+            "Invalid value '%s' of option %s, expected one of %s",
+            value, key, Arrays.toString(type.getEnumConstants())));
+  }
+}
@@ -18,6 +18,8 @@ package de.arbeitsagentur.opdt.keycloak.cassandra.connection;
 import com.datastax.oss.driver.api.core.ConsistencyLevel;
 import com.datastax.oss.driver.api.core.CqlSession;
 import com.datastax.oss.driver.api.core.DefaultConsistencyLevel;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.config.ProgrammaticDriverConfigLoaderBuilder;
 import com.datastax.oss.driver.api.querybuilder.SchemaBuilder;
 import com.datastax.oss.driver.api.querybuilder.schema.CreateKeyspace;
 import com.datastax.oss.driver.internal.core.type.codec.extras.enums.EnumNameCodec;
@@ -26,24 +28,34 @@ import com.google.auto.service.AutoService;
 import de.arbeitsagentur.opdt.keycloak.cassandra.CassandraJsonSerialization;
 import de.arbeitsagentur.opdt.keycloak.cassandra.CompositeRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.ManagedCompositeCassandraRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.StatementGroupExecutor;
 import de.arbeitsagentur.opdt.keycloak.cassandra.authSession.persistence.AuthSessionMapper;
 import de.arbeitsagentur.opdt.keycloak.cassandra.authSession.persistence.AuthSessionMapperBuilder;
 import de.arbeitsagentur.opdt.keycloak.cassandra.authSession.persistence.AuthSessionRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.authSession.persistence.CassandraAuthSessionRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.CacheInvocationTable;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.CacheStatistics;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.CacheStatisticsExporter;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.ClusterCacheInvalidation;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.KeycloakSessionCache;
 import de.arbeitsagentur.opdt.keycloak.cassandra.cache.L1CacheInterceptor;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.L2Cache;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.NegativeLookupCache;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.ParsedAttributeCache;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.persistence.CacheInvalidationMapper;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.persistence.CacheInvalidationMapperBuilder;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.persistence.CassandraCacheInvalidationRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.CassandraClientRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.ClientCacheKeyResolver;
 import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.ClientMapper;
 import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.ClientMapperBuilder;
-import de.arbeitsagentur.opdt.keycloak.cassandra.client.persistence.ClientRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.CassandraClientScopeRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.ClientScopeMapper;
 import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.ClientScopeMapperBuilder;
-import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.ClientScopeRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScopeValue;
 import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.CassandraGroupRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.GroupMapper;
 import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.GroupMapperBuilder;
-import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.GroupRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.GroupValue;
 import de.arbeitsagentur.opdt.keycloak.cassandra.loginFailure.persistence.CassandraLoginFailureRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.loginFailure.persistence.LoginFailureMapper;
@@ -52,31 +64,34 @@ import de.arbeitsagentur.opdt.keycloak.cassandra.loginFailure.persistence.LoginF
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.CassandraRealmRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.RealmMapper;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.RealmMapperBuilder;
-import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.RealmRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.CassandraRoleRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.RoleMapper;
 import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.RoleMapperBuilder;
-import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.RoleRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.RoleValue;
 import de.arbeitsagentur.opdt.keycloak.cassandra.singleUseObject.persistence.CassandraSingleUseObjectRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.singleUseObject.persistence.SingleUseObjectMapper;
 import de.arbeitsagentur.opdt.keycloak.cassandra.singleUseObject.persistence.SingleUseObjectMapperBuilder;
 import de.arbeitsagentur.opdt.keycloak.cassandra.singleUseObject.persistence.SingleUseObjectRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.WriteMode;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.CassandraUserRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.UserCacheKeyResolver;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.UserCountReconciliation;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.UserMapper;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.UserMapperBuilder;
-import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.UserRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.CredentialValue;
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.CassandraUserSessionRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.UserSessionMapper;
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.UserSessionMapperBuilder;
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.UserSessionRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.entities.AuthenticatedClientSessionValue;
-import java.lang.reflect.Proxy;
 import java.net.InetSocketAddress;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import lombok.extern.jbosslog.JBossLog;
 import org.cognitor.cassandra.migration.Database;
@@ -96,8 +111,30 @@ public class DefaultCassandraConnectionProviderFactory
     implements CassandraConnectionProviderFactory<CassandraConnectionProvider>,
         EnvironmentDependentProviderFactory {
   public static final String PROVIDER_ID = "default";
+
+  // L2 caches of the areas whose write mode can be configured
+  private static final Map<String, String> L2_CACHES =
+      Map.of(
+          "realms", KeycloakSessionCache.REALM_CACHE,
+          "clients", KeycloakSessionCache.CLIENT_CACHE,
+          "clientScopes", KeycloakSessionCache.CLIENT_SCOPE_CACHE,
+          "roles", KeycloakSessionCache.ROLE_CACHE,
+          "groups", KeycloakSessionCache.GROUP_CACHE);
+
   private CqlSession cqlSession;
   private CompositeRepository repository;
+  private CacheInvocationTable cacheInvocationTable;
+  private L2Cache l2Cache;
+  private NegativeLookupCache negativeLookupCache;
+  private ClusterCacheInvalidation clusterCacheInvalidation;
+  private StatementGroupExecutor userIndexWriter;
+  private ExecutorService backgroundJobs;
+  private boolean userSearchIndexEnabled;
+  private long userCountReconciliationIntervalMillis;
+  private UserCountReconciliation userCountReconciliation;
+  private final Map<String, WriteMode> writeModes = new HashMap<>();
+  private int conflictMaxRetries;
+  private long conflictRetryBackoffMillis;
 
   @Override
   public CassandraConnectionProvider create(KeycloakSession session) {
@@ -109,12 +146,9 @@ public class DefaultCassandraConnectionProviderFactory
 
       @Override
       public CompositeRepository getRepository() {
-        L1CacheInterceptor intercepted = new L1CacheInterceptor(session, repository);
-        return (CompositeRepository)
-            Proxy.newProxyInstance(
-                Thread.currentThread().getContextClassLoader(),
-                new Class[] {CompositeRepository.class},
-                intercepted);
+        L1CacheInterceptor intercepted =
+            new L1CacheInterceptor(session, repository, cacheInvocationTable);
+        return cacheInvocationTable.newProxy(intercepted);
       }
 
       @Override
@@ -171,12 +205,17 @@ public class DefaultCassandraConnectionProviderFactory
       log.info("Skipping schema creation...");
     }
 
+    ProgrammaticDriverConfigLoaderBuilder driverConfig = DriverConfigLoader.programmaticBuilder();
+    RequestPolicies.configure(driverConfig, scope, getClass().getClassLoader());
+    ExecutionProfiles.configure(driverConfig, scope);
+
     cqlSession =
         CqlSession.builder()
             .addContactPoints(contactPointsList)
             .withAuthCredentials(username, password)
             .withLocalDatacenter(localDatacenter)
             .withKeyspace(keyspace)
+            .withConfigLoader(driverConfig.build())
             .addTypeCodecs(new EnumNameCodec<>(UserSessionModel.State.class))
             .addTypeCodecs(new EnumNameCodec<>(UserSessionModel.SessionPersistenceState.class))
             .addTypeCodecs(new EnumNameCodec<>(CommonClientSessionModel.ExecutionStatus.class))
@@ -192,7 +231,114 @@ public class DefaultCassandraConnectionProviderFactory
                 new JsonCodec<>(ClientScopeValue.class, CassandraJsonSerialization.getMapper()))
             .build();
 
+    if (scope.getBoolean("l2CacheEnabled", false)) {
+      long maxBytes = scope.getLong("l2CacheMaxBytes", 64L * 1024 * 1024);
+      long maxStalenessMillis = scope.getLong("l2CacheMaxStalenessMillis", 0L);
+      log.infov(
+          "Enable L2 cache with maxBytes {0} and maxStalenessMillis {1}",
+          maxBytes, maxStalenessMillis);
+      l2Cache = new L2Cache(maxBytes, maxStalenessMillis);
+    } else {
+      l2Cache = L2Cache.disabled();
+    }
+
+    long invalidationPollIntervalMillis =
+        scope.getLong("l2CacheInvalidationPollIntervalMillis", 1000L);
+    if (l2Cache.isEnabled() && invalidationPollIntervalMillis > 0) {
+      long overlapMillis = scope.getLong("l2CacheInvalidationOverlapMillis", 5000L);
+      log.infov(
+          "Enable cluster-wide L2 cache invalidation with pollIntervalMillis {0} and overlapMillis {1}",
+          invalidationPollIntervalMillis, overlapMillis);
+      CacheInvalidationMapper cacheInvalidationMapper =
+          new CacheInvalidationMapperBuilder(cqlSession).withSchemaValidationEnabled(false).build();
+      clusterCacheInvalidation =
+          new ClusterCacheInvalidation(
+              new CassandraCacheInvalidationRepository(
+                  cacheInvalidationMapper.cacheInvalidationDao()),
+              l2Cache,
+              overlapMillis);
+      clusterCacheInvalidation.start(invalidationPollIntervalMillis);
+    }
+
+    long negativeLookupCacheTtlMillis = scope.getLong("negativeLookupCacheTtlMillis", 0L);
+    if (negativeLookupCacheTtlMillis > 0) {
+      int maxEntries = scope.getInt("negativeLookupCacheMaxEntries", 10000);
+      log.infov(
+          "Enable negative lookup cache with maxEntries {0} and ttlMillis {1}",
+          maxEntries, negativeLookupCacheTtlMillis);
+      negativeLookupCache = new NegativeLookupCache(maxEntries, negativeLookupCacheTtlMillis);
+    } else {
+      negativeLookupCache = NegativeLookupCache.disabled();
+    }
+
+    ServiceLoader.load(CacheStatisticsExporter.class, getClass().getClassLoader())
+        .forEach(
+            exporter -> {
+              log.infov("Export cache statistics with {0}", exporter.getClass().getName());
+              CacheStatistics.addListener(exporter::export);
+            });
+
+    int parsedAttributeCacheMaxEntries = scope.getInt("parsedAttributeCacheMaxEntries", 10000);
+    log.infov("Parsed attribute cache maxEntries: {0}", parsedAttributeCacheMaxEntries);
+    ParsedAttributeCache.setInstance(new ParsedAttributeCache(parsedAttributeCacheMaxEntries));
+
+    StatementGroupExecutor.Mode userIndexWriteMode =
+        ConfigValues.getEnum(scope, "userIndexWriteMode", StatementGroupExecutor.Mode.LOGGED_BATCH);
+    int userIndexWriteConcurrency = scope.getInt("userIndexWriteConcurrency", 8);
+    log.infov(
+        "User index write mode: {0}, concurrency: {1}",
+        userIndexWriteMode, userIndexWriteConcurrency);
+    userIndexWriter = new StatementGroupExecutor(userIndexWriteMode, userIndexWriteConcurrency);
+
+    userSearchIndexEnabled = scope.getBoolean("userSearchIndexEnabled", false);
+    log.infov("User search index enabled: {0}", userSearchIndexEnabled);
+
+    userCountReconciliationIntervalMillis =
+        scope.getLong("userCountReconciliationIntervalMillis", 0L);
+    log.infov("User count reconciliation interval: {0} ms", userCountReconciliationIntervalMillis);
+
+    backgroundJobs =
+        Executors.newSingleThreadExecutor(
+            r -> {
+              Thread thread = new Thread(r, "cassandra-background-jobs");
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    for (String area : List.of("users", "realms", "clients", "roles", "groups", "clientScopes")) {
+      WriteMode writeMode = ConfigValues.getEnum(scope, area + "WriteMode", WriteMode.LWT);
+      log.infov("Write mode of {0}: {1}", area, writeMode);
+      writeModes.put(area, writeMode);
+
+      String l2CacheName = L2_CACHES.get(area);
+      if (writeMode == WriteMode.LAST_WRITE_WINS && l2CacheName != null && l2Cache.isEnabled()) {
+        log.infov("Bypass L2 cache {0} because {1} are written last-write-wins", l2CacheName, area);
+        l2Cache.bypass(l2CacheName);
+      }
+    }
+
+    conflictMaxRetries = scope.getInt("conflictMaxRetries", 5);
+    conflictRetryBackoffMillis = scope.getLong("conflictRetryBackoffMillis", 20L);
+    log.infov(
+        "Conflict retries of roles, groups and client scopes: maxRetries {0}, backoffMillis {1}",
+        conflictMaxRetries, conflictRetryBackoffMillis);
+
+    long repositoryStart = System.currentTimeMillis();
     repository = createRepository(cqlSession);
+    log.infov(
+        "Created repositories and prepared their statements in {0} ms",
+        System.currentTimeMillis() - repositoryStart);
+
+    if (scope.getBoolean("warmUpEnabled", false)) {
+      new CassandraWarmUp(cqlSession, keyspace, scope.getLong("warmUpTimeoutMillis", 30000L)).run();
+    }
+    cacheInvocationTable =
+        CacheInvocationTable.create(
+            CompositeRepository.class,
+            repository.getClass(),
+            Map.of(
+                KeycloakSessionCache.USER_CACHE, new UserCacheKeyResolver(),
+                KeycloakSessionCache.CLIENT_CACHE, new ClientCacheKeyResolver()));
   }
 
   private void createDbIfNotExists(
@@ -228,6 +374,15 @@ public class DefaultCassandraConnectionProviderFactory
 
   @Override
   public void close() {
+    if (clusterCacheInvalidation != null) {
+      clusterCacheInvalidation.close();
+    }
+    if (userCountReconciliation != null) {
+      userCountReconciliation.close();
+    }
+    if (backgroundJobs != null) {
+      backgroundJobs.shutdownNow();
+    }
     cqlSession.close();
   }
 
@@ -256,50 +411,117 @@ public class DefaultCassandraConnectionProviderFactory
 
   private CompositeRepository createRepository(CqlSession cqlSession) {
     UserMapper userMapper =
-        new UserMapperBuilder(cqlSession).withSchemaValidationEnabled(false).build();
-    UserRepository userRepository = new CassandraUserRepository(userMapper.userDao());
+        new UserMapperBuilder(cqlSession)
+            .withSchemaValidationEnabled(false)
+            .withDefaultExecutionProfileName(ExecutionProfiles.USERS)
+            .build();
+    CassandraUserRepository userRepository =
+        new CassandraUserRepository(
+            userMapper.userDao(),
+            negativeLookupCache,
+            userIndexWriter,
+            backgroundJobs,
+            userSearchIndexEnabled);
 
     RoleMapper roleMapper =
-        new RoleMapperBuilder(cqlSession).withSchemaValidationEnabled(false).build();
-    RoleRepository roleRepository = new CassandraRoleRepository(roleMapper.roleDao());
+        new RoleMapperBuilder(cqlSession)
+            .withSchemaValidationEnabled(false)
+            .withDefaultExecutionProfileName(ExecutionProfiles.REALMS)
+            .build();
+    CassandraRoleRepository roleRepository = new CassandraRoleRepository(roleMapper.roleDao());
 
     GroupMapper groupMapper =
-        new GroupMapperBuilder(cqlSession).withSchemaValidationEnabled(false).build();
-    GroupRepository groupRepository = new CassandraGroupRepository(groupMapper.groupDao());
+        new GroupMapperBuilder(cqlSession)
+            .withSchemaValidationEnabled(false)
+            .withDefaultExecutionProfileName(ExecutionProfiles.REALMS)
+            .build();
+    CassandraGroupRepository groupRepository = new CassandraGroupRepository(groupMapper.groupDao());
 
     RealmMapper realmMapper =
-        new RealmMapperBuilder(cqlSession).withSchemaValidationEnabled(false).build();
-    RealmRepository realmRepository = new CassandraRealmRepository(realmMapper.realmDao());
+        new RealmMapperBuilder(cqlSession)
+            .withSchemaValidationEnabled(false)
+            .withDefaultExecutionProfileName(ExecutionProfiles.REALMS)
+            .build();
+    CassandraRealmRepository realmRepository =
+        new CassandraRealmRepository(realmMapper.realmDao(), negativeLookupCache);
 
     UserSessionMapper userSessionMapper =
-        new UserSessionMapperBuilder(cqlSession).withSchemaValidationEnabled(false).build();
+        new UserSessionMapperBuilder(cqlSession)
+            .withSchemaValidationEnabled(false)
+            .withDefaultExecutionProfileName(ExecutionProfiles.SESSIONS)
+            .build();
     UserSessionRepository userSessionRepository =
         new CassandraUserSessionRepository(userSessionMapper.userSessionDao());
 
     AuthSessionMapper authSessionMapper =
-        new AuthSessionMapperBuilder(cqlSession).withSchemaValidationEnabled(false).build();
+        new AuthSessionMapperBuilder(cqlSession)
+            .withSchemaValidationEnabled(false)
+            .withDefaultExecutionProfileName(ExecutionProfiles.EPHEMERAL)
+            .build();
     AuthSessionRepository authSessionRepository =
         new CassandraAuthSessionRepository(authSessionMapper.authSessionDao());
 
     LoginFailureMapper loginFailureMapper =
-        new LoginFailureMapperBuilder(cqlSession).withSchemaValidationEnabled(false).build();
+        new LoginFailureMapperBuilder(cqlSession)
+            .withSchemaValidationEnabled(false)
+            .withDefaultExecutionProfileName(ExecutionProfiles.EPHEMERAL)
+            .build();
     LoginFailureRepository loginFailureRepository =
         new CassandraLoginFailureRepository(loginFailureMapper.loginFailureDao());
 
     SingleUseObjectMapper singleUseObjectMapper =
-        new SingleUseObjectMapperBuilder(cqlSession).withSchemaValidationEnabled(false).build();
+        new SingleUseObjectMapperBuilder(cqlSession)
+            .withSchemaValidationEnabled(false)
+            .withDefaultExecutionProfileName(ExecutionProfiles.EPHEMERAL)
+            .build();
     SingleUseObjectRepository singleUseObjectRepository =
         new CassandraSingleUseObjectRepository(singleUseObjectMapper.singleUseObjectDao());
 
     ClientMapper clientMapper =
-        new ClientMapperBuilder(cqlSession).withSchemaValidationEnabled(false).build();
-    ClientRepository clientRepository = new CassandraClientRepository(clientMapper.clientDao());
+        new ClientMapperBuilder(cqlSession)
+            .withSchemaValidationEnabled(false)
+            .withDefaultExecutionProfileName(ExecutionProfiles.REALMS)
+            .build();
+    CassandraClientRepository clientRepository =
+        new CassandraClientRepository(clientMapper.clientDao(), negativeLookupCache);
 
     ClientScopeMapper clientScopeMapper =
-        new ClientScopeMapperBuilder(cqlSession).withSchemaValidationEnabled(false).build();
-    ClientScopeRepository clientScopeRepository =
+        new ClientScopeMapperBuilder(cqlSession)
+            .withSchemaValidationEnabled(false)
+            .withDefaultExecutionProfileName(ExecutionProfiles.REALMS)
+            .build();
+    CassandraClientScopeRepository clientScopeRepository =
         new CassandraClientScopeRepository(clientScopeMapper.clientScopeDao());
 
+    userRepository.setWriteMode(writeModes.get("users"));
+    realmRepository.setWriteMode(writeModes.get("realms"));
+    clientRepository.setWriteMode(writeModes.get("clients"));
+    roleRepository.setWriteMode(writeModes.get("roles"));
+    groupRepository.setWriteMode(writeModes.get("groups"));
+    clientScopeRepository.setWriteMode(writeModes.get("clientScopes"));
+
+    roleRepository.setConflictRetry(conflictMaxRetries, conflictRetryBackoffMillis);
+    groupRepository.setConflictRetry(conflictMaxRetries, conflictRetryBackoffMillis);
+    clientScopeRepository.setConflictRetry(conflictMaxRetries, conflictRetryBackoffMillis);
+
+    if (clusterCacheInvalidation != null) {
+      realmRepository.setClusterCacheInvalidation(
+          KeycloakSessionCache.REALM_CACHE, clusterCacheInvalidation);
+      clientRepository.setClusterCacheInvalidation(
+          KeycloakSessionCache.CLIENT_CACHE, clusterCacheInvalidation);
+      clientScopeRepository.setClusterCacheInvalidation(
+          KeycloakSessionCache.CLIENT_SCOPE_CACHE, clusterCacheInvalidation);
+      roleRepository.setClusterCacheInvalidation(
+          KeycloakSessionCache.ROLE_CACHE, clusterCacheInvalidation);
+      groupRepository.setClusterCacheInvalidation(
+          KeycloakSessionCache.GROUP_CACHE, clusterCacheInvalidation);
+    }
+
+    if (userCountReconciliationIntervalMillis > 0) {
+      userCountReconciliation = new UserCountReconciliation(userRepository, realmRepository);
+      userCountReconciliation.start(userCountReconciliationIntervalMillis);
+    }
+
     ManagedCompositeCassandraRepository cassandraRepository =
         new ManagedCompositeCassandraRepository();
     cassandraRepository.setRoleRepository(roleRepository);
@@ -312,6 +534,7 @@ public class DefaultCassandraConnectionProviderFactory
     cassandraRepository.setSingleUseObjectRepository(singleUseObjectRepository);
     cassandraRepository.setClientRepository(clientRepository);
     cassandraRepository.setClientScopeRepository(clientScopeRepository);
+    cassandraRepository.setL2Cache(l2Cache);
 
     return cassandraRepository;
   }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.connection;
+
+import com.datastax.oss.driver.api.core.DefaultConsistencyLevel;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.config.ProgrammaticDriverConfigLoaderBuilder;
+import java.time.Duration;
+import java.util.List;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.Config;
+
+/**
+ * Driver execution profiles per storage area. Every profile inherits the driver defaults and can
+ * override consistency, serial consistency, request timeout and page size, e.g. {@code
+ * --spi-cassandra-connection-default-profile-ephemeral-consistency=LOCAL_ONE}.
+ */
+@JBossLog
+public final class ExecutionProfiles {
+  /** Single-use objects, authentication sessions and login failures. */
+  public static final String EPHEMERAL = "ephemeral";
+
+  /** User sessions. */
+  public static final String SESSIONS = "sessions";
+
+  /** Users, credentials, consents and federated identities. */
+  public static final String USERS = "users";
+
+  /** Realms, clients, client scopes, roles and groups. */
+  public static final String REALMS = "realms";
+
+  /** Reads of whole tables or realm-wide partitions. */
+  public static final String SCANS = "scans";
+
+  private static final List<String> PROFILES = List.of(EPHEMERAL, SESSIONS, USERS, REALMS, SCANS);
+
+  private ExecutionProfiles() {}
+
+  public static void configure(ProgrammaticDriverConfigLoaderBuilder builder, Config.Scope scope) {
+    // The driver ignores profiles without any option, so every profile at least defines the
+    // consistency, falling back to the one of the default profile.
+    String defaultConsistency;
+    try (DriverConfigLoader defaults = DriverConfigLoader.fromClasspath("application")) {
+      defaultConsistency =
+          defaults
+              .getInitialConfig()
+              .getDefaultProfile()
+              .getString(DefaultDriverOption.REQUEST_CONSISTENCY);
+    }
+
+    for (String profile : PROFILES) {
+      String prefix = "profile" + Character.toUpperCase(profile.charAt(0)) + profile.substring(1);
+      builder.startProfile(profile);
+
+      String consistency = scope.get(prefix + "Consistency", defaultConsistency);
+      builder.withString(
+          DefaultDriverOption.REQUEST_CONSISTENCY,
+          DefaultConsistencyLevel.valueOf(consistency).name());
+
+      String serialConsistency = scope.get(prefix + "SerialConsistency");
+      if (serialConsistency != null) {
+        builder.withString(
+            DefaultDriverOption.REQUEST_SERIAL_CONSISTENCY,
+            DefaultConsistencyLevel.valueOf(serialConsistency).name());
+      }
+
+      Long timeoutMillis = scope.getLong(prefix + "TimeoutMillis");
+      if (timeoutMillis != null) {
+        builder.withDuration(DefaultDriverOption.REQUEST_TIMEOUT, Duration.ofMillis(timeoutMillis));
+      }
+
+      Integer pageSize = scope.getInt(prefix + "PageSize");
+      if (pageSize != null) {
+        builder.withInt(DefaultDriverOption.REQUEST_PAGE_SIZE, pageSize);
+      }
+
+      log.infov(
+          "Execution profile {0}: consistency {1}, serialConsistency {2}, timeoutMillis {3},"
+              + " pageSize {4}",
+          profile, consistency, serialConsistency, timeoutMillis, pageSize);
+      builder.endProfile();
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.connection;
+
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.ProgrammaticDriverConfigLoaderBuilder;
+import java.time.Duration;
+import java.util.List;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.Config;
+
+/**
+ * Speculative execution, request throttling and metrics of the driver.
+ *
+ * <p>Speculative executions are only sent for idempotent statements. The query builder used by the
+ * mapper marks all selects and all writes without conditions as idempotent.
+ */
+@JBossLog
+public final class RequestPolicies {
+  private static final String MICROMETER_METRICS_FACTORY =
+      "com.datastax.oss.driver.internal.metrics.micrometer.MicrometerMetricsFactory";
+
+  private RequestPolicies() {}
+
+  public static void configure(
+      ProgrammaticDriverConfigLoaderBuilder builder, Config.Scope scope, ClassLoader classLoader) {
+    int maxSpeculativeExecutions = scope.getInt("speculativeExecutionMaxExecutions", 1);
+    if (maxSpeculativeExecutions > 1) {
+      long delayMillis = scope.getLong("speculativeExecutionDelayMillis", 100L);
+      log.infov(
+          "Enable speculative executions with maxExecutions {0} and delayMillis {1}",
+          maxSpeculativeExecutions, delayMillis);
+      builder
+          .withString(
+              DefaultDriverOption.SPECULATIVE_EXECUTION_POLICY_CLASS,
+              "ConstantSpeculativeExecutionPolicy")
+          .withInt(DefaultDriverOption.SPECULATIVE_EXECUTION_MAX, maxSpeculativeExecutions)
+          .withDuration(
+              DefaultDriverOption.SPECULATIVE_EXECUTION_DELAY, Duration.ofMillis(delayMillis));
+    }
+
+    int maxConcurrentRequests = scope.getInt("requestThrottlerMaxConcurrentRequests", 0);
+    if (maxConcurrentRequests > 0) {
+      int maxQueueSize = scope.getInt("requestThrottlerMaxQueueSize", 10000);
+      log.infov(
+          "Enable request throttling with maxConcurrentRequests {0} and maxQueueSize {1}",
+          maxConcurrentRequests, maxQueueSize);
+      builder
+          .withString(
+              DefaultDriverOption.REQUEST_THROTTLER_CLASS, "ConcurrencyLimitingRequestThrottler")
+          .withInt(
+              DefaultDriverOption.REQUEST_THROTTLER_MAX_CONCURRENT_REQUESTS, maxConcurrentRequests)
+          .withInt(DefaultDriverOption.REQUEST_THROTTLER_MAX_QUEUE_SIZE, maxQueueSize);
+    }
+
+    if (isMicrometerAvailable(classLoader)) {
+      log.info("Export driver metrics with Micrometer");
+      builder
+          .withString(DefaultDriverOption.METRICS_FACTORY_CLASS, "MicrometerMetricsFactory")
+          .withString(DefaultDriverOption.METRICS_ID_GENERATOR_CLASS, "TaggingMetricIdGenerator")
+          .withString(DefaultDriverOption.METRICS_ID_GENERATOR_PREFIX, "keycloak.cassandra.driver")
+          .withStringList(
+              DefaultDriverOption.METRICS_SESSION_ENABLED,
+              List.of(
+                  "cql-requests",
+                  "cql-client-timeouts",
+                  "throttling.delay",
+                  "throttling.queue-size",
+                  "throttling.errors"))
+          .withStringList(
+              DefaultDriverOption.METRICS_NODE_ENABLED,
+              List.of("speculative-executions", "retries.total", "errors.request.unavailables"));
+    }
+  }
+
+  private static boolean isMicrometerAvailable(ClassLoader classLoader) {
+    try {
+      Class.forName(MICROMETER_METRICS_FACTORY, false, classLoader);
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+}
@@ -1,59 +1,59 @@
 package de.arbeitsagentur.opdt.keycloak.cassandra.group;
 
-import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.GroupValue;
-import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.Groups;
+import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.GroupRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.Group;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalModelAdapter;
 import java.util.*;
 import java.util.stream.Stream;
 import lombok.EqualsAndHashCode;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.models.*;
 import org.keycloak.models.utils.RoleUtils;
 
 @JBossLog
-@RequiredArgsConstructor
-@EqualsAndHashCode(of = "groupId")
-public class CassandraGroupAdapter implements GroupModel {
-  private final String groupId;
-
+@EqualsAndHashCode(callSuper = true)
+public class CassandraGroupAdapter extends TransactionalModelAdapter<Group> implements GroupModel {
   protected final KeycloakSession session;
   private final RealmModel realm;
-  private final GroupValue groupValue;
-  private final Groups groups;
+  private final GroupRepository groupRepository;
   private final CassandraGroupProvider provider;
+  private String persistedName;
+  private String persistedParentId;
+  private Group base;
 
-  @Override
-  public String getId() {
-    return groupValue.getId();
+  public CassandraGroupAdapter(
+      Group entity,
+      KeycloakSession session,
+      RealmModel realm,
+      GroupRepository groupRepository,
+      CassandraGroupProvider provider) {
+    super(entity);
+    this.session = session;
+    this.realm = realm;
+    this.groupRepository = groupRepository;
+    this.provider = provider;
+    this.persistedName = entity.getName();
+    this.persistedParentId = entity.getParentId();
+    this.base = entity.getVersion() == null ? null : entity.copy();
   }
 
-  @Override
-  public String getName() {
-    return groupValue.getName();
+  public Group getEntity() {
+    return entity;
   }
 
-  @Override
-  public void setName(String name) {
-    groupValue.setName(name);
-    provider.markChanged(realm.getId());
+  public RealmModel getRealm() {
+    return realm;
   }
 
   @Override
-  public void setSingleAttribute(String name, String value) {
-    groupValue.getAttributes().remove(name);
-    setAttribute(name, Collections.singletonList(value));
-  }
-
-  @Override
-  public void setAttribute(String name, List<String> values) {
-    groupValue.getAttributes().put(name, values);
-    provider.markChanged(realm.getId());
+  public String getName() {
+    return entity.getName();
   }
 
   @Override
-  public void removeAttribute(String name) {
-    groupValue.getAttributes().remove(name);
-    provider.markChanged(realm.getId());
+  public void setName(String name) {
+    entity.setName(name);
+    markUpdated();
   }
 
   @Override
@@ -63,12 +63,12 @@ public class CassandraGroupAdapter implements GroupModel {
 
   @Override
   public Stream<String> getAttributeStream(String name) {
-    return groupValue.getAttributes().getOrDefault(name, Collections.emptyList()).stream();
+    return entity.getAttributes().getOrDefault(name, Collections.emptyList()).stream();
   }
 
   @Override
   public Map<String, List<String>> getAttributes() {
-    return groupValue.getAttributes();
+    return entity.getAttributes();
   }
 
   @Override
@@ -77,27 +77,33 @@ public class CassandraGroupAdapter implements GroupModel {
     if (parentId == null) {
       return null;
     }
-    return new CassandraGroupAdapter(
-        parentId, session, realm, groups.getGroupById(parentId), groups, provider);
+    return provider.getGroupById(realm, parentId);
   }
 
   @Override
   public String getParentId() {
-    return groupValue.getParentId();
+    return entity.getParentId();
   }
 
   @Override
   public Stream<GroupModel> getSubGroupsStream() {
-    return groups.getRealmGroupsByParentId(groupValue.getId()).stream()
-        .map(
-            group ->
-                new CassandraGroupAdapter(group.getId(), session, realm, group, groups, provider));
+    return getSubGroupsStream(null, null);
+  }
+
+  @Override
+  public Stream<GroupModel> getSubGroupsStream(Integer firstResult, Integer maxResults) {
+    return provider.getSubGroupsStream(realm, getId(), null, false, firstResult, maxResults);
+  }
+
+  @Override
+  public Long getSubGroupsCount() {
+    return provider.getSubGroupsCount(realm, getId());
   }
 
   @Override
   public void setParent(GroupModel group) {
-    groupValue.setParentId(group == null ? null : group.getId());
-    provider.markChanged(realm.getId());
+    entity.setParentId(group == null ? null : group.getId());
+    markUpdated();
   }
 
   @Override
@@ -128,8 +134,7 @@ public class CassandraGroupAdapter implements GroupModel {
 
   @Override
   public boolean hasDirectRole(RoleModel role) {
-    Set<String> grantedRoles = groupValue.getGrantedRoles();
-    return grantedRoles != null && grantedRoles.contains(role.getId());
+    return entity.getGrantedRoles().contains(role.getId());
   }
 
   @Override
@@ -141,22 +146,37 @@ public class CassandraGroupAdapter implements GroupModel {
 
   @Override
   public void grantRole(RoleModel role) {
-    groupValue.addGrantedRole(role.getId());
-    provider.markChanged(realm.getId());
+    if (entity.getGrantedRoles().add(role.getId())) {
+      markUpdated();
+    }
   }
 
   @Override
   public Stream<RoleModel> getRoleMappingsStream() {
-    Set<String> grantedRoles = groupValue.getGrantedRoles();
-
-    return grantedRoles == null
-        ? Stream.empty()
-        : grantedRoles.stream().map(roleId -> session.roles().getRoleById(realm, roleId));
+    return entity.getGrantedRoles().stream()
+        .map(roleId -> session.roles().getRoleById(realm, roleId))
+        .filter(Objects::nonNull);
   }
 
   @Override
   public void deleteRoleMapping(RoleModel role) {
-    groupValue.removeGrantedRole(role.getId());
-    provider.markChanged(realm.getId());
+    if (entity.getGrantedRoles().remove(role.getId())) {
+      markUpdated();
+    }
+  }
+
+  @Override
+  protected void flushChanges() {
+    groupRepository.insertOrUpdate(entity, base);
+
+    if (persistedName != null
+        && (!persistedName.equals(entity.getName())
+            || !Objects.equals(persistedParentId, entity.getParentId()))) {
+      groupRepository.deleteGroupByParent(
+          entity.getRealmId(), persistedParentId, persistedName, entity.getId());
+    }
+    persistedName = entity.getName();
+    persistedParentId = entity.getParentId();
+    base = entity.copy();
   }
 }
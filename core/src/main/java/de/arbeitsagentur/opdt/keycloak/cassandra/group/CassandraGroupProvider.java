@@ -4,69 +4,83 @@ import static de.arbeitsagentur.opdt.keycloak.common.MapProviderObjectType.GROUP
 import static de.arbeitsagentur.opdt.keycloak.common.MapProviderObjectType.GROUP_BEFORE_REMOVE;
 
 import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.GroupRepository;
-import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.GroupValue;
-import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.Groups;
-import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.CassandraModelTransaction;
+import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.Group;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalProvider;
 import java.util.*;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.models.*;
 import org.keycloak.models.utils.KeycloakModelUtils;
 
 @JBossLog
-public class CassandraGroupProvider implements GroupProvider {
-  private final KeycloakSession session;
+public class CassandraGroupProvider extends TransactionalProvider<Group, CassandraGroupAdapter>
+    implements GroupProvider {
   private final GroupRepository groupRepository;
 
-  private final Map<String, Groups> groupsByRealmId = new HashMap<>();
-  private final Set<String> groupsChanged = new HashSet<>();
-  private final Set<String> groupsDeleted = new HashSet<>();
-
   public CassandraGroupProvider(KeycloakSession session, GroupRepository groupRepository) {
+    super(session);
     this.groupRepository = groupRepository;
-    this.session = session;
   }
 
-  public void markChanged(String realmId) {
-    groupsChanged.add(realmId);
+  @Override
+  protected CassandraGroupAdapter createNewModel(RealmModel realm, Group entity) {
+    return new CassandraGroupAdapter(entity, session, realm, groupRepository, this);
   }
 
-  public void markDeleted(String realmId) {
-    groupsDeleted.add(realmId);
+  private Stream<CassandraGroupAdapter> getModelsByRealmId(String realmId) {
+    return models.values().stream().filter(m -> m.getEntity().getRealmId().equals(realmId));
   }
 
-  private Groups getGroups(String realmId) {
-    if (groupsByRealmId.containsKey(realmId)) {
-      return groupsByRealmId.get(realmId);
-    }
-
-    Groups groups = groupRepository.getGroupsByRealmId(realmId);
-    groupsByRealmId.put(realmId, groups);
-
-    session
-        .getTransactionManager()
-        .enlistAfterCompletion(
-            (CassandraModelTransaction)
-                () -> {
-                  if (groupsChanged.contains(realmId) && !groupsDeleted.contains(realmId)) {
-                    groupRepository.insertOrUpdate(groups);
-                  }
+  // Groups are written on commit, so groups added in this session are not stored yet
+  private Stream<CassandraGroupAdapter> getAddedModels(String realmId) {
+    return getModelsByRealmId(realmId).filter(m -> m.getEntity().getVersion() == null);
+  }
 
-                  groupsByRealmId.remove(realmId);
-                  groupsChanged.remove(realmId);
-                  groupsDeleted.remove(realmId);
-                });
+  Stream<GroupModel> getSubGroupsStream(
+      RealmModel realm,
+      String parentId,
+      String search,
+      Boolean exact,
+      Integer firstResult,
+      Integer maxResults) {
+    List<CassandraGroupAdapter> added =
+        getAddedModels(realm.getId())
+            .filter(m -> Objects.equals(m.getParentId(), parentId))
+            .filter(
+                m ->
+                    search == null
+                        || m.getName().equals(search)
+                        || !Boolean.TRUE.equals(exact)
+                            && m.getName().toLowerCase().contains(search.toLowerCase()))
+            .collect(Collectors.toList());
+
+    if (added.isEmpty()) {
+      return groupRepository
+          .getGroupsByParentId(realm.getId(), parentId, search, exact, firstResult, maxResults)
+          .stream()
+          .map(entityToAdapterFunc(realm));
+    }
 
-    return groups;
+    return Stream.concat(
+            added.stream(),
+            groupRepository
+                .getGroupsByParentId(realm.getId(), parentId, search, exact, null, null)
+                .stream()
+                .map(entityToAdapterFunc(realm)))
+        .distinct()
+        .map(GroupModel.class::cast)
+        .sorted(GroupModel.COMPARE_BY_NAME)
+        .skip(firstResult == null || firstResult < 0 ? 0 : firstResult)
+        .limit(maxResults == null || maxResults < 0 ? Long.MAX_VALUE : maxResults);
   }
 
-  private Function<GroupValue, GroupModel> entityToAdapterFunc(RealmModel realm) {
-    return origEntity ->
-        origEntity == null
-            ? null
-            : new CassandraGroupAdapter(
-                origEntity.getId(), session, realm, origEntity, getGroups(realm.getId()), this);
+  Long getSubGroupsCount(RealmModel realm, String parentId) {
+    return groupRepository.countGroupsByParentId(realm.getId(), parentId)
+        + getAddedModels(realm.getId())
+            .filter(m -> Objects.equals(m.getParentId(), parentId))
+            .count();
   }
 
   @Override
@@ -75,7 +89,7 @@ public class CassandraGroupProvider implements GroupProvider {
         "createGroup(%s, %s, %s, %s)",
         realm.getId(), id, name, toParent == null ? "null" : toParent.getId());
 
-    if (groupExists(realm.getId(), name, toParent)) {
+    if (groupExists(realm, name, toParent)) {
       throw new ModelDuplicateException(
           "Group with the same name or parent id exists:"
               + name
@@ -83,27 +97,29 @@ public class CassandraGroupProvider implements GroupProvider {
               + (toParent == null ? "null" : toParent.getId()));
     }
 
-    Groups groups = getGroups(realm.getId());
-
-    GroupValue group =
-        GroupValue.builder()
+    Group group =
+        Group.builder()
+            .realmId(realm.getId())
             .id(id == null ? KeycloakModelUtils.generateId() : id)
             .name(name)
             .parentId(toParent == null ? null : toParent.getId())
             .build();
 
-    groups.addRealmGroup(group);
-    markChanged(realm.getId());
-    return entityToAdapterFunc(realm).apply(group);
+    CassandraGroupAdapter adapter = entityToAdapterFunc(realm).apply(group);
+    adapter.markUpdated();
+    return adapter;
   }
 
   @Override
   public Stream<GroupModel> getGroupsStream(RealmModel realm) {
     log.debugf("getGroupsStream: realmId=%s", realm.getId());
 
-    Groups groups = getGroups(realm.getId());
-
-    return groups.getRealmGroups().stream().map(entityToAdapterFunc(realm));
+    return Stream.concat(
+            getAddedModels(realm.getId()),
+            groupRepository.getGroupsByRealmId(realm.getId()).stream()
+                .map(entityToAdapterFunc(realm)))
+        .distinct()
+        .map(GroupModel.class::cast);
   }
 
   @Override
@@ -112,17 +128,15 @@ public class CassandraGroupProvider implements GroupProvider {
     log.debugf(
         "getGroupsStream: realmId=%s search=%s first=%s max=%s", realm.getId(), search, first, max);
 
-    Groups groups = getGroups(realm.getId());
-
-    return ids.map(groups::getGroupById)
+    return ids.map(id -> getGroupById(realm, id))
+        .filter(Objects::nonNull)
         .filter(
             group ->
                 search == null
                     || search.isEmpty()
                     || group.getName().toLowerCase().contains(search.toLowerCase()))
         .skip(first == null || first < 0 ? 0 : first)
-        .limit(max == null || max < 0 ? Long.MAX_VALUE : max)
-        .map(entityToAdapterFunc(realm));
+        .limit(max == null || max < 0 ? Long.MAX_VALUE : max);
   }
 
   @Override
@@ -131,12 +145,10 @@ public class CassandraGroupProvider implements GroupProvider {
         "getGroupsCount: realmId=%s onlyTopGroups=%s",
         realm.getId(), Boolean.TRUE.equals(onlyTopGroups) ? "true" : "false");
 
-    Groups groups = getGroups(realm.getId());
-
     if (Boolean.TRUE.equals(onlyTopGroups)) {
-      return groups.getRealmGroups().stream().filter(group -> group.getParentId() == null).count();
+      return getSubGroupsCount(realm, null);
     } else {
-      return groups.getRealmGroups().stream().count();
+      return groupRepository.countGroups(realm.getId()) + getAddedModels(realm.getId()).count();
     }
   }
 
@@ -153,12 +165,10 @@ public class CassandraGroupProvider implements GroupProvider {
         "getGroupsByRoleStream: realmId=%s roleId=%s firstResult=%d maxResults=%d",
         realm.getId(), role.getId(), firstResult, maxResults);
 
-    Groups groups = getGroups(realm.getId());
-    return groups.getRealmGroups().stream()
-        .filter(groupValue -> groupValue.getGrantedRoles().contains(role.getId()))
+    return getGroupsStream(realm)
+        .filter(group -> group.hasDirectRole(role))
         .skip(firstResult == null || firstResult < 0 ? 0 : firstResult)
-        .limit(maxResults == null || maxResults < 0 ? Long.MAX_VALUE : maxResults)
-        .map(entityToAdapterFunc(realm));
+        .limit(maxResults == null || maxResults < 0 ? Long.MAX_VALUE : maxResults);
   }
 
   @Override
@@ -169,43 +179,33 @@ public class CassandraGroupProvider implements GroupProvider {
   @Override
   public Stream<GroupModel> getTopLevelGroupsStream(
       RealmModel realm, Integer firstResult, Integer maxResults) {
-    Groups groups = getGroups(realm.getId());
-
-    return groups.getRealmGroups().stream()
-        .filter(group -> group.getParentId() == null)
-        .skip(firstResult == null || firstResult < 0 ? 0 : firstResult)
-        .limit(maxResults == null || maxResults < 0 ? Long.MAX_VALUE : maxResults)
-        .map(entityToAdapterFunc(realm));
+    return getSubGroupsStream(realm, null, null, false, firstResult, maxResults);
   }
 
   @Override
   public Stream<GroupModel> getTopLevelGroupsStream(
       RealmModel realm, String search, Boolean exact, Integer firstResult, Integer maxResults) {
-    Groups groups = getGroups(realm.getId());
-
-    return groups.getRealmGroups().stream()
-        .filter(group -> group.getParentId() == null)
-        .filter(
-            group ->
-                group.getName().equals(search)
-                    || !exact && group.getName().toLowerCase().contains(search))
-        .skip(firstResult == null || firstResult < 0 ? 0 : firstResult)
-        .limit(maxResults == null || maxResults < 0 ? Long.MAX_VALUE : maxResults)
-        .map(entityToAdapterFunc(realm));
+    return getSubGroupsStream(realm, null, search, exact, firstResult, maxResults);
   }
 
-  private boolean groupExists(String realmId, String name, GroupModel parent) {
-    Groups groups = getGroups(realmId);
+  private boolean groupExists(RealmModel realm, String name, GroupModel parent) {
+    String parentId = parent == null ? null : parent.getId();
 
-    GroupValue groupValue =
-        groups.getRealmGroups().stream()
-            .filter(group -> group.getName().equals(name))
-            .filter(
-                subGroup ->
-                    Objects.equals(subGroup.getParentId(), parent == null ? null : parent.getId()))
-            .findFirst()
-            .orElse(null);
-    return (groupValue != null);
+    boolean existsInSession =
+        getModelsByRealmId(realm.getId())
+            .anyMatch(m -> m.getName().equals(name) && Objects.equals(m.getParentId(), parentId));
+    if (existsInSession) {
+      return true;
+    }
+
+    GroupModel group =
+        entityToAdapterFunc(realm)
+            .apply(groupRepository.getGroupByName(realm.getId(), parentId, name));
+
+    // the group may have been renamed or moved in this session
+    return group != null
+        && group.getName().equals(name)
+        && Objects.equals(group.getParentId(), parentId);
   }
 
   @Override
@@ -214,18 +214,28 @@ public class CassandraGroupProvider implements GroupProvider {
 
     if (group == null) {
       return false;
-    } else {
-      session.invalidate(GROUP_BEFORE_REMOVE, realm, group);
+    }
 
-      Groups groups = getGroups(realm.getId());
-      boolean removed = groups.removeRealmGroup(group.getId());
-      if (removed) {
-        markChanged(realm.getId());
-      }
+    CassandraGroupAdapter adapter = (CassandraGroupAdapter) getGroupById(realm, group.getId());
+    if (adapter == null) {
+      return false;
+    }
+
+    session.invalidate(GROUP_BEFORE_REMOVE, realm, group);
+
+    adapter
+        .getSubGroupsStream()
+        .collect(Collectors.toList())
+        .forEach(subGroup -> removeGroup(realm, subGroup));
 
-      session.invalidate(GROUP_AFTER_REMOVE, realm, group);
-      return removed;
+    if (adapter.getEntity().getVersion() != null) {
+      groupRepository.delete(adapter.getEntity());
     }
+    adapter.markDeleted();
+    models.remove(adapter.getId());
+
+    session.invalidate(GROUP_AFTER_REMOVE, realm, group);
+    return true;
   }
 
   @Override
@@ -238,7 +248,7 @@ public class CassandraGroupProvider implements GroupProvider {
       return;
     }
 
-    if (groupExists(realm.getId(), group.getName(), toParent)) {
+    if (groupExists(realm, group.getName(), toParent)) {
       throw new ModelDuplicateException(
           "Group with the same name or parent id exists:"
               + group.getName()
@@ -282,26 +292,22 @@ public class CassandraGroupProvider implements GroupProvider {
 
   @Override
   public void addTopLevelGroup(RealmModel realm, GroupModel subGroup) {
-    Groups groups = getGroups(realm.getId());
-    GroupValue groupToUpdate = groups.getGroupById(subGroup.getId());
-    if (groups.removeRealmGroup(groupToUpdate.getId())) {
-      groupToUpdate.setParentId(null);
-      groups.addRealmGroup(groupToUpdate);
-      markChanged(realm.getId());
+    GroupModel group = getGroupById(realm, subGroup.getId());
+    if (group != null && group.getParentId() != null) {
+      group.setParent(null);
     }
   }
 
   @Override
   public GroupModel getGroupById(RealmModel realm, String id) {
     log.debugf("getGroupById realmId=%s id=%s", realm.getId(), id);
-    Groups groups = getGroups(realm.getId());
-    GroupValue group = groups.getGroupById(id);
 
-    if (group == null) {
-      return null;
+    CassandraGroupAdapter model = models.get(id);
+    if (model != null) {
+      return model.getEntity().getRealmId().equals(realm.getId()) ? model : null;
     }
 
-    return entityToAdapterFunc(realm).apply(group);
+    return entityToAdapterFunc(realm).apply(groupRepository.getGroupById(realm.getId(), id));
   }
 
   @Override
@@ -311,21 +317,21 @@ public class CassandraGroupProvider implements GroupProvider {
         "searchGroupsByAttributes realmId=%s attributes=%s first=%d max=%d",
         realm.getId(), attributes, firstResult, maxResults);
 
-    Groups groups = getGroups(realm.getId());
-
-    return groups.getRealmGroups().stream()
+    return getGroupsStream(realm)
         .filter(
-            groupValue -> {
+            group -> {
               for (Map.Entry<String, String> entry : attributes.entrySet()) {
-                if (groupValue.getAttribute(entry.getKey()).contains(entry.getValue())) {
+                if (group
+                    .getAttributes()
+                    .getOrDefault(entry.getKey(), Collections.emptyList())
+                    .contains(entry.getValue())) {
                   return true;
                 }
               }
               return false;
             })
         .skip(firstResult == null || firstResult < 0 ? 0 : firstResult)
-        .limit(maxResults == null || maxResults < 0 ? Long.MAX_VALUE : maxResults)
-        .map(entityToAdapterFunc(realm));
+        .limit(maxResults == null || maxResults < 0 ? Long.MAX_VALUE : maxResults);
   }
 
   @Override
@@ -339,30 +345,29 @@ public class CassandraGroupProvider implements GroupProvider {
         firstResult,
         maxResults);
 
-    Groups groups = getGroups(realm.getId());
-    Stream<GroupValue> groupValueStream = groups.getRealmGroups().stream();
+    Map<String, GroupModel> groupsById =
+        getGroupsStream(realm).collect(Collectors.toMap(GroupModel::getId, Function.identity()));
+    Stream<GroupModel> groupStream = groupsById.values().stream();
 
     if (Boolean.TRUE.equals(exact)) {
-      groupValueStream = groupValueStream.filter(group -> group.getName().equals(search));
+      groupStream = groupStream.filter(group -> group.getName().equals(search));
     } else {
-      groupValueStream =
-          groupValueStream.filter(
-              group -> group.getName().toLowerCase().contains(search.toLowerCase()));
+      groupStream =
+          groupStream.filter(group -> group.getName().toLowerCase().contains(search.toLowerCase()));
     }
 
-    return groupValueStream
-        .map(GroupValue::getId)
+    return groupStream
         .map(
-            id -> {
-              GroupValue groupById = groups.getGroupById(id);
-              while (Objects.nonNull(groupById.getParentId())) {
-                groupById = groups.getGroupById(groupById.getParentId());
+            group -> {
+              GroupModel topLevelGroup = group;
+              while (topLevelGroup.getParentId() != null
+                  && groupsById.containsKey(topLevelGroup.getParentId())) {
+                topLevelGroup = groupsById.get(topLevelGroup.getParentId());
               }
-              return groupById;
+              return topLevelGroup;
             })
         .skip(firstResult == null || firstResult < 0 ? 0 : firstResult)
         .limit(maxResults == null || maxResults < 0 ? Long.MAX_VALUE : maxResults)
-        .map(entityToAdapterFunc(realm))
         .sorted(GroupModel.COMPARE_BY_NAME)
         .distinct();
   }
@@ -371,14 +376,15 @@ public class CassandraGroupProvider implements GroupProvider {
     log.debugf("removeGroups realmId=%s", realm.getId());
 
     groupRepository.deleteRealmGroups(realm.getId());
-    markDeleted(realm.getId());
-  }
 
-  @Override
-  public void close() {
-    groupsByRealmId.clear();
-    groupsChanged.clear();
-    groupsDeleted.clear();
+    // groups which are still loaded must not be written back after the realm is gone
+    getModelsByRealmId(realm.getId())
+        .collect(Collectors.toList())
+        .forEach(
+            m -> {
+              m.markDeleted();
+              models.remove(m.getId());
+            });
   }
 
   public void preRemove(RealmModel realm) {
@@ -386,7 +392,8 @@ public class CassandraGroupProvider implements GroupProvider {
   }
 
   public void preRemove(RealmModel realm, RoleModel role) {
-    getGroupsStream(realm).forEach(group -> group.deleteRoleMapping(role));
-    markChanged(realm.getId());
+    getGroupsByRoleStream(realm, role, null, null)
+        .collect(Collectors.toList())
+        .forEach(group -> group.deleteRoleMapping(role));
   }
 }
@@ -1,26 +1,291 @@
 package de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence;
 
+import com.datastax.oss.driver.api.core.PagingIterable;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.Group;
+import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.GroupByParent;
 import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.Groups;
-import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.migration.OnlineRealmMigration;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.MergingTransactionalRepository;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.models.ModelDuplicateException;
 
-public class CassandraGroupRepository extends TransactionalRepository<Groups, GroupDao>
+@JBossLog
+public class CassandraGroupRepository extends MergingTransactionalRepository<Group, GroupDao>
     implements GroupRepository {
+  private static final int MAX_IDS_PER_QUERY = 100;
+  private static final int NAME_CLAIM_SECONDS = 60;
+
+  private final OnlineRealmMigration migration;
+
   public CassandraGroupRepository(GroupDao dao) {
     super(dao);
+    this.migration =
+        new OnlineRealmMigration(
+            "groups_per_row",
+            dao,
+            realmId -> dao.getLegacyGroupsByRealmId(realmId) != null,
+            this::migrateLegacyGroups);
+  }
+
+  private static String toParentKey(String parentId) {
+    return parentId == null ? GroupByParent.TOP_LEVEL : parentId;
+  }
+
+  @Override
+  public void insertOrUpdate(Group group) {
+    insertOrUpdate(group, null);
+  }
+
+  @Override
+  public void insertOrUpdate(Group group, Group base) {
+    migration.ensureMigrated(group.getRealmId());
+
+    boolean claimed = claimName(group);
+    try {
+      super.insertOrUpdate(group, base);
+    } catch (RuntimeException e) {
+      if (claimed) {
+        releaseName(group);
+      }
+      throw e;
+    }
+
+    if (claimed
+        && !dao.confirmName(
+            group.getRealmId(),
+            toParentKey(group.getParentId()),
+            group.getName(),
+            group.getId(),
+            group.getId())) {
+      log.warnf(
+          "Claim of name %s expired before group %s was written", group.getName(), group.getId());
+    }
+  }
+
+  @Override
+  protected Group readLatest(Group group) {
+    return dao.getGroupById(group.getRealmId(), group.getId());
+  }
+
+  @Override
+  public void delete(Group group) {
+    deleteEntity(group);
+    releaseName(group);
+    publishInvalidation(getCacheKey(group), null);
+  }
+
+  @Override
+  protected String getCacheKey(Group group) {
+    // same key as used for the L2 cache in ManagedCompositeCassandraRepository
+    return group.getRealmId() + ":" + group.getId();
+  }
+
+  @Override
+  public void deleteGroupByParent(String realmId, String parentId, String name, String id) {
+    dao.releaseName(realmId, toParentKey(parentId), name, id);
+  }
+
+  @Override
+  public Group getGroupById(String realmId, String id) {
+    migration.ensureMigrated(realmId);
+    return dao.getGroupById(realmId, id);
+  }
+
+  @Override
+  public Long getGroupVersionById(String realmId, String id) {
+    migration.ensureMigrated(realmId);
+    return getVersion(dao.getVersionById(realmId, id));
+  }
+
+  @Override
+  public Group getGroupByName(String realmId, String parentId, String name) {
+    migration.ensureMigrated(realmId);
+
+    GroupByParent byName = dao.findByName(realmId, toParentKey(parentId), name);
+    if (byName == null) {
+      return null;
+    }
+
+    Group group = dao.getGroupById(realmId, byName.getId());
+    return isIndexedBy(group, byName) ? group : null;
   }
 
   @Override
-  public Groups getGroupsByRealmId(String realmId) {
-    Groups groups = dao.getGroupsByRealmId(realmId);
-    if (groups == null) {
-      groups = Groups.builder().realmId(realmId).build();
+  public List<Group> getGroupsByParentId(
+      String realmId, String parentId, String search, Boolean exact, Integer first, Integer max) {
+    migration.ensureMigrated(realmId);
+
+    // without a search, Cassandra returns at most the requested rows, otherwise the rows are read
+    // page by page until enough of them match
+    int offset = first == null || first < 0 ? 0 : first;
+    PagingIterable<GroupByParent> rows =
+        search == null && max != null && max >= 0
+            ? dao.findByParentId(
+                realmId,
+                toParentKey(parentId),
+                (int) Math.min((long) offset + max, Integer.MAX_VALUE))
+            : dao.findByParentId(realmId, toParentKey(parentId));
+
+    List<GroupByParent> entries =
+        StreamSupport.stream(rows.spliterator(), false)
+            .filter(
+                entry ->
+                    search == null
+                        || entry.getName().equals(search)
+                        || !Boolean.TRUE.equals(exact)
+                            && entry.getName().toLowerCase().contains(search.toLowerCase()))
+            .skip(offset)
+            .limit(max == null || max < 0 ? Long.MAX_VALUE : max)
+            .collect(Collectors.toList());
+
+    Map<String, Group> groupsById = new HashMap<>();
+    for (int i = 0; i < entries.size(); i += MAX_IDS_PER_QUERY) {
+      List<String> ids =
+          entries.subList(i, Math.min(i + MAX_IDS_PER_QUERY, entries.size())).stream()
+              .map(GroupByParent::getId)
+              .collect(Collectors.toList());
+      dao.getGroupsByIds(realmId, ids).forEach(group -> groupsById.put(group.getId(), group));
     }
 
-    return groups;
+    // skips index entries of groups which were renamed, moved or removed after the index was
+    // written
+    return entries.stream()
+        .map(
+            entry -> {
+              Group group = groupsById.get(entry.getId());
+              return isIndexedBy(group, entry) ? group : null;
+            })
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public long countGroupsByParentId(String realmId, String parentId) {
+    migration.ensureMigrated(realmId);
+    // isn't using count() for Amazon Keyspaces support, the rows are counted page by page
+    return StreamSupport.stream(
+            dao.findByParentId(realmId, toParentKey(parentId)).spliterator(), false)
+        .count();
+  }
+
+  @Override
+  public List<Group> getGroupsByRealmId(String realmId) {
+    migration.ensureMigrated(realmId);
+    return dao.getGroupsByRealmId(realmId).all();
+  }
+
+  @Override
+  public long countGroups(String realmId) {
+    migration.ensureMigrated(realmId);
+    // the index holds one small row per group, isn't using count() for Amazon Keyspaces support,
+    // the rows are counted page by page
+    return StreamSupport.stream(dao.findAllGroupsByParent(realmId).spliterator(), false).count();
   }
 
   @Override
   public void deleteRealmGroups(String realmId) {
-    dao.deleteAllRealmGroups(realmId);
+    dao.deleteAllGroups(realmId);
+    dao.deleteAllGroupsByParent(realmId);
+    dao.deleteLegacyGroups(realmId);
+    migration.reset(realmId);
+  }
+
+  /**
+   * Moves the groups of a realm from the legacy row holding all groups of the realm to one row per
+   * group. Groups which already exist in the new format are not overwritten.
+   */
+  private void migrateLegacyGroups(String realmId, OnlineRealmMigration.Rows rows) {
+    Groups legacyGroups = dao.getLegacyGroupsByRealmId(realmId);
+    if (legacyGroups != null) {
+      Set<String> existingIds = new HashSet<>();
+      dao.getGroupIdsByRealmId(realmId).forEach(row -> existingIds.add(row.getString("id")));
+
+      List<BoundStatement> statements = new ArrayList<>();
+      legacyGroups.getRealmGroups().stream()
+          .map(value -> Group.fromValue(realmId, value))
+          .filter(group -> !existingIds.contains(group.getId()))
+          .forEach(
+              group -> {
+                group.setVersion(1L);
+                statements.add(dao.insertStatement(group));
+                statements.add(dao.insertStatement(toGroupByParent(group)));
+              });
+
+      log.infof(
+          "Migrate %d groups of realm %s to one row per group", statements.size() / 2, realmId);
+      rows.write(statements);
+
+      dao.deleteLegacyGroups(realmId);
+    }
+  }
+
+  /**
+   * Claims the name of the group among its siblings in {@code groups_by_parent} with a lightweight
+   * transaction, so that only one of several concurrent writers of the same name succeeds. The
+   * claim expires after {@link #NAME_CLAIM_SECONDS} unless it is confirmed after the group was
+   * written. Returns false if the name already belongs to the group.
+   */
+  private boolean claimName(Group group) {
+    String realmId = group.getRealmId();
+    String parentKey = toParentKey(group.getParentId());
+
+    GroupByParent existing = dao.findByName(realmId, parentKey, group.getName());
+    if (existing != null && existing.getId().equals(group.getId())) {
+      return false;
+    }
+
+    boolean claimed =
+        existing == null
+            ? dao.claimName(toGroupByParent(group), NAME_CLAIM_SECONDS)
+            : isStale(existing)
+                && dao.takeOverName(
+                    realmId,
+                    parentKey,
+                    group.getName(),
+                    group.getId(),
+                    existing.getId(),
+                    NAME_CLAIM_SECONDS);
+
+    if (!claimed) {
+      throw new ModelDuplicateException(
+          "Group with the same name or parent id exists:"
+              + group.getName()
+              + " for parent id "
+              + group.getParentId());
+    }
+
+    return true;
+  }
+
+  // Entries of groups which were renamed, moved or removed without removing the entry. Unconfirmed
+  // claims are never stale, their group may not be written yet.
+  private boolean isStale(GroupByParent entry) {
+    Row claimTtl = dao.getNameClaimTtl(entry.getRealmId(), entry.getParentId(), entry.getName());
+    if (claimTtl == null || !claimTtl.isNull(0)) {
+      return false;
+    }
+
+    return !isIndexedBy(dao.getGroupById(entry.getRealmId(), entry.getId()), entry);
+  }
+
+  private void releaseName(Group group) {
+    dao.releaseName(
+        group.getRealmId(), toParentKey(group.getParentId()), group.getName(), group.getId());
+  }
+
+  private static boolean isIndexedBy(Group group, GroupByParent entry) {
+    return group != null
+        && Objects.equals(group.getName(), entry.getName())
+        && toParentKey(group.getParentId()).equals(entry.getParentId());
+  }
+
+  private static GroupByParent toGroupByParent(Group group) {
+    return new GroupByParent(
+        group.getRealmId(), toParentKey(group.getParentId()), group.getName(), group.getId());
   }
 }
@@ -1,14 +1,89 @@
 package de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence;
 
+import com.datastax.oss.driver.api.core.PagingIterable;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
 import com.datastax.oss.driver.api.mapper.annotations.*;
+import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.Group;
+import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.GroupByParent;
 import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.Groups;
+import de.arbeitsagentur.opdt.keycloak.cassandra.migration.persistence.RealmMigrationDao;
 import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalDao;
+import java.util.List;
 
 @Dao
-public interface GroupDao extends TransactionalDao<Groups> {
+public interface GroupDao extends TransactionalDao<Group>, RealmMigrationDao {
+  @Select(customWhereClause = "realm_id = :realmId AND id = :id")
+  Group getGroupById(String realmId, String id);
+
+  @Select(customWhereClause = "realm_id = :realmId AND id IN :ids")
+  PagingIterable<Group> getGroupsByIds(String realmId, List<String> ids);
+
+  @Select(customWhereClause = "realm_id = :realmId")
+  PagingIterable<Group> getGroupsByRealmId(String realmId);
+
+  @Query("SELECT version FROM groups_by_id WHERE realm_id = :realmId AND id = :id")
+  Row getVersionById(String realmId, String id);
+
+  @Query("SELECT id FROM groups_by_id WHERE realm_id = :realmId")
+  ResultSet getGroupIdsByRealmId(String realmId);
+
+  @Query("DELETE FROM groups_by_id WHERE realm_id = :realmId")
+  void deleteAllGroups(String realmId);
+
+  @Insert
+  BoundStatement insertStatement(GroupByParent groupByParent);
+
+  @Select(customWhereClause = "realm_id = :realmId AND parent_id = :parentId AND name = :name")
+  GroupByParent findByName(String realmId, String parentId, String name);
+
+  @Select(customWhereClause = "realm_id = :realmId AND parent_id = :parentId")
+  PagingIterable<GroupByParent> findByParentId(String realmId, String parentId);
+
+  @Select(
+      customWhereClause = "realm_id = :realmId AND parent_id = :parentId",
+      limit = ":maxResults")
+  PagingIterable<GroupByParent> findByParentId(String realmId, String parentId, int maxResults);
+
+  @Select(customWhereClause = "realm_id = :realmId")
+  PagingIterable<GroupByParent> findAllGroupsByParent(String realmId);
+
+  // Name claims, written with lightweight transactions and a TTL until they are confirmed
+  @Insert(ifNotExists = true, ttl = ":ttl")
+  boolean claimName(GroupByParent groupByParent, int ttl);
+
+  @Query(
+      "UPDATE groups_by_parent USING TTL :ttl SET id = :id"
+          + " WHERE realm_id = :realmId AND parent_id = :parentId AND name = :name"
+          + " IF id = :staleId")
+  boolean takeOverName(
+      String realmId, String parentId, String name, String id, String staleId, int ttl);
+
+  @Query(
+      "UPDATE groups_by_parent USING TTL 0 SET id = :id"
+          + " WHERE realm_id = :realmId AND parent_id = :parentId AND name = :name"
+          + " IF id = :expectedId")
+  boolean confirmName(String realmId, String parentId, String name, String id, String expectedId);
+
+  @Query(
+      "SELECT TTL(id) FROM groups_by_parent"
+          + " WHERE realm_id = :realmId AND parent_id = :parentId AND name = :name")
+  Row getNameClaimTtl(String realmId, String parentId, String name);
+
+  @Query(
+      "DELETE FROM groups_by_parent"
+          + " WHERE realm_id = :realmId AND parent_id = :parentId AND name = :name"
+          + " IF id = :id")
+  boolean releaseName(String realmId, String parentId, String name, String id);
+
+  @Query("DELETE FROM groups_by_parent WHERE realm_id = :realmId")
+  void deleteAllGroupsByParent(String realmId);
+
+  // Legacy format with all groups of a realm in one row
   @Select(customWhereClause = "realm_id = :realmId")
-  Groups getGroupsByRealmId(String realmId);
+  Groups getLegacyGroupsByRealmId(String realmId);
 
-  @Delete(entityClass = Groups.class, ifExists = true)
-  void deleteAllRealmGroups(String realmId);
+  @Delete(entityClass = Groups.class)
+  void deleteLegacyGroups(String realmId);
 }
@@ -1,11 +1,39 @@
 package de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence;
 
-import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.Groups;
+import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.Group;
+import java.util.List;
 
 public interface GroupRepository {
-  void insertOrUpdate(Groups groups);
+  void insertOrUpdate(Group group);
 
-  Groups getGroupsByRealmId(String realmId);
+  /**
+   * Writes a group which was read in the state {@code base}. Concurrent changes of the group are
+   * merged with the changes made since then.
+   */
+  void insertOrUpdate(Group group, Group base);
+
+  void delete(Group group);
+
+  void deleteGroupByParent(String realmId, String parentId, String name, String id);
+
+  Group getGroupById(String realmId, String id);
+
+  Long getGroupVersionById(String realmId, String id);
+
+  Group getGroupByName(String realmId, String parentId, String name);
+
+  /**
+   * Subgroups of a group (parent id = null for top level groups), ordered by name. If search is
+   * set, only groups whose name equals it or (if not exact) contains it case-insensitively.
+   */
+  List<Group> getGroupsByParentId(
+      String realmId, String parentId, String search, Boolean exact, Integer first, Integer max);
+
+  long countGroupsByParentId(String realmId, String parentId);
+
+  List<Group> getGroupsByRealmId(String realmId);
+
+  long countGroups(String realmId);
 
   void deleteRealmGroups(String realmId);
 }
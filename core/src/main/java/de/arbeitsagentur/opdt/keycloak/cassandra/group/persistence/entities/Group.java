@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities;
+
+import com.datastax.oss.driver.api.mapper.annotations.ClusteringColumn;
+import com.datastax.oss.driver.api.mapper.annotations.CqlName;
+import com.datastax.oss.driver.api.mapper.annotations.Entity;
+import com.datastax.oss.driver.api.mapper.annotations.PartitionKey;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.MergeableEntity;
+import java.util.*;
+import lombok.*;
+
+@EqualsAndHashCode(of = {"realmId", "id"})
+@Builder(toBuilder = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@CqlName("groups_by_id")
+public class Group implements MergeableEntity<Group> {
+  @PartitionKey private String realmId;
+
+  @ClusteringColumn private String id;
+
+  private String parentId;
+  private String name;
+  private Long version;
+
+  @Builder.Default private Map<String, List<String>> attributes = new HashMap<>();
+
+  @Builder.Default private Set<String> grantedRoles = new HashSet<>();
+
+  public static Group fromValue(String realmId, GroupValue value) {
+    return Group.builder()
+        .realmId(realmId)
+        .id(value.getId())
+        .parentId(value.getParentId())
+        .name(value.getName())
+        .attributes(new HashMap<>(value.getAttributes()))
+        .grantedRoles(new HashSet<>(value.getGrantedRoles()))
+        .build();
+  }
+
+  public Map<String, List<String>> getAttributes() {
+    if (attributes == null) {
+      attributes = new HashMap<>();
+    }
+
+    return attributes;
+  }
+
+  public Set<String> getGrantedRoles() {
+    if (grantedRoles == null) {
+      grantedRoles = new HashSet<>();
+    }
+
+    return grantedRoles;
+  }
+
+  @Override
+  public Group copy() {
+    return toBuilder()
+        .attributes(new HashMap<>(getAttributes()))
+        .grantedRoles(new HashSet<>(getGrantedRoles()))
+        .build();
+  }
+
+  @Override
+  public void rebase(Group base, Group latest) {
+    parentId = MergeableEntity.merge(base.getParentId(), parentId, latest.getParentId());
+    name = MergeableEntity.merge(base.getName(), name, latest.getName());
+    attributes =
+        MergeableEntity.merge(base.getAttributes(), getAttributes(), latest.getAttributes());
+    grantedRoles =
+        new HashSet<>(
+            MergeableEntity.merge(
+                base.getGrantedRoles(), getGrantedRoles(), latest.getGrantedRoles()));
+    version = latest.getVersion();
+  }
+}
@@ -19,8 +19,10 @@ import com.datastax.oss.driver.api.core.PagingIterable;
 import com.datastax.oss.driver.api.mapper.annotations.Dao;
 import com.datastax.oss.driver.api.mapper.annotations.Delete;
 import com.datastax.oss.driver.api.mapper.annotations.Select;
+import com.datastax.oss.driver.api.mapper.annotations.StatementAttributes;
 import com.datastax.oss.driver.api.mapper.annotations.Update;
 import de.arbeitsagentur.opdt.keycloak.cassandra.BaseDao;
+import de.arbeitsagentur.opdt.keycloak.cassandra.connection.ExecutionProfiles;
 import de.arbeitsagentur.opdt.keycloak.cassandra.loginFailure.persistence.entities.LoginFailure;
 
 @Dao
@@ -32,6 +34,7 @@ public interface LoginFailureDao extends BaseDao {
   PagingIterable<LoginFailure> findByUserId(String userId);
 
   @Select
+  @StatementAttributes(executionProfileName = ExecutionProfiles.SCANS)
   PagingIterable<LoginFailure> findAll();
 
   @Delete
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.migration;
+
+import com.datastax.oss.driver.api.core.cql.BatchableStatement;
+import de.arbeitsagentur.opdt.keycloak.cassandra.StatementGroupExecutor;
+import de.arbeitsagentur.opdt.keycloak.cassandra.migration.persistence.RealmMigrationDao;
+import de.arbeitsagentur.opdt.keycloak.cassandra.migration.persistence.entities.RealmMigration;
+import de.arbeitsagentur.opdt.keycloak.common.ModelIllegalStateException;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Migrates the data of a realm to a new layout while Keycloak is running, on the first access of
+ * the realm.
+ *
+ * <p>Only one node migrates a realm: it claims the realm with a lightweight transaction in {@code
+ * realm_migrations} and renews the claim while it writes the new rows. A claim expires after {@link
+ * #LEASE_SECONDS} without renewal, so a realm whose migrating node died is migrated again by the
+ * next node; migrations therefore have to be idempotent. Other nodes wait for at most one lease
+ * until the claim is marked as completed and fail the request afterwards, instead of blocking their
+ * request threads for the whole migration of a large realm. Once the realm is migrated or found
+ * without legacy data, the node remembers it and skips all checks.
+ */
+@JBossLog
+public class OnlineRealmMigration {
+  public static final int LEASE_SECONDS = 10;
+  private static final int STATEMENTS_PER_CHUNK = 100;
+  private static final int MAX_CONCURRENT_WRITES = 16;
+
+  private final String name;
+  private final RealmMigrationDao dao;
+  private final Predicate<String> hasLegacyData;
+  private final Migration migration;
+  private final String nodeId = UUID.randomUUID().toString();
+  private final Set<String> migratedRealmIds = ConcurrentHashMap.newKeySet();
+  private final StatementGroupExecutor writer =
+      new StatementGroupExecutor(StatementGroupExecutor.Mode.ASYNC, MAX_CONCURRENT_WRITES);
+  private long waitTimeoutMillis = LEASE_SECONDS * 1000L;
+  private long pollIntervalMillis = 100L;
+  private long renewIntervalMillis = LEASE_SECONDS * 500L;
+
+  /** Moves the legacy data of a realm to the new layout and deletes it. */
+  @FunctionalInterface
+  public interface Migration {
+    void migrate(String realmId, Rows rows);
+  }
+
+  /**
+   * Writes the new rows of a running migration without lightweight transactions, in chunks of
+   * {@link #STATEMENTS_PER_CHUNK} statements sent concurrently. The claim of the realm is renewed
+   * between the chunks.
+   */
+  public class Rows {
+    private final String realmId;
+    private long renewAt = System.currentTimeMillis() + renewIntervalMillis;
+
+    private Rows(String realmId) {
+      this.realmId = realmId;
+    }
+
+    public void write(List<? extends BatchableStatement<?>> statements) {
+      for (int start = 0; start < statements.size(); start += STATEMENTS_PER_CHUNK) {
+        writer.execute(
+            dao,
+            statements.subList(start, Math.min(start + STATEMENTS_PER_CHUNK, statements.size())));
+
+        if (System.currentTimeMillis() >= renewAt) {
+          renewLease(realmId);
+          renewAt = System.currentTimeMillis() + renewIntervalMillis;
+        }
+      }
+    }
+  }
+
+  /**
+   * @param name of the migration, unique per realm
+   * @param hasLegacyData whether a realm still holds data in the old layout
+   * @param migration moves the legacy data of a realm to the new layout and deletes it
+   */
+  public OnlineRealmMigration(
+      String name, RealmMigrationDao dao, Predicate<String> hasLegacyData, Migration migration) {
+    this.name = name;
+    this.dao = dao;
+    this.hasLegacyData = hasLegacyData;
+    this.migration = migration;
+  }
+
+  public void setWaitTimeout(long waitTimeoutMillis, long pollIntervalMillis) {
+    this.waitTimeoutMillis = waitTimeoutMillis;
+    this.pollIntervalMillis = pollIntervalMillis;
+  }
+
+  public void setRenewInterval(long renewIntervalMillis) {
+    this.renewIntervalMillis = renewIntervalMillis;
+  }
+
+  /** Returns once the realm is migrated, migrating it if no other node does. */
+  public void ensureMigrated(String realmId) {
+    if (migratedRealmIds.contains(realmId)) {
+      return;
+    }
+
+    long deadline = System.currentTimeMillis() + waitTimeoutMillis;
+    while (!isMigrated(realmId)) {
+      if (System.currentTimeMillis() > deadline) {
+        throw new ModelIllegalStateException(
+            "Migration " + name + " of realm " + realmId + " is still running on another node");
+      }
+
+      try {
+        Thread.sleep(pollIntervalMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ModelIllegalStateException(
+            "Interrupted while waiting for migration " + name + " of realm " + realmId);
+      }
+    }
+
+    migratedRealmIds.add(realmId);
+  }
+
+  /** Drops the state of a removed realm, so a realm recreated with the same id starts afresh. */
+  public void reset(String realmId) {
+    migratedRealmIds.remove(realmId);
+    dao.deleteRealmMigrations(realmId);
+  }
+
+  // false if another node is migrating the realm
+  private boolean isMigrated(String realmId) {
+    RealmMigration state = dao.findRealmMigration(realmId, name);
+    if (state != null) {
+      return state.isCompleted();
+    }
+
+    if (!hasLegacyData.test(realmId)) {
+      return true;
+    }
+
+    if (!dao.startRealmMigration(new RealmMigration(realmId, name, nodeId, false), LEASE_SECONDS)) {
+      return false;
+    }
+
+    log.infof("Run migration %s of realm %s", name, realmId);
+    try {
+      migration.migrate(realmId, new Rows(realmId));
+    } catch (RuntimeException e) {
+      dao.abortRealmMigration(realmId, name, nodeId);
+      throw e;
+    }
+
+    if (!dao.completeRealmMigration(realmId, name, nodeId)) {
+      log.warnf(
+          "Migration %s of realm %s was not renewed within its lease of %d seconds",
+          name, realmId, LEASE_SECONDS);
+    }
+
+    return true;
+  }
+
+  private void renewLease(String realmId) {
+    if (!dao.renewRealmMigration(realmId, name, nodeId, nodeId, LEASE_SECONDS)) {
+      throw new ModelIllegalStateException(
+          "Lost migration " + name + " of realm " + realmId + " to another node");
+    }
+  }
+}
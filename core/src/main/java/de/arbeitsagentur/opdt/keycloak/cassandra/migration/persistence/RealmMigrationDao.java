@@ -0,0 +1,49 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.migration.persistence;
+
+import com.datastax.oss.driver.api.mapper.annotations.Insert;
+import com.datastax.oss.driver.api.mapper.annotations.Query;
+import com.datastax.oss.driver.api.mapper.annotations.Select;
+import de.arbeitsagentur.opdt.keycloak.cassandra.BaseDao;
+import de.arbeitsagentur.opdt.keycloak.cassandra.migration.persistence.entities.RealmMigration;
+
+/** Queries of {@link de.arbeitsagentur.opdt.keycloak.cassandra.migration.OnlineRealmMigration}. */
+public interface RealmMigrationDao extends BaseDao {
+  @Select(customWhereClause = "realm_id = :realmId AND name = :name")
+  RealmMigration findRealmMigration(String realmId, String name);
+
+  @Insert(ifNotExists = true, ttl = ":ttl")
+  boolean startRealmMigration(RealmMigration migration, int ttl);
+
+  @Query(
+      "UPDATE realm_migrations USING TTL :ttl SET owner = :owner, completed = false"
+          + " WHERE realm_id = :realmId AND name = :name IF owner = :currentOwner")
+  boolean renewRealmMigration(
+      String realmId, String name, String owner, String currentOwner, int ttl);
+
+  @Query(
+      "UPDATE realm_migrations USING TTL 0 SET completed = true"
+          + " WHERE realm_id = :realmId AND name = :name IF owner = :owner")
+  boolean completeRealmMigration(String realmId, String name, String owner);
+
+  @Query(
+      "DELETE FROM realm_migrations WHERE realm_id = :realmId AND name = :name IF owner = :owner")
+  boolean abortRealmMigration(String realmId, String name, String owner);
+
+  @Query("DELETE FROM realm_migrations WHERE realm_id = :realmId")
+  void deleteRealmMigrations(String realmId);
+}
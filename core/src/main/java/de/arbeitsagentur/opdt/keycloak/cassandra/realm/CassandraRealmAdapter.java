@@ -20,6 +20,7 @@ import static java.util.Objects.nonNull;
 import com.fasterxml.jackson.core.type.TypeReference;
 import de.arbeitsagentur.opdt.keycloak.cassandra.AttributeTypes;
 import de.arbeitsagentur.opdt.keycloak.cassandra.CassandraJsonSerialization;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.ParsedAttributeCache;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.RealmRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.ClientInitialAccess;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.Realm;
@@ -735,7 +736,7 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public Stream<RequiredCredentialModel> getRequiredCredentialsStream() {
-    return getDeserializedAttributes(REQUIRED_CREDENTIALS, RequiredCredentialModel.class).stream();
+    return getCachedAttributes(REQUIRED_CREDENTIALS, RequiredCredentialModel.class).stream();
   }
 
   @Override
@@ -927,12 +928,12 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public Stream<AuthenticationFlowModel> getAuthenticationFlowsStream() {
-    return getDeserializedAttributes(AUTHENTICATION_FLOWS, AuthenticationFlowModel.class).stream();
+    return getCachedAttributes(AUTHENTICATION_FLOWS, AuthenticationFlowModel.class).stream();
   }
 
   @Override
   public AuthenticationFlowModel getFlowByAlias(String alias) {
-    return getDeserializedAttributes(AUTHENTICATION_FLOWS, AuthenticationFlowModel.class).stream()
+    return getCachedAttributes(AUTHENTICATION_FLOWS, AuthenticationFlowModel.class).stream()
         .filter(f -> Objects.equals(f.getAlias(), alias))
         .findFirst()
         .orElse(null);
@@ -960,7 +961,7 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public AuthenticationFlowModel getAuthenticationFlowById(String id) {
-    return getDeserializedAttributes(AUTHENTICATION_FLOWS, AuthenticationFlowModel.class).stream()
+    return getCachedAttributes(AUTHENTICATION_FLOWS, AuthenticationFlowModel.class).stream()
         .filter(f -> f.getId().equals(id))
         .findFirst()
         .orElse(null);
@@ -989,8 +990,7 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public Stream<AuthenticationExecutionModel> getAuthenticationExecutionsStream(String flowId) {
-    return getDeserializedAttributes(
-            AUTHENTICATION_EXECUTION_MODELS, AuthenticationExecutionModel.class)
+    return getCachedAttributes(AUTHENTICATION_EXECUTION_MODELS, AuthenticationExecutionModel.class)
         .stream()
         .filter(e -> Objects.equals(e.getParentFlow(), flowId))
         .sorted(AuthenticationExecutionModel.ExecutionComparator.SINGLETON);
@@ -998,8 +998,7 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public AuthenticationExecutionModel getAuthenticationExecutionById(String id) {
-    return getDeserializedAttributes(
-            AUTHENTICATION_EXECUTION_MODELS, AuthenticationExecutionModel.class)
+    return getCachedAttributes(AUTHENTICATION_EXECUTION_MODELS, AuthenticationExecutionModel.class)
         .stream()
         .filter(e -> e.getId().equals(id))
         .findFirst()
@@ -1008,8 +1007,7 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public AuthenticationExecutionModel getAuthenticationExecutionByFlowId(String flowId) {
-    return getDeserializedAttributes(
-            AUTHENTICATION_EXECUTION_MODELS, AuthenticationExecutionModel.class)
+    return getCachedAttributes(AUTHENTICATION_EXECUTION_MODELS, AuthenticationExecutionModel.class)
         .stream()
         .filter(e -> Objects.equals(e.getFlowId(), flowId))
         .findFirst()
@@ -1064,7 +1062,7 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public Stream<AuthenticatorConfigModel> getAuthenticatorConfigsStream() {
-    return getDeserializedAttributes(AUTHENTICATOR_CONFIG_MODELS, AuthenticatorConfigModel.class)
+    return getCachedAttributes(AUTHENTICATOR_CONFIG_MODELS, AuthenticatorConfigModel.class)
         .stream();
   }
 
@@ -1112,8 +1110,7 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public AuthenticatorConfigModel getAuthenticatorConfigById(String id) {
-    return getDeserializedAttributes(AUTHENTICATOR_CONFIG_MODELS, AuthenticatorConfigModel.class)
-        .stream()
+    return getCachedAttributes(AUTHENTICATOR_CONFIG_MODELS, AuthenticatorConfigModel.class).stream()
         .filter(e -> e.getId().equals(id))
         .findFirst()
         .orElse(null);
@@ -1121,8 +1118,7 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public AuthenticatorConfigModel getAuthenticatorConfigByAlias(String alias) {
-    return getDeserializedAttributes(AUTHENTICATOR_CONFIG_MODELS, AuthenticatorConfigModel.class)
-        .stream()
+    return getCachedAttributes(AUTHENTICATOR_CONFIG_MODELS, AuthenticatorConfigModel.class).stream()
         .filter(e -> Objects.equals(e.getAlias(), alias))
         .findFirst()
         .orElse(null);
@@ -1130,8 +1126,7 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public Stream<RequiredActionProviderModel> getRequiredActionProvidersStream() {
-    return getDeserializedAttributes(
-            REQUIRED_ACTION_PROVIDER_MODELS, RequiredActionProviderModel.class)
+    return getCachedAttributes(REQUIRED_ACTION_PROVIDER_MODELS, RequiredActionProviderModel.class)
         .stream()
         .sorted(RequiredActionProviderModel.RequiredActionComparator.SINGLETON);
   }
@@ -1186,8 +1181,7 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public RequiredActionProviderModel getRequiredActionProviderById(String id) {
-    return getDeserializedAttributes(
-            REQUIRED_ACTION_PROVIDER_MODELS, RequiredActionProviderModel.class)
+    return getCachedAttributes(REQUIRED_ACTION_PROVIDER_MODELS, RequiredActionProviderModel.class)
         .stream()
         .filter(e -> e.getId().equals(id))
         .findFirst()
@@ -1196,8 +1190,7 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public RequiredActionProviderModel getRequiredActionProviderByAlias(String alias) {
-    return getDeserializedAttributes(
-            REQUIRED_ACTION_PROVIDER_MODELS, RequiredActionProviderModel.class)
+    return getCachedAttributes(REQUIRED_ACTION_PROVIDER_MODELS, RequiredActionProviderModel.class)
         .stream()
         .filter(e -> Objects.equals(e.getAlias(), alias))
         .findFirst()
@@ -1206,12 +1199,12 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public Stream<IdentityProviderModel> getIdentityProvidersStream() {
-    return getDeserializedAttributes(IDENTITY_PROVIDERS, IdentityProviderModel.class).stream();
+    return getCachedAttributes(IDENTITY_PROVIDERS, IdentityProviderModel.class).stream();
   }
 
   @Override
   public IdentityProviderModel getIdentityProviderByAlias(String alias) {
-    return getDeserializedAttributes(IDENTITY_PROVIDERS, IdentityProviderModel.class).stream()
+    return getCachedAttributes(IDENTITY_PROVIDERS, IdentityProviderModel.class).stream()
         .filter(e -> Objects.equals(e.getAlias(), alias))
         .findFirst()
         .orElse(null);
@@ -1322,14 +1315,14 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public Stream<IdentityProviderMapperModel> getIdentityProviderMappersStream() {
-    return getDeserializedAttributes(IDENTITY_PROVIDER_MAPPERS, IdentityProviderMapperModel.class)
+    return getCachedAttributes(IDENTITY_PROVIDER_MAPPERS, IdentityProviderMapperModel.class)
         .stream();
   }
 
   @Override
   public Stream<IdentityProviderMapperModel> getIdentityProviderMappersByAliasStream(
       String brokerAlias) {
-    return getDeserializedAttributes(IDENTITY_PROVIDER_MAPPERS, IdentityProviderMapperModel.class)
+    return getCachedAttributes(IDENTITY_PROVIDER_MAPPERS, IdentityProviderMapperModel.class)
         .stream()
         .filter(e -> Objects.equals(e.getIdentityProviderAlias(), brokerAlias));
   }
@@ -1377,7 +1370,7 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public IdentityProviderMapperModel getIdentityProviderMapperById(String id) {
-    return getDeserializedAttributes(IDENTITY_PROVIDER_MAPPERS, IdentityProviderMapperModel.class)
+    return getCachedAttributes(IDENTITY_PROVIDER_MAPPERS, IdentityProviderMapperModel.class)
         .stream()
         .filter(e -> e.getId().equals(id))
         .findFirst()
@@ -1387,7 +1380,7 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
   @Override
   public IdentityProviderMapperModel getIdentityProviderMapperByName(
       String brokerAlias, String name) {
-    return getDeserializedAttributes(IDENTITY_PROVIDER_MAPPERS, IdentityProviderMapperModel.class)
+    return getCachedAttributes(IDENTITY_PROVIDER_MAPPERS, IdentityProviderMapperModel.class)
         .stream()
         .filter(
             e ->
@@ -1488,25 +1481,25 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
 
   @Override
   public Stream<ComponentModel> getComponentsStream(String parentId, String providerType) {
-    return getDeserializedAttributes(COMPONENTS, ComponentModel.class).stream()
+    return getCachedAttributes(COMPONENTS, ComponentModel.class).stream()
         .filter(e -> Objects.equals(parentId, e.getParentId()))
         .filter(e -> Objects.equals(providerType, e.getProviderType()));
   }
 
   @Override
   public Stream<ComponentModel> getComponentsStream(String parentId) {
-    return getDeserializedAttributes(COMPONENTS, ComponentModel.class).stream()
+    return getCachedAttributes(COMPONENTS, ComponentModel.class).stream()
         .filter(e -> Objects.equals(parentId, e.getParentId()));
   }
 
   @Override
   public Stream<ComponentModel> getComponentsStream() {
-    return getDeserializedAttributes(COMPONENTS, ComponentModel.class).stream();
+    return getCachedAttributes(COMPONENTS, ComponentModel.class).stream();
   }
 
   @Override
   public ComponentModel getComponent(String id) {
-    return getDeserializedAttributes(COMPONENTS, ComponentModel.class).stream()
+    return getCachedAttributes(COMPONENTS, ComponentModel.class).stream()
         .filter(e -> e.getId().equals(id))
         .findFirst()
         .orElse(null);
@@ -1846,6 +1839,18 @@ public class CassandraRealmAdapter extends TransactionalModelAdapter<Realm> impl
         .collect(Collectors.toCollection(ArrayList::new));
   }
 
+  /** Read-only view of the parsed values, shared with other readers of the same realm state. */
+  private <T> List<T> getCachedAttributes(String name, Class<T> type) {
+    return ParsedAttributeCache.getInstance()
+        .get(
+            "realm",
+            entity.getId(),
+            name,
+            type,
+            entity.getAttribute(name),
+            () -> getDeserializedAttributes(name, type));
+  }
+
   private <T> List<T> getDeserializedAttributes(String name, Class<T> type) {
     List<String> values = entity.getAttribute(name);
 
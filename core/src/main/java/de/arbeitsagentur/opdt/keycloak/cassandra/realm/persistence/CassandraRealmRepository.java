@@ -15,6 +15,7 @@
  */
 package de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence;
 
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.NegativeLookupCache;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.ClientInitialAccess;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.NameToRealm;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.Realm;
@@ -26,14 +27,20 @@ import org.keycloak.common.util.Time;
 public class CassandraRealmRepository extends TransactionalRepository<Realm, RealmDao>
     implements RealmRepository {
 
-  public CassandraRealmRepository(RealmDao dao) {
+  private static final String REALM_NAME = "realmName";
+
+  private final NegativeLookupCache negativeLookupCache;
+
+  public CassandraRealmRepository(RealmDao dao, NegativeLookupCache negativeLookupCache) {
     super(dao);
+    this.negativeLookupCache = negativeLookupCache;
   }
 
   @Override
   public void insertOrUpdate(Realm realm) {
     super.insertOrUpdate(realm);
     dao.insertOrUpdate(new NameToRealm(realm.getName(), realm.getId()));
+    negativeLookupCache.invalidate(REALM_NAME, null, realm.getName());
   }
 
   @Override
@@ -41,8 +48,17 @@ public class CassandraRealmRepository extends TransactionalRepository<Realm, Rea
     return dao.getRealmById(id);
   }
 
+  @Override
+  public Long getRealmVersionById(String id) {
+    return getVersion(dao.getVersionById(id));
+  }
+
   @Override
   public Realm findRealmByName(String name) {
+    return negativeLookupCache.get(REALM_NAME, null, name, () -> findRealmByNameIndex(name));
+  }
+
+  private Realm findRealmByNameIndex(String name) {
     NameToRealm byName = dao.findByName(name);
     if (byName == null) {
       return null;
@@ -61,13 +77,15 @@ public class CassandraRealmRepository extends TransactionalRepository<Realm, Rea
     realm.setVersion(1L);
     dao.insert(realm);
     dao.insertOrUpdate(new NameToRealm(realm.getName(), realm.getId()));
+    negativeLookupCache.invalidate(REALM_NAME, null, realm.getName());
   }
 
   @Override
   public void deleteRealm(Realm realm) {
-    dao.delete(realm);
+    deleteEntity(realm);
     dao.deleteAllClientInitialAccessModels(realm.getId());
     dao.deleteNameToRealm(realm.getName());
+    publishInvalidation(realm.getId(), null);
   }
 
   @Override
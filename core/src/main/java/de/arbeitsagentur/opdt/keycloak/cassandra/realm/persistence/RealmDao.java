@@ -16,7 +16,9 @@
 package de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence;
 
 import com.datastax.oss.driver.api.core.PagingIterable;
+import com.datastax.oss.driver.api.core.cql.Row;
 import com.datastax.oss.driver.api.mapper.annotations.*;
+import de.arbeitsagentur.opdt.keycloak.cassandra.connection.ExecutionProfiles;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.ClientInitialAccess;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.NameToRealm;
 import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.Realm;
@@ -28,6 +30,7 @@ public interface RealmDao extends TransactionalDao<Realm> {
   Realm getRealmById(String id);
 
   @Select
+  @StatementAttributes(executionProfileName = ExecutionProfiles.SCANS)
   PagingIterable<Realm> findAll();
 
   @Select(customWhereClause = "name = :name")
@@ -61,4 +64,7 @@ public interface RealmDao extends TransactionalDao<Realm> {
 
   @Delete(entityClass = ClientInitialAccess.class)
   void deleteAllClientInitialAccessModels(String realmId);
+
+  @Query("SELECT version FROM realms WHERE id = :id")
+  Row getVersionById(String id);
 }
@@ -24,6 +24,8 @@ public interface RealmRepository {
 
   Realm getRealmById(String id);
 
+  Long getRealmVersionById(String id);
+
   List<Realm> getAllRealms();
 
   void createRealm(Realm realm);
@@ -15,104 +15,98 @@
  */
 package de.arbeitsagentur.opdt.keycloak.cassandra.role;
 
-import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.RoleValue;
-import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.Roles;
+import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.RoleRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.Role;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalModelAdapter;
 import java.util.*;
 import java.util.stream.Stream;
 import lombok.EqualsAndHashCode;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.RoleContainerModel;
 import org.keycloak.models.RoleModel;
 import org.keycloak.models.utils.KeycloakModelUtils;
 
-@EqualsAndHashCode(of = "roleId")
 @JBossLog
-@RequiredArgsConstructor
-public class CassandraRoleAdapter implements RoleModel {
-  private final String roleId;
+@EqualsAndHashCode(callSuper = true)
+public class CassandraRoleAdapter extends TransactionalModelAdapter<Role> implements RoleModel {
   private final RealmModel realm;
-  private final RoleValue role;
-  private final Roles roles;
+  private final RoleRepository roleRepository;
   private final CassandraRoleProvider provider;
+  private String persistedName;
+  private Role base;
 
-  public RoleValue getRole() {
-    return role;
+  public CassandraRoleAdapter(
+      Role entity,
+      RealmModel realm,
+      RoleRepository roleRepository,
+      CassandraRoleProvider provider) {
+    super(entity);
+    this.realm = realm;
+    this.roleRepository = roleRepository;
+    this.provider = provider;
+    this.persistedName = entity.getName();
+    this.base = entity.getVersion() == null ? null : entity.copy();
+  }
+
+  public Role getEntity() {
+    return entity;
+  }
+
+  public RealmModel getRealm() {
+    return realm;
   }
 
   @Override
   public String getName() {
-    return role.getName();
+    return entity.getName();
   }
 
   @Override
   public String getDescription() {
-    return role.getDescription();
+    return entity.getDescription();
   }
 
   @Override
   public void setDescription(String description) {
-    role.setDescription(description);
-    provider.markChanged(realm.getId());
-  }
-
-  @Override
-  public String getId() {
-    return role.getId();
+    entity.setDescription(description);
+    markUpdated();
   }
 
   @Override
   public void setName(String name) {
-    role.setName(name);
-    provider.markChanged(realm.getId());
+    entity.setName(name);
+    markUpdated();
   }
 
   @Override
   public boolean isComposite() {
-    return !this.role.getChildRoles().isEmpty();
+    return !entity.getChildRoles().isEmpty();
   }
 
   @Override
   public void addCompositeRole(RoleModel roleToAdd) {
     log.debugv(
         "add composite Role: roleNameOrigin={0} roleNameTarget={1}",
-        this.role.getName(), roleToAdd.getName());
-
-    if (roles.getRoleById(roleToAdd.getId()) == null) {
-      RoleValue toAdd =
-          RoleValue.builder()
-              .id(roleToAdd.getId())
-              .realmId(realm.getId())
-              .clientId(roleToAdd.isClientRole() ? roleToAdd.getContainerId() : null)
-              .name(roleToAdd.getName())
-              .attributes(roleToAdd.getAttributes())
-              .description(roleToAdd.getDescription())
-              .build();
-
-      if (roleToAdd.isClientRole()) {
-        roles.addClientRole(roleToAdd.getContainerId(), toAdd);
-      } else {
-        roles.addRealmRole(toAdd);
-      }
-    }
+        entity.getName(), roleToAdd.getName());
 
-    if (!this.role.getChildRoles().contains(roleToAdd.getId())) {
-      List<String> newRoles = new ArrayList<>(this.role.getChildRoles());
+    if (!entity.getChildRoles().contains(roleToAdd.getId())) {
+      List<String> newRoles = new ArrayList<>(entity.getChildRoles());
       newRoles.add(roleToAdd.getId());
-      this.role.setChildRoles(newRoles);
+      entity.setChildRoles(newRoles);
+      markUpdated();
     }
-
-    provider.markChanged(realm.getId());
   }
 
   @Override
   public void removeCompositeRole(RoleModel roleToDelete) {
     log.debugv(
         "remove composite Role: roleNameOrigin={0} roleNameTarget={1}",
-        this.role.getName(), roleToDelete.getName());
-    role.getChildRoles().remove(roleToDelete.getId());
-    provider.markChanged(realm.getId());
+        entity.getName(), roleToDelete.getName());
+
+    if (entity.getChildRoles().remove(roleToDelete.getId())) {
+      markUpdated();
+    }
   }
 
   @Override
@@ -124,19 +118,18 @@ public class CassandraRoleAdapter implements RoleModel {
   public Stream<RoleModel> getCompositesStream(String search, Integer first, Integer max) {
     log.debugv(
         "get composites: roleId={0} search={1} first={2} max={3}",
-        role.getId(), search, first, max);
+        entity.getId(), search, first, max);
 
-    return role.getChildRoles().stream()
-        .map(roles::getRoleById)
+    return entity.getChildRoles().stream()
+        .map(id -> provider.getRoleById(realm, id))
+        .filter(Objects::nonNull)
         .filter(
             role ->
                 search == null
                     || search.isEmpty()
                     || role.getName().toLowerCase().contains(search.toLowerCase())
-                    || role.getDescription().toLowerCase().contains(search.toLowerCase()))
-        .filter(Objects::nonNull)
-        .map(r -> new CassandraRoleAdapter(r.getId(), realm, r, roles, provider))
-        .map(RoleModel.class::cast)
+                    || (role.getDescription() != null
+                        && role.getDescription().toLowerCase().contains(search.toLowerCase())))
         .sorted(Comparator.comparing(RoleModel::getName))
         .skip(first == null || first < 0 ? 0 : first)
         .limit(max == null || max < 0 ? Long.MAX_VALUE : max);
@@ -144,48 +137,25 @@ public class CassandraRoleAdapter implements RoleModel {
 
   @Override
   public boolean isClientRole() {
-    return role.getClientId() != null;
+    return entity.getClientId() != null;
   }
 
   @Override
   public String getContainerId() {
-    return role.getClientId() != null ? role.getClientId() : realm.getId();
+    return entity.getClientId() != null ? entity.getClientId() : realm.getId();
   }
 
   @Override
   public RoleContainerModel getContainer() {
-    return this.isClientRole() ? this.realm.getClientById(this.role.getClientId()) : this.realm;
+    return isClientRole() ? realm.getClientById(entity.getClientId()) : realm;
   }
 
   @Override
   public boolean hasRole(RoleModel role) {
-    return this.getId().equals(role.getId())
+    return getId().equals(role.getId())
         || KeycloakModelUtils.searchFor(role, this, new HashSet<>());
   }
 
-  @Override
-  public void setSingleAttribute(String name, String value) {
-    log.debugv("set attribute: roleId={0} name={1} value={2}", role.getId(), name, value);
-
-    role.getAttributes().put(name, Collections.singletonList(value));
-    provider.markChanged(realm.getId());
-  }
-
-  @Override
-  public void setAttribute(String name, List<String> values) {
-    log.debugv("set attribute: roleId={0} name={1} value={2}", role.getId(), name, values);
-
-    role.getAttributes().put(name, values);
-    provider.markChanged(realm.getId());
-  }
-
-  @Override
-  public void removeAttribute(String name) {
-    log.debugv("remove attribute: roleId={0} name={1}", role.getId(), name);
-    role.getAttributes().remove(name);
-    provider.markChanged(realm.getId());
-  }
-
   @Override
   public String getFirstAttribute(String name) {
     return getAttributeStream(name).findFirst().orElse(null);
@@ -193,15 +163,27 @@ public class CassandraRoleAdapter implements RoleModel {
 
   @Override
   public Stream<String> getAttributeStream(String name) {
-    log.debugv("get attribute: roleId={0} name={1}", role.getId(), name);
+    log.debugv("get attribute: roleId={0} name={1}", entity.getId(), name);
 
-    return role.getAttributes().getOrDefault(name, Collections.emptyList()).stream();
+    return entity.getAttributes().getOrDefault(name, Collections.emptyList()).stream();
   }
 
   @Override
   public Map<String, List<String>> getAttributes() {
-    log.debugv("get all attributes: roleId={0", role.getId());
+    log.debugv("get all attributes: roleId={0}", entity.getId());
+
+    return entity.getAttributes();
+  }
 
-    return role.getAttributes();
+  @Override
+  protected void flushChanges() {
+    roleRepository.insertOrUpdate(entity, base);
+
+    if (persistedName != null && !persistedName.equals(entity.getName())) {
+      roleRepository.deleteNameToRole(
+          entity.getRealmId(), getContainerId(), persistedName, entity.getId());
+    }
+    persistedName = entity.getName();
+    base = entity.copy();
   }
 }
@@ -20,68 +20,84 @@ import static de.arbeitsagentur.opdt.keycloak.common.MapProviderObjectType.ROLE_
 import static org.keycloak.common.util.StackUtil.getShortStackTrace;
 
 import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.RoleRepository;
-import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.RoleValue;
-import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.Roles;
-import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.CassandraModelTransaction;
+import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.Role;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalProvider;
 import java.util.*;
-import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.models.*;
 import org.keycloak.models.utils.KeycloakModelUtils;
 
 @JBossLog
-public class CassandraRoleProvider implements RoleProvider {
+public class CassandraRoleProvider extends TransactionalProvider<Role, CassandraRoleAdapter>
+    implements RoleProvider {
   private final RoleRepository roleRepository;
-  private final KeycloakSession session;
-  private final Map<String, Roles> rolesByRealmId = new HashMap<>();
-  private final Set<String> rolesChanged = new HashSet<>();
-  private final Set<String> rolesDeleted = new HashSet<>();
 
   public CassandraRoleProvider(KeycloakSession session, RoleRepository roleRepository) {
+    super(session);
     this.roleRepository = roleRepository;
-    this.session = session;
   }
 
-  public void markChanged(String realmId) {
-    rolesChanged.add(realmId);
+  @Override
+  protected CassandraRoleAdapter createNewModel(RealmModel realm, Role entity) {
+    return new CassandraRoleAdapter(entity, realm, roleRepository, this);
   }
 
-  public void markDeleted(String realmId) {
-    rolesDeleted.add(realmId);
+  private Stream<CassandraRoleAdapter> getModelsByContainerId(String realmId, String containerId) {
+    return models.values().stream()
+        .filter(m -> m.getEntity().getRealmId().equals(realmId))
+        .filter(m -> m.getContainerId().equals(containerId));
   }
 
-  private Roles getRoles(String realmId) {
-    if (rolesByRealmId.containsKey(realmId)) {
-      return rolesByRealmId.get(realmId);
+  // Roles are written on commit, so roles added in this session are merged into the stored ones
+  private Stream<RoleModel> getRolesByContainerId(
+      RealmModel realm, String containerId, Integer first, Integer max) {
+    List<CassandraRoleAdapter> added =
+        getModelsByContainerId(realm.getId(), containerId)
+            .filter(m -> m.getEntity().getVersion() == null)
+            .collect(Collectors.toList());
+
+    if (added.isEmpty()) {
+      return roleRepository.getRolesByContainerId(realm.getId(), containerId, first, max).stream()
+          .map(entityToAdapterFunc(realm));
     }
 
-    Roles roles = roleRepository.getRolesByRealmId(realmId);
-    rolesByRealmId.put(realmId, roles);
+    return Stream.concat(
+            added.stream(),
+            roleRepository.getRolesByContainerId(realm.getId(), containerId, null, null).stream()
+                .map(entityToAdapterFunc(realm)))
+        .distinct()
+        .map(RoleModel.class::cast)
+        .sorted(Comparator.comparing(RoleModel::getName))
+        .skip(first == null || first < 0 ? 0 : first)
+        .limit(max == null || max < 0 ? Long.MAX_VALUE : max);
+  }
 
-    session
-        .getTransactionManager()
-        .enlistAfterCompletion(
-            (CassandraModelTransaction)
-                () -> {
-                  if (rolesChanged.contains(realmId) && !rolesDeleted.contains(realmId)) {
-                    roleRepository.insertOrUpdate(roles);
-                  }
+  private RoleModel getRoleByName(RealmModel realm, String containerId, String name) {
+    CassandraRoleAdapter model =
+        getModelsByContainerId(realm.getId(), containerId)
+            .filter(m -> Objects.equals(m.getName(), name))
+            .findFirst()
+            .orElse(null);
+    if (model != null) {
+      return model;
+    }
 
-                  rolesByRealmId.remove(realmId);
-                  rolesChanged.remove(realmId);
-                  rolesDeleted.remove(realmId);
-                });
+    RoleModel role =
+        entityToAdapterFunc(realm)
+            .apply(roleRepository.getRoleByName(realm.getId(), containerId, name));
 
-    return roles;
+    // the role may have been renamed in this session
+    return role != null && Objects.equals(role.getName(), name) ? role : null;
   }
 
-  private Function<RoleValue, RoleModel> entityToAdapterFunc(RealmModel realm) {
-    return origEntity ->
-        origEntity == null
-            ? null
-            : new CassandraRoleAdapter(
-                origEntity.getId(), realm, origEntity, getRoles(realm.getId()), this);
+  private static boolean matches(RoleModel role, String search) {
+    return search == null
+        || search.isEmpty()
+        || role.getName().toLowerCase().contains(search.toLowerCase())
+        || (role.getDescription() != null
+            && role.getDescription().toLowerCase().contains(search.toLowerCase()));
   }
 
   @Override
@@ -93,22 +109,21 @@ public class CassandraRoleProvider implements RoleProvider {
 
     log.debugf("addRealmRole(%s, %s, %s)%s", realm, id, name, getShortStackTrace());
 
-    Roles roles = getRoles(realm.getId());
-    if (id != null && roles.getRoleById(id) != null) {
+    if (id != null && getRoleById(realm, id) != null) {
       throw new ModelDuplicateException("Role exists: " + id);
     }
 
-    RoleValue role =
-        RoleValue.builder()
+    Role role =
+        Role.builder()
+            .realmId(realm.getId())
             .id(id == null ? KeycloakModelUtils.generateId() : id)
             .name(name)
-            .realmId(realm.getId())
             .build();
 
-    roles.addRealmRole(role);
-    markChanged(realm.getId());
+    CassandraRoleAdapter adapter = entityToAdapterFunc(realm).apply(role);
+    adapter.markUpdated();
 
-    return entityToAdapterFunc(realm).apply(role);
+    return adapter;
   }
 
   @Override
@@ -120,8 +135,7 @@ public class CassandraRoleProvider implements RoleProvider {
   public Stream<RoleModel> getRealmRolesStream(RealmModel realm, Integer first, Integer max) {
     log.debugv("get all realm roles: realmId={0} first={1} max={2}", realm.getId(), first, max);
 
-    Roles roles = getRoles(realm.getId());
-    return roles.getRealmRoles(first, max).stream().map(r -> entityToAdapterFunc(realm).apply(r));
+    return getRolesByContainerId(realm, realm.getId(), first, max);
   }
 
   @Override
@@ -131,16 +145,9 @@ public class CassandraRoleProvider implements RoleProvider {
         "get all realm roles: realmId=%s search=%s first=%s max=%s",
         realm.getId(), search, first, max);
 
-    Roles roles = getRoles(realm.getId());
-    return ids.map(roles::getRoleById)
-        .filter(
-            role ->
-                search == null
-                    || search.isEmpty()
-                    || role.getName().toLowerCase().contains(search.toLowerCase())
-                    || role.getDescription().toLowerCase().contains(search.toLowerCase()))
-        .map(entityToAdapterFunc(realm))
+    return ids.map(id -> getRoleById(realm, id))
         .filter(Objects::nonNull)
+        .filter(role -> matches(role, search))
         .sorted(Comparator.comparing(RoleModel::getName))
         .skip(first == null || first < 0 ? 0 : first)
         .limit(max == null || max < 0 ? Long.MAX_VALUE : max);
@@ -150,43 +157,41 @@ public class CassandraRoleProvider implements RoleProvider {
   public boolean removeRole(RoleModel role) {
     log.debugf("removeRole roleId=%s", role.getId());
 
-    boolean removed;
     RealmModel realm =
         role.isClientRole()
             ? ((ClientModel) role.getContainer()).getRealm()
             : (RealmModel) role.getContainer();
 
+    CassandraRoleAdapter adapter = (CassandraRoleAdapter) getRoleById(realm, role.getId());
+    if (adapter == null) {
+      return false;
+    }
+
     session.invalidate(ROLE_BEFORE_REMOVE, realm, role);
 
-    if (role.isClientRole()) {
-      Roles roles = getRoles(realm.getId());
-      removed = roles.removeClientRole(role.getContainerId(), role.getId());
-      markChanged(realm.getId());
-    } else {
-      Roles roles = getRoles(role.getContainerId());
-      removed = roles.removeRealmRole(role.getId());
-      markChanged(role.getContainerId());
+    if (adapter.getEntity().getVersion() != null) {
+      roleRepository.delete(adapter.getEntity());
     }
+    adapter.markDeleted();
+    models.remove(adapter.getId());
 
     session.invalidate(ROLE_AFTER_REMOVE, realm, role);
 
-    return removed;
+    return true;
   }
 
   @Override
   public void removeRoles(RealmModel realm) {
     log.debugf("removeRoles realmId=%s", realm.getId());
 
-    getRealmRolesStream(realm).forEach(this::removeRole);
-    markChanged(realm.getId());
+    getRealmRolesStream(realm).collect(Collectors.toList()).forEach(this::removeRole);
   }
 
   @Override
   public void removeRoles(ClientModel client) {
     log.debugf("removeRoles clientId=%s", client.getId());
 
-    getClientRolesStream(client).forEach(this::removeRole);
-    markChanged(client.getRealm().getId());
+    getClientRolesStream(client).collect(Collectors.toList()).forEach(this::removeRole);
   }
 
   @Override
@@ -203,22 +208,22 @@ public class CassandraRoleProvider implements RoleProvider {
 
     log.debugf("addClientRole(%s, %s, %s)%s", client.getClientId(), id, name, getShortStackTrace());
 
-    Roles roles = getRoles(client.getRealm().getId());
-    if (id != null && roles.getRoleById(id) != null) {
+    if (id != null && getRoleById(client.getRealm(), id) != null) {
       throw new ModelDuplicateException("Role exists: " + id);
     }
 
-    RoleValue role =
-        RoleValue.builder()
+    Role role =
+        Role.builder()
+            .realmId(client.getRealm().getId())
             .id(id == null ? KeycloakModelUtils.generateId() : id)
-            .name(name)
             .clientId(client.getId())
+            .name(name)
             .build();
 
-    roles.addClientRole(client.getId(), role);
-    markChanged(client.getRealm().getId());
+    CassandraRoleAdapter adapter = entityToAdapterFunc(client.getRealm()).apply(role);
+    adapter.markUpdated();
 
-    return entityToAdapterFunc(client.getRealm()).apply(role);
+    return adapter;
   }
 
   @Override
@@ -230,9 +235,7 @@ public class CassandraRoleProvider implements RoleProvider {
   public Stream<RoleModel> getClientRolesStream(ClientModel client, Integer first, Integer max) {
     log.debugv("get all client roles: clientId={0} first={1} max={2}", client.getId(), first, max);
 
-    Roles roles = getRoles(client.getRealm().getId());
-    return roles.getClientRoles(client.getId(), first, max).stream()
-        .map(r -> entityToAdapterFunc(client.getRealm()).apply(r));
+    return getRolesByContainerId(client.getRealm(), client.getId(), first, max);
   }
 
   @Override
@@ -242,15 +245,8 @@ public class CassandraRoleProvider implements RoleProvider {
         "get all client roles: clientId=%s search=%s first=%s max=%s",
         client.getId(), search, first, max);
 
-    Roles roles = getRoles(client.getRealm().getId());
-    return roles.getClientRoles(client.getId(), first, max).stream()
-        .filter(
-            role ->
-                search == null
-                    || search.isEmpty()
-                    || role.getName().toLowerCase().contains(search.toLowerCase())
-                    || role.getDescription().toLowerCase().contains(search.toLowerCase()))
-        .map(entityToAdapterFunc(client.getRealm()));
+    return getRolesByContainerId(client.getRealm(), client.getId(), first, max)
+        .filter(role -> matches(role, search));
   }
 
   @Override
@@ -304,31 +300,20 @@ public class CassandraRoleProvider implements RoleProvider {
   @Override
   public RoleModel getRealmRole(RealmModel realm, String name) {
     log.debugf("getRealmRole realmId=%s name=%s", realm.getId(), name);
-    Roles roles = getRoles(realm.getId());
-    RoleValue realmRole =
-        roles.getRealmRoles().stream()
-            .filter(r -> Objects.equals(r.getName(), name))
-            .findFirst()
-            .orElse(null);
-
-    if (realmRole == null) {
-      return null;
-    }
 
-    return entityToAdapterFunc(realm).apply(realmRole);
+    return getRoleByName(realm, realm.getId(), name);
   }
 
   @Override
   public RoleModel getRoleById(RealmModel realm, String id) {
     log.debugf("getRoleById realmId=%s id=%s", realm.getId(), id);
-    Roles roles = getRoles(realm.getId());
-    RoleValue role = roles.getRoleById(id);
 
-    if (role == null) {
-      return null;
+    CassandraRoleAdapter model = models.get(id);
+    if (model != null) {
+      return model.getEntity().getRealmId().equals(realm.getId()) ? model : null;
     }
 
-    return entityToAdapterFunc(realm).apply(role);
+    return entityToAdapterFunc(realm).apply(roleRepository.getRoleById(realm.getId(), id));
   }
 
   @Override
@@ -337,17 +322,8 @@ public class CassandraRoleProvider implements RoleProvider {
     log.debugf(
         "get all roles: realmId=%s search=%s first=%s max=%s", realm.getId(), search, first, max);
 
-    Roles roles = getRoles(realm.getId());
-    return roles.getRealmRoles().stream()
-        .filter(
-            role ->
-                search == null
-                    || search.isEmpty()
-                    || role.getName().toLowerCase().contains(search.toLowerCase())
-                    || (role.getDescription() != null
-                        && role.getDescription().toLowerCase().contains(search.toLowerCase())))
-        .map(entityToAdapterFunc(realm))
-        .filter(Objects::nonNull)
+    return getRealmRolesStream(realm)
+        .filter(role -> matches(role, search))
         .skip(first == null || first < 0 ? 0 : first)
         .limit(max == null || max < 0 ? Long.MAX_VALUE : max);
   }
@@ -355,22 +331,23 @@ public class CassandraRoleProvider implements RoleProvider {
   @Override
   public RoleModel getClientRole(ClientModel client, String name) {
     log.debugf("getClientRole clientId=%s name=%s", client.getId(), name);
-    Roles roles = getRoles(client.getRealm().getId());
-    RoleValue clientRole =
-        roles.getClientRoles().getOrDefault(client.getId(), new HashSet<>()).stream()
-            .filter(r -> Objects.equals(r.getName(), name))
-            .findFirst()
-            .orElse(null);
-
-    if (clientRole == null) {
-      return null;
-    }
 
-    return entityToAdapterFunc(client.getRealm()).apply(clientRole);
+    return getRoleByName(client.getRealm(), client.getId(), name);
   }
 
   public void preRemove(RealmModel realm) {
     removeRoles(realm);
+    roleRepository.deleteRealmRoles(realm.getId());
+
+    // client roles which are still loaded must not be written back after the realm is gone
+    models.values().stream()
+        .filter(m -> m.getEntity().getRealmId().equals(realm.getId()))
+        .collect(Collectors.toList())
+        .forEach(
+            m -> {
+              m.markDeleted();
+              models.remove(m.getId());
+            });
   }
 
   public void preRemove(RealmModel realm, RoleModel role) {
@@ -380,11 +357,4 @@ public class CassandraRoleProvider implements RoleProvider {
         .flatMap(this::getClientRolesStream)
         .forEach(r -> r.removeCompositeRole(role));
   }
-
-  @Override
-  public void close() {
-    rolesByRealmId.clear();
-    rolesChanged.clear();
-    rolesDeleted.clear();
-  }
 }
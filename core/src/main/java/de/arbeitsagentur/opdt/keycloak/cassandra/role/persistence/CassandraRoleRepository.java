@@ -15,28 +15,242 @@
  */
 package de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence;
 
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import de.arbeitsagentur.opdt.keycloak.cassandra.migration.OnlineRealmMigration;
+import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.NameToRole;
+import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.Role;
 import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.Roles;
-import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.MergingTransactionalRepository;
+import java.util.*;
+import java.util.stream.Collectors;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.models.ModelDuplicateException;
 
-public class CassandraRoleRepository extends TransactionalRepository<Roles, RoleDao>
+@JBossLog
+public class CassandraRoleRepository extends MergingTransactionalRepository<Role, RoleDao>
     implements RoleRepository {
+  private static final int MAX_IDS_PER_QUERY = 100;
+  private static final int NAME_CLAIM_SECONDS = 60;
+
+  private final OnlineRealmMigration migration;
 
   public CassandraRoleRepository(RoleDao dao) {
     super(dao);
+    this.migration =
+        new OnlineRealmMigration(
+            "roles_per_row",
+            dao,
+            realmId -> dao.getLegacyRolesByRealmId(realmId) != null,
+            this::migrateLegacyRoles);
+  }
+
+  public static String getContainerId(Role role) {
+    return role.getClientId() == null ? role.getRealmId() : role.getClientId();
+  }
+
+  @Override
+  public void insertOrUpdate(Role role) {
+    insertOrUpdate(role, null);
   }
 
   @Override
-  public Roles getRolesByRealmId(String realmId) {
-    Roles rolesByRealmId = dao.getRolesByRealmId(realmId);
-    if (rolesByRealmId == null) {
-      rolesByRealmId = Roles.builder().realmId(realmId).build();
+  public void insertOrUpdate(Role role, Role base) {
+    migration.ensureMigrated(role.getRealmId());
+
+    boolean claimed = claimName(role);
+    try {
+      super.insertOrUpdate(role, base);
+    } catch (RuntimeException e) {
+      if (claimed) {
+        dao.releaseName(role.getRealmId(), getContainerId(role), role.getName(), role.getId());
+      }
+      throw e;
     }
 
-    return rolesByRealmId;
+    if (claimed
+        && !dao.confirmName(
+            role.getRealmId(), getContainerId(role), role.getName(), role.getId(), role.getId())) {
+      log.warnf(
+          "Claim of name %s expired before role %s was written", role.getName(), role.getId());
+    }
+  }
+
+  @Override
+  protected Role readLatest(Role role) {
+    return dao.getRoleById(role.getRealmId(), role.getId());
+  }
+
+  @Override
+  public void delete(Role role) {
+    deleteEntity(role);
+    dao.releaseName(role.getRealmId(), getContainerId(role), role.getName(), role.getId());
+    publishInvalidation(getCacheKey(role), null);
+  }
+
+  @Override
+  protected String getCacheKey(Role role) {
+    // same key as used for the L2 cache in ManagedCompositeCassandraRepository
+    return role.getRealmId() + ":" + role.getId();
+  }
+
+  @Override
+  public void deleteNameToRole(String realmId, String containerId, String name, String id) {
+    dao.releaseName(realmId, containerId, name, id);
+  }
+
+  @Override
+  public Role getRoleById(String realmId, String id) {
+    migration.ensureMigrated(realmId);
+    return dao.getRoleById(realmId, id);
+  }
+
+  @Override
+  public Long getRoleVersionById(String realmId, String id) {
+    migration.ensureMigrated(realmId);
+    return getVersion(dao.getVersionById(realmId, id));
+  }
+
+  @Override
+  public Role getRoleByName(String realmId, String containerId, String name) {
+    migration.ensureMigrated(realmId);
+    NameToRole byName = dao.findByName(realmId, containerId, name);
+    if (byName == null) {
+      return null;
+    }
+
+    Role role = dao.getRoleById(realmId, byName.getId());
+    return role != null && Objects.equals(role.getName(), name) ? role : null;
+  }
+
+  @Override
+  public List<Role> getRolesByContainerId(
+      String realmId, String containerId, Integer first, Integer max) {
+    migration.ensureMigrated(realmId);
+
+    List<NameToRole> names =
+        dao.findNamesByContainerId(realmId, containerId).all().stream()
+            .skip(first == null || first < 0 ? 0 : first)
+            .limit(max == null || max < 0 ? Long.MAX_VALUE : max)
+            .collect(Collectors.toList());
+
+    Map<String, Role> rolesById = new HashMap<>();
+    for (int i = 0; i < names.size(); i += MAX_IDS_PER_QUERY) {
+      List<String> ids =
+          names.subList(i, Math.min(i + MAX_IDS_PER_QUERY, names.size())).stream()
+              .map(NameToRole::getId)
+              .collect(Collectors.toList());
+      dao.getRolesByIds(realmId, ids).forEach(role -> rolesById.put(role.getId(), role));
+    }
+
+    // skips index entries of roles which were renamed or removed after the index was written
+    return names.stream()
+        .map(
+            name -> {
+              Role role = rolesById.get(name.getId());
+              return role != null && Objects.equals(role.getName(), name.getName()) ? role : null;
+            })
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
   }
 
   @Override
   public void deleteRealmRoles(String realmId) {
-    dao.deleteAllRealmRoles(realmId);
+    dao.deleteAllRoles(realmId);
+    dao.deleteAllNameToRoles(realmId);
+    dao.deleteLegacyRoles(realmId);
+    migration.reset(realmId);
+  }
+
+  /**
+   * Claims the name of the role in {@code name_to_role} with a lightweight transaction, so that
+   * only one of several concurrent writers of the same name succeeds. The claim expires after
+   * {@link #NAME_CLAIM_SECONDS} unless it is confirmed after the role was written. Returns false if
+   * the name already belongs to the role.
+   */
+  private boolean claimName(Role role) {
+    String realmId = role.getRealmId();
+    String containerId = getContainerId(role);
+
+    NameToRole existing = dao.findByName(realmId, containerId, role.getName());
+    if (existing != null && existing.getId().equals(role.getId())) {
+      return false;
+    }
+
+    boolean claimed =
+        existing == null
+            ? dao.claimName(toNameToRole(role), NAME_CLAIM_SECONDS)
+            : isStale(existing)
+                && dao.takeOverName(
+                    realmId,
+                    containerId,
+                    role.getName(),
+                    role.getId(),
+                    existing.getId(),
+                    NAME_CLAIM_SECONDS);
+
+    if (!claimed) {
+      throw new ModelDuplicateException(
+          "Role with the same name exists: " + role.getName() + " for container " + containerId);
+    }
+
+    return true;
+  }
+
+  // Entries of roles which were renamed or removed without removing the entry. Unconfirmed claims
+  // are never stale, their role may not be written yet.
+  private boolean isStale(NameToRole nameToRole) {
+    Row claimTtl =
+        dao.getNameClaimTtl(
+            nameToRole.getRealmId(), nameToRole.getContainerId(), nameToRole.getName());
+    if (claimTtl == null || !claimTtl.isNull(0)) {
+      return false;
+    }
+
+    Role role = dao.getRoleById(nameToRole.getRealmId(), nameToRole.getId());
+    return role == null || !Objects.equals(role.getName(), nameToRole.getName());
+  }
+
+  /**
+   * Moves the roles of a realm from the legacy row holding all roles of the realm to one row per
+   * role. Roles which already exist in the new format are not overwritten.
+   */
+  private void migrateLegacyRoles(String realmId, OnlineRealmMigration.Rows rows) {
+    Roles legacyRoles = dao.getLegacyRolesByRealmId(realmId);
+    if (legacyRoles != null) {
+      Set<String> existingIds = new HashSet<>();
+      dao.getRoleIdsByRealmId(realmId).forEach(row -> existingIds.add(row.getString("id")));
+
+      List<Role> roles =
+          legacyRoles.getRealmRoles().stream()
+              .map(value -> Role.fromValue(realmId, value))
+              .collect(Collectors.toList());
+      legacyRoles
+          .getClientRoles()
+          .forEach(
+              (clientId, values) ->
+                  values.stream()
+                      .map(value -> Role.fromValue(realmId, value))
+                      .peek(role -> role.setClientId(clientId))
+                      .forEach(roles::add));
+
+      List<BoundStatement> statements = new ArrayList<>();
+      for (Role role : roles) {
+        if (!existingIds.contains(role.getId())) {
+          role.setVersion(1L);
+          statements.add(dao.insertStatement(role));
+          statements.add(dao.insertStatement(toNameToRole(role)));
+        }
+      }
+
+      log.infof("Migrate %d roles of realm %s to one row per role", statements.size() / 2, realmId);
+      rows.write(statements);
+
+      dao.deleteLegacyRoles(realmId);
+    }
+  }
+
+  private static NameToRole toNameToRole(Role role) {
+    return new NameToRole(role.getRealmId(), getContainerId(role), role.getName(), role.getId());
   }
 }
@@ -15,15 +15,81 @@
  */
 package de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence;
 
+import com.datastax.oss.driver.api.core.PagingIterable;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
 import com.datastax.oss.driver.api.mapper.annotations.*;
+import de.arbeitsagentur.opdt.keycloak.cassandra.migration.persistence.RealmMigrationDao;
+import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.NameToRole;
+import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.Role;
 import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.Roles;
 import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalDao;
+import java.util.List;
 
 @Dao
-public interface RoleDao extends TransactionalDao<Roles> {
+public interface RoleDao extends TransactionalDao<Role>, RealmMigrationDao {
+  @Select(customWhereClause = "realm_id = :realmId AND id = :id")
+  Role getRoleById(String realmId, String id);
+
+  @Select(customWhereClause = "realm_id = :realmId AND id IN :ids")
+  PagingIterable<Role> getRolesByIds(String realmId, List<String> ids);
+
+  @Query("SELECT version FROM roles_by_id WHERE realm_id = :realmId AND id = :id")
+  Row getVersionById(String realmId, String id);
+
+  @Query("SELECT id FROM roles_by_id WHERE realm_id = :realmId")
+  ResultSet getRoleIdsByRealmId(String realmId);
+
+  @Query("DELETE FROM roles_by_id WHERE realm_id = :realmId")
+  void deleteAllRoles(String realmId);
+
+  @Insert
+  BoundStatement insertStatement(NameToRole nameToRole);
+
+  @Select(
+      customWhereClause = "realm_id = :realmId AND container_id = :containerId AND name = :name")
+  NameToRole findByName(String realmId, String containerId, String name);
+
+  @Select(customWhereClause = "realm_id = :realmId AND container_id = :containerId")
+  PagingIterable<NameToRole> findNamesByContainerId(String realmId, String containerId);
+
+  // Name claims, written with lightweight transactions and a TTL until they are confirmed
+  @Insert(ifNotExists = true, ttl = ":ttl")
+  boolean claimName(NameToRole nameToRole, int ttl);
+
+  @Query(
+      "UPDATE name_to_role USING TTL :ttl SET id = :id"
+          + " WHERE realm_id = :realmId AND container_id = :containerId AND name = :name"
+          + " IF id = :staleId")
+  boolean takeOverName(
+      String realmId, String containerId, String name, String id, String staleId, int ttl);
+
+  @Query(
+      "UPDATE name_to_role USING TTL 0 SET id = :id"
+          + " WHERE realm_id = :realmId AND container_id = :containerId AND name = :name"
+          + " IF id = :expectedId")
+  boolean confirmName(
+      String realmId, String containerId, String name, String id, String expectedId);
+
+  @Query(
+      "SELECT TTL(id) FROM name_to_role"
+          + " WHERE realm_id = :realmId AND container_id = :containerId AND name = :name")
+  Row getNameClaimTtl(String realmId, String containerId, String name);
+
+  @Query(
+      "DELETE FROM name_to_role"
+          + " WHERE realm_id = :realmId AND container_id = :containerId AND name = :name"
+          + " IF id = :id")
+  boolean releaseName(String realmId, String containerId, String name, String id);
+
+  @Query("DELETE FROM name_to_role WHERE realm_id = :realmId")
+  void deleteAllNameToRoles(String realmId);
+
+  // Legacy format with all roles of a realm in one row
   @Select(customWhereClause = "realm_id = :realmId")
-  Roles getRolesByRealmId(String realmId);
+  Roles getLegacyRolesByRealmId(String realmId);
 
-  @Delete(entityClass = Roles.class, ifExists = true)
-  void deleteAllRealmRoles(String realmId);
+  @Delete(entityClass = Roles.class)
+  void deleteLegacyRoles(String realmId);
 }
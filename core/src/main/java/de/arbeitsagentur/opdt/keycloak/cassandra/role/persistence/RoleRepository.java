@@ -15,12 +15,31 @@
  */
 package de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence;
 
-import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.Roles;
+import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.Role;
+import java.util.List;
 
 public interface RoleRepository {
-  void insertOrUpdate(Roles role);
+  void insertOrUpdate(Role role);
 
-  Roles getRolesByRealmId(String realmId);
+  /**
+   * Writes a role which was read in the state {@code base}. Concurrent changes of the role are
+   * merged with the changes made since then.
+   */
+  void insertOrUpdate(Role role, Role base);
+
+  void delete(Role role);
+
+  /** Removes the name entry of a renamed role, unless the name was claimed by another role. */
+  void deleteNameToRole(String realmId, String containerId, String name, String id);
+
+  Role getRoleById(String realmId, String id);
+
+  Long getRoleVersionById(String realmId, String id);
+
+  Role getRoleByName(String realmId, String containerId, String name);
+
+  /** Roles of a realm (container id = realm id) or client, ordered by name. */
+  List<Role> getRolesByContainerId(String realmId, String containerId, Integer first, Integer max);
 
   void deleteRealmRoles(String realmId);
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities;
+
+import com.datastax.oss.driver.api.mapper.annotations.ClusteringColumn;
+import com.datastax.oss.driver.api.mapper.annotations.CqlName;
+import com.datastax.oss.driver.api.mapper.annotations.Entity;
+import com.datastax.oss.driver.api.mapper.annotations.PartitionKey;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.MergeableEntity;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.*;
+
+@EqualsAndHashCode(of = {"realmId", "id"})
+@Builder(toBuilder = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@CqlName("roles_by_id")
+public class Role implements MergeableEntity<Role> {
+  @PartitionKey private String realmId;
+
+  @ClusteringColumn private String id;
+
+  private String clientId;
+  private String name;
+  private String description;
+  private Long version;
+
+  @Builder.Default private Map<String, List<String>> attributes = new HashMap<>();
+
+  @Builder.Default private List<String> childRoles = new ArrayList<>();
+
+  public static Role fromValue(String realmId, RoleValue value) {
+    return Role.builder()
+        .realmId(realmId)
+        .id(value.getId())
+        .clientId(value.getClientId())
+        .name(value.getName())
+        .description(value.getDescription())
+        .attributes(new HashMap<>(value.getAttributes()))
+        .childRoles(new ArrayList<>(value.getChildRoles()))
+        .build();
+  }
+
+  public Map<String, List<String>> getAttributes() {
+    if (attributes == null) {
+      attributes = new HashMap<>();
+    }
+
+    return attributes;
+  }
+
+  public List<String> getChildRoles() {
+    if (childRoles == null) {
+      childRoles = new ArrayList<>();
+    }
+
+    return childRoles;
+  }
+
+  @Override
+  public Role copy() {
+    return toBuilder()
+        .attributes(new HashMap<>(getAttributes()))
+        .childRoles(new ArrayList<>(getChildRoles()))
+        .build();
+  }
+
+  @Override
+  public void rebase(Role base, Role latest) {
+    name = MergeableEntity.merge(base.getName(), name, latest.getName());
+    description =
+        MergeableEntity.merge(base.getDescription(), description, latest.getDescription());
+    attributes =
+        MergeableEntity.merge(base.getAttributes(), getAttributes(), latest.getAttributes());
+    childRoles =
+        new ArrayList<>(
+            MergeableEntity.merge(base.getChildRoles(), getChildRoles(), latest.getChildRoles()));
+    version = latest.getVersion();
+  }
+}
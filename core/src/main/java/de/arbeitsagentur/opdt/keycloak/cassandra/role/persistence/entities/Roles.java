@@ -18,11 +18,13 @@ package de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities;
 import com.datastax.oss.driver.api.mapper.annotations.CqlName;
 import com.datastax.oss.driver.api.mapper.annotations.Entity;
 import com.datastax.oss.driver.api.mapper.annotations.PartitionKey;
-import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalEntity;
 import java.util.*;
-import java.util.stream.Collectors;
 import lombok.*;
 
+/**
+ * Legacy format storing all roles of a realm in one row, replaced by {@link Role}. Only read to
+ * migrate existing realms.
+ */
 @EqualsAndHashCode(of = "realmId")
 @Builder
 @Data
@@ -30,7 +32,7 @@ import lombok.*;
 @AllArgsConstructor
 @Entity
 @CqlName("roles")
-public class Roles implements TransactionalEntity {
+public class Roles {
   @PartitionKey private String realmId;
 
   private Long version;
@@ -39,11 +41,6 @@ public class Roles implements TransactionalEntity {
 
   @Builder.Default private Map<String, Set<RoleValue>> clientRoles = new HashMap<>();
 
-  @Override
-  public String getId() {
-    return realmId;
-  }
-
   public Set<RoleValue> getRealmRoles() {
     if (realmRoles == null) {
       realmRoles = new HashSet<>();
@@ -57,53 +54,4 @@ public class Roles implements TransactionalEntity {
     }
     return clientRoles;
   }
-
-  public RoleValue getRoleById(String id) {
-    RoleValue realmRole =
-        realmRoles.stream().filter(r -> r.getId().equals(id)).findFirst().orElse(null);
-    if (realmRole == null) {
-      return clientRoles.entrySet().stream()
-          .flatMap(e -> e.getValue().stream().filter(r -> r.getId().equals(id)))
-          .findFirst()
-          .orElse(null);
-    }
-    return realmRole;
-  }
-
-  public void addRealmRole(RoleValue role) {
-    realmRoles.add(role);
-  }
-
-  public List<RoleValue> getRealmRoles(Integer first, Integer max) {
-    return realmRoles.stream()
-        .skip(first == null || first < 0 ? 0 : first)
-        .limit(max == null || max < 0 ? Long.MAX_VALUE : max)
-        .collect(Collectors.toList());
-  }
-
-  public boolean removeClientRole(String clientId, String id) {
-    return clientRoles.get(clientId).remove(RoleValue.builder().id(id).build());
-  }
-
-  public boolean removeRealmRole(String id) {
-    return realmRoles.remove(RoleValue.builder().id(id).build());
-  }
-
-  public void addClientRole(String clientId, RoleValue role) {
-    Set<RoleValue> concreteClientRoles = clientRoles.getOrDefault(clientId, new HashSet<>());
-    concreteClientRoles.add(role);
-    clientRoles.put(clientId, concreteClientRoles);
-  }
-
-  public Collection<RoleValue> getClientRoles(String clientId, Integer first, Integer max) {
-    return clientRoles.getOrDefault(clientId, new HashSet<>()).stream()
-        .skip(first == null || first < 0 ? 0 : first)
-        .limit(max == null || max < 0 ? Long.MAX_VALUE : max)
-        .collect(Collectors.toList());
-  }
-
-  @Override
-  public Map<String, List<String>> getAttributes() {
-    return Collections.emptyMap();
-  }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.transaction;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Entity whose concurrent changes can be merged field by field instead of failing: the changes a
+ * transaction made to the state it read are reapplied to the latest state in the database.
+ */
+public interface MergeableEntity<T extends MergeableEntity<T>> extends TransactionalEntity {
+  /** Returns a copy which is not affected by later changes of this entity. */
+  T copy();
+
+  /**
+   * Replaces the state of this entity by {@code latest} and reapplies all changes this entity has
+   * compared to {@code base}, the state it was read in. Takes over the version of {@code latest}.
+   */
+  void rebase(T base, T latest);
+
+  /** Returns our value if it was changed, otherwise the latest one. */
+  static <V> V merge(V base, V ours, V latest) {
+    return Objects.equals(base, ours) ? latest : ours;
+  }
+
+  /** Merges the entries of two maps, e.g. attributes, key by key. */
+  static <V> Map<String, V> merge(Map<String, V> base, Map<String, V> ours, Map<String, V> latest) {
+    Map<String, V> merged = new HashMap<>(latest);
+
+    Set<String> keys = new HashSet<>(base.keySet());
+    keys.addAll(ours.keySet());
+    for (String key : keys) {
+      V value = ours.get(key);
+      if (!Objects.equals(base.get(key), value)) {
+        if (value == null) {
+          merged.remove(key);
+        } else {
+          merged.put(key, value);
+        }
+      }
+    }
+
+    return merged;
+  }
+
+  /**
+   * Adds the elements we added to the latest ones and removes the ones we removed, keeping the
+   * order of the latest elements.
+   */
+  static <V> Set<V> merge(Collection<V> base, Collection<V> ours, Collection<V> latest) {
+    Set<V> merged = new LinkedHashSet<>(latest);
+    base.stream().filter(element -> !ours.contains(element)).forEach(merged::remove);
+    ours.stream().filter(element -> !base.contains(element)).forEach(merged::add);
+    return merged;
+  }
+}
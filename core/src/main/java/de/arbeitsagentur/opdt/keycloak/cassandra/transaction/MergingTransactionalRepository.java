@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.transaction;
+
+import de.arbeitsagentur.opdt.keycloak.common.ModelIllegalStateException;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Repository of {@link MergeableEntity}s. If a write fails because the entity was changed
+ * concurrently, the latest version is read, the changes of this transaction are reapplied to it and
+ * the write is retried after a jittered backoff. If both transactions changed the same field or
+ * attribute, the later write wins.
+ */
+@JBossLog
+public abstract class MergingTransactionalRepository<
+        TEntity extends MergeableEntity<TEntity>, TDao extends TransactionalDao<TEntity>>
+    extends TransactionalRepository<TEntity, TDao> {
+  private int maxConflictRetries = 5;
+  private long conflictRetryBackoffMillis = 20L;
+
+  public MergingTransactionalRepository(TDao dao) {
+    super(dao);
+  }
+
+  public void setConflictRetry(int maxConflictRetries, long conflictRetryBackoffMillis) {
+    this.maxConflictRetries = maxConflictRetries;
+    this.conflictRetryBackoffMillis = conflictRetryBackoffMillis;
+  }
+
+  /**
+   * Writes the entity and merges concurrent changes on conflicts.
+   *
+   * @param base the state the entity was read in, {@code null} for new entities. Entities whose
+   *     version was set explicitly, e.g. via {@link TransactionalModelAdapter#ENTITY_VERSION}, are
+   *     not merged, so the caller's optimistic lock still applies.
+   */
+  public void insertOrUpdate(TEntity entity, TEntity base) {
+    boolean mergeable = base != null && Objects.equals(base.getVersion(), entity.getVersion());
+
+    for (int attempt = 1; ; attempt++) {
+      try {
+        super.insertOrUpdate(entity);
+        return;
+      } catch (ModelIllegalStateException e) {
+        if (!mergeable || attempt > maxConflictRetries) {
+          throw e;
+        }
+
+        log.debugf(
+            "Conflicting write of %s %s, merging concurrent changes (attempt %d)",
+            entity.getClass().getSimpleName(), entity.getId(), attempt);
+        backoff(attempt, e);
+
+        TEntity latest = readLatest(entity);
+        if (latest == null) {
+          throw e;
+        }
+
+        entity.rebase(base, latest);
+        base = latest;
+      }
+    }
+  }
+
+  /** Reads the entity from the database, bypassing all caches. */
+  protected abstract TEntity readLatest(TEntity entity);
+
+  private void backoff(int attempt, ModelIllegalStateException cause) {
+    long maxDelay = conflictRetryBackoffMillis << Math.min(attempt - 1, 10);
+    try {
+      Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelay + 1));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw cause;
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package de.arbeitsagentur.opdt.keycloak.cassandra.transaction;
 
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
 import com.datastax.oss.driver.api.core.cql.ResultSet;
 import com.datastax.oss.driver.api.mapper.annotations.Delete;
 import com.datastax.oss.driver.api.mapper.annotations.Insert;
@@ -24,11 +25,20 @@ import de.arbeitsagentur.opdt.keycloak.cassandra.BaseDao;
 
 public interface TransactionalDao<T extends TransactionalEntity> extends BaseDao {
   @Insert(ifNotExists = true)
-  void insert(T entity);
+  boolean insert(T entity);
+
+  @Insert
+  BoundStatement insertStatement(T entity);
+
+  @Insert(timestamp = ":timestamp")
+  void insertWithTimestamp(T entity, long timestamp);
 
   @Update(customIfClause = "version = :expectedVersion")
   ResultSet update(T entity, long expectedVersion);
 
   @Delete(ifExists = true)
   void delete(T entity);
+
+  @Delete
+  BoundStatement deleteStatement(T entity);
 }
@@ -17,20 +17,37 @@
 package de.arbeitsagentur.opdt.keycloak.cassandra.transaction;
 
 import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
+import de.arbeitsagentur.opdt.keycloak.cassandra.CompletionStages;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.ClusterCacheInvalidation;
 import de.arbeitsagentur.opdt.keycloak.common.ModelIllegalStateException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class TransactionalRepository<
     TEntity extends TransactionalEntity, TDao extends TransactionalDao<TEntity>> {
+  private static final AtomicLong LAST_TIMESTAMP_MICROS = new AtomicLong();
+
   protected final TDao dao;
+  private ClusterCacheInvalidation clusterCacheInvalidation;
+  private String cacheName;
+  private WriteMode writeMode = WriteMode.LWT;
 
   public TransactionalRepository(TDao dao) {
     this.dao = dao;
   }
 
   public void insertOrUpdate(TEntity entity) {
-    if (entity.getVersion() == null) {
+    if (writeMode == WriteMode.LAST_WRITE_WINS) {
+      entity.setVersion(entity.getVersion() == null ? 1L : entity.getVersion() + 1L);
+      dao.insertWithTimestamp(entity, nextTimestampMicros());
+    } else if (entity.getVersion() == null) {
       entity.setVersion(1L);
-      dao.insert(entity);
+
+      if (!dao.insert(entity)) {
+        entity.setVersion(null);
+        throw new ModelIllegalStateException(
+            "Entity couldn't be inserted because it was inserted concurrently");
+      }
     } else {
       Long currentVersion = entity.getVersion();
       entity.incrementVersion();
@@ -44,5 +61,56 @@ public abstract class TransactionalRepository<
                 + " doesn't match the version in the database");
       }
     }
+
+    // Concurrent last-write-wins updates may write the same version with different content, so
+    // other nodes have to evict their copy regardless of its version
+    publishInvalidation(
+        getCacheKey(entity), writeMode == WriteMode.LAST_WRITE_WINS ? null : entity.getVersion());
+  }
+
+  /**
+   * Deletes the entity. In last-write-wins mode the delete carries a client timestamp from the same
+   * clock as the writes, a conditional delete would take its timestamp from the coordinator and
+   * could be ordered before an earlier write.
+   */
+  protected void deleteEntity(TEntity entity) {
+    if (writeMode == WriteMode.LAST_WRITE_WINS) {
+      CompletionStages.await(
+          dao.executeStatementAsync(
+              dao.deleteStatement(entity).setQueryTimestamp(nextTimestampMicros())));
+    } else {
+      dao.delete(entity);
+    }
+  }
+
+  public void setWriteMode(WriteMode writeMode) {
+    this.writeMode = writeMode;
+  }
+
+  /** Lets other nodes evict their cached copies of this repository's entities after writes. */
+  public void setClusterCacheInvalidation(
+      String cacheName, ClusterCacheInvalidation clusterCacheInvalidation) {
+    this.cacheName = cacheName;
+    this.clusterCacheInvalidation = clusterCacheInvalidation;
+  }
+
+  protected String getCacheKey(TEntity entity) {
+    return entity.getId();
+  }
+
+  protected void publishInvalidation(String cacheKey, Long version) {
+    if (clusterCacheInvalidation != null) {
+      clusterCacheInvalidation.publish(cacheName, cacheKey, version);
+    }
+  }
+
+  // Strictly increasing per node, so that two writes of the same node are never reordered
+  private static long nextTimestampMicros() {
+    long now = System.currentTimeMillis() * 1000L;
+    return LAST_TIMESTAMP_MICROS.updateAndGet(last -> Math.max(last + 1L, now));
+  }
+
+  protected static Long getVersion(Row row) {
+    return row == null ? null : row.get("version", Long.class);
   }
 }
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.transaction;
+
+/** How {@link TransactionalRepository#insertOrUpdate} writes entities. */
+public enum WriteMode {
+  /**
+   * Conditional writes ({@code IF NOT EXISTS} / {@code IF version = ?}), updates based on an
+   * outdated version fail.
+   */
+  LWT,
+  /**
+   * Unconditional writes {@code USING TIMESTAMP}, the most recent write wins. The version is still
+   * incremented but not checked. Requires synchronized clocks between Keycloak nodes.
+   */
+  LAST_WRITE_WINS
+}
@@ -257,22 +257,14 @@ public abstract class CassandraUserAdapter extends TransactionalModelAdapter<Use
     String valueToSet = values != null && !values.isEmpty() ? values.get(0) : null;
     if (setSpecialAttributeValue(name, valueToSet)) return;
 
-    User userCopy = entity.toBuilder().build();
-    super.setAttribute(name, values);
-
-    addPostUpdateTask(
-        () -> userRepository.deleteAttributeSearchIndex(realm.getId(), userCopy, name));
+    updateAttribute(name, () -> super.setAttribute(name, values));
   }
 
   @Override
   public void setSingleAttribute(String name, String value) {
     if (setSpecialAttributeValue(name, value)) return;
 
-    User userCopy = entity.toBuilder().build();
-    super.setAttribute(name, value);
-
-    addPostUpdateTask(
-        () -> userRepository.deleteAttributeSearchIndex(realm.getId(), userCopy, name));
+    updateAttribute(name, () -> super.setAttribute(name, value));
   }
 
   @Override
@@ -282,9 +274,18 @@ public abstract class CassandraUserAdapter extends TransactionalModelAdapter<Use
 
   @Override
   public void removeAttribute(String name) {
-    User userCopy = entity.toBuilder().build();
-    super.removeAttribute(name);
+    updateAttribute(name, () -> super.removeAttribute(name));
+  }
 
+  // the attributes map is shared with shallow entity copies, so the replaced values are captured
+  // before the update and only values which are gone afterwards lose their index rows
+  private void updateAttribute(String name, Runnable update) {
+    List<String> removedValues = new ArrayList<>(entity.getAttribute(name));
+    update.run();
+    removedValues.removeAll(entity.getAttribute(name));
+
+    User userCopy =
+        entity.toBuilder().attributes(new HashMap<>(Map.of(name, removedValues))).build();
     addPostUpdateTask(
         () -> userRepository.deleteAttributeSearchIndex(realm.getId(), userCopy, name));
   }
@@ -304,7 +305,7 @@ public abstract class CassandraUserAdapter extends TransactionalModelAdapter<Use
       entity.getRealmRoles().add(role.getId());
     }
 
-    markUpdated();
+    markUpdated(() -> userRepository.addRoleMember(realm.getId(), role.getId(), entity.getId()));
   }
 
   @Override
@@ -322,7 +323,7 @@ public abstract class CassandraUserAdapter extends TransactionalModelAdapter<Use
       entity.getRealmRoles().remove(role.getId());
     }
 
-    markUpdated();
+    markUpdated(() -> userRepository.removeRoleMember(realm.getId(), role.getId(), entity.getId()));
   }
 
   @Override
@@ -410,14 +411,15 @@ public abstract class CassandraUserAdapter extends TransactionalModelAdapter<Use
     }
     entity.addGroupsMembership(group.getId());
 
-    markUpdated();
+    markUpdated(() -> userRepository.addGroupMember(realm.getId(), group.getId(), entity.getId()));
   }
 
   @Override
   public void leaveGroup(GroupModel group) {
     entity.removeGroupsMembership(group.getId());
 
-    markUpdated();
+    markUpdated(
+        () -> userRepository.removeGroupMember(realm.getId(), group.getId(), entity.getId()));
   }
 
   @Override
@@ -19,8 +19,10 @@ import static de.arbeitsagentur.opdt.keycloak.cassandra.user.CassandraUserAdapte
 import static org.keycloak.common.util.StackUtil.getShortStackTrace;
 
 import de.arbeitsagentur.opdt.keycloak.cassandra.AttributeTypes;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.CassandraModelTransaction;
 import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalProvider;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.UserRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.UserSearchNgrams;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.FederatedIdentity;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.User;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.UserConsent;
@@ -471,11 +473,7 @@ public class CassandraUserProvider extends TransactionalProvider<User, Cassandra
       return Stream.ofNullable(getUserByEmail(realm, params.get(UserModel.EMAIL)));
     }
 
-    Stream<UserModel> userModelStream =
-        userRepository
-            .findAllUsers()
-            .filter(u -> u.getRealmId().equals(realm.getId()))
-            .map(entityToAdapterFunc(realm));
+    Stream<UserModel> userModelStream = findSearchCandidates(realm, params, isExactSearch);
 
     List<Predicate<UserModel>> filtersList =
         params.entrySet().stream()
@@ -547,6 +545,52 @@ public class CassandraUserProvider extends TransactionalProvider<User, Cassandra
         .limit(resultCount);
   }
 
+  // picks the narrowest index for the candidates of a search, all filters still apply to them
+  private Stream<UserModel> findSearchCandidates(
+      RealmModel realm, Map<String, String> params, boolean isExactSearch) {
+    Optional<Map.Entry<String, String>> indexedParam =
+        params.entrySet().stream()
+            .filter(entry -> isExactSearch && entry.getValue() != null)
+            .filter(entry -> entry.getKey().startsWith(AttributeTypes.INDEXED_ATTRIBUTE_PREFIX))
+            .findFirst();
+    if (indexedParam.isPresent()) {
+      return withTransactionModels(
+          realm,
+          userRepository.findUsersByIndexedAttribute(
+              realm.getId(), indexedParam.get().getKey(), indexedParam.get().getValue()));
+    }
+
+    // every term has to be contained in one of the fields of the n-gram index
+    if (userRepository.isSearchIndexReady(realm.getId())) {
+      Set<String> ngrams =
+          UserSearchNgrams.of(
+              params.get(UserModel.SEARCH),
+              params.get(UserModel.USERNAME),
+              params.get(UserModel.EMAIL),
+              params.get(UserModel.FIRST_NAME),
+              params.get(UserModel.LAST_NAME));
+      if (!ngrams.isEmpty()) {
+        return withTransactionModels(
+            realm, userRepository.findUsersBySearchNgrams(realm.getId(), ngrams));
+      }
+    }
+
+    return userRepository
+        .findUsersByRealmId(
+            realm.getId(),
+            Boolean.parseBoolean(params.getOrDefault(UserModel.INCLUDE_SERVICE_ACCOUNT, "true")))
+        .map(entityToAdapterFunc(realm));
+  }
+
+  // index rows of users changed in this transaction are only written on commit
+  private Stream<UserModel> withTransactionModels(RealmModel realm, Stream<User> indexedUsers) {
+    return Stream.concat(
+            models.values().stream().filter(model -> model.getRealm().equals(realm)),
+            indexedUsers.map(entityToAdapterFunc(realm)))
+        .map(UserModel.class::cast)
+        .distinct();
+  }
+
   @Override
   public Stream<UserModel> getGroupMembersStream(
       RealmModel realm, GroupModel group, Integer firstResult, Integer maxResults) {
@@ -555,11 +599,21 @@ public class CassandraUserProvider extends TransactionalProvider<User, Cassandra
         realm.getId(), group.getName(), firstResult, maxResults);
 
     return userRepository
-        .findAllUsers()
-        .filter(user -> user.getRealmId().equals(realm.getId()))
-        .filter(user -> user.getGroupsMembership().contains(group.getId()))
-        .skip(firstResult == null || firstResult < 0 ? 0 : firstResult)
-        .limit(maxResults == null || maxResults < 0 ? Long.MAX_VALUE : maxResults)
+        .findUsersByGroupId(realm.getId(), group.getId(), firstResult, maxResults)
+        .stream()
+        .map(entityToAdapterFunc(realm));
+  }
+
+  @Override
+  public Stream<UserModel> getRoleMembersStream(
+      RealmModel realm, RoleModel role, Integer firstResult, Integer maxResults) {
+    log.debugf(
+        "getRoleMembersStream realmId=%s roleName=%s firstResult=%d maxResults=%d",
+        realm.getId(), role.getName(), firstResult, maxResults);
+
+    return userRepository
+        .findUsersByRoleId(realm.getId(), role.getId(), firstResult, maxResults)
+        .stream()
         .map(entityToAdapterFunc(realm));
   }
 
@@ -602,8 +656,7 @@ public class CassandraUserProvider extends TransactionalProvider<User, Cassandra
                               .contains(attrValue))
                   .filter(u -> u.getServiceAccountClientLink() == null),
               userRepository
-                  .findAllUsers()
-                  .filter(u -> u.getRealmId().equals(realm.getId()))
+                  .findUsersByRealmId(realm.getId(), false)
                   .filter(u -> u.getAttribute(attrName).contains(attrValue))
                   .filter(u -> u.getServiceAccountClientLink() == null)
                   .map(entityToAdapterFunc(realm))
@@ -632,6 +685,9 @@ public class CassandraUserProvider extends TransactionalProvider<User, Cassandra
   public void preRemove(RealmModel realm) {
     log.tracef("preRemove[RealmModel](%s)%s", realm, getShortStackTrace());
     searchForUserStream(realm, "").forEach(u -> removeUser(realm, u));
+    // the counters are left at about zero by the removed users: a deleted counter must not be
+    // incremented again, but a realm with the same id may be created again, e.g. by an import
+    userRepository.deleteIndexBackfills(realm.getId());
     models.clear();
   }
 
@@ -652,12 +708,18 @@ public class CassandraUserProvider extends TransactionalProvider<User, Cassandra
 
   @Override
   public void preRemove(RealmModel realm, RoleModel role) {
-    // NOOP (delete/ignore ad-hoc when read)
+    // role mappings are ignored when read until the purge has removed them
+    session
+        .getTransactionManager()
+        .enlistAfterCompletion(
+            (CassandraModelTransaction)
+                () -> userRepository.purgeRoleMembers(realm.getId(), role.getId()));
   }
 
   @Override
   public void preRemove(RealmModel realm, GroupModel group) {
-    // NOOP (delete/ignore ad-hoc when read)
+    // memberships stored on the users are ignored when read
+    userRepository.deleteGroupMembers(realm.getId(), group.getId());
   }
 
   @Override
@@ -15,17 +15,30 @@
  */
 package de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence;
 
+import com.datastax.oss.driver.api.core.PagingIterable;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
 import de.arbeitsagentur.opdt.keycloak.cassandra.AttributeTypes;
+import de.arbeitsagentur.opdt.keycloak.cassandra.CompletionStages;
+import de.arbeitsagentur.opdt.keycloak.cassandra.StatementGroupExecutor;
 import de.arbeitsagentur.opdt.keycloak.cassandra.StreamExtensions;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.NegativeLookupCache;
 import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalRepository;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.*;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import de.arbeitsagentur.opdt.keycloak.common.ModelIllegalStateException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
+import lombok.extern.jbosslog.JBossLog;
 
+@JBossLog
 public class CassandraUserRepository extends TransactionalRepository<User, UserDao>
     implements UserRepository {
   private static final String USERNAME = "username";
@@ -33,14 +46,135 @@ public class CassandraUserRepository extends TransactionalRepository<User, UserD
   private static final String EMAIL = "email";
   private static final String SERVICE_ACCOUNT_LINK = "serviceAccountLink";
   private static final String FEDERATION_LINK = "federationLink";
-
-  public CassandraUserRepository(UserDao dao) {
+  private static final String GROUP_MEMBERS = "groupMembers";
+  private static final String ROLE_MEMBERS = "roleMembers";
+  private static final String SEARCH_NGRAMS = "searchNgrams";
+  private static final String USER_COUNTS = "userCounts";
+  private static final int USER_COUNT_SHARDS = 16;
+  private static final int USER_COUNT_SEED_ATTEMPTS = 5;
+  private static final int MAX_PURGE_ATTEMPTS = 3;
+  private static final int MAX_IDS_PER_QUERY = 100;
+  private static final int BACKFILL_LEASE_SECONDS = 60;
+
+  private final NegativeLookupCache negativeLookupCache;
+  private final StatementGroupExecutor indexWriter;
+  private final Executor backgroundJobs;
+  private final boolean searchIndexEnabled;
+  private final Set<String> backfilledIndexes = ConcurrentHashMap.newKeySet();
+  private final Set<String> invalidatedSearchIndexes = ConcurrentHashMap.newKeySet();
+  private final Map<String, Integer> userCountSeedAttempts = new ConcurrentHashMap<>();
+  // earliest time of the next attempt of each backfill, Long.MAX_VALUE while it is scheduled
+  private final Map<String, Long> backfillAttempts = new ConcurrentHashMap<>();
+  private final String nodeId = UUID.randomUUID().toString();
+  private long backfillRetryMillis = 30_000;
+
+  public CassandraUserRepository(
+      UserDao dao,
+      NegativeLookupCache negativeLookupCache,
+      StatementGroupExecutor indexWriter,
+      Executor backgroundJobs,
+      boolean searchIndexEnabled) {
     super(dao);
+    this.negativeLookupCache = negativeLookupCache;
+    this.indexWriter = indexWriter;
+    this.backgroundJobs = backgroundJobs;
+    this.searchIndexEnabled = searchIndexEnabled;
+  }
+
+  public void setBackfillRetryMillis(long backfillRetryMillis) {
+    this.backfillRetryMillis = backfillRetryMillis;
   }
 
+  /**
+   * Streams the users of a realm in the order of the {@code realms_to_users} partition. The rows of
+   * each page of user ids are read concurrently, the next page is only read when the stream is
+   * consumed further, so a limited stream stops reading early.
+   */
   @Override
-  public Stream<User> findAllUsers() {
-    return StreamSupport.stream(dao.findAll().spliterator(), false);
+  public Stream<User> findUsersByRealmId(String realmId, boolean includeServiceAccounts) {
+    PagingIterable<RealmToUserMapping> mappings =
+        includeServiceAccounts
+            ? dao.findUsersByRealmId(realmId)
+            : dao.findNonServiceAccountUsersByRealmId(realmId);
+
+    return streamUsersByIds(
+        realmId, userIds(mappings, RealmToUserMapping::getUserId), MAX_IDS_PER_QUERY);
+  }
+
+  private static <T> Iterator<String> userIds(
+      PagingIterable<T> rows, Function<T, String> userIdGetter) {
+    Iterator<T> iterator = rows.iterator();
+    return new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public String next() {
+        return userIdGetter.apply(iterator.next());
+      }
+    };
+  }
+
+  /**
+   * Whether searches of the realm can use {@code user_search_ngrams}. If the index is enabled but
+   * not yet backfilled, the backfill is started in the background.
+   */
+  @Override
+  public boolean isSearchIndexReady(String realmId) {
+    return searchIndexEnabled
+        && isIndexBackfilled(realmId, SEARCH_NGRAMS, this::backfillSearchNgrams);
+  }
+
+  /**
+   * Streams the users having all given n-grams in {@code user_search_ngrams}. The posting lists are
+   * intersected in the order of the n-grams, only the first list is held completely in memory.
+   */
+  @Override
+  public Stream<User> findUsersBySearchNgrams(String realmId, Set<String> ngrams) {
+    Set<String> userIds = null;
+    for (String ngram : ngrams) {
+      Set<String> candidates = userIds;
+      userIds =
+          StreamSupport.stream(dao.findSearchNgrams(realmId, ngram).spliterator(), false)
+              .map(UserSearchNgram::getUserId)
+              .filter(userId -> candidates == null || candidates.contains(userId))
+              .collect(Collectors.toCollection(LinkedHashSet::new));
+
+      if (userIds.isEmpty()) {
+        return Stream.empty();
+      }
+    }
+
+    return userIds == null
+        ? Stream.empty()
+        : streamUsersByIds(realmId, userIds.iterator(), MAX_IDS_PER_QUERY);
+  }
+
+  // reads the users of each page of ids concurrently and the next page only on demand
+  private Stream<User> streamUsersByIds(String realmId, Iterator<String> userIds, int pageSize) {
+    Iterator<List<User>> pages =
+        new Iterator<>() {
+          @Override
+          public boolean hasNext() {
+            return userIds.hasNext();
+          }
+
+          @Override
+          public List<User> next() {
+            List<String> page = new ArrayList<>();
+            while (userIds.hasNext() && page.size() < pageSize) {
+              page.add(userIds.next());
+            }
+
+            return findUsersByIds(realmId, page);
+          }
+        };
+
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED), false)
+        .flatMap(List::stream);
   }
 
   @Override
@@ -54,13 +188,8 @@ public class CassandraUserRepository extends TransactionalRepository<User, UserD
       return null;
     }
 
-    UserSearchIndex user =
-        dao.findUsers(realmId, EMAIL, email).all().stream().findFirst().orElse(null);
-    if (user == null) {
-      return null;
-    }
-
-    return findUserById(realmId, user.getUserId());
+    return negativeLookupCache.get(
+        EMAIL, realmId, email, () -> findUserBySearchIndex(realmId, EMAIL, email));
   }
 
   @Override
@@ -69,13 +198,8 @@ public class CassandraUserRepository extends TransactionalRepository<User, UserD
       return null;
     }
 
-    UserSearchIndex user =
-        dao.findUsers(realmId, USERNAME, username).all().stream().findFirst().orElse(null);
-    if (user == null) {
-      return null;
-    }
-
-    return findUserById(realmId, user.getUserId());
+    return negativeLookupCache.get(
+        USERNAME, realmId, username, () -> findUserBySearchIndex(realmId, USERNAME, username));
   }
 
   @Override
@@ -84,11 +208,16 @@ public class CassandraUserRepository extends TransactionalRepository<User, UserD
       return null;
     }
 
-    UserSearchIndex user =
-        dao.findUsers(realmId, USERNAME_CASE_INSENSITIVE, username).all().stream()
-            .findFirst()
-            .orElse(null);
+    return negativeLookupCache.get(
+        USERNAME_CASE_INSENSITIVE,
+        realmId,
+        username,
+        () -> findUserBySearchIndex(realmId, USERNAME_CASE_INSENSITIVE, username));
+  }
 
+  private User findUserBySearchIndex(String realmId, String name, String value) {
+    UserSearchIndex user =
+        dao.findUsers(realmId, name, value).all().stream().findFirst().orElse(null);
     if (user == null) {
       return null;
     }
@@ -189,43 +318,61 @@ public class CassandraUserRepository extends TransactionalRepository<User, UserD
 
   @Override
   public void insertOrUpdate(User user) {
+    boolean created = user.getVersion() == null;
+    Set<String> previousNgrams =
+        user.getSearchNgrams() == null ? Set.of() : new HashSet<>(user.getSearchNgrams());
+    if (searchIndexEnabled) {
+      user.setSearchNgrams(getSearchNgrams(user));
+    } else {
+      invalidateSearchIndex(user.getRealmId());
+    }
+
     super.insertOrUpdate(user);
 
-    dao.insert(new RealmToUserMapping(user.getRealmId(), user.isServiceAccount(), user.getId()));
+    // all index rows of the user are written as one group, so they cannot drift apart
+    List<BoundStatement> statements = new ArrayList<>();
+    statements.add(
+        dao.insertStatement(
+            new RealmToUserMapping(user.getRealmId(), user.isServiceAccount(), user.getId())));
 
     if (user.getUsername() != null) {
-      dao.insertOrUpdate(
-          new UserSearchIndex(user.getRealmId(), USERNAME, user.getUsername(), user.getId()));
+      statements.add(
+          dao.insertStatement(
+              new UserSearchIndex(user.getRealmId(), USERNAME, user.getUsername(), user.getId())));
     }
 
     if (user.getUsernameCaseInsensitive() != null) {
-      dao.insertOrUpdate(
-          new UserSearchIndex(
-              user.getRealmId(),
-              USERNAME_CASE_INSENSITIVE,
-              user.getUsernameCaseInsensitive(),
-              user.getId()));
+      statements.add(
+          dao.insertStatement(
+              new UserSearchIndex(
+                  user.getRealmId(),
+                  USERNAME_CASE_INSENSITIVE,
+                  user.getUsernameCaseInsensitive(),
+                  user.getId())));
     }
 
     if (user.getEmail() != null && user.getHasEmailChanged()) {
-      dao.insertOrUpdate(
-          new UserSearchIndex(user.getRealmId(), EMAIL, user.getEmail(), user.getId()));
+      statements.add(
+          dao.insertStatement(
+              new UserSearchIndex(user.getRealmId(), EMAIL, user.getEmail(), user.getId())));
     }
 
     if (user.getServiceAccountClientLink() != null
         && user.getHasServiceAccountClientLinkChanged()) {
-      dao.insertOrUpdate(
-          new UserSearchIndex(
-              user.getRealmId(),
-              SERVICE_ACCOUNT_LINK,
-              user.getServiceAccountClientLink(),
-              user.getId()));
+      statements.add(
+          dao.insertStatement(
+              new UserSearchIndex(
+                  user.getRealmId(),
+                  SERVICE_ACCOUNT_LINK,
+                  user.getServiceAccountClientLink(),
+                  user.getId())));
     }
 
     if (user.getFederationLink() != null && user.getHasFederationLinkChanged()) {
-      dao.insertOrUpdate(
-          new UserSearchIndex(
-              user.getRealmId(), FEDERATION_LINK, user.getFederationLink(), user.getId()));
+      statements.add(
+          dao.insertStatement(
+              new UserSearchIndex(
+                  user.getRealmId(), FEDERATION_LINK, user.getFederationLink(), user.getId())));
     }
 
     for (Map.Entry<String, List<String>> entry : user.getIndexedAttributes().entrySet()) {
@@ -233,8 +380,46 @@ public class CassandraUserRepository extends TransactionalRepository<User, UserD
           .getValue()
           .forEach(
               value ->
-                  dao.insertOrUpdate(
-                      new UserSearchIndex(user.getRealmId(), entry.getKey(), value, user.getId())));
+                  statements.add(
+                      dao.insertStatement(
+                          new UserSearchIndex(
+                              user.getRealmId(), entry.getKey(), value, user.getId()))));
+    }
+
+    if (searchIndexEnabled) {
+      Set<String> ngrams = user.getSearchNgrams();
+      ngrams.stream()
+          .filter(ngram -> !previousNgrams.contains(ngram))
+          .forEach(
+              ngram ->
+                  statements.add(
+                      dao.insertStatement(
+                          new UserSearchNgram(user.getRealmId(), ngram, user.getId()))));
+      previousNgrams.stream()
+          .filter(ngram -> !ngrams.contains(ngram))
+          .forEach(
+              ngram ->
+                  statements.add(
+                      dao.deleteSearchNgramStatement(user.getRealmId(), ngram, user.getId())));
+    }
+
+    indexWriter.execute(dao, statements);
+
+    if (created) {
+      countUser(user, user.isServiceAccount(), 1);
+    }
+
+    if (user.getUsername() != null) {
+      negativeLookupCache.invalidate(USERNAME, user.getRealmId(), user.getUsername());
+    }
+
+    if (user.getUsernameCaseInsensitive() != null) {
+      negativeLookupCache.invalidate(
+          USERNAME_CASE_INSENSITIVE, user.getRealmId(), user.getUsernameCaseInsensitive());
+    }
+
+    if (user.getEmail() != null && user.getHasEmailChanged()) {
+      negativeLookupCache.invalidate(EMAIL, user.getRealmId(), user.getEmail());
     }
   }
 
@@ -246,32 +431,105 @@ public class CassandraUserRepository extends TransactionalRepository<User, UserD
       return false;
     }
 
-    dao.delete(user);
-    dao.deleteRealmToUserMapping(realmId, user.isServiceAccount(), user.getId());
+    deleteEntity(user);
 
-    deleteUsernameSearchIndex(realmId, user);
-    deleteEmailSearchIndex(realmId, user);
-    deleteServiceAccountLinkSearchIndex(realmId, user);
-    deleteFederationLinkSearchIndex(realmId, user);
+    List<BoundStatement> statements = new ArrayList<>();
+    statements.add(dao.deleteRealmToUserMappingStatement(realmId, user.isServiceAccount(), userId));
+    addIndexDeletion(statements, realmId, USERNAME, user.getUsername(), userId);
+    addIndexDeletion(
+        statements, realmId, USERNAME_CASE_INSENSITIVE, user.getUsernameCaseInsensitive(), userId);
+    addIndexDeletion(statements, realmId, EMAIL, user.getEmail(), userId);
+    addIndexDeletion(
+        statements, realmId, SERVICE_ACCOUNT_LINK, user.getServiceAccountClientLink(), userId);
+    addIndexDeletion(statements, realmId, FEDERATION_LINK, user.getFederationLink(), userId);
 
     for (Map.Entry<String, List<String>> entry : user.getIndexedAttributes().entrySet()) {
-      entry.getValue().forEach(value -> dao.deleteIndex(realmId, entry.getKey(), value, userId));
+      entry
+          .getValue()
+          .forEach(value -> addIndexDeletion(statements, realmId, entry.getKey(), value, userId));
     }
 
+    user.getGroupsMembership()
+        .forEach(
+            groupId -> statements.add(dao.deleteGroupMemberStatement(realmId, groupId, userId)));
+    getRoleIds(user)
+        .forEach(roleId -> statements.add(dao.deleteRoleMemberStatement(realmId, roleId, userId)));
+
+    // postings written by a backfill are not recorded in the user row
+    Set<String> ngrams = getSearchNgrams(user);
+    if (user.getSearchNgrams() != null) {
+      ngrams.addAll(user.getSearchNgrams());
+    }
+    ngrams.forEach(ngram -> statements.add(dao.deleteSearchNgramStatement(realmId, ngram, userId)));
+
+    indexWriter.execute(dao, statements);
+    countUser(user, user.isServiceAccount(), -1);
     return true;
   }
 
+  /**
+   * Writes of users are not indexed while the n-gram index is disabled, so the backfill of the
+   * realm has to be repeated when the index is enabled again. The marker is deleted on the first
+   * write of a realm after the node started.
+   */
+  private void invalidateSearchIndex(String realmId) {
+    if (!invalidatedSearchIndexes.contains(realmId)) {
+      dao.deleteIndexBackfill(realmId, SEARCH_NGRAMS);
+      invalidatedSearchIndexes.add(realmId);
+    }
+  }
+
+  private static Set<String> getSearchNgrams(User user) {
+    return UserSearchNgrams.of(
+        user.getUsername(), user.getEmail(), user.getFirstName(), user.getLastName());
+  }
+
+  private void addIndexDeletion(
+      List<BoundStatement> statements, String realmId, String name, String value, String userId) {
+    if (value != null) {
+      statements.add(dao.deleteIndexStatement(realmId, name, value, userId));
+    }
+  }
+
   @Override
   public void makeUserServiceAccount(User user, String realmId) {
+    boolean created = user.getVersion() == null;
+    boolean wasServiceAccount = user.isServiceAccount();
     user.setServiceAccount(true);
     super.insertOrUpdate(user);
 
-    dao.deleteRealmToUserMapping(realmId, false, user.getId());
-    dao.insert(new RealmToUserMapping(realmId, user.isServiceAccount(), user.getId()));
+    indexWriter.execute(
+        dao,
+        List.of(
+            dao.deleteRealmToUserMappingStatement(realmId, false, user.getId()),
+            dao.insertStatement(
+                new RealmToUserMapping(realmId, user.isServiceAccount(), user.getId())),
+            dao.insertStatement(
+                new UserSearchIndex(
+                    realmId,
+                    SERVICE_ACCOUNT_LINK,
+                    user.getServiceAccountClientLink(),
+                    user.getId()))));
+
+    if (created || !wasServiceAccount) {
+      countUser(user, true, 1);
+    }
+    if (!created && !wasServiceAccount) {
+      countUser(user, false, -1);
+    }
+  }
 
-    dao.insertOrUpdate(
-        new UserSearchIndex(
-            realmId, SERVICE_ACCOUNT_LINK, user.getServiceAccountClientLink(), user.getId()));
+  // counters cannot be batched with other statements, lost or repeated updates are reconciled
+  private void countUser(User user, boolean serviceAccount, long delta) {
+    try {
+      dao.incrementUserCount(
+          user.getRealmId(),
+          serviceAccount,
+          Math.floorMod(user.getId().hashCode(), USER_COUNT_SHARDS),
+          delta);
+    } catch (RuntimeException e) {
+      log.warnf(e, "Cannot update the user count of realm %s", user.getRealmId());
+    }
   }
 
   @Override
@@ -325,6 +583,332 @@ public class CassandraUserRepository extends TransactionalRepository<User, UserD
     return true;
   }
 
+  /**
+   * Pages the members of a group from {@code group_members}, reading only as many index rows as the
+   * page needs. Until the index of the realm is backfilled, the users of the realm are filtered
+   * instead.
+   */
+  @Override
+  public List<User> findUsersByGroupId(String realmId, String groupId, Integer first, Integer max) {
+    Stream<User> users =
+        isIndexBackfilled(realmId, GROUP_MEMBERS, this::backfillGroupMembers)
+            ? streamUsersByIds(
+                realmId,
+                userIds(dao.findGroupMembers(realmId, groupId), GroupMember::getUserId),
+                pageSize(first, max))
+            : findUsersByRealmId(realmId, true);
+
+    // also skips index entries of users which left the group after a backfill read them
+    return users
+        .filter(user -> user.getGroupsMembership().contains(groupId))
+        .skip(first == null || first < 0 ? 0 : first)
+        .limit(max == null || max < 0 ? Long.MAX_VALUE : max)
+        .collect(Collectors.toList());
+  }
+
+  // reads no more users than a page needs, unless index entries of former members are skipped
+  private static int pageSize(Integer first, Integer max) {
+    if (max == null || max < 0) {
+      return MAX_IDS_PER_QUERY;
+    }
+
+    long needed = (first == null || first < 0 ? 0L : first) + max;
+    return (int) Math.max(1, Math.min(MAX_IDS_PER_QUERY, needed));
+  }
+
+  @Override
+  public void addGroupMember(String realmId, String groupId, String userId) {
+    indexWriter.execute(
+        dao, List.of(dao.insertStatement(new GroupMember(realmId, groupId, userId))));
+  }
+
+  @Override
+  public void removeGroupMember(String realmId, String groupId, String userId) {
+    indexWriter.execute(dao, List.of(dao.deleteGroupMemberStatement(realmId, groupId, userId)));
+  }
+
+  @Override
+  public void deleteGroupMembers(String realmId, String groupId) {
+    dao.deleteGroupMembers(realmId, groupId);
+  }
+
+  /**
+   * Pages the users holding a role from {@code role_members}, reading only as many index rows as
+   * the page needs. Until the index of the realm is backfilled, the users of the realm are filtered
+   * instead.
+   */
+  @Override
+  public List<User> findUsersByRoleId(String realmId, String roleId, Integer first, Integer max) {
+    // also skips index entries of users whose role mapping was deleted after a backfill read them
+    return findRoleMembers(realmId, roleId, pageSize(first, max))
+        .skip(first == null || first < 0 ? 0 : first)
+        .limit(max == null || max < 0 ? Long.MAX_VALUE : max)
+        .collect(Collectors.toList());
+  }
+
+  private Stream<User> findRoleMembers(String realmId, String roleId, int pageSize) {
+    Stream<User> users =
+        isIndexBackfilled(realmId, ROLE_MEMBERS, this::backfillRoleMembers)
+            ? streamUsersByIds(
+                realmId,
+                userIds(dao.findRoleMembers(realmId, roleId), RoleMember::getUserId),
+                pageSize)
+            : findUsersByRealmId(realmId, true);
+
+    return users.filter(user -> getRoleIds(user).anyMatch(roleId::equals));
+  }
+
+  @Override
+  public void addRoleMember(String realmId, String roleId, String userId) {
+    indexWriter.execute(dao, List.of(dao.insertStatement(new RoleMember(realmId, roleId, userId))));
+  }
+
+  @Override
+  public void removeRoleMember(String realmId, String roleId, String userId) {
+    indexWriter.execute(dao, List.of(dao.deleteRoleMemberStatement(realmId, roleId, userId)));
+  }
+
+  /**
+   * Removes a deleted role from the role mappings of its members in the background. Until then, and
+   * if the purge is interrupted, mappings of the deleted role are ignored when read.
+   */
+  @Override
+  public void purgeRoleMembers(String realmId, String roleId) {
+    backgroundJobs.execute(
+        () -> {
+          try {
+            int purged = 0;
+            Iterator<User> members = findRoleMembers(realmId, roleId, MAX_IDS_PER_QUERY).iterator();
+            while (members.hasNext()) {
+              if (removeRoleMapping(realmId, members.next().getId(), roleId)) {
+                purged++;
+              }
+            }
+            dao.deleteRoleMembers(realmId, roleId);
+
+            log.debugf("Purged role %s from %d users of realm %s", roleId, purged, realmId);
+          } catch (RuntimeException e) {
+            log.warnf(e, "Cannot purge role %s from the users of realm %s", roleId, realmId);
+          }
+        });
+  }
+
+  private boolean removeRoleMapping(String realmId, String userId, String roleId) {
+    for (int attempt = 1; ; attempt++) {
+      User user = dao.findById(realmId, userId);
+      if (user == null) {
+        return false;
+      }
+
+      boolean removed = user.getRealmRoles().remove(roleId);
+      for (Set<String> clientRoles : user.getClientRoles().values()) {
+        removed |= clientRoles.remove(roleId);
+      }
+      if (!removed) {
+        return false;
+      }
+
+      try {
+        // only the role mappings changed, so none of the user's index rows have to be written
+        super.insertOrUpdate(user);
+        return true;
+      } catch (ModelIllegalStateException e) {
+        if (attempt == MAX_PURGE_ATTEMPTS) {
+          log.warnf(
+              "Cannot purge role %s from user %s, it is updated concurrently", roleId, userId);
+          return false;
+        }
+      }
+    }
+  }
+
+  private static Stream<String> getRoleIds(User user) {
+    return Stream.concat(
+        user.getRealmRoles().stream(),
+        user.getClientRoles().values().stream().flatMap(Collection::stream));
+  }
+
+  private List<BoundStatement> backfillRoleMembers(List<User> users) {
+    return users.stream()
+        .flatMap(
+            user ->
+                getRoleIds(user)
+                    .map(
+                        roleId ->
+                            dao.insertStatement(
+                                new RoleMember(user.getRealmId(), roleId, user.getId()))))
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public void deleteIndexBackfills(String realmId) {
+    dao.deleteIndexBackfills(realmId);
+    backfilledIndexes.removeIf(key -> key.startsWith(realmId + ":"));
+    invalidatedSearchIndexes.remove(realmId);
+  }
+
+  /**
+   * Whether an index contains the users written before it existed. If not, the backfill of the
+   * index is started in the background and the caller has to read the users of the realm instead.
+   * Later writes of users maintain the index themselves.
+   */
+  private boolean isIndexBackfilled(
+      String realmId, String name, Function<List<User>, List<BoundStatement>> indexer) {
+    String key = realmId + ":" + name;
+    if (backfilledIndexes.contains(key)) {
+      return true;
+    }
+
+    if (dao.findIndexBackfill(realmId, name) != null) {
+      backfilledIndexes.add(key);
+      return true;
+    }
+
+    scheduleBackfill(key, () -> runIndexBackfill(realmId, name, indexer));
+    return false;
+  }
+
+  /**
+   * Runs a backfill in the background, at most one per key and node at a time. A backfill which
+   * failed or whose lease is held by another node is retried after {@code backfillRetryMillis} at
+   * the earliest.
+   */
+  private void scheduleBackfill(String key, BooleanSupplier backfill) {
+    long now = System.currentTimeMillis();
+    AtomicBoolean scheduled = new AtomicBoolean();
+    backfillAttempts.compute(
+        key,
+        (k, notBefore) -> {
+          if (notBefore != null && notBefore > now) {
+            return notBefore;
+          }
+
+          scheduled.set(true);
+          return Long.MAX_VALUE;
+        });
+    if (!scheduled.get()) {
+      return;
+    }
+
+    try {
+      backgroundJobs.execute(
+          () -> {
+            boolean completed = false;
+            try {
+              completed = backfill.getAsBoolean();
+            } catch (RuntimeException e) {
+              log.warnf(e, "Cannot backfill %s", key);
+            } finally {
+              if (completed) {
+                backfillAttempts.remove(key);
+              } else {
+                backfillAttempts.put(key, System.currentTimeMillis() + backfillRetryMillis);
+              }
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      backfillAttempts.remove(key);
+      log.warnf(e, "Cannot schedule backfill %s", key);
+    }
+  }
+
+  /**
+   * Fills an index with the users written before the index existed, on the node holding the lease
+   * in {@code user_job_leases}. The lease is renewed while the users are read and deleted
+   * afterwards. The completed backfill is recorded in {@code user_index_backfills}, so other nodes
+   * skip it.
+   *
+   * @return false if another node holds the lease
+   */
+  private boolean runIndexBackfill(
+      String realmId, String name, Function<List<User>, List<BoundStatement>> indexer) {
+    String leaseName = name + ":" + realmId;
+    if (!dao.acquireLease(new UserJobLease(leaseName, nodeId), BACKFILL_LEASE_SECONDS)) {
+      log.debugf("Index %s of realm %s is backfilled by another node", name, realmId);
+      return false;
+    }
+
+    try {
+      if (dao.findIndexBackfill(realmId, name) == null) {
+        log.infof("Backfill index %s of realm %s", name, realmId);
+
+        long renewAt = System.currentTimeMillis() + BACKFILL_LEASE_SECONDS * 500L;
+        List<String> userIds = new ArrayList<>();
+        for (RealmToUserMapping mapping : dao.findUsersByRealmId(realmId)) {
+          userIds.add(mapping.getUserId());
+          if (userIds.size() == MAX_IDS_PER_QUERY) {
+            indexWriter.execute(dao, indexer.apply(findUsersByIds(realmId, userIds)));
+            userIds.clear();
+
+            if (System.currentTimeMillis() >= renewAt) {
+              renewLease(leaseName);
+              renewAt = System.currentTimeMillis() + BACKFILL_LEASE_SECONDS * 500L;
+            }
+          }
+        }
+        indexWriter.execute(dao, indexer.apply(findUsersByIds(realmId, userIds)));
+
+        dao.insert(new UserIndexBackfill(realmId, name));
+        log.infof("Backfilled index %s of realm %s", name, realmId);
+      }
+
+      backfilledIndexes.add(realmId + ":" + name);
+      return true;
+    } finally {
+      dao.releaseLease(leaseName, nodeId);
+    }
+  }
+
+  private void renewLease(String leaseName) {
+    if (!dao.renewLease(leaseName, nodeId, nodeId, BACKFILL_LEASE_SECONDS)) {
+      throw new ModelIllegalStateException("Lost lease " + leaseName + " to another node");
+    }
+  }
+
+  private List<BoundStatement> backfillGroupMembers(List<User> users) {
+    return users.stream()
+        .flatMap(
+            user ->
+                user.getGroupsMembership().stream()
+                    .map(
+                        groupId ->
+                            dao.insertStatement(
+                                new GroupMember(user.getRealmId(), groupId, user.getId()))))
+        .collect(Collectors.toList());
+  }
+
+  private List<BoundStatement> backfillSearchNgrams(List<User> users) {
+    return users.stream()
+        .flatMap(
+            user ->
+                getSearchNgrams(user).stream()
+                    .map(
+                        ngram ->
+                            dao.insertStatement(
+                                new UserSearchNgram(user.getRealmId(), ngram, user.getId()))))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Reads users by single-partition reads, a multi-partition IN would block one coordinator. The
+   * reads of at most {@link #MAX_IDS_PER_QUERY} ids are sent concurrently, the next chunk only
+   * after the previous one completed.
+   */
+  private List<User> findUsersByIds(String realmId, List<String> userIds) {
+    List<User> result = new ArrayList<>(userIds.size());
+    for (int start = 0; start < userIds.size(); start += MAX_IDS_PER_QUERY) {
+      List<CompletableFuture<User>> users =
+          userIds.subList(start, Math.min(start + MAX_IDS_PER_QUERY, userIds.size())).stream()
+              .map(userId -> dao.findByIdAsync(realmId, userId).toCompletableFuture())
+              .collect(Collectors.toList());
+      CompletionStages.awaitAll(users);
+
+      users.stream().map(CompletableFuture::join).filter(Objects::nonNull).forEach(result::add);
+    }
+
+    return result;
+  }
+
   @Override
   public Set<String> findUserIdsByRealmId(String realmId, int first, int max) {
     return StreamExtensions.paginated(dao.findUsersByRealmId(realmId), first, max)
@@ -332,14 +916,138 @@ public class CassandraUserRepository extends TransactionalRepository<User, UserD
         .collect(Collectors.toSet());
   }
 
+  /**
+   * Sums the sharded counters of the realm. Until the counters of a realm have been seeded with the
+   * users written before they existed, the {@code realms_to_users} rows are counted instead and the
+   * seeding is started in the background.
+   */
   @Override
   public long countUsersByRealmId(String realmId, boolean includeServiceAccounts) {
-    // Avoid count()-queries for Amazon Keyspaces support
+    String key = realmId + ":" + USER_COUNTS;
+    if (!backfilledIndexes.contains(key)) {
+      if (dao.findIndexBackfill(realmId, USER_COUNTS) == null) {
+        scheduleBackfill(key, () -> seedUserCounts(realmId));
+        return countUserMappings(realmId, includeServiceAccounts);
+      }
+
+      backfilledIndexes.add(key);
+    }
+
+    Map<String, Long> counts = findUserCounts(realmId);
+    long users = sumUserCounts(counts, false);
     if (includeServiceAccounts) {
-      return dao.findUsersByRealmId(realmId).all().size();
-    } else {
-      return dao.findNonServiceAccountUsersByRealmId(realmId).all().size();
+      users += sumUserCounts(counts, true);
+    }
+
+    return Math.max(0, users);
+  }
+
+  /**
+   * Seeds the counters of a realm. The users of a busy realm may change during every attempt, so
+   * the last of {@link #USER_COUNT_SEED_ATTEMPTS} attempts seeds them regardless. The counters are
+   * then off by at most the users created or deleted while it counted.
+   */
+  private boolean seedUserCounts(String realmId) {
+    int attempt = userCountSeedAttempts.merge(realmId, 1, Integer::sum);
+    if (!reconcileUserCounts(realmId, attempt >= USER_COUNT_SEED_ATTEMPTS)) {
+      return false;
     }
+
+    userCountSeedAttempts.remove(realmId);
+    backfilledIndexes.add(realmId + ":" + USER_COUNTS);
+    return true;
+  }
+
+  @Override
+  public boolean reconcileUserCounts(String realmId) {
+    return reconcileUserCounts(realmId, false);
+  }
+
+  /**
+   * Corrects the counters of a realm by their difference to the number of {@code realms_to_users}
+   * rows, which are read in one pass. Unless forced, the correction is skipped if a counter changed
+   * while the rows were counted, because the concurrent write would be counted twice. A lease keeps
+   * other nodes from applying the same correction at the same time, it is deleted afterwards.
+   */
+  private boolean reconcileUserCounts(String realmId, boolean ignoreConcurrentWrites) {
+    String leaseName = USER_COUNTS + ":" + realmId;
+    if (!dao.acquireLease(new UserJobLease(leaseName, nodeId), BACKFILL_LEASE_SECONDS)) {
+      return false;
+    }
+
+    try {
+      Map<String, Long> before = findUserCounts(realmId);
+      long renewAt = System.currentTimeMillis() + BACKFILL_LEASE_SECONDS * 500L;
+      long users = 0;
+      long serviceAccounts = 0;
+      for (RealmToUserMapping mapping : dao.findUsersByRealmId(realmId)) {
+        if (mapping.isServiceAccount()) {
+          serviceAccounts++;
+        } else {
+          users++;
+        }
+
+        if ((users + serviceAccounts) % MAX_IDS_PER_QUERY == 0
+            && System.currentTimeMillis() >= renewAt) {
+          renewLease(leaseName);
+          renewAt = System.currentTimeMillis() + BACKFILL_LEASE_SECONDS * 500L;
+        }
+      }
+
+      if (!before.equals(findUserCounts(realmId))) {
+        if (!ignoreConcurrentWrites) {
+          log.debugf(
+              "Skip reconciliation of user counts of realm %s due to concurrent writes", realmId);
+          return false;
+        }
+
+        log.infof(
+            "Correct user counts of realm %s despite concurrent writes, they may be off by these writes",
+            realmId);
+      }
+
+      correctUserCount(realmId, false, users - sumUserCounts(before, false));
+      correctUserCount(realmId, true, serviceAccounts - sumUserCounts(before, true));
+      dao.insert(new UserIndexBackfill(realmId, USER_COUNTS));
+      return true;
+    } finally {
+      dao.releaseLease(leaseName, nodeId);
+    }
+  }
+
+  private void correctUserCount(String realmId, boolean serviceAccount, long delta) {
+    if (delta != 0) {
+      log.infof(
+          "Correct count of %s of realm %s by %d",
+          serviceAccount ? "service accounts" : "users", realmId, delta);
+      dao.incrementUserCount(realmId, serviceAccount, 0, delta);
+    }
+  }
+
+  // keyed by service account flag and shard, so concurrent changes of different shards are seen
+  private Map<String, Long> findUserCounts(String realmId) {
+    return StreamSupport.stream(dao.findUserCounts(realmId).spliterator(), false)
+        .collect(
+            Collectors.toMap(
+                count -> count.isServiceAccount() + ":" + count.getShard(),
+                UserCount::getUserCount));
+  }
+
+  private static long sumUserCounts(Map<String, Long> counts, boolean serviceAccount) {
+    return counts.entrySet().stream()
+        .filter(entry -> entry.getKey().startsWith(serviceAccount + ":"))
+        .mapToLong(Map.Entry::getValue)
+        .sum();
+  }
+
+  // Avoid count()-queries for Amazon Keyspaces support, the rows are only iterated
+  private long countUserMappings(String realmId, boolean includeServiceAccounts) {
+    PagingIterable<RealmToUserMapping> mappings =
+        includeServiceAccounts
+            ? dao.findUsersByRealmId(realmId)
+            : dao.findNonServiceAccountUsersByRealmId(realmId);
+
+    return StreamSupport.stream(mappings.spliterator(), false).count();
   }
 
   @Override
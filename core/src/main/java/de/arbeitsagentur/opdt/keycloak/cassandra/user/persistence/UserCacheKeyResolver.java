@@ -0,0 +1,116 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence;
+
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.CacheKeyResolver;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.FederatedIdentity;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.User;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class UserCacheKeyResolver implements CacheKeyResolver {
+  private static final String FEDERATED_IDENTITY = "federatedIdentity";
+
+  @Override
+  public Set<Object> getReadKeys(String methodName, Object[] args, Object result) {
+    Set<Object> keys = new HashSet<>();
+
+    switch (methodName) {
+      case "findUserById":
+        keys.add(key(args[0], args[1]));
+        break;
+      case "findUserByEmail":
+      case "findUserByUsername":
+      case "findUserByUsernameCaseInsensitive":
+      case "findUserByServiceAccountLink":
+        addSecondaryKey(keys, (String) args[0], (String) args[1]);
+        break;
+      case "findFederatedIdentity":
+      case "findFederatedIdentities":
+        keys.add(key(FEDERATED_IDENTITY, args[0]));
+        break;
+      case "findFederatedIdentityByBrokerUserId":
+        if (result instanceof FederatedIdentity) {
+          keys.add(key(FEDERATED_IDENTITY, ((FederatedIdentity) result).getUserId()));
+        }
+        break;
+      default:
+        return Collections.emptySet();
+    }
+
+    if (result instanceof User) {
+      keys.addAll(getUserKeys((User) result));
+    }
+
+    return keys;
+  }
+
+  @Override
+  public Set<Object> getInvalidationKeys(String methodName, Object[] args) {
+    switch (methodName) {
+      case "insertOrUpdate":
+      case "makeUserServiceAccount":
+        return getUserKeys((User) args[0]);
+      case "deleteUsernameSearchIndex":
+      case "deleteEmailSearchIndex":
+      case "deleteFederationLinkSearchIndex":
+      case "deleteServiceAccountLinkSearchIndex":
+      case "deleteAttributeSearchIndex":
+        return getUserKeys((User) args[1]);
+      case "deleteUser":
+        return Set.of(key(args[0], args[1]), key(FEDERATED_IDENTITY, args[1]));
+      case "addGroupMember":
+      case "removeGroupMember":
+      case "addRoleMember":
+      case "removeRoleMember":
+        return Set.of(key(args[0], args[2]));
+      case "deleteGroupMembers":
+      case "purgeRoleMembers":
+        return Collections.emptySet();
+      case "createOrUpdateFederatedIdentity":
+        return Set.of(key(FEDERATED_IDENTITY, ((FederatedIdentity) args[0]).getUserId()));
+      case "deleteFederatedIdentity":
+        return Set.of(key(FEDERATED_IDENTITY, args[0]));
+      default:
+        return null;
+    }
+  }
+
+  private static Set<Object> getUserKeys(User user) {
+    Set<Object> keys = new HashSet<>();
+    keys.add(key(user.getRealmId(), user.getId()));
+    addSecondaryKey(keys, user.getRealmId(), user.getUsername());
+    addSecondaryKey(keys, user.getRealmId(), user.getUsernameCaseInsensitive());
+    addSecondaryKey(keys, user.getRealmId(), user.getEmail());
+    addSecondaryKey(keys, user.getRealmId(), user.getServiceAccountClientLink());
+
+    return keys;
+  }
+
+  // usernames and emails are compared case insensitive, over-evicting is harmless
+  private static void addSecondaryKey(Set<Object> keys, String realmId, String value) {
+    if (realmId != null && value != null) {
+      keys.add(key(realmId, value.toLowerCase()));
+    }
+  }
+
+  private static List<Object> key(Object... parts) {
+    return Arrays.asList(parts);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence;
+
+import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.RealmRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.Realm;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Periodically corrects the user counters of all realms, e.g. after an update of a counter failed
+ * or was applied twice by a retry. Every node reconciles each realm once per interval, a per-realm
+ * lease lets only one node at a time correct a realm. Each run reads all {@code realms_to_users}
+ * rows, so the interval should be long.
+ */
+@JBossLog
+public class UserCountReconciliation {
+  private final UserRepository userRepository;
+  private final RealmRepository realmRepository;
+  private ScheduledExecutorService executor;
+
+  public UserCountReconciliation(UserRepository userRepository, RealmRepository realmRepository) {
+    this.userRepository = userRepository;
+    this.realmRepository = realmRepository;
+  }
+
+  /** Reconciles the counters of all realms and returns the number of reconciled realms. */
+  public int reconcile() {
+    int reconciled = 0;
+    for (Realm realm : realmRepository.getAllRealms()) {
+      try {
+        if (userRepository.reconcileUserCounts(realm.getId())) {
+          reconciled++;
+        }
+      } catch (RuntimeException e) {
+        log.warnf(e, "Cannot reconcile the user counts of realm %s", realm.getId());
+      }
+    }
+
+    return reconciled;
+  }
+
+  public void start(long intervalMillis) {
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "cassandra-user-count-reconciliation");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.scheduleWithFixedDelay(
+        () -> {
+          try {
+            log.debugf("Reconciled user counts of %d realms", reconcile());
+          } catch (RuntimeException e) {
+            log.warn("Cannot reconcile user counts", e);
+          }
+        },
+        intervalMillis,
+        intervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -16,10 +16,13 @@
 package de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence;
 
 import com.datastax.oss.driver.api.core.PagingIterable;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
 import com.datastax.oss.driver.api.mapper.annotations.*;
+import de.arbeitsagentur.opdt.keycloak.cassandra.connection.ExecutionProfiles;
 import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalDao;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.*;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 
 @Dao
 public interface UserDao extends TransactionalDao<User> {
@@ -32,12 +35,15 @@ public interface UserDao extends TransactionalDao<User> {
   @Insert
   void insert(RealmToUserMapping realmToUserMapping);
 
-  @Select
-  PagingIterable<User> findAll();
+  @Insert
+  BoundStatement insertStatement(RealmToUserMapping realmToUserMapping);
 
   @Select(customWhereClause = "realm_id = :realmId AND id = :id")
   User findById(String realmId, String id);
 
+  @Select(customWhereClause = "realm_id = :realmId AND id = :id")
+  CompletionStage<User> findByIdAsync(String realmId, String id);
+
   @Select(customWhereClause = "realm_id = :realmId AND id IN :ids")
   PagingIterable<User> findByIds(String realmId, List<String> ids);
 
@@ -54,6 +60,7 @@ public interface UserDao extends TransactionalDao<User> {
   PagingIterable<FederatedIdentity> findFederatedIdentities(String userId);
 
   @Select(customWhereClause = "realm_id = :realmId")
+  @StatementAttributes(executionProfileName = ExecutionProfiles.SCANS)
   PagingIterable<RealmToUserMapping> findUsersByRealmId(String realmId);
 
   @Delete
@@ -65,13 +72,21 @@ public interface UserDao extends TransactionalDao<User> {
   @Delete(entityClass = RealmToUserMapping.class)
   boolean deleteRealmToUserMapping(String realmId, boolean serviceAccount, String userId);
 
+  @Delete(entityClass = RealmToUserMapping.class)
+  BoundStatement deleteRealmToUserMappingStatement(
+      String realmId, boolean serviceAccount, String userId);
+
   @Select(customWhereClause = "realm_id = :realmId AND service_account = false")
+  @StatementAttributes(executionProfileName = ExecutionProfiles.SCANS)
   PagingIterable<RealmToUserMapping> findNonServiceAccountUsersByRealmId(String realmId);
 
   // Search
   @Insert
   void insertOrUpdate(UserSearchIndex searchIndex);
 
+  @Insert
+  BoundStatement insertStatement(UserSearchIndex searchIndex);
+
   @Select(customWhereClause = "realm_id = :realmId AND name = :name AND value = :value")
   PagingIterable<UserSearchIndex> findUsers(String realmId, String name, String value);
 
@@ -81,6 +96,9 @@ public interface UserDao extends TransactionalDao<User> {
   @Delete(entityClass = UserSearchIndex.class)
   void deleteIndex(String realmId, String name, String value, String userId);
 
+  @Delete(entityClass = UserSearchIndex.class)
+  BoundStatement deleteIndexStatement(String realmId, String name, String value, String userId);
+
   @Insert
   void insertOrUpdate(UserConsent userConsent);
 
@@ -103,4 +121,70 @@ public interface UserDao extends TransactionalDao<User> {
 
   @Select(customWhereClause = "realm_id = :realmId")
   PagingIterable<UserConsent> findUserConsentsByRealmId(String realmId);
+
+  // Group memberships
+  @Insert
+  BoundStatement insertStatement(GroupMember groupMember);
+
+  @Delete(entityClass = GroupMember.class)
+  BoundStatement deleteGroupMemberStatement(String realmId, String groupId, String userId);
+
+  @Select(customWhereClause = "realm_id = :realmId AND group_id = :groupId")
+  PagingIterable<GroupMember> findGroupMembers(String realmId, String groupId);
+
+  @Query("DELETE FROM group_members WHERE realm_id = :realmId AND group_id = :groupId")
+  void deleteGroupMembers(String realmId, String groupId);
+
+  // Role memberships
+  @Insert
+  BoundStatement insertStatement(RoleMember roleMember);
+
+  @Delete(entityClass = RoleMember.class)
+  BoundStatement deleteRoleMemberStatement(String realmId, String roleId, String userId);
+
+  @Select(customWhereClause = "realm_id = :realmId AND role_id = :roleId")
+  PagingIterable<RoleMember> findRoleMembers(String realmId, String roleId);
+
+  @Query("DELETE FROM role_members WHERE realm_id = :realmId AND role_id = :roleId")
+  void deleteRoleMembers(String realmId, String roleId);
+
+  // Search n-grams
+  @Insert
+  BoundStatement insertStatement(UserSearchNgram searchNgram);
+
+  @Delete(entityClass = UserSearchNgram.class)
+  BoundStatement deleteSearchNgramStatement(String realmId, String ngram, String userId);
+
+  @Select(customWhereClause = "realm_id = :realmId AND ngram = :ngram")
+  PagingIterable<UserSearchNgram> findSearchNgrams(String realmId, String ngram);
+
+  // User counts
+  @Increment(entityClass = UserCount.class)
+  void incrementUserCount(String realmId, boolean serviceAccount, int shard, long userCount);
+
+  @Select(customWhereClause = "realm_id = :realmId")
+  PagingIterable<UserCount> findUserCounts(String realmId);
+
+  @Insert(ifNotExists = true, ttl = ":ttl")
+  boolean acquireLease(UserJobLease lease, int ttl);
+
+  @Query(
+      "UPDATE user_job_leases USING TTL :ttl SET owner = :owner"
+          + " WHERE name = :name IF owner = :currentOwner")
+  boolean renewLease(String name, String owner, String currentOwner, int ttl);
+
+  @Query("DELETE FROM user_job_leases WHERE name = :name IF owner = :owner")
+  boolean releaseLease(String name, String owner);
+
+  @Insert
+  void insert(UserIndexBackfill backfill);
+
+  @Select(customWhereClause = "realm_id = :realmId AND name = :name")
+  UserIndexBackfill findIndexBackfill(String realmId, String name);
+
+  @Delete(entityClass = UserIndexBackfill.class)
+  void deleteIndexBackfill(String realmId, String name);
+
+  @Query("DELETE FROM user_index_backfills WHERE realm_id = :realmId")
+  void deleteIndexBackfills(String realmId);
 }
@@ -23,7 +23,11 @@ import java.util.Set;
 import java.util.stream.Stream;
 
 public interface UserRepository {
-  Stream<User> findAllUsers();
+  Stream<User> findUsersByRealmId(String realmId, boolean includeServiceAccounts);
+
+  boolean isSearchIndexReady(String realmId);
+
+  Stream<User> findUsersBySearchNgrams(String realmId, Set<String> ngrams);
 
   User findUserById(String realmId, String id);
 
@@ -67,10 +71,30 @@ public interface UserRepository {
 
   boolean deleteFederatedIdentity(String userId, String identityProvider);
 
+  List<User> findUsersByGroupId(String realmId, String groupId, Integer first, Integer max);
+
+  void addGroupMember(String realmId, String groupId, String userId);
+
+  void removeGroupMember(String realmId, String groupId, String userId);
+
+  void deleteGroupMembers(String realmId, String groupId);
+
+  List<User> findUsersByRoleId(String realmId, String roleId, Integer first, Integer max);
+
+  void addRoleMember(String realmId, String roleId, String userId);
+
+  void removeRoleMember(String realmId, String roleId, String userId);
+
+  void purgeRoleMembers(String realmId, String roleId);
+
+  void deleteIndexBackfills(String realmId);
+
   Set<String> findUserIdsByRealmId(String realmId, int first, int max);
 
   long countUsersByRealmId(String realmId, boolean includeServiceAccounts);
 
+  boolean reconcileUserCounts(String realmId);
+
   void createOrUpdateUserConsent(UserConsent consent);
 
   boolean deleteUserConsent(String realmId, String userId, String clientId);
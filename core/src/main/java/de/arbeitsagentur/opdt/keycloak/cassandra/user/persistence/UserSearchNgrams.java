@@ -0,0 +1,55 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits the searchable fields of users and search terms into lower case trigrams. Every user whose
+ * field contains a search term has all trigrams of the term, so the users found via the trigrams of
+ * a term are a superset of the matching users.
+ */
+public final class UserSearchNgrams {
+  public static final int NGRAM_LENGTH = 3;
+
+  private UserSearchNgrams() {}
+
+  public static Set<String> of(String... values) {
+    Set<String> ngrams = new LinkedHashSet<>();
+    for (String value : values) {
+      ngrams.addAll(ofTerm(value));
+    }
+
+    return ngrams;
+  }
+
+  /** Returns the trigrams of a term, or an empty set if the term is shorter than a trigram. */
+  public static Set<String> ofTerm(String term) {
+    Set<String> ngrams = new LinkedHashSet<>();
+    if (term == null) {
+      return ngrams;
+    }
+
+    String normalized = term.toLowerCase(Locale.ROOT);
+    for (int i = 0; i + NGRAM_LENGTH <= normalized.length(); i++) {
+      ngrams.add(normalized.substring(i, i + NGRAM_LENGTH));
+    }
+
+    return ngrams;
+  }
+}
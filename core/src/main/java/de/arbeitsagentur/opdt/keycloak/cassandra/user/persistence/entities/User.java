@@ -72,6 +72,9 @@ public class User implements TransactionalEntity {
 
   @Builder.Default private Map<String, List<String>> attributes = new HashMap<>();
 
+  // trigrams written to user_search_ngrams, so changed fields remove their outdated postings
+  private Set<String> searchNgrams;
+
   public Map<String, List<String>> getAttributes() {
     if (attributes == null) {
       attributes = new HashMap<>();
@@ -487,10 +487,8 @@ public class CassandraUserSessionProvider implements UserSessionProvider {
     CassandraUserSessionAdapter orgUserSessionAdapter =
         getUserSession(userSession.getRealm(), userSession.getId());
     orgUserSessionAdapter.setNote(CORRESPONDING_SESSION_ID, offlineUserSession.getId());
-    userSessionRepository.insert(
-        orgUserSessionAdapter
-            .getUserSessionEntity()); // Hack to set CORRESPONDING_SESSION_ID, which normally is
-    // only set during insert
+    userSessionRepository.setCorrespondingSessionId(
+        orgUserSessionAdapter.getUserSessionEntity(), offlineUserSession.getId());
 
     return offlineSessionAdapter;
   }
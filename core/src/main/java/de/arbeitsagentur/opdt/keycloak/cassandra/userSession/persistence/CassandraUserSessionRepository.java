@@ -18,6 +18,9 @@ package de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence;
 import static org.keycloak.models.UserSessionModel.CORRESPONDING_SESSION_ID;
 import static org.keycloak.models.UserSessionModel.SessionPersistenceState.PERSISTENT;
 
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import de.arbeitsagentur.opdt.keycloak.cassandra.CompletionStages;
+import de.arbeitsagentur.opdt.keycloak.cassandra.StatementGroupExecutor;
 import de.arbeitsagentur.opdt.keycloak.cassandra.StreamExtensions;
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.entities.AttributeToUserSessionMapping;
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.entities.AuthenticatedClientSessionValue;
@@ -28,6 +31,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import org.keycloak.common.util.MultivaluedHashMap;
@@ -39,6 +44,7 @@ public class CassandraUserSessionRepository implements UserSessionRepository {
   private static final String USER_ID = "userId";
   private static final String BROKER_USER_ID = "brokerUserId";
   private static final String BROKER_SESSION_ID = "brokerSessionId";
+  private static final StatementGroupExecutor SESSION_WRITER = StatementGroupExecutor.loggedBatch();
   private final UserSessionDao dao;
 
   @Override
@@ -48,43 +54,73 @@ public class CassandraUserSessionRepository implements UserSessionRepository {
 
   @Override
   public void insert(UserSession session) {
-    insertOrUpdate(session);
+    // A new session has no attributes yet, so old values need not be read and removed. All rows
+    // are written in one batch with the same TTL.
+    Integer ttl = getTtl(session);
+    List<BoundStatement> statements = new ArrayList<>();
+    if (isPersisted(session)) {
+      statements.add(
+          ttl == null
+              ? dao.insertOrUpdateStatement(session)
+              : dao.insertOrUpdateStatement(session, ttl));
+    }
 
     // all these attributes cannot be changed afterwards so they are only set during "insert"
-    if (session.getNotes().containsKey(CORRESPONDING_SESSION_ID)) {
-      insertOrUpdate(
-          session,
-          new UserSessionToAttributeMapping(
-              session.getId(),
-              CORRESPONDING_SESSION_ID,
-              Arrays.asList(session.getNotes().get(CORRESPONDING_SESSION_ID))));
-      session
-          .getNotes()
-          .put(CORRESPONDING_SESSION_ID, session.getNotes().get(CORRESPONDING_SESSION_ID));
-    }
+    addAttributeStatements(
+        statements,
+        session.getId(),
+        CORRESPONDING_SESSION_ID,
+        session.getNotes().get(CORRESPONDING_SESSION_ID),
+        ttl);
+    addAttributeStatements(statements, session.getId(), USER_ID, session.getUserId(), ttl);
+    addAttributeStatements(
+        statements, session.getId(), BROKER_USER_ID, session.getBrokerUserId(), ttl);
+    addAttributeStatements(
+        statements, session.getId(), BROKER_SESSION_ID, session.getBrokerSessionId(), ttl);
+
+    SESSION_WRITER.execute(dao, statements);
+  }
 
-    if (session.getUserId() != null) {
-      insertOrUpdate(
-          session,
-          new UserSessionToAttributeMapping(
-              session.getId(), USER_ID, Arrays.asList(session.getUserId())));
+  private void addAttributeStatements(
+      List<BoundStatement> statements,
+      String userSessionId,
+      String attributeName,
+      String attributeValue,
+      Integer ttl) {
+    if (attributeValue == null) {
+      return;
     }
 
-    if (session.getBrokerUserId() != null) {
-      insertOrUpdate(
-          session,
-          new UserSessionToAttributeMapping(
-              session.getId(), BROKER_USER_ID, Arrays.asList(session.getBrokerUserId())));
-    }
+    UserSessionToAttributeMapping mapping =
+        new UserSessionToAttributeMapping(
+            userSessionId, attributeName, Arrays.asList(attributeValue));
+    AttributeToUserSessionMapping reverseMapping =
+        new AttributeToUserSessionMapping(attributeName, attributeValue, userSessionId);
 
-    if (session.getBrokerSessionId() != null) {
-      insertOrUpdate(
-          session,
-          new UserSessionToAttributeMapping(
-              session.getId(), BROKER_SESSION_ID, Arrays.asList(session.getBrokerSessionId())));
+    if (ttl == null) {
+      statements.add(dao.insertOrUpdateStatement(mapping));
+      statements.add(dao.insertStatement(reverseMapping));
+    } else {
+      statements.add(dao.insertOrUpdateStatement(mapping, ttl));
+      statements.add(dao.insertStatement(reverseMapping, ttl));
     }
   }
 
+  @Override
+  public void setCorrespondingSessionId(UserSession session, String correspondingSessionId) {
+    session.getNotes().put(CORRESPONDING_SESSION_ID, correspondingSessionId);
+
+    CompletionStages.awaitAll(
+        List.of(
+            insertOrUpdateAsync(session),
+            insertOrUpdateAsync(
+                session,
+                new UserSessionToAttributeMapping(
+                    session.getId(),
+                    CORRESPONDING_SESSION_ID,
+                    Arrays.asList(correspondingSessionId)))));
+  }
+
   @Override
   public void addClientSession(UserSession session, AuthenticatedClientSessionValue clientSession) {
     session.getClientSessions().put(clientSession.getClientId(), clientSession);
@@ -138,42 +174,34 @@ public class CassandraUserSessionRepository implements UserSessionRepository {
     dao.deleteUserSession(session);
 
     // Attributes
-    if (session.getOffline() != null && session.getOffline()) {
-      for (UserSessionToAttributeMapping attribute : dao.findAllAttributes(session.getId())) {
-        if (!attribute
-            .getAttributeName()
-            .equals(
-                CORRESPONDING_SESSION_ID)) { // enabled cross-session lookups even after deletion
-          for (String attributeValue : attribute.getAttributeValues()) {
-            dao.deleteAttributeToUserSessionMapping(
-                attribute.getAttributeName(), attributeValue, session.getId());
-          }
-        }
+    boolean offline = session.getOffline() != null && session.getOffline();
+    List<CompletionStage<Void>> deletions = new ArrayList<>();
+    for (UserSessionToAttributeMapping attribute : dao.findAllAttributes(session.getId())) {
+      if (offline && attribute.getAttributeName().equals(CORRESPONDING_SESSION_ID)) {
+        // enabled cross-session lookups even after deletion
+        continue;
       }
 
-      dao.findAllAttributes(session.getId()).all().stream()
-          .filter(s -> !s.getAttributeName().equals(CORRESPONDING_SESSION_ID))
-          .forEach(s -> dao.deleteAttribute(s.getUserSessionId(), s.getAttributeName()));
-    } else {
-      for (UserSessionToAttributeMapping attribute : dao.findAllAttributes(session.getId())) {
-        for (String attributeValue : attribute.getAttributeValues()) {
-          dao.deleteAttributeToUserSessionMapping(
-              attribute.getAttributeName(), attributeValue, session.getId());
-        }
+      for (String attributeValue : attribute.getAttributeValues()) {
+        deletions.add(
+            dao.deleteAttributeToUserSessionMappingAsync(
+                attribute.getAttributeName(), attributeValue, session.getId()));
       }
+      deletions.add(dao.deleteAttributeAsync(session.getId(), attribute.getAttributeName()));
+    }
 
-      dao.findAllAttributes(session.getId())
-          .forEach(s -> dao.deleteAttribute(s.getUserSessionId(), s.getAttributeName()));
-
-      if (session.getNotes().containsKey(CORRESPONDING_SESSION_ID)) {
-        dao.deleteAttributeToUserSessionMapping(
-            CORRESPONDING_SESSION_ID,
-            session.getId(),
-            session.getNotes().get(CORRESPONDING_SESSION_ID));
-        dao.deleteAttribute(
-            session.getNotes().get(CORRESPONDING_SESSION_ID), CORRESPONDING_SESSION_ID);
-      }
+    if (!offline && session.getNotes().containsKey(CORRESPONDING_SESSION_ID)) {
+      deletions.add(
+          dao.deleteAttributeToUserSessionMappingAsync(
+              CORRESPONDING_SESSION_ID,
+              session.getId(),
+              session.getNotes().get(CORRESPONDING_SESSION_ID)));
+      deletions.add(
+          dao.deleteAttributeAsync(
+              session.getNotes().get(CORRESPONDING_SESSION_ID), CORRESPONDING_SESSION_ID));
     }
+
+    CompletionStages.awaitAll(deletions);
   }
 
   @Override
@@ -244,60 +272,78 @@ public class CassandraUserSessionRepository implements UserSessionRepository {
   }
 
   private void insertOrUpdate(UserSession session) {
-    if ((session.getOffline() != null && session.getOffline())
-        || PERSISTENT.equals(session.getPersistenceState())) {
-      if (session.getExpiration() == null) {
-        dao.insertOrUpdate(session);
-      } else {
-        int ttl =
-            TimeAdapter.fromLongWithTimeInSecondsToIntegerWithTimeInSeconds(
-                TimeAdapter.fromMilliSecondsToSeconds(
-                    session.getExpiration() - Time.currentTimeMillis()));
-        dao.insertOrUpdate(session, ttl);
-      }
+    CompletionStages.await(insertOrUpdateAsync(session));
+  }
+
+  private CompletionStage<Void> insertOrUpdateAsync(UserSession session) {
+    if (!isPersisted(session)) {
+      return CompletableFuture.completedFuture(null);
     }
+
+    Integer ttl = getTtl(session);
+    return ttl == null ? dao.insertOrUpdateAsync(session) : dao.insertOrUpdateAsync(session, ttl);
   }
 
   private void insertOrUpdate(UserSession session, UserSessionToAttributeMapping mapping) {
-    Integer ttl =
-        session.getExpiration() == null
-            ? null
-            : TimeAdapter.fromLongWithTimeInSecondsToIntegerWithTimeInSeconds(
-                TimeAdapter.fromMilliSecondsToSeconds(
-                    session.getExpiration() - Time.currentTimeMillis()));
-    UserSessionToAttributeMapping oldAttribute =
-        dao.findAttribute(mapping.getUserSessionId(), mapping.getAttributeName());
+    CompletionStages.await(insertOrUpdateAsync(session, mapping));
+  }
 
-    if (ttl == null) {
-      dao.insertOrUpdate(mapping);
-    } else {
-      dao.insertOrUpdate(mapping, ttl);
-    }
+  private CompletionStage<Void> insertOrUpdateAsync(
+      UserSession session, UserSessionToAttributeMapping mapping) {
+    Integer ttl = getTtl(session);
+
+    return dao.findAttributeAsync(mapping.getUserSessionId(), mapping.getAttributeName())
+        .thenCompose(
+            oldAttribute -> {
+              List<CompletionStage<Void>> writes = new ArrayList<>();
+              writes.add(
+                  ttl == null
+                      ? dao.insertOrUpdateAsync(mapping)
+                      : dao.insertOrUpdateAsync(mapping, ttl));
+
+              if (oldAttribute != null) {
+                // Alte AttributeToUserSessionMappings löschen, da die Values als Teil des
+                // PartitionKey nicht geändert werden können
+                oldAttribute.getAttributeValues().stream()
+                    .filter(value -> !mapping.getAttributeValues().contains(value))
+                    .forEach(
+                        value ->
+                            writes.add(
+                                dao.deleteAttributeToUserSessionMappingAsync(
+                                    oldAttribute.getAttributeName(),
+                                    value,
+                                    oldAttribute.getUserSessionId())));
+              }
 
-    if (oldAttribute != null) {
-      // Alte AttributeToUserSessionMappings löschen, da die Values als Teil des PartitionKey nicht
-      // geändert werden können
-      oldAttribute
-          .getAttributeValues()
-          .forEach(
-              value ->
-                  dao.deleteAttributeToUserSessionMapping(
-                      oldAttribute.getAttributeName(), value, oldAttribute.getUserSessionId()));
+              mapping
+                  .getAttributeValues()
+                  .forEach(
+                      value -> {
+                        AttributeToUserSessionMapping attributeToUserSessionMapping =
+                            new AttributeToUserSessionMapping(
+                                mapping.getAttributeName(), value, mapping.getUserSessionId());
+
+                        writes.add(
+                            ttl == null
+                                ? dao.insertAsync(attributeToUserSessionMapping)
+                                : dao.insertAsync(attributeToUserSessionMapping, ttl));
+                      });
+
+              return CompletionStages.allOf(writes);
+            });
+  }
+
+  private boolean isPersisted(UserSession session) {
+    return (session.getOffline() != null && session.getOffline())
+        || PERSISTENT.equals(session.getPersistenceState());
+  }
+
+  private Integer getTtl(UserSession session) {
+    if (session.getExpiration() == null) {
+      return null;
     }
 
-    mapping
-        .getAttributeValues()
-        .forEach(
-            value -> {
-              AttributeToUserSessionMapping attributeToUserSessionMapping =
-                  new AttributeToUserSessionMapping(
-                      mapping.getAttributeName(), value, mapping.getUserSessionId());
-
-              if (ttl == null) {
-                dao.insert(attributeToUserSessionMapping);
-              } else {
-                dao.insert(attributeToUserSessionMapping, ttl);
-              }
-            });
+    return TimeAdapter.fromLongWithTimeInSecondsToIntegerWithTimeInSeconds(
+        TimeAdapter.fromMilliSecondsToSeconds(session.getExpiration() - Time.currentTimeMillis()));
   }
 }
@@ -16,12 +16,15 @@
 package de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence;
 
 import com.datastax.oss.driver.api.core.PagingIterable;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
 import com.datastax.oss.driver.api.mapper.annotations.*;
 import de.arbeitsagentur.opdt.keycloak.cassandra.BaseDao;
+import de.arbeitsagentur.opdt.keycloak.cassandra.connection.ExecutionProfiles;
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.entities.AttributeToUserSessionMapping;
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.entities.UserSession;
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.persistence.entities.UserSessionToAttributeMapping;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 
 @Dao
 public interface UserSessionDao extends BaseDao {
@@ -31,6 +34,18 @@ public interface UserSessionDao extends BaseDao {
   @Update(ttl = ":ttl")
   void insertOrUpdate(UserSession session, int ttl);
 
+  @Update
+  CompletionStage<Void> insertOrUpdateAsync(UserSession session);
+
+  @Update(ttl = ":ttl")
+  CompletionStage<Void> insertOrUpdateAsync(UserSession session, int ttl);
+
+  @Update
+  BoundStatement insertOrUpdateStatement(UserSession session);
+
+  @Update(ttl = ":ttl")
+  BoundStatement insertOrUpdateStatement(UserSession session, int ttl);
+
   @Select(customWhereClause = "id = :id")
   UserSession findById(String id);
 
@@ -38,6 +53,7 @@ public interface UserSessionDao extends BaseDao {
   PagingIterable<UserSession> findByIds(List<String> ids);
 
   @Select
+  @StatementAttributes(executionProfileName = ExecutionProfiles.SCANS)
   PagingIterable<UserSession> findAll();
 
   @Delete
@@ -54,16 +70,45 @@ public interface UserSessionDao extends BaseDao {
   @Insert(ttl = ":ttl")
   void insert(AttributeToUserSessionMapping mapping, int ttl);
 
+  @Insert
+  CompletionStage<Void> insertAsync(AttributeToUserSessionMapping mapping);
+
+  @Insert(ttl = ":ttl")
+  CompletionStage<Void> insertAsync(AttributeToUserSessionMapping mapping, int ttl);
+
+  @Insert
+  BoundStatement insertStatement(AttributeToUserSessionMapping mapping);
+
+  @Insert(ttl = ":ttl")
+  BoundStatement insertStatement(AttributeToUserSessionMapping mapping, int ttl);
+
   @Update
   void insertOrUpdate(UserSessionToAttributeMapping mapping);
 
   @Update(ttl = ":ttl")
   void insertOrUpdate(UserSessionToAttributeMapping mapping, int ttl);
 
+  @Update
+  CompletionStage<Void> insertOrUpdateAsync(UserSessionToAttributeMapping mapping);
+
+  @Update(ttl = ":ttl")
+  CompletionStage<Void> insertOrUpdateAsync(UserSessionToAttributeMapping mapping, int ttl);
+
+  @Update
+  BoundStatement insertOrUpdateStatement(UserSessionToAttributeMapping mapping);
+
+  @Update(ttl = ":ttl")
+  BoundStatement insertOrUpdateStatement(UserSessionToAttributeMapping mapping, int ttl);
+
   @Select(
       customWhereClause = "user_session_id = :userSessionId AND attribute_name = :attributeName")
   UserSessionToAttributeMapping findAttribute(String userSessionId, String attributeName);
 
+  @Select(
+      customWhereClause = "user_session_id = :userSessionId AND attribute_name = :attributeName")
+  CompletionStage<UserSessionToAttributeMapping> findAttributeAsync(
+      String userSessionId, String attributeName);
+
   @Select(customWhereClause = "user_session_id = :userSessionId")
   PagingIterable<UserSessionToAttributeMapping> findAllAttributes(String userSessionId);
 
@@ -79,9 +124,16 @@ public interface UserSessionDao extends BaseDao {
   boolean deleteAttributeToUserSessionMapping(
       String attributeName, String attributeValue, String userSessionId);
 
+  @Delete(entityClass = AttributeToUserSessionMapping.class)
+  CompletionStage<Void> deleteAttributeToUserSessionMappingAsync(
+      String attributeName, String attributeValue, String userSessionId);
+
   @Delete(entityClass = UserSessionToAttributeMapping.class)
   boolean deleteAllUserSessionToAttributeMappings(String userSessionId);
 
   @Delete(entityClass = UserSessionToAttributeMapping.class)
   boolean deleteAttribute(String userSessionId, String attributeName);
+
+  @Delete(entityClass = UserSessionToAttributeMapping.class)
+  CompletionStage<Void> deleteAttributeAsync(String userSessionId, String attributeName);
 }
@@ -29,6 +29,8 @@ public interface UserSessionRepository {
 
   void addClientSession(UserSession session, AuthenticatedClientSessionValue clientSession);
 
+  void setCorrespondingSessionId(UserSession session, String correspondingSessionId);
+
   UserSession findUserSessionById(String id);
 
   List<UserSession> findAll();
@@ -16,14 +16,17 @@
 
 package de.arbeitsagentur.opdt.keycloak.compatibility;
 
-import java.util.*;
+import java.util.List;
 import java.util.function.Predicate;
+import lombok.RequiredArgsConstructor;
 import org.keycloak.crypto.KeyWrapper;
 import org.keycloak.crypto.PublicKeysWrapper;
 import org.keycloak.keys.PublicKeyLoader;
 import org.keycloak.keys.PublicKeyStorageProvider;
 
-public class TransientPublicKeyStorageProvider implements PublicKeyStorageProvider {
+@RequiredArgsConstructor
+public class CachingPublicKeyStorageProvider implements PublicKeyStorageProvider {
+  private final PublicKeyCache cache;
 
   @Override
   public KeyWrapper getFirstPublicKey(String modelKey, String algorithm, PublicKeyLoader loader) {
@@ -33,38 +36,23 @@ public class TransientPublicKeyStorageProvider implements PublicKeyStorageProvid
   @Override
   public KeyWrapper getPublicKey(
       String modelKey, String kid, String algorithm, PublicKeyLoader loader) {
-    PublicKeysWrapper keys = null;
-    try {
-      keys = loader.loadKeys();
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
-    return keys.getKeyByKidAndAlg(kid, algorithm);
+    return cache.get(modelKey, loader, keys -> keys.getKeyByKidAndAlg(kid, algorithm));
   }
 
   @Override
   public KeyWrapper getFirstPublicKey(
       String modelKey, Predicate<KeyWrapper> predicate, PublicKeyLoader loader) {
-    try {
-      return loader.loadKeys().getKeyByPredicate(predicate);
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
+    return cache.get(modelKey, loader, keys -> keys.getKeyByPredicate(predicate));
   }
 
   @Override
   public List<KeyWrapper> getKeys(String modelKey, PublicKeyLoader loader) {
-    try {
-      return loader.loadKeys().getKeys();
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
+    return cache.get(modelKey, loader, PublicKeysWrapper::getKeys);
   }
 
   @Override
   public boolean reloadKeys(String modelKey, PublicKeyLoader loader) {
-    // noop
-    return true;
+    return cache.reload(modelKey, loader);
   }
 
   @Override
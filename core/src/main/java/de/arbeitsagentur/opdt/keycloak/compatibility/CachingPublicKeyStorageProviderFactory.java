@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.arbeitsagentur.opdt.keycloak.compatibility;
+
+import static de.arbeitsagentur.opdt.keycloak.common.CommunityProfiles.isCassandraCacheProfileEnabled;
+import static de.arbeitsagentur.opdt.keycloak.common.CommunityProfiles.isCassandraProfileEnabled;
+import static de.arbeitsagentur.opdt.keycloak.common.ProviderHelpers.createProviderCached;
+import static org.keycloak.userprofile.DeclarativeUserProfileProviderFactory.PROVIDER_PRIORITY;
+
+import com.google.auto.service.AutoService;
+import java.util.Map;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.Config;
+import org.keycloak.jose.jwk.JWK;
+import org.keycloak.keys.PublicKeyStorageProviderFactory;
+import org.keycloak.keys.PublicKeyStorageUtils;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.IdentityProviderModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.provider.EnvironmentDependentProviderFactory;
+import org.keycloak.provider.ServerInfoAwareProviderFactory;
+
+@JBossLog
+@AutoService(PublicKeyStorageProviderFactory.class)
+public class CachingPublicKeyStorageProviderFactory
+    implements PublicKeyStorageProviderFactory<CachingPublicKeyStorageProvider>,
+        EnvironmentDependentProviderFactory,
+        ServerInfoAwareProviderFactory {
+  private static final int DEFAULT_MIN_TIME_BETWEEN_REQUESTS = 10;
+  private static final int DEFAULT_MAX_CACHE_TIME = 24 * 60 * 60;
+  private static final int DEFAULT_MAX_CACHE_ENTRIES = 10000;
+
+  private PublicKeyCache cache;
+
+  @Override
+  public CachingPublicKeyStorageProvider create(KeycloakSession session) {
+    return createProviderCached(
+        session,
+        CachingPublicKeyStorageProvider.class,
+        () -> new CachingPublicKeyStorageProvider(cache));
+  }
+
+  @Override
+  public void init(Config.Scope config) {
+    int minTimeBetweenRequests =
+        config.getInt("minTimeBetweenRequests", DEFAULT_MIN_TIME_BETWEEN_REQUESTS);
+    int maxCacheTime = config.getInt("maxCacheTime", DEFAULT_MAX_CACHE_TIME);
+    int maxCacheEntries = config.getInt("maxCacheEntries", DEFAULT_MAX_CACHE_ENTRIES);
+    log.debugf(
+        "Public key cache: minTimeBetweenRequests=%ds, maxCacheTime=%ds, maxCacheEntries=%d",
+        minTimeBetweenRequests, maxCacheTime, maxCacheEntries);
+
+    cache =
+        new PublicKeyCache(minTimeBetweenRequests * 1000L, maxCacheTime * 1000L, maxCacheEntries);
+  }
+
+  @Override
+  public void postInit(KeycloakSessionFactory factory) {
+    factory.register(
+        event -> {
+          if (event instanceof ClientModel.ClientUpdatedEvent) {
+            invalidateClientKeys(((ClientModel.ClientUpdatedEvent) event).getUpdatedClient());
+          } else if (event instanceof ClientModel.ClientRemovedEvent) {
+            invalidateClientKeys(((ClientModel.ClientRemovedEvent) event).getClient());
+          } else if (event instanceof RealmModel.IdentityProviderUpdatedEvent) {
+            RealmModel.IdentityProviderUpdatedEvent updated =
+                (RealmModel.IdentityProviderUpdatedEvent) event;
+            invalidateIdentityProviderKeys(
+                updated.getRealm(), updated.getUpdatedIdentityProvider());
+          } else if (event instanceof RealmModel.IdentityProviderRemovedEvent) {
+            RealmModel.IdentityProviderRemovedEvent removed =
+                (RealmModel.IdentityProviderRemovedEvent) event;
+            invalidateIdentityProviderKeys(
+                removed.getRealm(), removed.getRemovedIdentityProvider());
+          }
+        });
+  }
+
+  private void invalidateClientKeys(ClientModel client) {
+    String realmId = client.getRealm().getId();
+    String clientId = client.getId();
+    cache.invalidate(PublicKeyStorageUtils.getClientModelCacheKey(realmId, clientId));
+    cache.invalidate(PublicKeyStorageUtils.getClientModelCacheKey(realmId, clientId, JWK.Use.SIG));
+    cache.invalidate(
+        PublicKeyStorageUtils.getClientModelCacheKey(realmId, clientId, JWK.Use.ENCRYPTION));
+  }
+
+  private void invalidateIdentityProviderKeys(
+      RealmModel realm, IdentityProviderModel identityProvider) {
+    cache.invalidate(
+        PublicKeyStorageUtils.getIdpModelCacheKey(realm.getId(), identityProvider.getInternalId()));
+  }
+
+  @Override
+  public void close() {
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  @Override
+  public String getId() {
+    return "infinispan"; // use same name as infinispan provider to override it
+  }
+
+  @Override
+  public int order() {
+    return PROVIDER_PRIORITY + 1;
+  }
+
+  @Override
+  public boolean isSupported() {
+    return isCassandraProfileEnabled() || isCassandraCacheProfileEnabled();
+  }
+
+  @Override
+  public Map<String, String> getOperationalInfo() {
+    return Map.of("implementation", "node-local cache (cassandra-extension)");
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package de.arbeitsagentur.opdt.keycloak.compatibility;
+
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.CacheStatistics;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.crypto.PublicKeysWrapper;
+import org.keycloak.keys.PublicKeyLoader;
+
+/**
+ * Node-local cache of public keys loaded by {@link PublicKeyLoader}s, keyed by model key.
+ *
+ * <p>Entries are reloaded after {@code maxCacheTimeMillis}, or earlier on request (e.g. because a
+ * requested kid is unknown) but not more often than every {@code minTimeBetweenRequestsMillis}.
+ * Concurrent loads of the same model key share a single {@link PublicKeyLoader#loadKeys()} call.
+ * The cache holds at most {@code maxEntries} model keys and evicts the least recently used ones.
+ */
+@JBossLog
+public class PublicKeyCache {
+  public static final String LEVEL = "publicKeys";
+
+  private final Map<String, Entry> entries;
+  private final Map<String, CompletableFuture<Entry>> loadsInProgress = new ConcurrentHashMap<>();
+
+  @Getter private final long minTimeBetweenRequestsMillis;
+  @Getter private final long maxCacheTimeMillis;
+  @Getter private final int maxEntries;
+  private final CacheStatistics statistics = CacheStatistics.get(LEVEL, "keys");
+
+  public PublicKeyCache(
+      long minTimeBetweenRequestsMillis, long maxCacheTimeMillis, int maxEntries) {
+    this.minTimeBetweenRequestsMillis = minTimeBetweenRequestsMillis;
+    this.maxCacheTimeMillis = maxCacheTimeMillis;
+    this.maxEntries = maxEntries;
+    this.entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > PublicKeyCache.this.maxEntries) {
+              statistics.evicted(1);
+              return true;
+            }
+
+            return false;
+          }
+        };
+  }
+
+  /**
+   * Returns the cached keys of {@code modelKey} if {@code lookup} finds a result in them, otherwise
+   * reloads the keys (subject to the minimum time between requests) and applies {@code lookup} to
+   * the reloaded keys.
+   */
+  public <T> T get(String modelKey, PublicKeyLoader loader, Function<PublicKeysWrapper, T> lookup) {
+    Entry entry = getEntry(modelKey);
+    if (entry != null && !isExpired(entry)) {
+      T result = lookup.apply(entry.keys);
+      if (result != null) {
+        statistics.hit();
+        return result;
+      }
+
+      if (!canReload(entry)) {
+        log.debugf(
+            "Skipped reload of public keys for %s, last request was less than %d ms ago",
+            modelKey, minTimeBetweenRequestsMillis);
+        statistics.hit();
+        return null;
+      }
+    }
+
+    statistics.miss();
+    return lookup.apply(load(modelKey, entry, loader).keys);
+  }
+
+  /**
+   * Reloads the keys of {@code modelKey} unless they were requested less than the minimum time
+   * between requests ago.
+   *
+   * @return true if the keys were reloaded
+   */
+  public boolean reload(String modelKey, PublicKeyLoader loader) {
+    Entry entry = getEntry(modelKey);
+    if (entry != null && !canReload(entry)) {
+      return false;
+    }
+
+    load(modelKey, entry, loader);
+    return true;
+  }
+
+  public void invalidate(String modelKey) {
+    synchronized (entries) {
+      if (entries.remove(modelKey) != null) {
+        statistics.invalidation();
+        statistics.removed(1);
+      }
+    }
+  }
+
+  public void clear() {
+    synchronized (entries) {
+      int size = entries.size();
+      entries.clear();
+      statistics.reset();
+      statistics.removed(size);
+    }
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  private Entry getEntry(String modelKey) {
+    synchronized (entries) {
+      return entries.get(modelKey);
+    }
+  }
+
+  private Entry load(String modelKey, Entry previous, PublicKeyLoader loader) {
+    CompletableFuture<Entry> load = new CompletableFuture<>();
+    CompletableFuture<Entry> inProgress = loadsInProgress.putIfAbsent(modelKey, load);
+    if (inProgress != null) {
+      return join(inProgress);
+    }
+
+    try {
+      // Another thread may have completed a load between our lookup and taking over the load
+      Entry current = getEntry(modelKey);
+      if (current != null && current != previous && !isExpired(current)) {
+        load.complete(current);
+        return current;
+      }
+
+      log.debugf("Loading public keys for %s", modelKey);
+      Entry loaded = new Entry(loader.loadKeys(), System.currentTimeMillis());
+      synchronized (entries) {
+        if (entries.put(modelKey, loaded) == null) {
+          statistics.added(1);
+        }
+      }
+      load.complete(loaded);
+      return loaded;
+    } catch (Exception e) {
+      load.completeExceptionally(e);
+      throw new RuntimeException("Error when loading public keys for " + modelKey, e);
+    } finally {
+      loadsInProgress.remove(modelKey, load);
+    }
+  }
+
+  private Entry join(CompletableFuture<Entry> load) {
+    try {
+      return load.join();
+    } catch (CompletionException e) {
+      throw new RuntimeException("Error when loading public keys", e.getCause());
+    }
+  }
+
+  private boolean isExpired(Entry entry) {
+    return entry.loadedAt + maxCacheTimeMillis <= System.currentTimeMillis();
+  }
+
+  private boolean canReload(Entry entry) {
+    return entry.loadedAt + minTimeBetweenRequestsMillis <= System.currentTimeMillis();
+  }
+
+  @RequiredArgsConstructor
+  private static class Entry {
+    private final PublicKeysWrapper keys;
+    private final long loadedAt;
+  }
+}
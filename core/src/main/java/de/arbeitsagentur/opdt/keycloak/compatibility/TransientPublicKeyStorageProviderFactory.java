@@ -1,73 +0,0 @@
-/*
- * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
- *
- *  Licensed under the Apache License, Version 2.0 (the "License");
- *  you may not use this file except in compliance with the License.
- *  You may obtain a copy of the License at
- *
- *       http://www.apache.org/licenses/LICENSE-2.0
- *
- *  Unless required by applicable law or agreed to in writing, software
- *  distributed under the License is distributed on an "AS IS" BASIS,
- *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- *  See the License for the specific language governing permissions and
- *  limitations under the License.
- */
-
-package de.arbeitsagentur.opdt.keycloak.compatibility;
-
-import static de.arbeitsagentur.opdt.keycloak.common.CommunityProfiles.isCassandraCacheProfileEnabled;
-import static de.arbeitsagentur.opdt.keycloak.common.CommunityProfiles.isCassandraProfileEnabled;
-import static de.arbeitsagentur.opdt.keycloak.common.ProviderHelpers.createProviderCached;
-import static org.keycloak.userprofile.DeclarativeUserProfileProviderFactory.PROVIDER_PRIORITY;
-
-import com.google.auto.service.AutoService;
-import java.util.Map;
-import org.keycloak.Config;
-import org.keycloak.keys.PublicKeyStorageProviderFactory;
-import org.keycloak.models.KeycloakSession;
-import org.keycloak.models.KeycloakSessionFactory;
-import org.keycloak.provider.EnvironmentDependentProviderFactory;
-import org.keycloak.provider.ServerInfoAwareProviderFactory;
-
-@AutoService(PublicKeyStorageProviderFactory.class)
-public class TransientPublicKeyStorageProviderFactory
-    implements PublicKeyStorageProviderFactory<TransientPublicKeyStorageProvider>,
-        EnvironmentDependentProviderFactory,
-        ServerInfoAwareProviderFactory {
-
-  @Override
-  public TransientPublicKeyStorageProvider create(KeycloakSession session) {
-    return createProviderCached(
-        session, TransientPublicKeyStorageProvider.class, TransientPublicKeyStorageProvider::new);
-  }
-
-  @Override
-  public void init(Config.Scope config) {}
-
-  @Override
-  public void postInit(KeycloakSessionFactory factory) {}
-
-  @Override
-  public void close() {}
-
-  @Override
-  public String getId() {
-    return "infinispan"; // use same name as infinispan provider to override it
-  }
-
-  @Override
-  public int order() {
-    return PROVIDER_PRIORITY + 1;
-  }
-
-  @Override
-  public boolean isSupported() {
-    return isCassandraProfileEnabled() || isCassandraCacheProfileEnabled();
-  }
-
-  @Override
-  public Map<String, String> getOperationalInfo() {
-    return Map.of("implementation", "transient (cassandra-extension)");
-  }
-}
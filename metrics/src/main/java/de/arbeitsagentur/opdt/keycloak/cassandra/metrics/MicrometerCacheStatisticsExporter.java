@@ -0,0 +1,89 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.metrics;
+
+import com.google.auto.service.AutoService;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.CacheStatistics;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.CacheStatisticsExporter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Registers the statistics of every L1, L2 and negative lookup cache in the global Micrometer
+ * registry, tagged with the cache level and name.
+ */
+@AutoService(CacheStatisticsExporter.class)
+public class MicrometerCacheStatisticsExporter implements CacheStatisticsExporter {
+  private static final String PREFIX = "keycloak.cassandra.cache.";
+
+  private final MeterRegistry registry;
+
+  public MicrometerCacheStatisticsExporter() {
+    this(Metrics.globalRegistry);
+  }
+
+  public MicrometerCacheStatisticsExporter(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public void export(CacheStatistics statistics) {
+    Tags tags = Tags.of("level", statistics.getLevel(), "cache", statistics.getCacheName());
+
+    counter("hits", "Lookups answered by the cache", statistics, tags, CacheStatistics::getHits);
+    counter(
+        "misses",
+        "Lookups not answered by the cache",
+        statistics,
+        tags,
+        CacheStatistics::getMisses);
+    counter(
+        "invalidations",
+        "Invalidations caused by writes",
+        statistics,
+        tags,
+        CacheStatistics::getInvalidations);
+    counter("resets", "Complete resets of the cache", statistics, tags, CacheStatistics::getResets);
+    counter(
+        "evictions",
+        "Entries dropped because of size limits or expiration",
+        statistics,
+        tags,
+        CacheStatistics::getEvictions);
+
+    Gauge.builder(PREFIX + "entries", statistics, CacheStatistics::getEntryCount)
+        .description("Entries currently held by the cache")
+        .tags(tags)
+        .register(registry);
+  }
+
+  private void counter(
+      String name,
+      String description,
+      CacheStatistics statistics,
+      Tags tags,
+      Function<CacheStatistics, LongAdder> counter) {
+    FunctionCounter.builder(PREFIX + name, statistics, s -> counter.apply(s).sum())
+        .description(description)
+        .tags(tags)
+        .register(registry);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.benchmark;
+
+import de.arbeitsagentur.opdt.keycloak.cassandra.CompositeRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.ManagedCompositeCassandraRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.CacheInvocationTable;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.CacheableMethod;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the lookup of cache metadata by the {@link Method} a repository proxy passes to its
+ * invocation handler: the array of the {@link CacheInvocationTable} against the {@link HashMap}
+ * keyed by method, which the table used before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheInvocationTableBenchmark {
+  private CacheInvocationTable table;
+  private Map<Method, CacheableMethod> hashMap;
+  private Method[] proxyMethods;
+
+  @Setup
+  public void setUp() {
+    table =
+        CacheInvocationTable.create(
+            CompositeRepository.class, ManagedCompositeCassandraRepository.class, Map.of());
+
+    hashMap = new HashMap<>();
+    for (Method method : CompositeRepository.class.getMethods()) {
+      hashMap.put(method, table.get(method));
+    }
+
+    List<Method> captured = new ArrayList<>();
+    CompositeRepository repository =
+        table.newProxy(
+            (proxy, method, args) -> {
+              captured.add(method);
+              return null;
+            });
+    repository.findUserById("realm", "user");
+    repository.getRealmById("realm");
+    repository.getClientById("realm", "client");
+    repository.getRoleById("realm", "role");
+    proxyMethods = captured.toArray(new Method[0]);
+  }
+
+  @Benchmark
+  public void invocationTable(Blackhole blackhole) {
+    for (Method method : proxyMethods) {
+      blackhole.consume(table.get(method));
+    }
+  }
+
+  @Benchmark
+  public void hashMap(Blackhole blackhole) {
+    for (Method method : proxyMethods) {
+      blackhole.consume(hashMap.get(method));
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import de.arbeitsagentur.opdt.keycloak.compatibility.CachingPublicKeyStorageProvider;
+import de.arbeitsagentur.opdt.keycloak.compatibility.PublicKeyCache;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.keycloak.crypto.KeyWrapper;
+import org.keycloak.crypto.PublicKeysWrapper;
+import org.keycloak.keys.PublicKeyLoader;
+
+public class CachingPublicKeyStorageProviderTest {
+  private static final String MODEL_KEY = "realm::client::sig";
+
+  @Test
+  public void keysAreLoadedOnceAndReloadedForUnknownKid() throws Exception {
+    CachingPublicKeyStorageProvider provider = provider(0, 60_000);
+    StubLoader loader = new StubLoader("kid1");
+
+    assertThat(provider.getPublicKey(MODEL_KEY, "kid1", "RS256", loader).getKid(), is("kid1"));
+    assertThat(provider.getPublicKey(MODEL_KEY, "kid1", "RS256", loader).getKid(), is("kid1"));
+    assertThat(provider.getKeys(MODEL_KEY, loader), hasSize(1));
+    assertThat(loader.loads.get(), is(1));
+
+    loader.kid = "kid2";
+    assertThat(provider.getPublicKey(MODEL_KEY, "kid2", "RS256", loader).getKid(), is("kid2"));
+    assertThat(loader.loads.get(), is(2));
+  }
+
+  @Test
+  public void reloadsAreLimitedByMinTimeBetweenRequests() throws Exception {
+    CachingPublicKeyStorageProvider provider = provider(60_000, 60_000);
+    StubLoader loader = new StubLoader("kid1");
+
+    provider.getFirstPublicKey(MODEL_KEY, "RS256", loader);
+    assertThat(provider.getPublicKey(MODEL_KEY, "unknown", "RS256", loader), nullValue());
+    assertThat(provider.reloadKeys(MODEL_KEY, loader), is(false));
+    assertThat(loader.loads.get(), is(1));
+  }
+
+  @Test
+  public void keysAreReloadedAfterMaxCacheTime() throws Exception {
+    CachingPublicKeyStorageProvider provider = provider(0, 50);
+    StubLoader loader = new StubLoader("kid1");
+
+    provider.getKeys(MODEL_KEY, loader);
+    provider.getKeys(MODEL_KEY, loader);
+    assertThat(loader.loads.get(), is(1));
+
+    Thread.sleep(100);
+    provider.getKeys(MODEL_KEY, loader);
+    assertThat(loader.loads.get(), is(2));
+
+    assertThat(provider.reloadKeys(MODEL_KEY, loader), is(true));
+    assertThat(loader.loads.get(), is(3));
+  }
+
+  @Test
+  public void concurrentRequestsShareOneLoad() throws Exception {
+    CachingPublicKeyStorageProvider provider = provider(0, 60_000);
+    CountDownLatch release = new CountDownLatch(1);
+    StubLoader loader =
+        new StubLoader("kid1") {
+          @Override
+          public PublicKeysWrapper loadKeys() throws Exception {
+            release.await(10, TimeUnit.SECONDS);
+            return super.loadKeys();
+          }
+        };
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<KeyWrapper>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(executor.submit(() -> provider.getPublicKey(MODEL_KEY, "kid1", null, loader)));
+      }
+
+      Thread.sleep(200);
+      release.countDown();
+
+      for (Future<KeyWrapper> result : results) {
+        assertThat(result.get(10, TimeUnit.SECONDS).getKid(), is("kid1"));
+      }
+      assertThat(loader.loads.get(), is(1));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void leastRecentlyUsedModelKeyIsEvictedWhenFull() throws Exception {
+    PublicKeyCache cache = new PublicKeyCache(0, 60_000, 2);
+    CachingPublicKeyStorageProvider provider = new CachingPublicKeyStorageProvider(cache);
+    StubLoader loader = new StubLoader("kid1");
+
+    provider.getKeys("a", loader);
+    provider.getKeys("b", loader);
+    provider.getKeys("a", loader);
+    provider.getKeys("c", loader);
+    assertThat(cache.size(), is(2));
+    assertThat(loader.loads.get(), is(3));
+
+    provider.getKeys("a", loader);
+    assertThat(loader.loads.get(), is(3));
+
+    provider.getKeys("b", loader);
+    assertThat(loader.loads.get(), is(4));
+  }
+
+  @Test
+  public void invalidatedModelKeyIsReloaded() throws Exception {
+    PublicKeyCache cache = new PublicKeyCache(60_000, 60_000, 100);
+    CachingPublicKeyStorageProvider provider = new CachingPublicKeyStorageProvider(cache);
+    StubLoader loader = new StubLoader("kid1");
+
+    provider.getKeys(MODEL_KEY, loader);
+    cache.invalidate(MODEL_KEY);
+    provider.getKeys(MODEL_KEY, loader);
+
+    assertThat(loader.loads.get(), is(2));
+  }
+
+  private static CachingPublicKeyStorageProvider provider(
+      long minTimeBetweenRequestsMillis, long maxCacheTimeMillis) {
+    return new CachingPublicKeyStorageProvider(
+        new PublicKeyCache(minTimeBetweenRequestsMillis, maxCacheTimeMillis, 100));
+  }
+
+  private static class StubLoader implements PublicKeyLoader {
+    private final AtomicInteger loads = new AtomicInteger();
+    private volatile String kid;
+
+    private StubLoader(String kid) {
+      this.kid = kid;
+    }
+
+    @Override
+    public PublicKeysWrapper loadKeys() throws Exception {
+      loads.incrementAndGet();
+      KeyWrapper key = new KeyWrapper();
+      key.setKid(kid);
+      key.setAlgorithm("RS256");
+      return new PublicKeysWrapper(List.of(key));
+    }
+  }
+}
@@ -1045,4 +1045,57 @@ public class ClientModelTest extends KeycloakModelTest {
           return null;
         });
   }
+
+  @Test
+  public void parsedProtocolMappersAreSharedUntilChanged() {
+    String clientId =
+        withRealm(
+            realmId,
+            (session, realm) -> {
+              ClientModel client = session.clients().addClient(realm, "mapperClient");
+              client.addProtocolMapper(AddressMapper.createAddressMapper());
+              return client.getId();
+            });
+
+    ProtocolMapperModel first =
+        withRealm(
+            realmId,
+            (session, realm) ->
+                session
+                    .clients()
+                    .getClientById(realm, clientId)
+                    .getProtocolMappersStream()
+                    .findFirst()
+                    .orElseThrow());
+    ProtocolMapperModel second =
+        withRealm(
+            realmId,
+            (session, realm) ->
+                session
+                    .clients()
+                    .getClientById(realm, clientId)
+                    .getProtocolMapperById(first.getId()));
+    assertThat(second, sameInstance(first));
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          ProtocolMapperModel mapper = AddressMapper.createAddressMapper();
+          mapper.setId(first.getId());
+          mapper.setName("changed");
+          session.clients().getClientById(realm, clientId).updateProtocolMapper(mapper);
+          return null;
+        });
+
+    ProtocolMapperModel afterUpdate =
+        withRealm(
+            realmId,
+            (session, realm) ->
+                session
+                    .clients()
+                    .getClientById(realm, clientId)
+                    .getProtocolMapperById(first.getId()));
+    assertThat(afterUpdate.getName(), is("changed"));
+    assertThat(first.getName(), not("changed"));
+  }
 }
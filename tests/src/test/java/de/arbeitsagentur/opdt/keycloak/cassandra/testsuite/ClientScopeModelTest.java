@@ -20,8 +20,13 @@ import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
 
+import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.CassandraClientScopeAdapter;
+import de.arbeitsagentur.opdt.keycloak.cassandra.clientScope.persistence.entities.ClientScopeValue;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import org.junit.Test;
 import org.keycloak.common.constants.KerberosConstants;
@@ -279,4 +284,192 @@ public class ClientScopeModelTest extends KeycloakModelTest {
           return null;
         });
   }
+
+  @Test
+  public void testRenameAndRemove() {
+    String scopeId =
+        withRealm(
+            realmId,
+            (session, realm) -> {
+              session.clientScopes().addClientScope(realm, "otherScope");
+              return session.clientScopes().addClientScope(realm, "oldName").getId();
+            });
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          session.clientScopes().getClientScopeById(realm, scopeId).setName("newName");
+          return null;
+        });
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          assertThrows(
+              ModelDuplicateException.class,
+              () -> session.clientScopes().addClientScope(realm, "newName"));
+          return null;
+        });
+
+    String reusedNameId =
+        withRealm(
+            realmId,
+            (session, realm) -> session.clientScopes().addClientScope(realm, "oldName").getId());
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          assertThat(
+              session.clientScopes().getClientScopeById(realm, scopeId).getName(), is("newName"));
+          assertThat(
+              session
+                  .clientScopes()
+                  .getClientScopesStream(realm)
+                  .map(ClientScopeModel::getName)
+                  .collect(Collectors.toList()),
+              containsInAnyOrder("otherScope", "newName", "oldName"));
+
+          assertThat(session.clientScopes().removeClientScope(realm, reusedNameId), is(true));
+          return null;
+        });
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          assertNull(session.clientScopes().getClientScopeById(realm, reusedNameId));
+          assertThat(
+              session
+                  .clientScopes()
+                  .getClientScopesStream(realm)
+                  .map(ClientScopeModel::getName)
+                  .collect(Collectors.toList()),
+              containsInAnyOrder("otherScope", "newName"));
+          return null;
+        });
+  }
+
+  @Test
+  public void testConcurrentClientScopeCreationWithSameNameFails() {
+    assertThrows(
+        ModelDuplicateException.class,
+        () ->
+            withRealm(
+                realmId,
+                (session, realm) -> {
+                  session.clientScopes().addClientScope(realm, "concurrentScope");
+
+                  // commits first, so that the outer transaction cannot claim the name
+                  withRealm(
+                      realmId,
+                      (innerSession, innerRealm) ->
+                          innerSession
+                              .clientScopes()
+                              .addClientScope(innerRealm, "concurrentScope"));
+                  return null;
+                }));
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          assertThat(
+              session
+                  .clientScopes()
+                  .getClientScopesStream(realm)
+                  .filter(clientScope -> clientScope.getName().equals("concurrentScope"))
+                  .count(),
+              is(1L));
+          return null;
+        });
+  }
+
+  @Test
+  public void testStaleClientScopeNameIsTakenOver() {
+    // left behind by a client scope which was removed without removing its name
+    executeCql(
+        "INSERT INTO name_to_client_scope (realm_id, name, id) VALUES (?, ?, ?)",
+        realmId,
+        "staleScope",
+        "removed-scope-id");
+
+    String scopeId =
+        withRealm(
+            realmId,
+            (session, realm) -> session.clientScopes().addClientScope(realm, "staleScope").getId());
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          assertThat(
+              session.clientScopes().getClientScopeById(realm, scopeId).getName(),
+              is("staleScope"));
+          assertThrows(
+              ModelDuplicateException.class,
+              () -> session.clientScopes().addClientScope(realm, "staleScope"));
+          return null;
+        });
+  }
+
+  @Test
+  public void testUnconfirmedClientScopeNameClaimIsNotTakenOver() {
+    // claimed by another node which did not write its client scope yet
+    executeCql(
+        "INSERT INTO name_to_client_scope (realm_id, name, id) VALUES (?, ?, ?) USING TTL 60",
+        realmId,
+        "pendingScope",
+        "pending-scope-id");
+
+    assertThrows(
+        ModelDuplicateException.class,
+        () ->
+            withRealm(
+                realmId,
+                (session, realm) -> session.clientScopes().addClientScope(realm, "pendingScope")));
+  }
+
+  @Test
+  public void testLegacyClientScopesAreMigrated() {
+    String legacyRealmId = "legacy-client-scopes";
+    ClientScopeValue value =
+        ClientScopeValue.builder()
+            .id("legacy-scope")
+            .name("scope")
+            .attributes(Map.of(CassandraClientScopeAdapter.PROTOCOL, List.of("openid-connect")))
+            .build();
+
+    // written by an older version, all client scopes of the realm in one row
+    executeCql(
+        "INSERT INTO client_scopes (realm_id, version, client_scopes) VALUES (?, ?, ?)",
+        legacyRealmId,
+        1L,
+        Set.of(toJson(value)));
+    inComittedTransaction(
+        session -> {
+          session.realms().createRealm(legacyRealmId, legacyRealmId);
+        });
+
+    try {
+      withRealm(
+          legacyRealmId,
+          (session, realm) -> {
+            ClientScopeModel clientScope =
+                session.clientScopes().getClientScopeById(realm, "legacy-scope");
+            assertThat(clientScope.getName(), is("scope"));
+            assertThat(clientScope.getProtocol(), is("openid-connect"));
+
+            assertThrows(
+                ModelDuplicateException.class,
+                () -> session.clientScopes().addClientScope(realm, "scope"));
+            return null;
+          });
+
+      assertThat(
+          executeCql("SELECT realm_id FROM client_scopes WHERE realm_id = ?", legacyRealmId).one(),
+          nullValue());
+    } finally {
+      inComittedTransaction(
+          session -> {
+            session.realms().removeRealm(legacyRealmId);
+          });
+    }
+  }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.ClusterCacheInvalidation;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.KeycloakSessionCache;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.L2Cache;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.persistence.CacheInvalidationRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.persistence.entities.CacheInvalidation;
+import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.Realm;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClusterCacheInvalidationTest {
+  private static final String REALM_CACHE = KeycloakSessionCache.REALM_CACHE;
+
+  private InMemoryCacheInvalidationRepository changeLog;
+  private L2Cache writerCache;
+  private L2Cache readerCache;
+  private ClusterCacheInvalidation writer;
+  private ClusterCacheInvalidation reader;
+
+  @Before
+  public void setUp() {
+    changeLog = new InMemoryCacheInvalidationRepository();
+    writerCache = new L2Cache(1024 * 1024, Long.MAX_VALUE);
+    readerCache = new L2Cache(1024 * 1024, Long.MAX_VALUE);
+    writer = new ClusterCacheInvalidation(changeLog, writerCache, 5000);
+    reader = new ClusterCacheInvalidation(changeLog, readerCache, 5000);
+  }
+
+  @Test
+  public void writeOnOtherNodeEvictsOlderVersion() {
+    readerCache.put(REALM_CACHE, "realm", realm(1L));
+    writerCache.put(REALM_CACHE, "realm", realm(2L));
+
+    writer.publish(REALM_CACHE, "realm", 2L);
+
+    assertThat(reader.poll(), is(1));
+    assertThat(cachedVersion(readerCache), nullValue());
+
+    // the writer already holds the logged version
+    assertThat(writer.poll(), is(1));
+    assertThat(cachedVersion(writerCache), is(2L));
+  }
+
+  @Test
+  public void invalidationIsAppliedOnlyOnce() {
+    writer.publish(REALM_CACHE, "realm", 2L);
+    assertThat(reader.poll(), is(1));
+
+    readerCache.put(REALM_CACHE, "realm", realm(1L));
+    assertThat(reader.poll(), is(0));
+    assertThat(cachedVersion(readerCache), is(1L));
+  }
+
+  @Test
+  public void deleteEvictsRegardlessOfVersion() {
+    readerCache.put(REALM_CACHE, "realm", realm(5L));
+
+    writer.publish(REALM_CACHE, "realm", null);
+
+    assertThat(reader.poll(), is(1));
+    assertThat(cachedVersion(readerCache), nullValue());
+  }
+
+  @Test
+  public void invalidationsAreSpreadOverShards() {
+    for (int i = 0; i < 100; i++) {
+      writer.publish(REALM_CACHE, "realm-" + i, null);
+    }
+
+    Set<Integer> shards =
+        changeLog.invalidations.stream()
+            .map(CacheInvalidation::getShard)
+            .collect(Collectors.toSet());
+    assertThat(shards.size(), greaterThan(1));
+    assertThat(shards, everyItem(both(greaterThanOrEqualTo(0)).and(lessThan(16))));
+    assertThat(reader.poll(), is(100));
+  }
+
+  private Long cachedVersion(L2Cache cache) {
+    Realm realm = cache.get(REALM_CACHE, "realm", Realm.class, () -> null, () -> null);
+    return realm == null ? null : realm.getVersion();
+  }
+
+  private static Realm realm(Long version) {
+    return Realm.builder().id("realm").name("realm").version(version).build();
+  }
+
+  private static class InMemoryCacheInvalidationRepository implements CacheInvalidationRepository {
+    private final List<CacheInvalidation> invalidations = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void insert(CacheInvalidation invalidation) {
+      invalidations.add(invalidation);
+    }
+
+    @Override
+    public List<CacheInvalidation> findInvalidations(long bucket, int shard, UUID after) {
+      return invalidations.stream()
+          .filter(i -> i.getBucket() == bucket)
+          .filter(i -> i.getShard() == shard)
+          .filter(i -> i.getWrittenAt().timestamp() > after.timestamp())
+          .collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThrows;
+
+import de.arbeitsagentur.opdt.keycloak.cassandra.CompletionStages;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class CompletionStagesTest {
+  @Test
+  public void awaitReturnsResult() {
+    assertThat(CompletionStages.await(CompletableFuture.completedFuture("result")), is("result"));
+  }
+
+  @Test
+  public void awaitRethrowsRuntimeExceptionUnwrapped() {
+    IllegalStateException failure = new IllegalStateException("failed");
+
+    IllegalStateException thrown =
+        assertThrows(
+            IllegalStateException.class,
+            () -> CompletionStages.await(CompletableFuture.failedFuture(failure)));
+
+    assertThat(thrown, sameInstance(failure));
+  }
+
+  @Test
+  public void awaitWrapsCheckedException() {
+    IOException failure = new IOException("failed");
+
+    CompletionException thrown =
+        assertThrows(
+            CompletionException.class,
+            () -> CompletionStages.await(CompletableFuture.failedFuture(failure)));
+
+    assertThat(thrown.getCause(), sameInstance(failure));
+  }
+
+  @Test
+  public void awaitAllRethrowsFailureAfterAllStagesCompleted() {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      IllegalStateException failure = new IllegalStateException("failed");
+      CompletableFuture<Void> slow = new CompletableFuture<>();
+      executor.schedule(() -> slow.complete(null), 200, TimeUnit.MILLISECONDS);
+
+      IllegalStateException thrown =
+          assertThrows(
+              IllegalStateException.class,
+              () ->
+                  CompletionStages.awaitAll(
+                      List.of(CompletableFuture.failedFuture(failure), slow)));
+
+      assertThat(thrown, sameInstance(failure));
+      assertThat(slow.isDone(), is(true));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void awaitAllSucceedsIfAllStagesSucceed() {
+    CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> "first");
+    CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> "second");
+
+    CompletionStages.awaitAll(List.of(first, second));
+
+    assertThat(first.isDone() && second.isDone(), is(true));
+  }
+}
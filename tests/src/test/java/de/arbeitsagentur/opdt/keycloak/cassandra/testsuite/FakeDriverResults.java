@@ -0,0 +1,89 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import com.datastax.oss.driver.api.core.PagingIterable;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/** Results of the Cassandra driver for the few tests which use fake DAOs instead of Cassandra. */
+final class FakeDriverResults {
+  private FakeDriverResults() {}
+
+  static ResultSet resultSet(boolean applied) {
+    return (ResultSet)
+        Proxy.newProxyInstance(
+            ResultSet.class.getClassLoader(),
+            new Class[] {ResultSet.class},
+            (proxy, method, args) -> {
+              if (!method.getName().equals("wasApplied")) {
+                throw new UnsupportedOperationException(method.getName());
+              }
+
+              return applied;
+            });
+  }
+
+  /** A statement which is only told apart from others by its identity. */
+  static BoundStatement boundStatement() {
+    return (BoundStatement)
+        Proxy.newProxyInstance(
+            BoundStatement.class.getClassLoader(),
+            new Class[] {BoundStatement.class},
+            (proxy, method, args) -> {
+              throw new UnsupportedOperationException(method.getName());
+            });
+  }
+
+  /** Counts the rows taken from the iterator, to verify that reads stop early. */
+  @SuppressWarnings("unchecked")
+  static <T> PagingIterable<T> pagingIterable(List<T> rows, AtomicInteger rowsRead) {
+    return (PagingIterable<T>)
+        Proxy.newProxyInstance(
+            PagingIterable.class.getClassLoader(),
+            new Class[] {PagingIterable.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "iterator":
+                  Iterator<T> iterator = rows.iterator();
+                  return new Iterator<T>() {
+                    @Override
+                    public boolean hasNext() {
+                      return iterator.hasNext();
+                    }
+
+                    @Override
+                    public T next() {
+                      rowsRead.incrementAndGet();
+                      return iterator.next();
+                    }
+                  };
+                case "spliterator":
+                  return rows.spliterator();
+                case "forEach":
+                  rows.forEach((Consumer<T>) args[0]);
+                  return null;
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+}
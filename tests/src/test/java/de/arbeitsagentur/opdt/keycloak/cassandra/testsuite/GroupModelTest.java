@@ -19,6 +19,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.hamcrest.Matchers.empty;
 
+import de.arbeitsagentur.opdt.keycloak.cassandra.group.persistence.entities.GroupValue;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -74,6 +75,100 @@ public class GroupModelTest extends KeycloakModelTest {
         });
   }
 
+  @Test
+  public void testConcurrentGroupCreationWithSameNameFails() {
+    Assert.assertThrows(
+        ModelDuplicateException.class,
+        () ->
+            withRealm(
+                realmId,
+                (session, realm) -> {
+                  session.groups().createGroup(realm, "concurrent-group");
+
+                  // commits first, so that the outer transaction cannot claim the name
+                  withRealm(
+                      realmId,
+                      (innerSession, innerRealm) ->
+                          innerSession.groups().createGroup(innerRealm, "concurrent-group"));
+                  return null;
+                }));
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          assertThat(
+              session
+                  .groups()
+                  .searchForGroupByNameStream(realm, "concurrent-group", true, null, null)
+                  .count(),
+              is(1L));
+          return null;
+        });
+  }
+
+  @Test
+  public void testRenamedGroupReleasesName() {
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          session.groups().getGroupById(realm, firstGroupId).setName("renamedGroup");
+          return null;
+        });
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          GroupModel group = session.groups().createGroup(realm, "firstGroup");
+          assertThat(
+              session.groups().getGroupByName(realm, null, "firstGroup").getId(),
+              is(group.getId()));
+          assertThat(
+              session.groups().getGroupByName(realm, null, "renamedGroup").getId(),
+              is(firstGroupId));
+          return null;
+        });
+  }
+
+  @Test
+  public void testStaleGroupNameIsTakenOver() {
+    // left behind by a group which was removed without removing its name
+    executeCql(
+        "INSERT INTO groups_by_parent (realm_id, parent_id, name, id) VALUES (?, '', ?, ?)",
+        realmId,
+        "stale-group",
+        "removed-group-id");
+
+    String groupId =
+        withRealm(
+            realmId,
+            (session, realm) -> session.groups().createGroup(realm, "stale-group").getId());
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          assertThat(
+              session.groups().getGroupByName(realm, null, "stale-group").getId(), is(groupId));
+          return null;
+        });
+  }
+
+  @Test
+  public void testUnconfirmedGroupNameClaimIsNotTakenOver() {
+    // claimed by another node which did not write its group yet
+    executeCql(
+        "INSERT INTO groups_by_parent (realm_id, parent_id, name, id) VALUES (?, '', ?, ?)"
+            + " USING TTL 60",
+        realmId,
+        "pending-group",
+        "pending-group-id");
+
+    Assert.assertThrows(
+        ModelDuplicateException.class,
+        () ->
+            withRealm(
+                realmId, (session, realm) -> session.groups().createGroup(realm, "pending-group")));
+  }
+
   @Test
   public void testBasicCreateRemoveGroup() {
     withRealm(
@@ -100,6 +195,115 @@ public class GroupModelTest extends KeycloakModelTest {
         });
   }
 
+  @Test
+  public void testGroupPagingAndCountsByParent() {
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          GroupModel firstGroup = session.groups().getGroupById(realm, firstGroupId);
+          session.groups().createGroup(realm, "sub-c", firstGroup);
+          session.groups().createGroup(realm, "sub-a", firstGroup);
+          session.groups().createGroup(realm, "sub-b", firstGroup);
+          return null;
+        });
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          GroupModel firstGroup = session.groups().getGroupById(realm, firstGroupId);
+          assertThat(firstGroup.getSubGroupsCount(), is(3L));
+          assertThat(
+              firstGroup
+                  .getSubGroupsStream(1, 2)
+                  .map(GroupModel::getName)
+                  .collect(Collectors.toList()),
+              contains("sub-b", "sub-c"));
+          assertThat(
+              session
+                  .groups()
+                  .getTopLevelGroupsStream(realm, 1, 1)
+                  .map(GroupModel::getName)
+                  .collect(Collectors.toList()),
+              contains("secondGroup"));
+
+          GroupModel subGroup =
+              firstGroup
+                  .getSubGroupsStream()
+                  .filter(g -> g.getName().equals("sub-a"))
+                  .findFirst()
+                  .get();
+          session.groups().moveGroup(realm, subGroup, null);
+          return null;
+        });
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          GroupModel firstGroup = session.groups().getGroupById(realm, firstGroupId);
+          assertThat(firstGroup.getSubGroupsCount(), is(2L));
+          assertThat(session.groups().getGroupsCount(realm, true), is(4L));
+          assertThat(session.groups().getGroupsCount(realm, false), is(6L));
+          assertThat(
+              session
+                  .groups()
+                  .getTopLevelGroupsStream(realm, "sub", false, null, null)
+                  .map(GroupModel::getName)
+                  .collect(Collectors.toList()),
+              contains("sub-a"));
+          return null;
+        });
+  }
+
+  @Test
+  public void testLegacyGroupsAreMigrated() {
+    String legacyRealmId = "legacy-groups";
+    GroupValue parent = GroupValue.builder().id("legacy-parent").name("parent").build();
+    GroupValue child =
+        GroupValue.builder().id("legacy-child").name("child").parentId("legacy-parent").build();
+
+    // written by an older version, all groups of the realm in one row
+    executeCql(
+        "INSERT INTO groups (realm_id, version, realm_groups) VALUES (?, ?, ?)",
+        legacyRealmId,
+        1L,
+        Set.of(toJson(parent), toJson(child)));
+    inComittedTransaction(
+        session -> {
+          session.realms().createRealm(legacyRealmId, legacyRealmId);
+        });
+
+    try {
+      withRealm(
+          legacyRealmId,
+          (session, realm) -> {
+            GroupModel parentGroup = session.groups().getGroupById(realm, "legacy-parent");
+            assertThat(parentGroup.getName(), is("parent"));
+            assertThat(
+                parentGroup
+                    .getSubGroupsStream()
+                    .map(GroupModel::getId)
+                    .collect(Collectors.toList()),
+                contains("legacy-child"));
+            assertThat(session.groups().getGroupsCount(realm, false), is(2L));
+            assertThat(session.groups().getGroupsCount(realm, true), is(1L));
+
+            Assert.assertThrows(
+                ModelDuplicateException.class,
+                () -> session.groups().createGroup(realm, "child", parentGroup));
+            return null;
+          });
+
+      assertThat(
+          executeCql("SELECT realm_id FROM groups WHERE realm_id = ?", legacyRealmId).one(),
+          nullValue());
+    } finally {
+      inComittedTransaction(
+          session -> {
+            session.realms().removeRealm(legacyRealmId);
+          });
+    }
+  }
+
   @Test
   public void testBasicGroupModel() {
     withRealm(
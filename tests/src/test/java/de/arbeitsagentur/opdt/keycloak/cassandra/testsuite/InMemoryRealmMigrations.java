@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import com.datastax.oss.driver.api.core.cql.Statement;
+import de.arbeitsagentur.opdt.keycloak.cassandra.migration.persistence.RealmMigrationDao;
+import de.arbeitsagentur.opdt.keycloak.cassandra.migration.persistence.entities.RealmMigration;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Table {@code realm_migrations} for fake DAOs extending {@link RealmMigrationDao}, recording the
+ * statements executed by migrations instead of sending them.
+ */
+class InMemoryRealmMigrations {
+  final Map<List<String>, RealmMigration> migrations = new ConcurrentHashMap<>();
+  final List<Statement<?>> executedStatements = new CopyOnWriteArrayList<>();
+  final AtomicInteger renewals = new AtomicInteger();
+
+  static RealmMigrationDao dao(InMemoryRealmMigrations migrations) {
+    return (RealmMigrationDao)
+        Proxy.newProxyInstance(
+            RealmMigrationDao.class.getClassLoader(),
+            new Class[] {RealmMigrationDao.class},
+            (proxy, method, args) -> {
+              if (method.getName().equals("executeStatementAsync")) {
+                migrations.executedStatements.add((Statement<?>) args[0]);
+                return CompletableFuture.completedFuture(null);
+              }
+
+              return migrations.invoke(method, args);
+            });
+  }
+
+  boolean handles(Method method) {
+    return method.getDeclaringClass() == RealmMigrationDao.class;
+  }
+
+  Object invoke(Method method, Object[] args) {
+    switch (method.getName()) {
+      case "findRealmMigration":
+        return migrations.get(List.of((String) args[0], (String) args[1]));
+      case "startRealmMigration":
+        RealmMigration migration = (RealmMigration) args[0];
+        return migrations.putIfAbsent(key(migration), migration) == null;
+      case "renewRealmMigration":
+        RealmMigration claimed = migrations.get(List.of((String) args[0], (String) args[1]));
+        if (claimed == null || !args[3].equals(claimed.getOwner())) {
+          return false;
+        }
+        claimed.setOwner((String) args[2]);
+        renewals.incrementAndGet();
+        return true;
+      case "completeRealmMigration":
+        RealmMigration running = migrations.get(List.of((String) args[0], (String) args[1]));
+        if (running == null || !args[2].equals(running.getOwner())) {
+          return false;
+        }
+        running.setCompleted(true);
+        return true;
+      case "abortRealmMigration":
+        return migrations.computeIfPresent(
+                List.of((String) args[0], (String) args[1]),
+                (key, value) -> args[2].equals(value.getOwner()) ? null : value)
+            == null;
+      case "deleteRealmMigrations":
+        migrations.keySet().removeIf(key -> key.get(0).equals(args[0]));
+        return null;
+      default:
+        throw new UnsupportedOperationException(method.getName());
+    }
+  }
+
+  static List<String> key(RealmMigration migration) {
+    return List.of(migration.getRealmId(), migration.getName());
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalDao;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalEntity;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * Table of a {@link TransactionalDao} for repository tests of cases which cannot be provoked
+ * against Cassandra, e.g. a conflict on every attempt.
+ */
+class InMemoryTransactionalDao<T extends TransactionalEntity> implements TransactionalDao<T> {
+  final Map<String, T> entities = new ConcurrentHashMap<>();
+  final AtomicInteger updates = new AtomicInteger();
+  private final UnaryOperator<T> copy;
+  // writes of other nodes, run before each update
+  Runnable concurrentWrite = () -> {};
+
+  InMemoryTransactionalDao(UnaryOperator<T> copy) {
+    this.copy = copy;
+  }
+
+  T get(String id) {
+    T entity = entities.get(id);
+    return entity == null ? null : copy.apply(entity);
+  }
+
+  @Override
+  public boolean insert(T entity) {
+    return entities.putIfAbsent(entity.getId(), copy.apply(entity)) == null;
+  }
+
+  @Override
+  public void insertWithTimestamp(T entity, long timestamp) {
+    entities.put(entity.getId(), copy.apply(entity));
+  }
+
+  @Override
+  public ResultSet update(T entity, long expectedVersion) {
+    updates.incrementAndGet();
+    concurrentWrite.run();
+
+    T current = entities.get(entity.getId());
+    boolean applied = current != null && current.getVersion() == expectedVersion;
+    if (applied) {
+      entities.put(entity.getId(), copy.apply(entity));
+    }
+    return FakeDriverResults.resultSet(applied);
+  }
+
+  @Override
+  public void delete(T entity) {
+    entities.remove(entity.getId());
+  }
+
+  @Override
+  public BoundStatement insertStatement(T entity) {
+    throw new UnsupportedOperationException("insertStatement");
+  }
+
+  @Override
+  public BoundStatement deleteStatement(T entity) {
+    throw new UnsupportedOperationException("deleteStatement");
+  }
+
+  @Override
+  public CompletionStage<AsyncResultSet> executeStatementAsync(Statement<?> statement) {
+    throw new UnsupportedOperationException("executeStatementAsync");
+  }
+}
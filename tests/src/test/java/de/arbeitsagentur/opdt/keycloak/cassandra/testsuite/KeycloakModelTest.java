@@ -16,7 +16,11 @@
  */
 package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
 
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.collect.ImmutableSet;
+import de.arbeitsagentur.opdt.keycloak.cassandra.CassandraJsonSerialization;
+import de.arbeitsagentur.opdt.keycloak.cassandra.connection.CassandraConnectionProvider;
 import java.lang.management.LockInfo;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
@@ -632,6 +636,29 @@ public abstract class KeycloakModelTest {
         });
   }
 
+  /**
+   * Runs a CQL statement directly against the keyspace, e.g. to write rows in the layout of an
+   * older version.
+   */
+  protected ResultSet executeCql(String cql, Object... values) {
+    return inComittedTransaction(
+        cql,
+        (session, statement) ->
+            session
+                .getProvider(CassandraConnectionProvider.class)
+                .getCqlSession()
+                .execute(statement, values));
+  }
+
+  /** Serializes a value the way it is stored in JSON text columns. */
+  protected static String toJson(Object value) {
+    try {
+      return CassandraJsonSerialization.getMapper().writeValueAsString(value);
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
   protected boolean isUseSameKeycloakSessionFactoryForAllThreads() {
     return false;
   }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import de.arbeitsagentur.opdt.keycloak.cassandra.CassandraJsonSerialization;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.KeycloakSessionCache;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.L2Cache;
+import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.Realm;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+public class L2CacheTest {
+  private static final String REALM_CACHE = KeycloakSessionCache.REALM_CACHE;
+
+  @Test
+  public void hitReturnsPrivateCopyWithoutLoading() {
+    L2Cache cache = new L2Cache(1024 * 1024, Long.MAX_VALUE);
+    CountingLoader loader = new CountingLoader(realm("realm", 1L));
+
+    Realm first = get(cache, "realm", () -> 1L, loader);
+    first.setName("changed");
+    Realm second = get(cache, "realm", () -> 1L, loader);
+
+    assertThat(loader.loads.get(), is(1));
+    assertThat(second.getName(), is("realm"));
+    assertThat(second, not(sameInstance(first)));
+  }
+
+  @Test
+  public void staleEntryIsServedIfVersionIsUnchanged() {
+    L2Cache cache = new L2Cache(1024 * 1024, 0);
+    CountingLoader loader = new CountingLoader(realm("realm", 1L));
+    AtomicInteger versionReads = new AtomicInteger();
+
+    get(cache, "realm", () -> 1L, loader);
+    Realm realm =
+        get(
+            cache,
+            "realm",
+            () -> {
+              versionReads.incrementAndGet();
+              return 1L;
+            },
+            loader);
+
+    assertThat(realm.getVersion(), is(1L));
+    assertThat(versionReads.get(), is(1));
+    assertThat(loader.loads.get(), is(1));
+  }
+
+  @Test
+  public void staleEntryIsReloadedIfVersionChanged() {
+    L2Cache cache = new L2Cache(1024 * 1024, 0);
+    CountingLoader loader = new CountingLoader(realm("realm", 1L));
+
+    get(cache, "realm", () -> 1L, loader);
+    loader.result = realm("realm", 2L);
+
+    assertThat(get(cache, "realm", () -> 2L, loader).getVersion(), is(2L));
+    assertThat(loader.loads.get(), is(2));
+
+    // the reloaded version is cached again
+    assertThat(get(cache, "realm", () -> 2L, loader).getVersion(), is(2L));
+    assertThat(loader.loads.get(), is(2));
+  }
+
+  @Test
+  public void olderVersionDoesNotReplaceNewerEntry() {
+    L2Cache cache = new L2Cache(1024 * 1024, Long.MAX_VALUE);
+
+    cache.put(REALM_CACHE, "realm", realm("realm", 2L));
+    cache.put(REALM_CACHE, "realm", realm("realm", 1L));
+
+    assertThat(cachedVersion(cache, "realm"), is(2L));
+  }
+
+  @Test
+  public void invalidationByVersionEvictsOnlyOlderEntries() {
+    L2Cache cache = new L2Cache(1024 * 1024, Long.MAX_VALUE);
+    cache.put(REALM_CACHE, "realm", realm("realm", 2L));
+
+    cache.invalidate(REALM_CACHE, "realm", 2L);
+    assertThat(cachedVersion(cache, "realm"), is(2L));
+
+    cache.invalidate(REALM_CACHE, "realm", 3L);
+    assertThat(cachedVersion(cache, "realm"), nullValue());
+  }
+
+  @Test
+  public void invalidateEvictsEntry() {
+    L2Cache cache = new L2Cache(1024 * 1024, Long.MAX_VALUE);
+    cache.put(REALM_CACHE, "realm", realm("realm", 1L));
+
+    cache.invalidate(REALM_CACHE, "realm");
+
+    assertThat(cachedVersion(cache, "realm"), nullValue());
+  }
+
+  @Test
+  public void leastRecentlyUsedEntryIsEvictedWhenFull() throws Exception {
+    long entrySize =
+        CassandraJsonSerialization.getMapper().writeValueAsBytes(realm("a", 1L)).length;
+
+    L2Cache cache = new L2Cache(2 * entrySize, Long.MAX_VALUE);
+    cache.put(REALM_CACHE, "a", realm("a", 1L));
+    cache.put(REALM_CACHE, "b", realm("b", 1L));
+    cachedVersion(cache, "a");
+    cache.put(REALM_CACHE, "c", realm("c", 1L));
+
+    assertThat(cachedVersion(cache, "a"), is(1L));
+    assertThat(cachedVersion(cache, "b"), nullValue());
+    assertThat(cachedVersion(cache, "c"), is(1L));
+  }
+
+  @Test
+  public void disabledCacheAlwaysLoads() {
+    L2Cache cache = L2Cache.disabled();
+    CountingLoader loader = new CountingLoader(realm("realm", 1L));
+
+    get(cache, "realm", () -> 1L, loader);
+    get(cache, "realm", () -> 1L, loader);
+
+    assertThat(loader.loads.get(), is(2));
+  }
+
+  @Test
+  public void bypassedCacheAlwaysLoads() {
+    L2Cache cache = new L2Cache(1024 * 1024, Long.MAX_VALUE);
+    cache.put(REALM_CACHE, "realm", realm("realm", 1L));
+    cache.put(KeycloakSessionCache.CLIENT_CACHE, "client", realm("client", 1L));
+
+    cache.bypass(REALM_CACHE);
+    CountingLoader loader = new CountingLoader(realm("realm", 1L));
+    get(cache, "realm", () -> 1L, loader);
+    get(cache, "realm", () -> 1L, loader);
+
+    assertThat(loader.loads.get(), is(2));
+    assertThat(cachedVersion(cache, "realm"), nullValue());
+    assertThat(
+        cache
+            .get(KeycloakSessionCache.CLIENT_CACHE, "client", Realm.class, () -> null, () -> null)
+            .getVersion(),
+        is(1L));
+  }
+
+  private static Realm get(
+      L2Cache cache, String id, Supplier<Long> versionLoader, CountingLoader loader) {
+    return cache.get(REALM_CACHE, id, Realm.class, versionLoader, loader::load);
+  }
+
+  private static Long cachedVersion(L2Cache cache, String id) {
+    Realm realm = cache.get(REALM_CACHE, id, Realm.class, () -> null, () -> null);
+    return realm == null ? null : realm.getVersion();
+  }
+
+  private static Realm realm(String id, Long version) {
+    return Realm.builder().id(id).name(id).version(version).build();
+  }
+
+  private static class CountingLoader {
+    private final AtomicInteger loads = new AtomicInteger();
+    private Realm result;
+
+    private CountingLoader(Realm result) {
+      this.result = result;
+    }
+
+    private Realm load() {
+      loads.incrementAndGet();
+      return result;
+    }
+  }
+}
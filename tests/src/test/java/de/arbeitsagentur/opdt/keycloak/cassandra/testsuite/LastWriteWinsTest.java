@@ -0,0 +1,86 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThrows;
+
+import de.arbeitsagentur.opdt.keycloak.cassandra.connection.ConfigValues;
+import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.RealmDao;
+import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.Realm;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.WriteMode;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class LastWriteWinsTest {
+  private final List<Long> timestamps = new ArrayList<>();
+  private final List<Long> writtenVersions = new ArrayList<>();
+
+  @Test
+  public void writesAreUnconditionalWithIncreasingTimestamps() {
+    TransactionalRepository<Realm, RealmDao> repository = repository();
+    Realm realm = Realm.builder().id("realm").name("realm").build();
+
+    repository.insertOrUpdate(realm);
+    assertThat(realm.getVersion(), is(1L));
+
+    repository.insertOrUpdate(realm);
+    repository.insertOrUpdate(realm);
+
+    assertThat(writtenVersions, contains(1L, 2L, 3L));
+    assertThat(timestamps.get(1), greaterThan(timestamps.get(0)));
+    assertThat(timestamps.get(2), greaterThan(timestamps.get(1)));
+  }
+
+  @Test
+  public void writeModeIsParsedCaseInsensitively() {
+    assertThat(ConfigValues.parseEnum(WriteMode.class, "usersWriteMode", "lwt"), is(WriteMode.LWT));
+    assertThat(
+        ConfigValues.parseEnum(WriteMode.class, "usersWriteMode", "last-write-wins"),
+        is(WriteMode.LAST_WRITE_WINS));
+
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> ConfigValues.parseEnum(WriteMode.class, "usersWriteMode", "lww"));
+    assertThat(thrown.getMessage(), containsString("usersWriteMode"));
+  }
+
+  private TransactionalRepository<Realm, RealmDao> repository() {
+    RealmDao dao =
+        (RealmDao)
+            Proxy.newProxyInstance(
+                RealmDao.class.getClassLoader(),
+                new Class[] {RealmDao.class},
+                (proxy, method, args) -> {
+                  if (!method.getName().equals("insertWithTimestamp")) {
+                    throw new UnsupportedOperationException(method.getName());
+                  }
+
+                  writtenVersions.add(((Realm) args[0]).getVersion());
+                  timestamps.add((Long) args[1]);
+                  return null;
+                });
+
+    TransactionalRepository<Realm, RealmDao> repository = new TransactionalRepository<>(dao) {};
+    repository.setWriteMode(WriteMode.LAST_WRITE_WINS);
+    return repository;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThrows;
+
+import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.Role;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.MergingTransactionalRepository;
+import de.arbeitsagentur.opdt.keycloak.common.ModelIllegalStateException;
+import org.junit.Test;
+
+/**
+ * Bounds of the conflict retries. Merging itself is covered by {@link RoleModelTest} against
+ * Cassandra.
+ */
+public class MergingTransactionalRepositoryTest {
+  private static final String ROLE_ID = "role-id";
+
+  private final InMemoryTransactionalDao<Role> dao = new InMemoryTransactionalDao<>(Role::copy);
+
+  @Test
+  public void conflictFailsAfterMaxRetries() {
+    MergingTransactionalRepository<Role, InMemoryTransactionalDao<Role>> repository = repository(2);
+    Role base = storedRole();
+    Role ours = base.copy();
+    ours.setDescription("ours");
+
+    // another node writes the role before each attempt
+    dao.concurrentWrite = this::writeConcurrently;
+
+    assertThrows(ModelIllegalStateException.class, () -> repository.insertOrUpdate(ours, base));
+    assertThat(dao.updates.get(), is(3));
+    assertThat(dao.get(ROLE_ID).getDescription(), nullValue());
+  }
+
+  @Test
+  public void retriesStopOnceWriteIsApplied() {
+    MergingTransactionalRepository<Role, InMemoryTransactionalDao<Role>> repository = repository(5);
+    Role base = storedRole();
+    Role ours = base.copy();
+    ours.setDescription("ours");
+
+    // another node writes the role before the first attempt only
+    dao.concurrentWrite =
+        () -> {
+          dao.concurrentWrite = () -> {};
+          writeConcurrently();
+        };
+
+    repository.insertOrUpdate(ours, base);
+
+    assertThat(dao.updates.get(), is(2));
+    assertThat(dao.get(ROLE_ID).getDescription(), is("ours"));
+    assertThat(dao.get(ROLE_ID).getVersion(), is(3L));
+  }
+
+  private MergingTransactionalRepository<Role, InMemoryTransactionalDao<Role>> repository(
+      int maxRetries) {
+    MergingTransactionalRepository<Role, InMemoryTransactionalDao<Role>> repository =
+        new MergingTransactionalRepository<>(dao) {
+          @Override
+          protected Role readLatest(Role role) {
+            return dao.get(role.getId());
+          }
+        };
+    repository.setConflictRetry(maxRetries, 1L);
+    return repository;
+  }
+
+  private Role storedRole() {
+    dao.insert(Role.builder().realmId("realm").id(ROLE_ID).name("role").version(1L).build());
+    return dao.get(ROLE_ID);
+  }
+
+  private void writeConcurrently() {
+    Role theirs = dao.get(ROLE_ID);
+    theirs.incrementVersion();
+    dao.entities.put(ROLE_ID, theirs);
+  }
+}
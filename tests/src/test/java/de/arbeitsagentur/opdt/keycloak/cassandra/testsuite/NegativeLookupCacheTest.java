@@ -0,0 +1,164 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.NegativeLookupCache;
+import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.CassandraRealmRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.RealmDao;
+import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.NameToRealm;
+import de.arbeitsagentur.opdt.keycloak.cassandra.realm.persistence.entities.Realm;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+public class NegativeLookupCacheTest {
+  private static final String USERNAME = "username";
+
+  @Test
+  public void missIsRememberedUntilInvalidated() {
+    NegativeLookupCache cache = new NegativeLookupCache(100, 60_000);
+    CountingLoader loader = new CountingLoader(null);
+
+    assertThat(cache.get(USERNAME, "realm", "user", loader), nullValue());
+    assertThat(cache.get(USERNAME, "realm", "user", loader), nullValue());
+    assertThat(loader.loads.get(), is(1));
+
+    cache.invalidate(USERNAME, "realm", "user");
+    loader.result = "found";
+
+    assertThat(cache.get(USERNAME, "realm", "user", loader), is("found"));
+    assertThat(loader.loads.get(), is(2));
+  }
+
+  @Test
+  public void foundValuesAreNotCached() {
+    NegativeLookupCache cache = new NegativeLookupCache(100, 60_000);
+    CountingLoader loader = new CountingLoader("found");
+
+    cache.get(USERNAME, "realm", "user", loader);
+    cache.get(USERNAME, "realm", "user", loader);
+
+    assertThat(loader.loads.get(), is(2));
+  }
+
+  @Test
+  public void missExpiresAfterTtl() throws Exception {
+    NegativeLookupCache cache = new NegativeLookupCache(100, 50);
+    CountingLoader loader = new CountingLoader(null);
+
+    cache.get(USERNAME, "realm", "user", loader);
+    Thread.sleep(100);
+    cache.get(USERNAME, "realm", "user", loader);
+
+    assertThat(loader.loads.get(), is(2));
+  }
+
+  @Test
+  public void missIsNotRememberedIfWrittenDuringLookup() {
+    NegativeLookupCache cache = new NegativeLookupCache(100, 60_000);
+    AtomicInteger loads = new AtomicInteger();
+    Supplier<String> loader =
+        () -> {
+          loads.incrementAndGet();
+          cache.invalidate(USERNAME, "realm", "user");
+          return null;
+        };
+
+    cache.get(USERNAME, "realm", "user", loader);
+    cache.get(USERNAME, "realm", "user", loader);
+
+    assertThat(loads.get(), is(2));
+  }
+
+  @Test
+  public void oldestMissIsEvictedWhenFull() {
+    NegativeLookupCache cache = new NegativeLookupCache(2, 60_000);
+    CountingLoader loader = new CountingLoader(null);
+
+    cache.get(USERNAME, "realm", "a", loader);
+    cache.get(USERNAME, "realm", "b", loader);
+    cache.get(USERNAME, "realm", "c", loader);
+    assertThat(loader.loads.get(), is(3));
+
+    cache.get(USERNAME, "realm", "c", loader);
+    assertThat(loader.loads.get(), is(3));
+
+    cache.get(USERNAME, "realm", "a", loader);
+    assertThat(loader.loads.get(), is(4));
+  }
+
+  @Test
+  public void createdRealmIsFoundAfterRememberedMiss() {
+    CassandraRealmRepository repository =
+        new CassandraRealmRepository(inMemoryRealmDao(), new NegativeLookupCache(100, 60_000));
+
+    assertThat(repository.findRealmByName("new-realm"), nullValue());
+
+    repository.createRealm(new Realm("realm-id", "new-realm", null, new HashMap<>()));
+
+    assertThat(repository.findRealmByName("new-realm").getId(), is("realm-id"));
+  }
+
+  private static RealmDao inMemoryRealmDao() {
+    Map<String, Realm> realms = new HashMap<>();
+    Map<String, NameToRealm> names = new HashMap<>();
+
+    return (RealmDao)
+        Proxy.newProxyInstance(
+            RealmDao.class.getClassLoader(),
+            new Class[] {RealmDao.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "insert":
+                  Realm realm = (Realm) args[0];
+                  return realms.putIfAbsent(realm.getId(), realm) == null;
+                case "insertOrUpdate":
+                  if (args[0] instanceof NameToRealm) {
+                    NameToRealm name = (NameToRealm) args[0];
+                    names.put(name.getName(), name);
+                  }
+                  return null;
+                case "findByName":
+                  return names.get((String) args[0]);
+                case "getRealmById":
+                  return realms.get((String) args[0]);
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  private static class CountingLoader implements Supplier<String> {
+    private final AtomicInteger loads = new AtomicInteger();
+    private String result;
+
+    private CountingLoader(String result) {
+      this.result = result;
+    }
+
+    @Override
+    public String get() {
+      loads.incrementAndGet();
+      return result;
+    }
+  }
+}
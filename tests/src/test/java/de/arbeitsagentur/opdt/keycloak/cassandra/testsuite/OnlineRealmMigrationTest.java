@@ -0,0 +1,172 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThrows;
+
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import de.arbeitsagentur.opdt.keycloak.cassandra.migration.OnlineRealmMigration;
+import de.arbeitsagentur.opdt.keycloak.cassandra.migration.persistence.entities.RealmMigration;
+import de.arbeitsagentur.opdt.keycloak.common.ModelIllegalStateException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+public class OnlineRealmMigrationTest {
+  private final InMemoryRealmMigrations migrations = new InMemoryRealmMigrations();
+  private final Set<String> legacyRealmIds = new HashSet<>(Set.of("realm"));
+  private final AtomicInteger runs = new AtomicInteger();
+
+  @Test
+  public void realmIsMigratedOnceAcrossNodes() {
+    migration().ensureMigrated("realm");
+    migration().ensureMigrated("realm");
+
+    assertThat(runs.get(), is(1));
+    assertThat(legacyRealmIds, empty());
+    assertThat(migrations.migrations.get(List.of("realm", "test")).isCompleted(), is(true));
+  }
+
+  @Test
+  public void realmWithoutLegacyDataIsNotClaimed() {
+    migration().ensureMigrated("other-realm");
+
+    assertThat(runs.get(), is(0));
+    assertThat(migrations.migrations, anEmptyMap());
+  }
+
+  @Test
+  public void migrationOfOtherNodeIsAwaited() throws Exception {
+    RealmMigration running = new RealmMigration("realm", "test", "other-node", false);
+    migrations.migrations.put(InMemoryRealmMigrations.key(running), running);
+
+    Thread otherNode =
+        new Thread(
+            () -> {
+              try {
+                Thread.sleep(50);
+              } catch (InterruptedException e) {
+                return;
+              }
+              migrations.migrations.put(
+                  InMemoryRealmMigrations.key(running),
+                  new RealmMigration("realm", "test", "other-node", true));
+            });
+    otherNode.start();
+
+    OnlineRealmMigration migration = migration();
+    migration.setWaitTimeout(10_000, 10);
+    migration.ensureMigrated("realm");
+    otherNode.join();
+
+    assertThat(runs.get(), is(0));
+  }
+
+  @Test
+  public void waitingForOtherNodeTimesOut() {
+    RealmMigration running = new RealmMigration("realm", "test", "other-node", false);
+    migrations.migrations.put(InMemoryRealmMigrations.key(running), running);
+
+    OnlineRealmMigration migration = migration();
+    migration.setWaitTimeout(50, 10);
+
+    assertThrows(ModelIllegalStateException.class, () -> migration.ensureMigrated("realm"));
+    assertThat(runs.get(), is(0));
+  }
+
+  @Test
+  public void failedMigrationReleasesClaim() {
+    OnlineRealmMigration migration =
+        new OnlineRealmMigration(
+            "test",
+            InMemoryRealmMigrations.dao(migrations),
+            legacyRealmIds::contains,
+            (realmId, rows) -> {
+              throw new IllegalStateException("failed");
+            });
+
+    assertThrows(IllegalStateException.class, () -> migration.ensureMigrated("realm"));
+    assertThat(migrations.migrations, anEmptyMap());
+
+    migration().ensureMigrated("realm");
+    assertThat(runs.get(), is(1));
+  }
+
+  @Test
+  public void claimIsRenewedWhileRowsAreWritten() {
+    List<SimpleStatement> statements =
+        IntStream.range(0, 250)
+            .mapToObj(i -> SimpleStatement.newInstance("INSERT " + i))
+            .collect(Collectors.toList());
+    OnlineRealmMigration migration =
+        new OnlineRealmMigration(
+            "test",
+            InMemoryRealmMigrations.dao(migrations),
+            legacyRealmIds::contains,
+            (realmId, rows) -> {
+              rows.write(statements);
+              legacyRealmIds.remove(realmId);
+            });
+    migration.setRenewInterval(0);
+
+    migration.ensureMigrated("realm");
+
+    assertThat(migrations.executedStatements, containsInAnyOrder(statements.toArray()));
+    // once after each chunk of 100 statements
+    assertThat(migrations.renewals.get(), is(3));
+    assertThat(migrations.migrations.get(List.of("realm", "test")).isCompleted(), is(true));
+  }
+
+  @Test
+  public void migrationStopsWhenClaimIsLost() {
+    OnlineRealmMigration migration =
+        new OnlineRealmMigration(
+            "test",
+            InMemoryRealmMigrations.dao(migrations),
+            legacyRealmIds::contains,
+            (realmId, rows) -> {
+              // the claim expired and another node took over
+              migrations.migrations.put(
+                  List.of(realmId, "test"),
+                  new RealmMigration(realmId, "test", "other-node", false));
+              rows.write(List.of(SimpleStatement.newInstance("INSERT")));
+              legacyRealmIds.remove(realmId);
+            });
+    migration.setRenewInterval(0);
+
+    assertThrows(ModelIllegalStateException.class, () -> migration.ensureMigrated("realm"));
+    assertThat(legacyRealmIds, contains("realm"));
+    assertThat(migrations.migrations.get(List.of("realm", "test")).getOwner(), is("other-node"));
+  }
+
+  // a new instance per node
+  private OnlineRealmMigration migration() {
+    return new OnlineRealmMigration(
+        "test",
+        InMemoryRealmMigrations.dao(migrations),
+        legacyRealmIds::contains,
+        (realmId, rows) -> {
+          runs.incrementAndGet();
+          legacyRealmIds.remove(realmId);
+        });
+  }
+}
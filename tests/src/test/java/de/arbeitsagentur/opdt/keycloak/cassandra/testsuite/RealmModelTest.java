@@ -468,6 +468,46 @@ public class RealmModelTest extends KeycloakModelTest {
         });
   }
 
+  @Test
+  public void parsedAuthenticationFlowsAreSharedUntilChanged() {
+    String flowId =
+        withRealm(
+            realmId,
+            (s, realm) -> {
+              AuthenticationFlowModel flow = new AuthenticationFlowModel();
+              flow.setAlias("sharedFlow");
+              flow.setDescription("initial");
+              flow.setProviderId("basic-flow");
+
+              return realm.addAuthenticationFlow(flow).getId();
+            });
+
+    AuthenticationFlowModel first =
+        withRealm(realmId, (s, realm) -> realm.getAuthenticationFlowById(flowId));
+    AuthenticationFlowModel second =
+        withRealm(realmId, (s, realm) -> realm.getAuthenticationFlowById(flowId));
+    assertThat(second, sameInstance(first));
+
+    withRealm(
+        realmId,
+        (s, realm) -> {
+          AuthenticationFlowModel flow = new AuthenticationFlowModel();
+          flow.setId(flowId);
+          flow.setAlias("sharedFlow");
+          flow.setDescription("changed");
+          flow.setProviderId("basic-flow");
+          realm.updateAuthenticationFlow(flow);
+
+          assertThat(realm.getAuthenticationFlowById(flowId).getDescription(), is("changed"));
+          return null;
+        });
+
+    AuthenticationFlowModel afterUpdate =
+        withRealm(realmId, (s, realm) -> realm.getAuthenticationFlowById(flowId));
+    assertThat(afterUpdate.getDescription(), is("changed"));
+    assertThat(first.getDescription(), is("initial"));
+  }
+
   @Test
   public void testAuthenticatorExecutions() {
     String executionId =
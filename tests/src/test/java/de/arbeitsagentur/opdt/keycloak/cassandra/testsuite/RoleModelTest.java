@@ -20,11 +20,21 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
-
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import de.arbeitsagentur.opdt.keycloak.cassandra.role.persistence.entities.RoleValue;
+import de.arbeitsagentur.opdt.keycloak.cassandra.transaction.TransactionalModelAdapter;
+import de.arbeitsagentur.opdt.keycloak.common.ModelIllegalStateException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
@@ -35,6 +45,7 @@ import org.junit.Test;
 import org.keycloak.models.ClientModel;
 import org.keycloak.models.Constants;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.ModelDuplicateException;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.RoleModel;
 
@@ -377,6 +388,257 @@ public class RoleModelTest extends KeycloakModelTest {
         });
   }
 
+  @Test
+  public void testConcurrentRoleCreationIsMerged() {
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          session.roles().addRealmRole(realm, "concurrent-role-1");
+
+          // commits first, so that the outer transaction has to merge its changes
+          withRealm(
+              realmId,
+              (innerSession, innerRealm) -> {
+                innerSession.roles().addRealmRole(innerRealm, "concurrent-role-2");
+                innerSession
+                    .roles()
+                    .getRealmRole(innerRealm, "main-role")
+                    .setDescription("changed");
+                return null;
+              });
+          return null;
+        });
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          assertThat(session.roles().getRealmRole(realm, "concurrent-role-1"), notNullValue());
+          assertThat(session.roles().getRealmRole(realm, "concurrent-role-2"), notNullValue());
+          assertThat(
+              session.roles().getRealmRole(realm, "main-role").getDescription(), is("changed"));
+          return null;
+        });
+  }
+
+  @Test
+  public void testConcurrentChangesOfSameRoleAreMerged() {
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          session.roles().getRealmRole(realm, "main-role").setDescription("merged");
+
+          // commits first, so that the outer transaction has to merge its changes
+          withRealm(
+              realmId,
+              (innerSession, innerRealm) -> {
+                innerSession
+                    .roles()
+                    .getRealmRole(innerRealm, "main-role")
+                    .setSingleAttribute("concurrent", "value");
+                return null;
+              });
+          return null;
+        });
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          RoleModel role = session.roles().getRealmRole(realm, "main-role");
+          assertThat(role.getDescription(), is("merged"));
+          assertThat(role.getFirstAttribute("concurrent"), is("value"));
+          return null;
+        });
+  }
+
+  @Test
+  public void testConcurrentChangesOfSameFieldAreWonByLaterWrite() {
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          RoleModel role = session.roles().getRealmRole(realm, "main-role");
+          role.setDescription("later");
+          role.setSingleAttribute("kept", "value");
+
+          // commits first, the outer transaction writes the same field afterwards
+          withRealm(
+              realmId,
+              (innerSession, innerRealm) -> {
+                RoleModel innerRole = innerSession.roles().getRealmRole(innerRealm, "main-role");
+                innerRole.setDescription("earlier");
+                innerRole.addCompositeRole(innerRealm.addRole("merged-composite"));
+                return null;
+              });
+          return null;
+        });
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          RoleModel role = session.roles().getRealmRole(realm, "main-role");
+          assertThat(role.getDescription(), is("later"));
+          assertThat(role.getFirstAttribute("kept"), is("value"));
+          assertThat(
+              role.getCompositesStream().map(RoleModel::getName).collect(Collectors.toList()),
+              hasItem("merged-composite"));
+          return null;
+        });
+  }
+
+  @Test
+  public void testExplicitlyVersionedRoleChangeIsNotMerged() {
+    String staleVersion =
+        withRealm(
+            realmId,
+            (session, realm) ->
+                session
+                    .roles()
+                    .getRealmRole(realm, "main-role")
+                    .getFirstAttribute(TransactionalModelAdapter.ENTITY_VERSION));
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          session.roles().getRealmRole(realm, "main-role").setDescription("theirs");
+          return null;
+        });
+
+    // the caller's optimistic lock applies, the change is not merged into the newer version
+    assertThrows(
+        ModelIllegalStateException.class,
+        () ->
+            withRealm(
+                realmId,
+                (session, realm) -> {
+                  RoleModel role = session.roles().getRealmRole(realm, "main-role");
+                  role.setSingleAttribute(TransactionalModelAdapter.ENTITY_VERSION, staleVersion);
+                  role.setDescription("ours");
+                  return null;
+                }));
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          assertThat(
+              session.roles().getRealmRole(realm, "main-role").getDescription(), is("theirs"));
+          return null;
+        });
+  }
+
+  @Test
+  public void testConcurrentRoleCreationWithSameNameFails() {
+    boolean duplicateExceptionOccured = false;
+    try {
+      withRealm(
+          realmId,
+          (session, realm) -> {
+            session.roles().addRealmRole(realm, "concurrent-role");
+
+            withRealm(
+                realmId,
+                (innerSession, innerRealm) -> {
+                  innerSession.roles().addRealmRole(innerRealm, "concurrent-role");
+                  return null;
+                });
+            return null;
+          });
+    } catch (ModelDuplicateException e) {
+      duplicateExceptionOccured = true;
+    }
+
+    assertTrue(duplicateExceptionOccured);
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          assertThat(
+              session
+                  .roles()
+                  .searchForRolesStream(realm, "concurrent-role", null, null)
+                  .collect(Collectors.toList()),
+              hasSize(1));
+          return null;
+        });
+  }
+
+  @Test
+  public void testStaleRoleNameIsTakenOver() {
+    // left behind by a role which was removed without removing its name
+    executeCql(
+        "INSERT INTO name_to_role (realm_id, container_id, name, id) VALUES (?, ?, ?, ?)",
+        realmId,
+        realmId,
+        "stale-role",
+        "removed-role-id");
+
+    String roleId = withRealm(realmId, (session, realm) -> realm.addRole("stale-role").getId());
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          assertThat(realm.getRole("stale-role").getId(), is(roleId));
+          assertThrows(ModelDuplicateException.class, () -> realm.addRole("stale-role"));
+          return null;
+        });
+  }
+
+  @Test
+  public void testUnconfirmedRoleNameClaimIsNotTakenOver() {
+    // claimed by another node which did not write its role yet
+    executeCql(
+        "INSERT INTO name_to_role (realm_id, container_id, name, id) VALUES (?, ?, ?, ?)"
+            + " USING TTL 60",
+        realmId,
+        realmId,
+        "pending-role",
+        "pending-role-id");
+
+    assertThrows(
+        ModelDuplicateException.class,
+        () -> withRealm(realmId, (session, realm) -> realm.addRole("pending-role")));
+  }
+
+  @Test
+  public void testLegacyRolesAreMigrated() {
+    String legacyRealmId = "legacy-roles";
+    RoleValue realmRole = RoleValue.builder().id("legacy-realm-role").name("realm-role").build();
+    RoleValue clientRole = RoleValue.builder().id("legacy-client-role").name("client-role").build();
+
+    // written by an older version, all roles of the realm in one row
+    executeCql(
+        "INSERT INTO roles (realm_id, version, realm_roles, client_roles) VALUES (?, ?, ?, ?)",
+        legacyRealmId,
+        1L,
+        Set.of(toJson(realmRole)),
+        Map.of("legacy-client", Set.of(toJson(clientRole))));
+    inComittedTransaction(
+        session -> {
+          session.realms().createRealm(legacyRealmId, legacyRealmId);
+        });
+
+    try {
+      withRealm(
+          legacyRealmId,
+          (session, realm) -> {
+            assertThat(realm.getRole("realm-role").getId(), is("legacy-realm-role"));
+
+            RoleModel migratedClientRole = session.roles().getRoleById(realm, "legacy-client-role");
+            assertThat(migratedClientRole.getName(), is("client-role"));
+            assertThat(migratedClientRole.getContainerId(), is("legacy-client"));
+
+            assertThrows(ModelDuplicateException.class, () -> realm.addRole("realm-role"));
+            return null;
+          });
+
+      assertThat(
+          executeCql("SELECT realm_id FROM roles WHERE realm_id = ?", legacyRealmId).one(),
+          nullValue());
+    } finally {
+      inComittedTransaction(
+          session -> {
+            session.realms().removeRealm(legacyRealmId);
+          });
+    }
+  }
+
   public void testRolesWithIdsPaginationSearchQueries(GetResult resultProvider) {
     // test all parameters together
     List<RoleModel> result = resultProvider.getResult("1", 4, 3);
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+
+/** Reads within one session must see the writes of the same session despite the L1 cache. */
+public class SessionCacheTest extends KeycloakModelTest {
+  private String realmId;
+
+  @Override
+  public void createEnvironment(KeycloakSession s) {
+    RealmModel realm = createRealm(s, "session-cache");
+    realm.setDefaultRole(s.roles().addRealmRole(realm, "default-roles-session-cache"));
+    this.realmId = realm.getId();
+  }
+
+  @Override
+  public void cleanEnvironment(KeycloakSession s) {
+    s.realms().removeRealm(realmId);
+  }
+
+  @Test
+  public void userLookupsAndCountsFollowWritesOfSameSession() {
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          int count = session.users().getUsersCount(realm);
+          assertThat(session.users().getUserByUsername(realm, "cached-user"), nullValue());
+
+          UserModel user = session.users().addUser(realm, "cached-user");
+          assertThat(session.users().getUsersCount(realm), is(count + 1));
+          assertThat(session.users().getUserByUsername(realm, "cached-user"), notNullValue());
+          assertThat(session.users().getUserById(realm, user.getId()), notNullValue());
+
+          assertTrue(session.users().removeUser(realm, user));
+          assertThat(session.users().getUsersCount(realm), is(count));
+          assertThat(session.users().getUserByUsername(realm, "cached-user"), nullValue());
+          assertThat(session.users().getUserById(realm, user.getId()), nullValue());
+          return null;
+        });
+  }
+
+  @Test
+  public void clientLookupsAndCountsFollowWritesOfSameSession() {
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          long count = session.clients().getClientsCount(realm);
+          assertThat(session.clients().getClientByClientId(realm, "cached-client"), nullValue());
+
+          ClientModel client = session.clients().addClient(realm, "cached-client");
+          assertThat(session.clients().getClientsCount(realm), is(count + 1));
+          assertThat(
+              session.clients().getClientByClientId(realm, "cached-client").getId(),
+              is(client.getId()));
+
+          assertTrue(session.clients().removeClient(realm, client.getId()));
+          assertThat(session.clients().getClientsCount(realm), is(count));
+          assertThat(session.clients().getClientById(realm, client.getId()), nullValue());
+          return null;
+        });
+  }
+
+  @Test
+  public void removedRoleIsNotReturnedInSameSession() {
+    String roleId =
+        withRealm(
+            realmId,
+            (session, realm) -> session.roles().addRealmRole(realm, "cached-role").getId());
+
+    withRealm(
+        realmId,
+        (session, realm) -> {
+          RoleModel role = session.roles().getRealmRole(realm, "cached-role");
+          assertThat(role.getId(), is(roleId));
+          assertThat(session.roles().getRealmRolesStream(realm).count(), is(2L));
+
+          assertTrue(session.roles().removeRole(role));
+          assertThat(session.roles().getRealmRole(realm, "cached-role"), nullValue());
+          assertThat(session.roles().getRoleById(realm, roleId), nullValue());
+          assertThat(session.roles().getRealmRolesStream(realm).count(), is(1L));
+          return null;
+        });
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThrows;
+
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchType;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import de.arbeitsagentur.opdt.keycloak.cassandra.BaseDao;
+import de.arbeitsagentur.opdt.keycloak.cassandra.StatementGroupExecutor;
+import de.arbeitsagentur.opdt.keycloak.cassandra.StatementGroupExecutor.Mode;
+import de.arbeitsagentur.opdt.keycloak.cassandra.connection.ConfigValues;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.After;
+import org.junit.Test;
+
+public class StatementGroupExecutorTest {
+  private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void loggedBatchSendsGroupInOneBatch() {
+    RecordingDao dao = new RecordingDao(null);
+
+    new StatementGroupExecutor(Mode.LOGGED_BATCH, 8).execute(dao, statements(3));
+
+    assertThat(dao.executed, hasSize(1));
+    BatchStatement batch = (BatchStatement) dao.executed.get(0);
+    assertThat(batch.getBatchType(), is(BatchType.LOGGED));
+    assertThat(batch.size(), is(3));
+  }
+
+  @Test
+  public void loggedBatchRethrowsFailure() {
+    IllegalStateException failure = new IllegalStateException("failed");
+    RecordingDao dao = new RecordingDao(failure);
+
+    IllegalStateException thrown =
+        assertThrows(
+            IllegalStateException.class,
+            () -> new StatementGroupExecutor(Mode.LOGGED_BATCH, 8).execute(dao, statements(3)));
+
+    assertThat(thrown, sameInstance(failure));
+  }
+
+  @Test
+  public void singleStatementIsSentWithoutBatch() {
+    RecordingDao dao = new RecordingDao(null);
+
+    StatementGroupExecutor.loggedBatch().execute(dao, statements(1));
+
+    assertThat(dao.executed, hasSize(1));
+    assertThat(dao.executed.get(0), instanceOf(SimpleStatement.class));
+  }
+
+  @Test
+  public void asyncSendsAllStatementsWithBoundedConcurrency() {
+    RecordingDao dao = new RecordingDao(null);
+    List<SimpleStatement> statements = statements(20);
+
+    new StatementGroupExecutor(Mode.ASYNC, 3).execute(dao, statements);
+
+    assertThat(dao.executed, containsInAnyOrder(statements.toArray()));
+    assertThat(dao.maxInFlight.get(), allOf(greaterThan(0), lessThanOrEqualTo(3)));
+  }
+
+  @Test
+  public void asyncRethrowsFailureAfterAllLanesCompleted() {
+    IllegalStateException failure = new IllegalStateException("failed");
+    RecordingDao dao = new RecordingDao(failure);
+
+    IllegalStateException thrown =
+        assertThrows(
+            IllegalStateException.class,
+            () -> new StatementGroupExecutor(Mode.ASYNC, 2).execute(dao, statements(5)));
+
+    assertThat(thrown, sameInstance(failure));
+    assertThat(dao.inFlight.get(), is(0));
+  }
+
+  @Test
+  public void asyncRequiresConcurrencyOfAtLeastOne() {
+    assertThrows(IllegalArgumentException.class, () -> new StatementGroupExecutor(Mode.ASYNC, 0));
+  }
+
+  @Test
+  public void modeIsParsedCaseInsensitively() {
+    assertThat(ConfigValues.parseEnum(Mode.class, "userIndexWriteMode", "async"), is(Mode.ASYNC));
+    assertThat(
+        ConfigValues.parseEnum(Mode.class, "userIndexWriteMode", "logged-batch"),
+        is(Mode.LOGGED_BATCH));
+
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> ConfigValues.parseEnum(Mode.class, "userIndexWriteMode", "batch"));
+    assertThat(thrown.getMessage(), containsString("userIndexWriteMode"));
+    assertThat(thrown.getMessage(), containsString("LOGGED_BATCH"));
+  }
+
+  private static List<SimpleStatement> statements(int count) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> SimpleStatement.newInstance("INSERT INTO t (id) VALUES (" + i + ")"))
+        .collect(Collectors.toList());
+  }
+
+  /** Completes every statement asynchronously and fails all of them if a failure is given. */
+  private class RecordingDao implements BaseDao {
+    private final List<Statement<?>> executed = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final RuntimeException failure;
+
+    private RecordingDao(RuntimeException failure) {
+      this.failure = failure;
+    }
+
+    @Override
+    public CompletionStage<AsyncResultSet> executeStatementAsync(Statement<?> statement) {
+      executed.add(statement);
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+
+      CompletableFuture<AsyncResultSet> result = new CompletableFuture<>();
+      executor.schedule(
+          () -> {
+            inFlight.decrementAndGet();
+            if (failure == null) {
+              result.complete(null);
+            } else {
+              result.completeExceptionally(failure);
+            }
+          },
+          5,
+          TimeUnit.MILLISECONDS);
+      return result;
+    }
+  }
+}
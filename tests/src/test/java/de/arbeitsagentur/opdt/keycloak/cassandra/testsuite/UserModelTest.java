@@ -21,6 +21,8 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.CacheStatistics;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.KeycloakSessionCache;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.CassandraUserAdapter;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -783,6 +785,53 @@ public class UserModelTest extends KeycloakModelTest {
         });
   }
 
+  @Test
+  public void testSearchBySubstringAfterRename() {
+    withRealm(
+        originalRealmId,
+        (currentSession, realm) -> {
+          UserModel user = currentSession.users().addUser(realm, "alice-x");
+          user.setFirstName("Alice");
+          user.setLastName("Liddell");
+          user.setEmail("alice@wonderland.example");
+          currentSession.users().addUser(realm, "bob");
+          return null;
+        });
+
+    withRealm(
+        originalRealmId,
+        (currentSession, realm) -> {
+          Assert.assertThat(searchUsernames(currentSession, realm, "lic"), contains("alice-x"));
+          Assert.assertThat(searchUsernames(currentSession, realm, "ce-x"), contains("alice-x"));
+          Assert.assertThat(searchUsernames(currentSession, realm, "LIDD"), empty());
+          Assert.assertThat(searchUsernames(currentSession, realm, "Lidd"), contains("alice-x"));
+          Assert.assertThat(
+              searchUsernames(currentSession, realm, "wonderland"), contains("alice-x"));
+
+          currentSession.users().getUserByUsername(realm, "alice-x").setUsername("carol");
+          return null;
+        });
+
+    withRealm(
+        originalRealmId,
+        (currentSession, realm) -> {
+          Assert.assertThat(searchUsernames(currentSession, realm, "alic"), contains("carol"));
+          Assert.assertThat(searchUsernames(currentSession, realm, "aro"), contains("carol"));
+          Assert.assertThat(searchUsernames(currentSession, realm, "ce-x"), empty());
+          Assert.assertThat(searchUsernames(currentSession, realm, "bo"), contains("bob"));
+          return null;
+        });
+  }
+
+  private static List<String> searchUsernames(
+      KeycloakSession session, RealmModel realm, String search) {
+    return session
+        .users()
+        .searchForUserStream(realm, search, null, null)
+        .map(UserModel::getUsername)
+        .collect(Collectors.toList());
+  }
+
   @Test
   public void testSearchByParams() {
 
@@ -943,6 +992,61 @@ public class UserModelTest extends KeycloakModelTest {
         });
   }
 
+  @Test
+  public void testSearchIsScopedToRealmAndPaged() {
+    withRealm(
+        originalRealmId,
+        (currentSession, realm) -> {
+          RealmModel otherRealm = currentSession.realms().getRealmByName("other");
+          for (int i = 0; i < 5; i++) {
+            UserModel user = currentSession.users().addUser(realm, "paged-user" + i);
+            user.setSingleAttribute("indexed.department", i % 2 == 0 ? "even" : "odd");
+            user.setFirstName("first" + i);
+            currentSession.users().addUser(otherRealm, "paged-user" + i);
+          }
+
+          return null;
+        });
+
+    withRealm(
+        originalRealmId,
+        (currentSession, realm) -> {
+          Assert.assertThat(
+              currentSession
+                  .users()
+                  .searchForUserStream(realm, "paged-user", null, null)
+                  .collect(Collectors.toList()),
+              hasSize(5));
+          Assert.assertThat(
+              currentSession
+                  .users()
+                  .searchForUserStream(realm, "paged-user", 3, 5)
+                  .collect(Collectors.toList()),
+              hasSize(2));
+          Assert.assertThat(
+              currentSession
+                  .users()
+                  .searchForUserStream(realm, "paged-user", 0, 2)
+                  .map(UserModel::getUsername)
+                  .distinct()
+                  .collect(Collectors.toList()),
+              hasSize(2));
+
+          Map<String, String> params = new HashMap<>();
+          params.put("indexed.department", "even");
+          params.put(UserModel.FIRST_NAME, "first2");
+          params.put(UserModel.EXACT, "true");
+          Assert.assertThat(
+              currentSession
+                  .users()
+                  .searchForUserStream(realm, params, 0, 7)
+                  .map(UserModel::getUsername)
+                  .collect(Collectors.toList()),
+              contains("paged-user2"));
+          return null;
+        });
+  }
+
   @Test
   public void testSearchByUserAttribute() throws Exception {
 
@@ -1181,6 +1285,44 @@ public class UserModelTest extends KeycloakModelTest {
         });
   }
 
+  @Test
+  public void testUsersCountAfterAddAndRemove() {
+    withRealm(
+        realm1RealmId,
+        (currentSession, realm) -> {
+          Assert.assertThat(currentSession.users().getUsersCount(realm, true), equalTo(0));
+
+          ClientModel client = realm.addClient("counted");
+          currentSession.users().addUser(realm, "counted1");
+          currentSession.users().addUser(realm, "counted2");
+          currentSession
+              .users()
+              .addUser(realm, "counted3")
+              .setServiceAccountClientLink(client.getId());
+          return null;
+        });
+
+    withRealm(
+        realm1RealmId,
+        (currentSession, realm) -> {
+          Assert.assertThat(currentSession.users().getUsersCount(realm, true), equalTo(3));
+          Assert.assertThat(currentSession.users().getUsersCount(realm, false), equalTo(2));
+
+          currentSession
+              .users()
+              .removeUser(realm, currentSession.users().getUserByUsername(realm, "counted1"));
+          return null;
+        });
+
+    withRealm(
+        realm1RealmId,
+        (currentSession, realm) -> {
+          Assert.assertThat(currentSession.users().getUsersCount(realm, true), equalTo(2));
+          Assert.assertThat(currentSession.users().getUsersCount(realm, false), equalTo(1));
+          return null;
+        });
+  }
+
   @Test
   public void testUserNotBefore() throws Exception {
 
@@ -1214,6 +1356,52 @@ public class UserModelTest extends KeycloakModelTest {
         });
   }
 
+  private List<String> groupMemberNames(String groupId) {
+    return withRealm(
+        originalRealmId,
+        (session, realm) ->
+            session
+                .users()
+                .getGroupMembersStream(realm, session.groups().getGroupById(realm, groupId))
+                .map(UserModel::getUsername)
+                .collect(Collectors.toList()));
+  }
+
+  private List<String> roleMemberNames(String roleId) {
+    return withRealm(
+        originalRealmId,
+        (session, realm) ->
+            session
+                .users()
+                .getRoleMembersStream(realm, realm.getRoleById(roleId))
+                .map(UserModel::getUsername)
+                .collect(Collectors.toList()));
+  }
+
+  private int usersCount(String realmId, boolean includeServiceAccounts) {
+    return withRealm(
+        realmId, (session, realm) -> session.users().getUsersCount(realm, includeServiceAccounts));
+  }
+
+  // backfills run in the background, their completion is recorded in user_index_backfills
+  private boolean awaitIndexBackfill(String realmId, String name, long timeoutMillis)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (System.currentTimeMillis() < deadline) {
+      if (executeCql(
+                  "SELECT name FROM user_index_backfills WHERE realm_id = ? AND name = ?",
+                  realmId,
+                  name)
+              .one()
+          != null) {
+        return true;
+      }
+      Thread.sleep(100);
+    }
+
+    return false;
+  }
+
   private static void assertUserModel(UserModel expected, UserModel actual) {
     Assert.assertThat(actual.getUsername(), equalTo(expected.getUsername()));
     Assert.assertThat(actual.getCreatedTimestamp(), equalTo(expected.getCreatedTimestamp()));
@@ -1499,6 +1687,289 @@ public class UserModelTest extends KeycloakModelTest {
         });
   }
 
+  @Test
+  public void testGroupMembersAfterLeaveAndGroupRemoval() {
+    String groupId = groupIds.get(1);
+
+    withRealm(
+        originalRealmId,
+        (session, realm) -> {
+          GroupModel group = session.groups().getGroupById(realm, groupId);
+          session.users().addUser(realm, "member-1").joinGroup(group);
+          session.users().addUser(realm, "member-2").joinGroup(group);
+          session.users().addUser(realm, "member-3").joinGroup(group);
+          return null;
+        });
+
+    withRealm(
+        originalRealmId,
+        (session, realm) -> {
+          GroupModel group = session.groups().getGroupById(realm, groupId);
+          session.users().getUserByUsername(realm, "member-2").leaveGroup(group);
+          return null;
+        });
+
+    withRealm(
+        originalRealmId,
+        (session, realm) -> {
+          GroupModel group = session.groups().getGroupById(realm, groupId);
+          assertThat(
+              session
+                  .users()
+                  .getGroupMembersStream(realm, group)
+                  .map(UserModel::getUsername)
+                  .collect(Collectors.toList()),
+              containsInAnyOrder("member-1", "member-3"));
+          assertThat(session.users().getGroupMembersStream(realm, group, 1, 5).count(), is(1L));
+
+          session.groups().removeGroup(realm, group);
+          return null;
+        });
+
+    withRealm(
+        originalRealmId,
+        (session, realm) -> {
+          GroupModel group = session.groups().createGroup(realm, groupId, "recreated", null);
+          assertThat(
+              session.users().getGroupMembersStream(realm, group).collect(Collectors.toList()),
+              Matchers.empty());
+          return null;
+        });
+  }
+
+  @Test
+  public void testRoleMembersArePurgedAfterRoleRemoval() throws InterruptedException {
+    String roleId =
+        withRealm(
+            originalRealmId,
+            (session, realm) -> {
+              RoleModel role = realm.addRole("purged-role");
+              session.users().addUser(realm, "role-member-1").grantRole(role);
+              session.users().addUser(realm, "role-member-2").grantRole(role);
+              session.users().addUser(realm, "role-member-3").grantRole(role);
+              return role.getId();
+            });
+
+    withRealm(
+        originalRealmId,
+        (session, realm) -> {
+          RoleModel role = realm.getRoleById(roleId);
+          session.users().getUserByUsername(realm, "role-member-2").deleteRoleMapping(role);
+          return null;
+        });
+
+    withRealm(
+        originalRealmId,
+        (session, realm) -> {
+          RoleModel role = realm.getRoleById(roleId);
+          assertThat(
+              session
+                  .users()
+                  .getRoleMembersStream(realm, role)
+                  .map(UserModel::getUsername)
+                  .collect(Collectors.toList()),
+              containsInAnyOrder("role-member-1", "role-member-3"));
+          assertThat(session.users().getRoleMembersStream(realm, role, 1, 5).count(), is(1L));
+
+          realm.removeRole(role);
+          return null;
+        });
+
+    // a role with the same id must not inherit the mappings once the purge has finished
+    withRealm(
+        originalRealmId,
+        (session, realm) -> session.roles().addRealmRole(realm, roleId, "recreated-role"));
+
+    long deadline = System.currentTimeMillis() + 10000;
+    boolean purged = false;
+    while (!purged && System.currentTimeMillis() < deadline) {
+      purged =
+          withRealm(
+              originalRealmId,
+              (session, realm) -> {
+                RoleModel role = realm.getRoleById(roleId);
+                return session.users().getRoleMembersStream(realm, role).count() == 0
+                    && !session
+                        .users()
+                        .getUserByUsername(realm, "role-member-1")
+                        .hasDirectRole(role);
+              });
+      if (!purged) {
+        Thread.sleep(100);
+      }
+    }
+
+    assertTrue(purged);
+  }
+
+  @Test
+  public void testGroupMembersWrittenBeforeIndexAreBackfilled() throws InterruptedException {
+    String groupId = groupIds.get(2);
+    withRealm(
+        originalRealmId,
+        (session, realm) -> {
+          GroupModel group = session.groups().getGroupById(realm, groupId);
+          session.users().addUser(realm, "backfilled-1").joinGroup(group);
+          session.users().addUser(realm, "backfilled-2").joinGroup(group);
+          session.users().addUser(realm, "not-a-member");
+          return null;
+        });
+
+    // as if the users joined the group before the index existed
+    executeCql(
+        "DELETE FROM group_members WHERE realm_id = ? AND group_id = ?", originalRealmId, groupId);
+
+    // read from the users of the realm until the backfill completed
+    assertThat(groupMemberNames(groupId), containsInAnyOrder("backfilled-1", "backfilled-2"));
+    assertTrue(awaitIndexBackfill(originalRealmId, "groupMembers", 10000));
+
+    assertThat(
+        executeCql(
+                "SELECT user_id FROM group_members WHERE realm_id = ? AND group_id = ?",
+                originalRealmId,
+                groupId)
+            .all(),
+        hasSize(2));
+    assertThat(groupMemberNames(groupId), containsInAnyOrder("backfilled-1", "backfilled-2"));
+  }
+
+  @Test
+  public void testGroupMemberBackfillWaitsForLeaseOfOtherNode() throws InterruptedException {
+    String groupId = groupIds.get(3);
+    String leaseName = "groupMembers:" + originalRealmId;
+    executeCql(
+        "INSERT INTO user_job_leases (name, owner) VALUES (?, ?) USING TTL 60",
+        leaseName,
+        "other-node");
+
+    try {
+      withRealm(
+          originalRealmId,
+          (session, realm) -> {
+            GroupModel group = session.groups().getGroupById(realm, groupId);
+            session.users().addUser(realm, "leased-member").joinGroup(group);
+            return null;
+          });
+      executeCql(
+          "DELETE FROM group_members WHERE realm_id = ? AND group_id = ?",
+          originalRealmId,
+          groupId);
+
+      assertThat(groupMemberNames(groupId), contains("leased-member"));
+      assertFalse(awaitIndexBackfill(originalRealmId, "groupMembers", 1000));
+
+      // the members are still read from the users while the other node holds the lease
+      assertThat(
+          executeCql(
+                  "SELECT user_id FROM group_members WHERE realm_id = ? AND group_id = ?",
+                  originalRealmId,
+                  groupId)
+              .all(),
+          empty());
+      assertThat(groupMemberNames(groupId), contains("leased-member"));
+    } finally {
+      executeCql("DELETE FROM user_job_leases WHERE name = ?", leaseName);
+    }
+  }
+
+  @Test
+  public void testRoleMembersWrittenBeforeIndexAreBackfilled() throws InterruptedException {
+    String roleId =
+        withRealm(
+            originalRealmId,
+            (session, realm) -> {
+              RoleModel role = realm.addRole("backfilled-role");
+              session.users().addUser(realm, "role-backfilled-1").grantRole(role);
+              session.users().addUser(realm, "role-backfilled-2").grantRole(role);
+              return role.getId();
+            });
+
+    // as if the roles were granted before the index existed
+    executeCql(
+        "DELETE FROM role_members WHERE realm_id = ? AND role_id = ?", originalRealmId, roleId);
+
+    assertThat(
+        roleMemberNames(roleId), containsInAnyOrder("role-backfilled-1", "role-backfilled-2"));
+    assertTrue(awaitIndexBackfill(originalRealmId, "roleMembers", 10000));
+
+    assertThat(
+        executeCql(
+                "SELECT user_id FROM role_members WHERE realm_id = ? AND role_id = ?",
+                originalRealmId,
+                roleId)
+            .all(),
+        hasSize(2));
+    assertThat(
+        roleMemberNames(roleId), containsInAnyOrder("role-backfilled-1", "role-backfilled-2"));
+    withRealm(
+        originalRealmId,
+        (session, realm) -> {
+          assertThat(
+              session.users().getRoleMembersStream(realm, realm.getRoleById(roleId), 1, 5).count(),
+              is(1L));
+          return null;
+        });
+  }
+
+  @Test
+  public void testUsersCountIsSeededInBackground() throws InterruptedException {
+    withRealm(
+        originalRealmId,
+        (session, realm) -> {
+          ClientModel client = realm.addClient("seeded");
+          session.users().addUser(realm, "seeded-1");
+          session.users().addUser(realm, "seeded-2");
+          session.users().addUser(realm, "seeded-3").setServiceAccountClientLink(client.getId());
+          return null;
+        });
+
+    // counted from the users of the realm until the counters are seeded
+    assertThat(usersCount(originalRealmId, true), is(3));
+    assertThat(usersCount(originalRealmId, false), is(2));
+    assertTrue(awaitIndexBackfill(originalRealmId, "userCounts", 10000));
+
+    assertThat(usersCount(originalRealmId, true), is(3));
+    assertThat(usersCount(originalRealmId, false), is(2));
+
+    withRealm(originalRealmId, (session, realm) -> session.users().addUser(realm, "seeded-4"));
+    assertThat(usersCount(originalRealmId, true), is(4));
+    assertThat(usersCount(originalRealmId, false), is(3));
+  }
+
+  @Test
+  public void testUsersCountOfRealmCreatedAgainWithSameId() throws InterruptedException {
+    String realmId = "recreated-realm";
+    inComittedTransaction(
+        session -> {
+          RealmModel realm = session.realms().createRealm(realmId, realmId);
+          session.users().addUser(realm, "removed");
+        });
+    assertThat(usersCount(realmId, true), is(1));
+    assertTrue(awaitIndexBackfill(realmId, "userCounts", 10000));
+
+    inComittedTransaction(
+        session -> {
+          session.realms().removeRealm(realmId);
+        });
+
+    try {
+      inComittedTransaction(
+          session -> {
+            RealmModel realm = session.realms().createRealm(realmId, realmId);
+            session.users().addUser(realm, "imported");
+          });
+
+      assertThat(usersCount(realmId, true), is(1));
+      assertTrue(awaitIndexBackfill(realmId, "userCounts", 10000));
+      assertThat(usersCount(realmId, true), is(1));
+    } finally {
+      inComittedTransaction(
+          session -> {
+            session.realms().removeRealm(realmId);
+          });
+    }
+  }
+
   @Test
   public void testResolveNameConflict() {
     withRealm(
@@ -1787,4 +2258,49 @@ public class UserModelTest extends KeycloakModelTest {
           return null;
         });
   }
+
+  @Test
+  public void removedUserIsEvictedFromSessionCache() {
+    String userId =
+        withRealm(
+            originalRealmId,
+            (session, realm) -> {
+              session.users().addUser(realm, "other-user");
+              return session.users().addUser(realm, "user").getId();
+            });
+
+    withRealm(
+        originalRealmId,
+        (session, realm) -> {
+          UserModel user = session.users().getUserByUsername(realm, "user");
+          assertThat(session.users().getUserById(realm, userId), notNullValue());
+          assertThat(session.users().getUserByUsername(realm, "other-user"), notNullValue());
+
+          assertTrue(session.users().removeUser(realm, user));
+
+          assertThat(session.users().getUserByUsername(realm, "user"), nullValue());
+          assertThat(session.users().getUserById(realm, userId), nullValue());
+          assertThat(session.users().getUserByUsername(realm, "other-user"), notNullValue());
+          return null;
+        });
+  }
+
+  @Test
+  public void sessionCacheLookupsAreCounted() {
+    CacheStatistics statistics =
+        CacheStatistics.get(CacheStatistics.L1, KeycloakSessionCache.USER_CACHE);
+    long hits = statistics.getHits().sum();
+    long misses = statistics.getMisses().sum();
+
+    withRealm(
+        originalRealmId,
+        (session, realm) -> {
+          assertThat(session.users().getUserByUsername(realm, "unknown"), nullValue());
+          assertThat(session.users().getUserByUsername(realm, "unknown"), nullValue());
+          return null;
+        });
+
+    assertThat(statistics.getMisses().sum(), greaterThan(misses));
+    assertThat(statistics.getHits().sum(), greaterThan(hits));
+  }
 }
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2024 IT-Systemhaus der Bundesagentur fuer Arbeit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.arbeitsagentur.opdt.keycloak.cassandra.testsuite;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import com.datastax.oss.driver.api.core.PagingIterable;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import de.arbeitsagentur.opdt.keycloak.cassandra.StatementGroupExecutor;
+import de.arbeitsagentur.opdt.keycloak.cassandra.cache.NegativeLookupCache;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.CassandraUserRepository;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.UserDao;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.UserSearchNgrams;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.GroupMember;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.RealmToUserMapping;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.RoleMember;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.User;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.UserCount;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.UserIndexBackfill;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.UserJobLease;
+import de.arbeitsagentur.opdt.keycloak.cassandra.user.persistence.entities.UserSearchNgram;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class UserRepositoryTest {
+  private static final String REALM_ID = "realm";
+
+  private final Map<String, User> users = new LinkedHashMap<>();
+  private final List<GroupMember> groupMembers = new ArrayList<>();
+  private final List<RoleMember> roleMembers = new ArrayList<>();
+  private final Set<UserIndexBackfill> backfills = new HashSet<>();
+  private final Map<String, String> leases = new HashMap<>();
+  private final Map<BoundStatement, Runnable> statements = new IdentityHashMap<>();
+  private final List<Runnable> backgroundJobs = new ArrayList<>();
+  private final AtomicInteger indexRowsRead = new AtomicInteger();
+  private final Map<CompletableFuture<User>, String> pendingReads = new LinkedHashMap<>();
+  private boolean completeReadsLater;
+  private final List<UserSearchNgram> searchNgrams = new ArrayList<>();
+  private final Map<UserCount, Long> userCounts = new HashMap<>();
+  private final AtomicInteger realmScans = new AtomicInteger();
+  private Runnable concurrentWrite = () -> {};
+  private final CassandraUserRepository repository = repository(false);
+
+  @Test
+  public void groupMembersArePagedLazily() {
+    backfills.add(new UserIndexBackfill(REALM_ID, "groupMembers"));
+    for (int i = 0; i < 500; i++) {
+      String id = String.format("user-%03d", i);
+      addUser(id, "group");
+      groupMembers.add(new GroupMember(REALM_ID, "group", id));
+    }
+
+    assertThat(
+        ids(repository.findUsersByGroupId(REALM_ID, "group", 10, 5)),
+        contains("user-010", "user-011", "user-012", "user-013", "user-014"));
+    assertThat(indexRowsRead.get(), is(15));
+  }
+
+  @Test
+  public void roleMembersArePagedLazilyOnceBackfilled() {
+    for (int i = 0; i < 300; i++) {
+      addUser(String.format("user-%03d", i)).getRealmRoles().add("role");
+    }
+
+    assertThat(ids(repository.findUsersByRoleId(REALM_ID, "role", 298, 5)), hasSize(2));
+    runBackgroundJobs();
+    assertThat(backfills, contains(new UserIndexBackfill(REALM_ID, "roleMembers")));
+    assertThat(roleMembers, hasSize(300));
+
+    indexRowsRead.set(0);
+    assertThat(
+        ids(repository.findUsersByRoleId(REALM_ID, "role", 1, 2)),
+        contains("user-001", "user-002"));
+    assertThat(indexRowsRead.get(), is(3));
+  }
+
+  @Test
+  public void usersAreReadInBoundedChunks() {
+    for (int i = 0; i < 300; i++) {
+      addUser(String.format("user-%03d", i));
+    }
+    completeReadsLater = true;
+
+    List<User> realmUsers =
+        repository.findUsersByRealmId(REALM_ID, true).collect(Collectors.toList());
+
+    assertThat(realmUsers, hasSize(300));
+    assertThat(realmUsers.get(299).getId(), is("user-299"));
+    assertThat(pendingReads, anEmptyMap());
+  }
+
+  @Test
+  public void searchIndexIsUsedOnceBackfilled() {
+    CassandraUserRepository indexedRepository = repository(true);
+    addUser("a").setUsername("alice");
+    addUser("b").setUsername("bob");
+
+    assertThat(indexedRepository.isSearchIndexReady(REALM_ID), is(false));
+    runBackgroundJobs();
+
+    assertThat(indexedRepository.isSearchIndexReady(REALM_ID), is(true));
+    assertThat(
+        indexedRepository
+            .findUsersBySearchNgrams(REALM_ID, UserSearchNgrams.of("lic"))
+            .map(User::getId)
+            .collect(Collectors.toList()),
+        contains("a"));
+  }
+
+  @Test
+  public void disabledSearchIndexIsBackfilledAgainAfterWrites() {
+    backfills.add(new UserIndexBackfill(REALM_ID, "searchNgrams"));
+    backfills.add(new UserIndexBackfill(REALM_ID, "groupMembers"));
+
+    repository.insertOrUpdate(User.builder().realmId(REALM_ID).id("a").username("alice").build());
+
+    // users written now are missing in the index, so it has to be backfilled when enabled again
+    assertThat(backfills, contains(new UserIndexBackfill(REALM_ID, "groupMembers")));
+    assertThat(searchNgrams, empty());
+    assertThat(repository(true).isSearchIndexReady(REALM_ID), is(false));
+    assertThat(backgroundJobs, hasSize(1));
+  }
+
+  @Test
+  public void disabledSearchIndexIsNotReady() {
+    backfills.add(new UserIndexBackfill(REALM_ID, "searchNgrams"));
+
+    assertThat(repository.isSearchIndexReady(REALM_ID), is(false));
+    assertThat(backgroundJobs, empty());
+  }
+
+  @Test
+  public void userCountsAreSeededInBackgroundByOneScan() {
+    addUser("a");
+    addUser("b");
+    addUser("service-account").setServiceAccount(true);
+
+    assertThat(repository.countUsersByRealmId(REALM_ID, true), is(3L));
+    assertThat(repository.countUsersByRealmId(REALM_ID, false), is(2L));
+    assertThat(userCounts, anEmptyMap());
+
+    realmScans.set(0);
+    runBackgroundJobs();
+
+    assertThat(realmScans.get(), is(1));
+    assertThat(backfills, contains(new UserIndexBackfill(REALM_ID, "userCounts")));
+    assertThat(leases, anEmptyMap());
+
+    realmScans.set(0);
+    assertThat(repository.countUsersByRealmId(REALM_ID, true), is(3L));
+    assertThat(repository.countUsersByRealmId(REALM_ID, false), is(2L));
+    assertThat(realmScans.get(), is(0));
+  }
+
+  @Test
+  public void userCountsOfBusyRealmAreSeededByLastAttempt() {
+    repository.setBackfillRetryMillis(0);
+    addUser("a");
+    concurrentWrite = () -> increment(false, 1, 1);
+
+    for (int attempt = 1; attempt < 5; attempt++) {
+      repository.countUsersByRealmId(REALM_ID, true);
+      runBackgroundJobs();
+      assertThat(backfills, empty());
+    }
+
+    // the last attempt seeds the counters regardless of concurrent writes
+    repository.countUsersByRealmId(REALM_ID, true);
+    runBackgroundJobs();
+
+    assertThat(backfills, contains(new UserIndexBackfill(REALM_ID, "userCounts")));
+    assertThat(leases, anEmptyMap());
+    // off by the concurrent write during the last attempt
+    assertThat(repository.countUsersByRealmId(REALM_ID, true), is(2L));
+  }
+
+  private void increment(boolean serviceAccount, int shard, long delta) {
+    userCounts.merge(new UserCount(REALM_ID, serviceAccount, shard, 0), delta, Long::sum);
+  }
+
+  private CassandraUserRepository repository(boolean searchIndexEnabled) {
+    return new CassandraUserRepository(
+        dao(),
+        new NegativeLookupCache(100, 60_000),
+        new StatementGroupExecutor(StatementGroupExecutor.Mode.ASYNC, 4),
+        backgroundJobs::add,
+        searchIndexEnabled);
+  }
+
+  private User addUser(String id, String... groups) {
+    User user =
+        User.builder()
+            .realmId(REALM_ID)
+            .id(id)
+            .version(1L)
+            .groupsMembership(new HashSet<>(List.of(groups)))
+            .build();
+    users.put(id, user);
+    return user;
+  }
+
+  private void runBackgroundJobs() {
+    List<Runnable> jobs = new ArrayList<>(backgroundJobs);
+    backgroundJobs.clear();
+    jobs.forEach(Runnable::run);
+  }
+
+  private static List<String> ids(List<User> users) {
+    return users.stream().map(User::getId).collect(Collectors.toList());
+  }
+
+  private UserDao dao() {
+    return (UserDao)
+        Proxy.newProxyInstance(
+            UserDao.class.getClassLoader(),
+            new Class[] {UserDao.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "findUsersByRealmId":
+                case "findNonServiceAccountUsersByRealmId":
+                  realmScans.incrementAndGet();
+                  concurrentWrite.run();
+                  return pagingIterable(
+                      users.values().stream()
+                          .filter(
+                              user ->
+                                  method.getName().equals("findUsersByRealmId")
+                                      || !user.isServiceAccount())
+                          .map(
+                              user ->
+                                  new RealmToUserMapping(
+                                      REALM_ID, user.isServiceAccount(), user.getId()))
+                          .collect(Collectors.toList()));
+                case "findById":
+                  User stored = users.get((String) args[1]);
+                  return stored == null ? null : stored.toBuilder().build();
+                case "update":
+                  User updated = (User) args[0];
+                  boolean applied = users.get(updated.getId()).getVersion().equals(args[1]);
+                  if (applied) {
+                    users.put(updated.getId(), updated);
+                  }
+                  return FakeDriverResults.resultSet(applied);
+                case "findByIdAsync":
+                  if (!completeReadsLater) {
+                    return CompletableFuture.completedFuture(users.get((String) args[1]));
+                  }
+
+                  CompletableFuture<User> read = new CompletableFuture<>();
+                  pendingReads.put(read, (String) args[1]);
+                  assertThat(pendingReads.size(), lessThanOrEqualTo(100));
+                  if (pendingReads.size() == 100) {
+                    // completes the reads of a full chunk, only then the next chunk may be sent
+                    pendingReads.forEach((pending, id) -> pending.complete(users.get(id)));
+                    pendingReads.clear();
+                  }
+                  return read;
+                case "findGroupMembers":
+                  return pagingIterable(
+                      groupMembers.stream()
+                          .filter(member -> member.getGroupId().equals(args[1]))
+                          .collect(Collectors.toList()));
+                case "findRoleMembers":
+                  return pagingIterable(
+                      roleMembers.stream()
+                          .filter(member -> member.getRoleId().equals(args[1]))
+                          .collect(Collectors.toList()));
+                case "deleteRoleMembers":
+                  roleMembers.removeIf(member -> member.getRoleId().equals(args[1]));
+                  return null;
+                case "findSearchNgrams":
+                  return pagingIterable(
+                      searchNgrams.stream()
+                          .filter(posting -> posting.getNgram().equals(args[1]))
+                          .collect(Collectors.toList()));
+                case "insertStatement":
+                  if (args[0] instanceof RoleMember) {
+                    return statement(() -> roleMembers.add((RoleMember) args[0]));
+                  } else if (args[0] instanceof GroupMember) {
+                    return statement(() -> groupMembers.add((GroupMember) args[0]));
+                  } else if (args[0] instanceof UserSearchNgram) {
+                    return statement(() -> searchNgrams.add((UserSearchNgram) args[0]));
+                  }
+                  // rows of the other indexes are not read by these tests
+                  return statement(() -> {});
+                case "incrementUserCount":
+                  increment((Boolean) args[1], (Integer) args[2], (Long) args[3]);
+                  return null;
+                case "findUserCounts":
+                  return pagingIterable(
+                      userCounts.entrySet().stream()
+                          .map(
+                              entry ->
+                                  new UserCount(
+                                      REALM_ID,
+                                      entry.getKey().isServiceAccount(),
+                                      entry.getKey().getShard(),
+                                      entry.getValue()))
+                          .collect(Collectors.toList()));
+                case "deleteIndexBackfills":
+                  backfills.removeIf(backfill -> backfill.getRealmId().equals(args[0]));
+                  return null;
+                case "executeStatementAsync":
+                  statements.remove(args[0]).run();
+                  return CompletableFuture.completedFuture(null);
+                case "findIndexBackfill":
+                  UserIndexBackfill backfill =
+                      new UserIndexBackfill((String) args[0], (String) args[1]);
+                  return backfills.contains(backfill) ? backfill : null;
+                case "insert":
+                  if (args[0] instanceof User) {
+                    User inserted = (User) args[0];
+                    return users.putIfAbsent(inserted.getId(), inserted) == null;
+                  }
+                  backfills.add((UserIndexBackfill) args[0]);
+                  return null;
+                case "deleteIndexBackfill":
+                  backfills.remove(new UserIndexBackfill((String) args[0], (String) args[1]));
+                  return null;
+                case "acquireLease":
+                  UserJobLease lease = (UserJobLease) args[0];
+                  return leases.putIfAbsent(lease.getName(), lease.getOwner()) == null;
+                case "renewLease":
+                  return args[2].equals(leases.get((String) args[0]));
+                case "releaseLease":
+                  return leases.remove((String) args[0], args[1]);
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  private BoundStatement statement(Runnable mutation) {
+    BoundStatement statement = FakeDriverResults.boundStatement();
+    statements.put(statement, mutation);
+    return statement;
+  }
+
+  private <T> PagingIterable<T> pagingIterable(List<T> rows) {
+    return FakeDriverResults.pagingIterable(rows, indexRowsRead);
+  }
+}
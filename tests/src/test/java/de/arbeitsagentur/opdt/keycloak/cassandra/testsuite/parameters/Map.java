@@ -28,8 +28,8 @@ import de.arbeitsagentur.opdt.keycloak.cassandra.testsuite.Config;
 import de.arbeitsagentur.opdt.keycloak.cassandra.testsuite.KeycloakModelParameters;
 import de.arbeitsagentur.opdt.keycloak.cassandra.user.CassandraUserProviderFactory;
 import de.arbeitsagentur.opdt.keycloak.cassandra.userSession.CassandraUserSessionProviderFactory;
+import de.arbeitsagentur.opdt.keycloak.compatibility.CachingPublicKeyStorageProviderFactory;
 import de.arbeitsagentur.opdt.keycloak.compatibility.HardcodedDeploymentStateProviderFactory;
-import de.arbeitsagentur.opdt.keycloak.compatibility.TransientPublicKeyStorageProviderFactory;
 import java.util.Set;
 import org.keycloak.credential.CredentialSpi;
 import org.keycloak.credential.OTPCredentialProviderFactory;
@@ -90,7 +90,7 @@ public class Map extends KeycloakModelParameters {
           .add(CassandraUserSessionProviderFactory.class)
           .add(CassandraLoginFailureProviderFactory.class)
           .add(SingleUseObjectProviderFactory.class)
-          .add(TransientPublicKeyStorageProviderFactory.class)
+          .add(CachingPublicKeyStorageProviderFactory.class)
           .add(DefaultClientPolicyManagerFactory.class)
           .add(GeneratedAesKeyProviderFactory.class)
           .add(GeneratedHmacKeyProviderFactory.class)